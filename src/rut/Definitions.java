@@ -49,6 +49,63 @@ public class Definitions {
 	 */
 	public static HashSet<String> keywords;
 	
+	/* True to keep the children of every node in order of their names, numbers by their value, see Node. */
+	public static boolean orderedChildren;
+	
+	/* The storage engine the database is kept in, see StorageEngineFactory. */
+	public static String storageEngine;
+	
+	/* The format master.database is written in: text or binary. Either format can be read. */
+	public static String snapshotFormat;
+	
+	/* True to keep the database in one segment file per top-level branch, rather than in master.database alone. */
+	public static boolean snapshotSegmented;
+	
+	/* True to read only the root segment on startup and load each top-level branch when it is first reached. */
+	public static boolean segmentLazyLoading;
+	
+	/* The most top-level branches kept loaded when segments are loaded lazily, 0 for no limit. */
+	public static int segmentCacheSize;
+	
+	/* The fraction of the heap in use above which loaded branches are unloaded, 0 for none. */
+	public static double segmentHeapThreshold;
+	
+	/* True to keep the top-level branches that are not in use outside the heap, in a node arena. */
+	public static boolean nodeArena;
+	
+	/* True to keep the top-level branches that are not in use column-wise when they are record sets, and in a node arena otherwise. */
+	public static boolean columnStore;
+	
+	/* True to read only the nodes above the top-level branches from the LSM storage engine on startup. */
+	public static boolean lsmLazyLoading;
+	
+	/* The LSM storage engine merges its sorted runs once there are this many, 0 to never merge. */
+	public static int lsmCompactionRuns;
+	
+	/* The number of threads the LSM storage engine merges sorted runs on. */
+	public static int lsmCompactionThreads;
+	
+	/* True to serve the page file of the pages storage engine read-only, loading each top-level branch when it is first reached. */
+	public static boolean pagesReadOnly;
+	
+	/* When the write-ahead log is forced to the disk: sync-per-statement, group or async. */
+	public static String logSyncMode;
+	
+	/* In group mode, the longest a group commit waits for more statements to join it. */
+	public static long logGroupDelayMicros;
+	
+	/* In async mode, how often the write-ahead log is forced to the disk. */
+	public static long logAsyncIntervalMillis;
+	
+	/* A checkpoint is taken once the write-ahead log reaches this many bytes. */
+	public static long checkpointLogBytes;
+	
+	/* A checkpoint is taken once this many mutations have been logged. */
+	public static long checkpointMutations;
+	
+	/* A checkpoint is taken once this many milliseconds have passed since the last one. */
+	public static long checkpointIntervalMillis;
+	
 	static {
 
 		/* Set static variables */
@@ -74,7 +131,7 @@ public class Definitions {
 		requiredArgument.add("delete");
 		requiredArgument.add("rename");
 
-		String[] ruleNames = new String[] { "type", "max", "min", "required", "key", "unique" };
+		String[] ruleNames = new String[] { "type", "max", "min", "required", "key", "unique", "index" };
 
 		nodeRuleNames = new HashSet<String>(Arrays.asList(ruleNames));
 
@@ -87,6 +144,7 @@ public class Definitions {
 		nodeRuleDefaultValues.put("key", "false");
 		nodeRuleDefaultValues.put("type", "text");
 		nodeRuleDefaultValues.put("unique", "false");
+		nodeRuleDefaultValues.put("index", "false");
 		
 		reservedWords = new HashSet<String>();
 		reservedWords.addAll(operations.keySet());
@@ -103,8 +161,46 @@ public class Definitions {
 		dataFormats.add("XML");
 		dataFormats.add("JSON");
 		
-		String[] keywordsList = new String[] { "Root", "Child", "Times", "Newid", "FirstNameMale", "FirstNameFemale", "LastName", "Time", "Date", "Integer", "Decimal", "Text", "Boolean"};
+		String[] keywordsList = new String[] { "Root", "Child", "Times", "Range", "Newid", "FirstNameMale", "FirstNameFemale", "LastName", "Time", "Date", "Integer", "Decimal", "Text", "Boolean"};
 
 		keywords = new HashSet<String>(Arrays.asList(keywordsList));	
+		
+		orderedChildren = false;
+		
+		storageEngine = "disk";
+		
+		snapshotFormat = "text";
+		
+		snapshotSegmented = false;
+		
+		segmentLazyLoading = false;
+		
+		segmentCacheSize = 0;
+		
+		segmentHeapThreshold = 0.8;
+		
+		nodeArena = false;
+		
+		columnStore = false;
+		
+		lsmLazyLoading = false;
+		
+		lsmCompactionRuns = 4;
+		
+		lsmCompactionThreads = 1;
+		
+		pagesReadOnly = false;
+		
+		logSyncMode = "group";
+		
+		logGroupDelayMicros = 500;
+		
+		logAsyncIntervalMillis = 1000;
+		
+		checkpointLogBytes = 64L * 1024 * 1024;
+		
+		checkpointMutations = 1000000;
+		
+		checkpointIntervalMillis = 5 * 60 * 1000;
 	}
 }
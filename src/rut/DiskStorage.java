@@ -15,12 +15,37 @@ limitations under the License.
 -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
 
 The Disk Storage object stores and retrieves the database to and from permanent storage.
+It is the "disk" storage engine, see StorageEngine.
 The public methods offered by a DiskStorage object are:
 
 * ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> readDataMapFromDisk() 
+* void attach(MemoryStorage memory)
 * void writeDataMapToDisk(ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap)
+* long writeMutationsToLog(ArrayList<Mutation> mutations)
+* void waitForLog(long logPosition)
+* void checkpoint(MemoryStorage memory)
+* void close()
 
 The database is stored in a file called master.database.
+master.database is either in the text format described below or in the binary
+format described in BinarySnapshot. The format is detected when the file is read.
+Text files are read in parallel by TextSnapshot.
+The database can instead be kept in segments, one file per top-level branch, so
+that a checkpoint only rewrites the branches that changed, see SegmentStore.
+Segments can be loaded lazily, each branch being read when it is first reached,
+see SegmentCache.
+Snapshots are written in checksummed blocks to a temporary file, forced to the
+disk and renamed over master.database, so a crash never leaves a partly written
+master.database behind. The block checksums are verified when the file is read.
+The changes made since master.database was last written are appended to the
+write-ahead log master.database.log, which is replayed on top of master.database
+when the database is read into memory.
+A checkpoint writes a fresh master.database in the background and starts a new
+write-ahead log. While a checkpoint runs, the log it covers is kept in
+master.database.log.checkpoint and the new snapshot is written to
+master.database.checkpoint, which is renamed over master.database once complete.
+When the write-ahead log is forced to the disk is decided by the sync mode, see
+GroupCommit.
 
 The master.database format is as follows:
 Each line in the master.database file represents a SINGLE node.
@@ -33,13 +58,26 @@ The ':' mark should not be missing on a line, even if no value is defined.
 */
 package rut;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Scanner;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rut.storage.AtomicFiles;
+import rut.storage.BinarySnapshot;
+import rut.storage.GroupCommit;
+import rut.storage.Mutation;
+import rut.storage.SegmentCache;
+import rut.storage.SegmentStore;
+import rut.storage.StorageEngine;
+import rut.storage.TextSnapshot;
+import rut.storage.WriteAheadLog;
 
 /**
  * 
@@ -47,22 +85,191 @@ import java.util.concurrent.ConcurrentHashMap;
  * @version dev 0.2
  *
  */
-public class DiskStorage {
+public class DiskStorage implements StorageEngine {
 
 	private String storageFileName;
 
+	private WriteAheadLog log;
+
+	private GroupCommit groupCommit;
+
+	/* The format snapshots are written in, text or binary */
+	private String snapshotFormat;
+
+	/* The segments the database is kept in when it is segmented */
+	private SegmentStore segments;
+
+	/* True to keep the database in segments rather than in master.database */
+	private boolean segmented;
+
+	/* True to load the segments of the top-level branches when they are first reached */
+	private boolean lazyLoading;
+
+	/* The most branches kept loaded when loading lazily, 0 for no limit */
+	private int segmentCacheSize;
+
+	/* The fraction of the heap in use above which loaded branches are unloaded */
+	private double segmentHeapThreshold;
+
+	/* Loads the branches left on disk, when the segments were read lazily */
+	private SegmentCache segmentCache;
+
+	/* The snapshot being written by writeDataMapToDisk */
+	private String tempFileName;
+
+	/* The snapshot being written by a checkpoint */
+	private String checkpointFileName;
+
+	/* The segment manifest being written by a checkpoint */
+	private String segmentCheckpointFileName;
+
+	/* The log covered by the checkpoint that is being written */
+	private String checkpointLogFileName;
+
+	private AtomicLong mutationsSinceCheckpoint;
+
+	private volatile long lastCheckpointTime;
+
 	/**
-	 * Construct a DiskStorage object.
+	 * Construct a DiskStorage object with the default sync mode.
 	 * 
 	 * @param storageFileName full path of the database storage file
 	 */
 	public DiskStorage(String storageFileName) {
+		this(storageFileName, Definitions.logSyncMode, Definitions.logGroupDelayMicros,
+				Definitions.logAsyncIntervalMillis);
+	}
+
+	/**
+	 * Construct a DiskStorage object.
+	 * 
+	 * @param storageFileName     full path of the database storage file
+	 * @param syncMode            sync-per-statement, group or async
+	 * @param groupDelayMicros    the longest a group commit waits for more
+	 *                            statements
+	 * @param asyncIntervalMillis how often the log is forced in async mode
+	 */
+	public DiskStorage(String storageFileName, String syncMode, long groupDelayMicros, long asyncIntervalMillis) {
 		this.storageFileName = storageFileName;
+		this.log = new WriteAheadLog(storageFileName + ".log");
+		this.groupCommit = new GroupCommit(this.log, syncMode, groupDelayMicros, asyncIntervalMillis);
+		this.groupCommit.start();
+		this.segments = new SegmentStore(storageFileName + ".segments");
+		this.setSnapshotFormat(Definitions.snapshotFormat);
+		this.segmented = Definitions.snapshotSegmented;
+		this.lazyLoading = Definitions.segmentLazyLoading;
+		this.segmentCacheSize = Definitions.segmentCacheSize;
+		this.segmentHeapThreshold = Definitions.segmentHeapThreshold;
+		this.tempFileName = storageFileName + ".tmp";
+		this.checkpointFileName = storageFileName + ".checkpoint";
+		this.segmentCheckpointFileName = this.segments.getManifestFileName() + ".checkpoint";
+		this.checkpointLogFileName = storageFileName + ".log.checkpoint";
+		this.mutationsSinceCheckpoint = new AtomicLong();
+		this.lastCheckpointTime = System.currentTimeMillis();
+
+	}
+
+	public long getLogLength() {
+		return this.log.getLength();
+	}
+
+	public long getMutationsSinceCheckpoint() {
+		return this.mutationsSinceCheckpoint.get();
+	}
+
+	public long getLastCheckpointTime() {
+		return this.lastCheckpointTime;
+	}
+
+	public String getSnapshotFormat() {
+		return this.snapshotFormat;
+	}
+
+	/**
+	 * Sets the format that snapshots are written in from now on.
+	 * 
+	 * @param snapshotFormat text or binary
+	 */
+	public void setSnapshotFormat(String snapshotFormat) {
+
+		if (!snapshotFormat.equals("text") && !snapshotFormat.equals("binary")) {
+			throw new IllegalArgumentException("Unknown snapshot format " + snapshotFormat + ".");
+		}
+
+		this.snapshotFormat = snapshotFormat;
+		this.segments.setSnapshotFormat(snapshotFormat);
+	}
+
+	public boolean getSegmented() {
+		return this.segmented;
+	}
+
+	/**
+	 * Sets whether the database is kept in segments, one file per top-level
+	 * branch, rather than in master.database. A database read in the other layout
+	 * is moved to this one as soon as it is read.
+	 * 
+	 * @param segmented true for segments, false for master.database
+	 */
+	public void setSegmented(boolean segmented) {
+		this.segmented = segmented;
+	}
+
+	/**
+	 * Returns true if the database on disk is kept in segments.
+	 * 
+	 * @return true if the segment manifest exists
+	 */
+	public boolean isSegmentedOnDisk() {
+		return this.segments.exists();
+	}
+
+	public boolean getLazyLoading() {
+		return this.lazyLoading;
+	}
+
+	/**
+	 * Sets whether a segmented database is read lazily: only the root segment is
+	 * read by readDataMapFromDisk, and each top-level branch is read when it is
+	 * first reached. Takes effect the next time the database is read.
+	 * 
+	 * @param lazyLoading   true to load branches when they are first reached
+	 * @param cacheSize     the most branches kept loaded, 0 for no limit
+	 * @param heapThreshold the fraction of the heap in use above which loaded
+	 *                      branches are unloaded, 0 for none
+	 */
+	public void setLazyLoading(boolean lazyLoading, int cacheSize, double heapThreshold) {
+		this.lazyLoading = lazyLoading;
+		this.segmentCacheSize = cacheSize;
+		this.segmentHeapThreshold = heapThreshold;
+	}
+
+	/**
+	 * Attaches the SegmentCache that loads the branches left on disk to the
+	 * MemoryStorage of the database, when the segments were read lazily.
+	 * 
+	 * @param memory the MemoryStorage attached to the database
+	 */
+	public void attach(MemoryStorage memory) {
+		memory.setSegmentCache(this.segmentCache);
+	}
 
+	public String getDurabilityStatistics() {
+		return this.groupCommit.getStatistics();
+	}
+
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	public String getUidMarkFileName() {
+		return this.storageFileName + ".newid";
 	}
 
 	/**
-	 * Reads the database into memory from disk storage.
+	 * Reads the database into memory from disk storage. master.database may be in
+	 * either the text or the binary format, or the database may be kept in
+	 * segments.
 	 * 
 	 * The dataMap is where the database lives in memory. All CRUD operations and
 	 * searches are performed on the dataMap. Each node links to its children and
@@ -71,73 +278,95 @@ public class DiskStorage {
 	 * @return
 	 */
 	public ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> readDataMapFromDisk() {
-		String masterFileRow;
-		String nodeValue;
-		String fullNodeName;
-		Node dataMapNode;
 
-		ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Node>>();
-		ConcurrentHashMap<String, Node> rootRecord = new ConcurrentHashMap<String, Node>();
-
-		rootRecord.put("", new Node());
-		dataMap.put("", rootRecord);
-		MemoryStorage memory = new MemoryStorage(dataMap);
+		MemoryStorage memory = null;
+		boolean segmentedOnDisk = this.segments.exists();
 
 		try {
-			File file = new File(this.storageFileName);
 
-			Scanner masterFile = new Scanner(file);
+			if (segmentedOnDisk && this.segmented && this.lazyLoading) {
 
-			while (masterFile.hasNext()) {
+				memory = this.readSegmentsLazily();
 
-				masterFileRow = masterFile.nextLine();
+			} else if (segmentedOnDisk) {
 
-				/* Data Map logic added below */
-				dataMapNode = new Node();
+				memory = new MemoryStorage(this.segments.read());
 
-				fullNodeName = masterFileRow.split(":", 2)[0];
+			} else if (BinarySnapshot.isBinarySnapshot(this.storageFileName)) {
 
-				if (masterFileRow.split(":", 2).length == 2) {
-					nodeValue = masterFileRow.split(":", 2)[1];
-				} else {
-					nodeValue = "";
-				}
+				memory = new MemoryStorage(BinarySnapshot.read(this.storageFileName));
 
-				dataMapNode.setValue(nodeValue);
-
-				memory.addDataMap(dataMapNode, fullNodeName);
+			} else {
 
+				memory = new MemoryStorage(TextSnapshot.read(this.storageFileName));
 			}
 
-			masterFile.close();
-
 		} catch (FileNotFoundException e) {
 			System.out.println("Could not find the master database file \"" + this.storageFileName + "\".\n"
 					+ "This file is required for Rut Database Server to run. Exiting...");
 			System.exit(1);
+		} catch (IOException e) {
+			System.out.println("Could not read the master database file \"" + this.storageFileName + "\".\n"
+					+ e.getMessage() + " Exiting...");
+			System.exit(1);
 		}
 
-		// memory.initDataMapChildLinks();
+		this.recoverCheckpoint(memory);
+
+		/* The replayed mutations are still only in the log, until the next checkpoint */
+		this.mutationsSinceCheckpoint.set(this.replayLog(memory, this.log));
+
+		/* A database read in the other layout is moved to this one right away */
+		if (segmentedOnDisk != this.segmented) {
+			this.writeDataMapToDisk(memory.getDataMap());
+		}
 
 		return memory.getDataMap();
 	}
 
 	/**
 	 * * Replaces the master.database file entirely. All nodes and node rules are
-	 * presently written to this file.
+	 * presently written to this file. The new snapshot is written to a temporary
+	 * file and renamed over master.database, so a crash leaves either the old or
+	 * the new snapshot in place. When the database is segmented, only the dirty
+	 * segments are written instead.
 	 * 
 	 * @param dataMap
 	 */
-	public void writeDataMapToDisk(ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap) {
+	public synchronized void writeDataMapToDisk(ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap) {
 
 		MemoryStorage memory = new MemoryStorage(dataMap);
-		String fileText = memory.dumpDataMap();
 
 		try {
 
-			BufferedWriter fileWriter = new BufferedWriter(new FileWriter(this.storageFileName));
-			fileWriter.write(fileText);
-			fileWriter.close();
+			if (this.segmented) {
+
+				String manifestTempFileName = this.segments.getManifestFileName() + ".tmp";
+
+				this.segments.writeSegments(this.segments.captureDirtySegments(memory), manifestTempFileName);
+				this.replaceSnapshot(manifestTempFileName, this.segments.getManifestFileName());
+				this.segments.commit();
+
+			} else {
+
+				if (this.snapshotFormat.equals("binary")) {
+					BinarySnapshot.write(memory.getRootNode(), this.tempFileName);
+				} else {
+					TextSnapshot.write(memory.dumpDataMap(), this.tempFileName);
+				}
+
+				this.replaceSnapshot(this.tempFileName, this.storageFileName);
+
+				/* master.database holds the whole database again */
+				if (this.segments.exists()) {
+					this.segments.delete();
+				}
+			}
+
+			/* Every logged mutation is now part of master.database */
+			this.log.truncate();
+			this.mutationsSinceCheckpoint.set(0);
+			this.lastCheckpointTime = System.currentTimeMillis();
 
 		} catch (IOException e) {
 
@@ -148,4 +377,269 @@ public class DiskStorage {
 		}
 	}
 
+	/**
+	 * Appends the mutations of a statement to the write-ahead log. This is how
+	 * changes are saved after each statement, master.database itself is only
+	 * rewritten by writeDataMapToDisk. The changes are not durable until
+	 * waitForLog returns.
+	 * 
+	 * @param mutations the mutations to save, in the order they were made
+	 * @return the log position to pass to waitForLog
+	 */
+	public long writeMutationsToLog(ArrayList<Mutation> mutations) {
+
+		long logPosition = 0;
+
+		try {
+
+			logPosition = this.log.append(mutations);
+			this.mutationsSinceCheckpoint.addAndGet(mutations.size());
+
+			this.markDirty(mutations);
+
+		} catch (IOException e) {
+
+			System.out.println("Could not write to the log file \"" + this.log.getLogFileName() + "\".\n"
+					+ "Access to this file is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		}
+
+		return logPosition;
+	}
+
+	/**
+	 * Records the segments changed by mutations that are saved without going
+	 * through the write-ahead log, e.g. by a script, so that the next write of the
+	 * database includes them.
+	 * 
+	 * @param mutations the mutations made
+	 */
+	public void markDirty(ArrayList<Mutation> mutations) {
+
+		for (Mutation mutation : mutations) {
+			this.segments.markDirty(mutation);
+		}
+	}
+
+	/**
+	 * Waits until the log is durable up to logPosition, as far as the sync mode
+	 * requires. Statements that wait at the same time share a single force of the
+	 * log in group mode.
+	 * 
+	 * @param logPosition the position returned by writeMutationsToLog
+	 */
+	public void waitForLog(long logPosition) {
+
+		try {
+
+			this.groupCommit.commit(logPosition);
+
+		} catch (IOException e) {
+
+			System.out.println("Could not force the log file \"" + this.log.getLogFileName() + "\" to disk.\n"
+					+ "Access to this file is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		}
+	}
+
+	/**
+	 * Forces anything left in the write-ahead log to the disk. Called when the
+	 * server shuts down.
+	 */
+	public void close() {
+
+		try {
+
+			this.groupCommit.shutdown();
+			this.log.close();
+
+		} catch (IOException e) {
+
+			System.out.println("Could not close the log file \"" + this.log.getLogFileName() + "\".");
+
+		}
+	}
+
+	/**
+	 * Writes a new master.database from the database in memory and starts a new
+	 * write-ahead log. Statements are only held up while the node paths and values
+	 * are copied and the log is moved aside, the copy is sorted and written to
+	 * disk while statements carry on.
+	 * 
+	 * @param memory the MemoryStorage attached to the database to checkpoint
+	 */
+	public synchronized void checkpoint(MemoryStorage memory) {
+
+		ArrayList<String> lines = null;
+		Node rootCopy = null;
+		LinkedHashMap<String, Node> dirtySegments = null;
+		boolean binary = this.snapshotFormat.equals("binary");
+		String markerFileName = this.segmented ? this.segmentCheckpointFileName : this.checkpointFileName;
+
+		try {
+
+			/* Statements are processed while holding the same lock */
+			synchronized (memory.getDataMap()) {
+
+				if (this.segmented) {
+					dirtySegments = this.segments.captureDirtySegments(memory);
+				} else if (binary) {
+					rootCopy = memory.getRootNode().copyTree();
+				} else {
+					lines = memory.dumpDataMapLines();
+				}
+
+				/*
+				 * The checkpoint file is created before the log is moved aside, while it
+				 * exists the checkpoint has not replaced master.database.
+				 */
+				new FileOutputStream(markerFileName).close();
+				this.log.rotate(this.checkpointLogFileName);
+				this.mutationsSinceCheckpoint.set(0);
+			}
+
+			if (this.segmented) {
+
+				this.segments.writeSegments(dirtySegments, this.segmentCheckpointFileName);
+				this.replaceSnapshot(this.segmentCheckpointFileName, this.segments.getManifestFileName());
+				this.segments.commit();
+
+			} else {
+
+				if (binary) {
+					BinarySnapshot.write(rootCopy, this.checkpointFileName);
+				} else {
+					TextSnapshot.write(MemoryStorage.sortDataMapLines(lines), this.checkpointFileName);
+				}
+
+				this.replaceSnapshot(this.checkpointFileName, this.storageFileName);
+			}
+			Files.deleteIfExists(Paths.get(this.checkpointLogFileName));
+
+			this.lastCheckpointTime = System.currentTimeMillis();
+
+		} catch (IOException e) {
+
+			System.out.println("Could not write the checkpoint file \"" + markerFileName + "\".\n"
+					+ "Access to this file is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		}
+	}
+
+	/**
+	 * Reads the root segment and leaves every top-level branch on disk as a stub,
+	 * to be loaded by the SegmentCache when it is first reached. A branch whose
+	 * segment has no names file is read right away.
+	 * 
+	 * @return the MemoryStorage of the database, with the segment cache attached
+	 * @throws IOException
+	 */
+	private MemoryStorage readSegmentsLazily() throws IOException {
+
+		MemoryStorage memory = new MemoryStorage(this.segments.readRoot());
+
+		this.segmentCache = new SegmentCache(this.segments, memory, this.segmentCacheSize,
+				this.segmentHeapThreshold);
+
+		for (String branch : this.segments.getBranches()) {
+
+			Node branchNode = memory.getNodeByFullPath(branch);
+
+			if (branchNode != null && this.segments.hasNames(branch)) {
+				this.segmentCache.addStub(branchNode, branch, this.segments.readNames(branch));
+			} else {
+				this.segments.readBranch(memory, branch);
+			}
+		}
+
+		memory.setSegmentCache(this.segmentCache);
+
+		return memory;
+	}
+
+	/**
+	 * Atomically renames a snapshot that has been written and forced to the disk
+	 * over the current one, see AtomicFiles.
+	 * 
+	 * @param fileName         the new snapshot
+	 * @param snapshotFileName the snapshot it replaces, master.database or the
+	 *                         segment manifest
+	 * @throws IOException
+	 */
+	private void replaceSnapshot(String fileName, String snapshotFileName) throws IOException {
+		AtomicFiles.replace(fileName, snapshotFileName);
+	}
+
+	/**
+	 * Finishes or rolls back a checkpoint that was interrupted by the server going
+	 * down. If the checkpoint file is gone, it already replaced master.database and
+	 * the log it covers is no longer needed. Otherwise master.database is the old
+	 * snapshot, and the log moved aside by the checkpoint is replayed before the
+	 * current log.
+	 * 
+	 * @param memory the MemoryStorage attached to the database that was read
+	 */
+	private void recoverCheckpoint(MemoryStorage memory) {
+
+		File checkpointFile = new File(this.checkpointFileName);
+		File segmentCheckpointFile = new File(this.segmentCheckpointFileName);
+		File checkpointLogFile = new File(this.checkpointLogFileName);
+
+		if (checkpointLogFile.exists()) {
+
+			if (checkpointFile.exists() || segmentCheckpointFile.exists()) {
+
+				this.replayLog(memory, new WriteAheadLog(this.checkpointLogFileName));
+				this.replayLog(memory, this.log);
+
+				/* Both logs are folded into a new master.database right away */
+				this.writeDataMapToDisk(memory.getDataMap());
+			}
+
+			checkpointLogFile.delete();
+		}
+
+		checkpointFile.delete();
+		segmentCheckpointFile.delete();
+	}
+
+	/**
+	 * Replays the mutations in a write-ahead log on top of the database that was
+	 * read from master.database.
+	 * 
+	 * @param memory the MemoryStorage attached to the database that was read
+	 * @param log    the log to replay
+	 * @return the number of mutations replayed
+	 */
+	private long replayLog(MemoryStorage memory, WriteAheadLog log) {
+
+		long replayed = 0;
+
+		try {
+
+			for (Mutation mutation : log.readMutations()) {
+
+				if (!memory.applyMutation(mutation)) {
+
+					System.out.println("Skipping a logged change that no longer applies: " + mutation + ".");
+				}
+
+				this.segments.markDirty(mutation);
+				replayed++;
+			}
+
+		} catch (IOException e) {
+
+			System.out.println("Could not read the log file \"" + log.getLogFileName() + "\".\n"
+					+ "Access to this file is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		}
+
+		return replayed;
+	}
+
 }
@@ -20,7 +20,7 @@ The Rut Database Interpreter is the engine that runs Rut Database operations.
  For each Statement received, a String is returned. 
  Improper Statements return a string describing the error. 
  Interpreter makes good use of it's MemoryStorage object for accessing, traversing, and manipulating nodes.
- Interpreter also uses the DiskStorage object heavily for reading and writing to permanent storage.
+ Interpreter also uses the StorageEngine object heavily for reading and writing to permanent storage.
  Once an Interpreter object is created, it can be passed to a Shell object as a constructor argument. 
  Using the Shell with the Interpreter allows for direct user/file/application interaction.
  
@@ -46,6 +46,8 @@ package rut;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -54,6 +56,7 @@ import rut.keywords.FirstNameFemale;
 import rut.keywords.FirstNameMale;
 import rut.keywords.Keyword;
 import rut.keywords.Newid;
+import rut.keywords.NewidBlock;
 import rut.keywords.Text;
 import rut.keywords.Boolean;
 import rut.keywords.Date;
@@ -65,7 +68,10 @@ import rut.operation.InvalidOperationException;
 import rut.operation.Operation;
 import rut.operation.OperationFactory;
 import rut.keywords.LastName;
+import rut.storage.Mutation;
+import rut.storage.StorageEngine;
 import rut.utilities.DataTypes;
+import rut.utilities.TypedValue;
 
 public class Interpreter {
 
@@ -73,9 +79,12 @@ public class Interpreter {
 	private boolean writeToDiskSignal;
 	private boolean suppressOutputSignal;
 	private MemoryStorage memory;
-	private DiskStorage disk;
+	private StorageEngine disk;
 
-	public Interpreter(MemoryStorage memory, DiskStorage disk) {
+	/* The ids this session hands out for Newid */
+	private NewidBlock newidBlock;
+
+	public Interpreter(MemoryStorage memory, StorageEngine disk) {
 
 		/*
 		 * These variables are immutable, once the interpreter object is created they
@@ -83,12 +92,18 @@ public class Interpreter {
 		 */
 		this.memory = memory;
 		this.disk = disk;
+		this.newidBlock = new NewidBlock(memory);
 
 		/* Reset variables that can be changed */
 		this.reset();
 
 	}
 
+	/* Gives back the Newid ids this session has not handed out, once it has ended */
+	public void close() {
+		this.newidBlock.release();
+	}
+
 	/*
 	 * Resets all of the interpreter's member variables that can be changed to their
 	 * default values
@@ -124,38 +139,64 @@ public class Interpreter {
 		 * The number of times a specific response message is displayed, this is tallied
 		 */
 		int responseDisplayNumber = 1;
+		long logPosition = 0;
+
+		/*
+		 * The statement runs while holding the lock on the dataMap, so that a
+		 * checkpoint always sees the node tree between two statements.
+		 */
+		synchronized (this.memory.getDataMap()) {
 
-		for (int i = 0; i < iterations; i++) {
+			for (int i = 0; i < iterations; i++) {
 
-			iterationResponse = this.runStatementIteration(statement);
+				iterationResponse = this.runStatementIteration(statement);
 
-			if (responses.keySet().contains(iterationResponse)) {
+				if (responses.keySet().contains(iterationResponse)) {
 
-				responseDisplayNumber = responses.get(iterationResponse).intValue() + 1;
+					responseDisplayNumber = responses.get(iterationResponse).intValue() + 1;
 
-			} else {
+				} else {
 
-				responseDisplayNumber = 1;
+					responseDisplayNumber = 1;
 
-			}
+				}
 
-			responses.put(iterationResponse, responseDisplayNumber);
+				responses.put(iterationResponse, responseDisplayNumber);
 
-			if (iterations > 1) {
+				if (iterations > 1) {
 
-				statement.parseStatement(statementText);
+					statement.parseStatement(statementText);
 
+				}
 			}
-		}
 
-		/* Save changes to disk. */
-		if (this.writeToDiskSignal && !this.suppressOutputSignal) {
-			this.disk.writeDataMapToDisk(this.memory.getDataMap());
+			/*
+			 * Save changes to disk by appending them to the write-ahead log. Scripts save
+			 * the whole database once they are complete instead.
+			 */
+			ArrayList<Mutation> mutations = this.memory.drainMutations();
+
+			if (this.writeToDiskSignal && !this.suppressOutputSignal) {
+				logPosition = this.disk.writeMutationsToLog(mutations);
+			} else {
+				this.disk.markDirty(mutations);
+			}
+
+			/* Branches loaded from disk that are no longer in use can be dropped */
+			this.memory.releaseColdSubtrees();
+
+			/* Clear interpreter signal variables in preparation for next statement */
+			this.reset();
+			this.memory.setWriteToDiskSignal(false);
 		}
 
-		/* Clear interpreter signal variables in preparation for next statement */
-		this.reset();
-		this.memory.setWriteToDiskSignal(false);
+		/*
+		 * Waiting for the changes to become durable happens outside of the lock, so
+		 * that statements from other sessions can share the same force of the log.
+		 */
+		if (logPosition > 0) {
+			this.disk.waitForLog(logPosition);
+		}
 
 		int responseNumber = 0;
 
@@ -185,6 +226,14 @@ public class Interpreter {
 		 * later when the node trees are traversed
 		 */
 		this.processKeywords(statement);
+		
+		/* A read-only storage engine only runs statements that leave the database as it is */
+		String[] readOnlyOperations = { "read", "comment", "exit" };
+		
+		if (this.disk.isReadOnly() && !Arrays.asList(readOnlyOperations).contains(statement.getOperation())) {
+			return "The database is read-only, only read statements can be run.";
+		}
+		
 		/*
 		 Two types of error checks are performed. Statement parsing errors and then operation specific interpreter
 		 errors that require access to the data in order to check for errors.
@@ -210,6 +259,9 @@ public class Interpreter {
 			Operation operation = OperationFactory.createOperation(statement, this.memory);
 			response = operation.execute();
 			this.writeToDiskSignal = this.memory.getWriteToDiskSignal();
+			
+			/* A changed type rule changes how the values of its nodes are kept */
+			this.memory.applyRuleSetChanges();
 			this.killSignal = this.memory.getKillSignal();
 		} catch (InvalidOperationException e) {
 			return "Could not execute operation due to a system error.";
@@ -238,11 +290,11 @@ public class Interpreter {
 		this.memory = memory;
 	}
 
-	public DiskStorage getDisk() {
+	public StorageEngine getDisk() {
 		return this.disk;
 	}
 
-	public void setDisk(DiskStorage disk) {
+	public void setDisk(StorageEngine disk) {
 		this.disk = disk;
 	}
 	
@@ -367,7 +419,7 @@ public class Interpreter {
 
 		ArrayList<Keyword> keywords = new ArrayList<Keyword>();
 
-		keywords.add(new Newid(this.memory));
+		keywords.add(new Newid(this.memory, this.newidBlock));
 		keywords.add(new FirstNameMale(this.memory));
 		keywords.add(new FirstNameFemale(this.memory));
 		keywords.add(new LastName(this.memory));
@@ -446,7 +498,7 @@ public class Interpreter {
 
 			}
 
-			ConcurrentHashMap<String, Node> nodeChildren = parentNode.getChildren();
+			Map<String, Node> nodeChildren = parentNode.getChildren();
 
 			nodeChildren.put(childName, childNode);
 			parentNode.setChildren(nodeChildren);
@@ -464,56 +516,42 @@ public class Interpreter {
 	 * @return boolean result
 	 */
 	private boolean checkWriteForRules(Statement statement) {
-		boolean result = true;
-
-		String selectedNodeName = statement.getSelectedNodeName();
-		String selectedNodeValue = statement.getSelectedNodeValue();
-		ConcurrentHashMap<String, String> childNamesValues = statement.getChildNamesValues();
 
-		ConcurrentHashMap<String, String> rules = this.memory.getRulesByRuleSetName(selectedNodeName);
-
-		if (!rules.isEmpty()) {
-
-			for (String rule : rules.keySet()) {
-
-				result = this.checkEnforcedNodeValue(selectedNodeName, selectedNodeValue, rule, rules.get(rule),
-						rules.get("type"), statement);
+		if (!this.checkWriteForRules(statement.getSelectedNodeName(), statement.getSelectedNodeValue(), statement)) {
+			return false;
+		}
 
-				if (!result) {
+		ConcurrentHashMap<String, String> childNamesValues = statement.getChildNamesValues();
 
-					return result;
+		for (String childName : childNamesValues.keySet()) {
 
-				}
+			if (!this.checkWriteForRules(childName, childNamesValues.get(childName), statement)) {
+				return false;
 			}
 		}
 
-		if (!childNamesValues.isEmpty()) {
-
-			for (String childName : childNamesValues.keySet()) {
-
-				String childValue = childNamesValues.get(childName);
-				rules = this.memory.getRulesByRuleSetName(childName);
-
-				if (!rules.isEmpty()) {
-
-					for (String rule : rules.keySet()) {
+		return true;
+	}
 
-						result = this.checkEnforcedNodeValue(childName, childValue, rule, rules.get(rule),
-								rules.get("type"), statement);
+	/* Checks a value written to a node name against the node name's rule set */
+	private boolean checkWriteForRules(String nodeName, String nodeValue, Statement statement) {
 
-						if (!result) {
+		RuleSet ruleSet = this.memory.getRuleSet(nodeName);
 
-							return result;
+		for (Map.Entry<String, String> rule : ruleSet.getRules().entrySet()) {
 
-						}
-					}
-
-				}
+			/* Most values plainly satisfy the rule, only the others are checked in full */
+			if (ruleSet.accepts(rule.getKey(), nodeValue)) {
+				continue;
 			}
 
+			if (!this.checkEnforcedNodeValue(nodeName, nodeValue, rule.getKey(), rule.getValue(),
+					ruleSet.getRules().get("type"), statement)) {
+				return false;
+			}
 		}
 
-		return result;
+		return true;
 	}
 
 	/**
@@ -536,10 +574,25 @@ public class Interpreter {
 			return true;
 		}
 
+		/* The rule values are the same for every node, they are resolved and parsed once */
+		HashMap<String, String> ruleValues = new HashMap<String, String>();
+
+		for (String ruleName : Definitions.nodeRuleNames) {
+			ruleValues.put(ruleName, this.resolveRuleValue(ruleName, ruleSetName, statement));
+		}
+
+		TypedValue typedMax = TypedValue.of(ruleValues.get("max"), resolvedType);
+		TypedValue typedMin = TypedValue.of(ruleValues.get("min"), resolvedType);
+
 		for (Node foundNode : foundNodes) {
 
 			for (String ruleName : Definitions.nodeRuleNames) {
-				ruleValue = this.resolveRuleValue(ruleName, ruleSetName, statement);
+				ruleValue = ruleValues.get(ruleName);
+
+				if (this.typedNodeValueSatisfies(foundNode.getTypedValue(), ruleName, ruleValue, resolvedType,
+						typedMax, typedMin)) {
+					continue;
+				}
 
 				result = this.checkEnforcedNodeValue(ruleSetName, foundNode.getValue(), ruleName, ruleValue,
 						resolvedType, statement);
@@ -556,6 +609,38 @@ public class Interpreter {
 		return result;
 	}
 
+	/**
+	 * Checks the type, max and min rules against a typed node value without parsing
+	 * it. Anything it cannot decide, including a violation, is left to
+	 * checkEnforcedNodeValue, which reports the violation.
+	 * 
+	 * @param nodeValue the node's typed value, null if it is kept as text
+	 * @param ruleName  the rule
+	 * @param ruleValue the rule's value
+	 * @param type      the type of the rule set
+	 * @param max       the typed max rule, null if it is not a value of the type
+	 * @param min       the typed min rule, null if it is not a value of the type
+	 * @return true if the node value satisfies the rule
+	 */
+	private boolean typedNodeValueSatisfies(TypedValue nodeValue, String ruleName, String ruleValue, String type,
+			TypedValue max, TypedValue min) {
+
+		if (nodeValue == null || !nodeValue.getType().equals(type)) {
+			return false;
+		}
+
+		switch (ruleName) {
+		case "type":
+			return ruleValue.equals(type);
+		case "max":
+			return ruleValue.isEmpty() || (max != null && !Statement.isGreaterThan(nodeValue, max));
+		case "min":
+			return ruleValue.isEmpty() || (min != null && !Statement.isLessThan(nodeValue, min));
+		default:
+			return false;
+		}
+	}
+
 	/**
 	 * Checks a constraint to make sure it's value adheres to the node's type. Used
 	 * for checking min and max.
@@ -738,6 +823,7 @@ public class Interpreter {
 		case "unique":
 		case "required":
 		case "key":
+		case "index":
 			if (!ruleValue.equals("false") && !ruleValue.equals("true")) {
 				result = false;
 			}
@@ -1001,7 +1087,7 @@ public class Interpreter {
 
 		}
 
-		ConcurrentHashMap<String, String> rules = this.memory.getRulesByRuleSetName(ruleSetName);
+		Map<String, String> rules = this.memory.getRuleSet(ruleSetName).getRules();
 
 		/*
 		 * Check if selected node name is the rule name, e.g. rule.employeeFirstName.max
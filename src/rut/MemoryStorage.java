@@ -40,16 +40,33 @@ Here is a list of the essential Memory Storage public methods:
 
 * deleteNode(Node, String)
 
+* void logMutation(Mutation) and ArrayList<Mutation> drainMutations()
+
+* void applyMutation(Mutation)
+
+* void setNodeValue(Node, String)
+
 */
 package rut;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+import rut.storage.Column;
+import rut.storage.Mutation;
+import rut.storage.SegmentCache;
+import rut.storage.SegmentStore;
+import rut.storage.StorageEngine;
+import rut.utilities.TypedValue;
+
 public class MemoryStorage {
 
 	private Node rootNode;
@@ -62,8 +79,38 @@ public class MemoryStorage {
 
 	private boolean writeToDiskSignal;
 
-	/* Keeps track of a universal auto incrementing long. */
-	private long uid;
+	/* The ids below this have been reserved for Newid, -1 until the high-water mark is read, see reserveUids. */
+	private AtomicLong uid;
+
+	/* Keeps the Newid high-water mark next to the database, null if the database is not saved. */
+	private StorageEngine uidStore;
+
+	/* The mutations made since they were last written to the write-ahead log. */
+	private ConcurrentLinkedQueue<Mutation> pendingMutations;
+
+	/* Loads the branches left on disk when segments are loaded lazily, otherwise null. */
+	private SegmentCache segmentCache;
+
+	/* Finds the nodes of a name by their value, see ValueIndex. */
+	private ValueIndex valueIndex;
+
+	/* Keeps the values of the node names whose rule set sets index in order, see RangeIndex. */
+	private RangeIndex rangeIndex;
+
+	/* The rule sets read so far by node name, see RuleSet. */
+	private ConcurrentHashMap<String, RuleSet> ruleSets;
+
+	/* Counts the changes to the rule sets, so that a rule set read while one is changed is not kept */
+	private volatile long ruleSetsVersion;
+
+	/* The rule sets changed since applyRuleSetChanges last ran, by node name */
+	private Set<String> changedRuleSets;
+
+	/* The type the values of each node name are kept in, "" for text, see applyValueType */
+	private ConcurrentHashMap<String, String> valueTypes;
+
+	/* Every node in the dataMap by its full path, null until it is first needed, see getFlatDataMap. */
+	private ConcurrentHashMap<String, Node> pathIndex;
 
 	public MemoryStorage(ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> theDataMap) {
 
@@ -76,7 +123,15 @@ public class MemoryStorage {
 		this.killSignal = false;
 		this.writeToDiskSignal = false;
 
-		this.uid = 0;
+		this.uid = new AtomicLong(-1);
+
+		this.pendingMutations = new ConcurrentLinkedQueue<Mutation>();
+
+		this.valueIndex = new ValueIndex();
+		this.rangeIndex = new RangeIndex();
+		this.ruleSets = new ConcurrentHashMap<String, RuleSet>();
+		this.changedRuleSets = ConcurrentHashMap.newKeySet();
+		this.valueTypes = new ConcurrentHashMap<String, String>();
 	}
 
 	public Node getRootNode() {
@@ -87,22 +142,31 @@ public class MemoryStorage {
 		return this.rootData;
 	}
 
+	/**
+	 * Returns every node by its full path. The map is built from the dataMap the
+	 * first time it is asked for and kept up to date as nodes enter and leave the
+	 * dataMap, so it must not be changed by the caller.
+	 * 
+	 * @return the nodes by full path, the root node under the empty path
+	 */
 	public ConcurrentHashMap<String, Node> getFlatDataMap() {
 
-		ConcurrentHashMap<String, Node> flatDataMap = new ConcurrentHashMap<String, Node>();
-		Node currentNode = new Node();
+		if (this.segmentCache != null) {
+			this.segmentCache.loadAll();
+		}
 
-		for (String nodeName : this.dataMap.keySet()) {
+		if (this.pathIndex == null) {
 
-			ConcurrentHashMap<String, Node> nodeRecords = this.dataMap.get(nodeName);
-			for (String fullPath : nodeRecords.keySet()) {
-				currentNode = nodeRecords.get(fullPath);
-				flatDataMap.put(fullPath, currentNode);
+			ConcurrentHashMap<String, Node> flatDataMap = new ConcurrentHashMap<String, Node>();
+
+			for (ConcurrentHashMap<String, Node> nodeRecords : this.dataMap.values()) {
+				flatDataMap.putAll(nodeRecords);
 			}
 
+			this.pathIndex = flatDataMap;
 		}
 
-		return flatDataMap;
+		return this.pathIndex;
 	}
 
 	/* Adds a node to the dataMap */
@@ -124,7 +188,8 @@ public class MemoryStorage {
 
 		try {
 
-			Node parentNode = this.justNodes(this.getDataByPath(parentName, true)).get(0);
+			/* Any node named like the parent below it matches its path too, the new node included */
+			Node parentNode = this.getNodeByFullPath(parentName);
 			parentNode.setChild(nodeName, node);
 
 		} catch (Exception e) {
@@ -135,12 +200,119 @@ public class MemoryStorage {
 
 		}
 
-		nodesByName.put(fullPath, node);
+		Node replacedNode = nodesByName.put(fullPath, node);
+
+		if (replacedNode != null) {
+			this.unindexNode(nodeName, replacedNode, fullPath);
+		}
+
+		this.indexNode(nodeName, node, fullPath);
 
 		this.dataMap.put(nodeName, nodesByName);
 		return true;
 	}
 
+	/*
+	 * Adds a node to the dataMap when its parent has already been linked to it.
+	 * Unlike addDataMap, the parent does not have to be searched for.
+	 */
+	public void putDataMap(Node node, String fullPath) {
+
+		String nodeName = this.parseNodeName(fullPath);
+
+		Node replacedNode = this.dataMap.computeIfAbsent(nodeName, name -> new ConcurrentHashMap<String, Node>())
+				.put(fullPath, node);
+
+		if (replacedNode != null) {
+			this.unindexNode(nodeName, replacedNode, fullPath);
+		}
+
+		this.indexNode(nodeName, node, fullPath);
+	}
+
+	/* Adds a node and all of its descendants to the dataMap */
+	public void putSubtreeDataMap(Node node, String fullPath) {
+
+		this.putDataMap(node, fullPath);
+
+		for (String childName : node.getChildren().keySet()) {
+			this.putSubtreeDataMap(node.getChild(childName), fullPath + "." + childName);
+		}
+	}
+
+	/* Removes a node and all of its descendants from the dataMap */
+	public void removeSubtreeDataMap(Node node, String fullPath) {
+
+		for (String childName : node.getChildren().keySet()) {
+			this.removeSubtreeDataMap(node.getChild(childName), fullPath + "." + childName);
+		}
+
+		String nodeName = this.parseNodeName(fullPath);
+		ConcurrentHashMap<String, Node> nodesByName = this.dataMap.get(nodeName);
+		Node removedNode = (nodesByName == null) ? null : nodesByName.remove(fullPath);
+
+		if (removedNode != null) {
+			this.unindexNode(nodeName, removedNode, fullPath);
+		}
+	}
+
+	/**
+	 * Moves a node and all of its descendants in the dataMap to a new full path,
+	 * once the node has been linked to its parent under its new name. Only the
+	 * node itself changes its name, so it is the only node moved between the
+	 * indexes of its names. Its descendants keep their names and values and only
+	 * have their paths changed.
+	 * 
+	 * @param node        the renamed node
+	 * @param fullPath    the node's full path before it was renamed
+	 * @param newFullPath the node's full path after it was renamed
+	 */
+	public void moveSubtreeDataMap(Node node, String fullPath, String newFullPath) {
+
+		String nodeName = this.parseNodeName(fullPath);
+		ConcurrentHashMap<String, Node> nodesByName = this.dataMap.get(nodeName);
+		Node movedNode = (nodesByName == null) ? null : nodesByName.remove(fullPath);
+
+		if (movedNode != null) {
+			this.unindexNode(nodeName, movedNode, fullPath);
+		}
+
+		if (nodesByName != null && nodesByName.isEmpty()) {
+			this.dataMap.remove(nodeName, nodesByName);
+		}
+
+		this.putDataMap(node, newFullPath);
+
+		for (Map.Entry<String, Node> child : node.getChildren().entrySet()) {
+			this.moveDescendantDataMap(child.getKey(), child.getValue(), fullPath + "." + child.getKey(),
+					newFullPath + "." + child.getKey());
+		}
+	}
+
+	/* Changes the path of a node below a renamed node, and of everything below it */
+	private void moveDescendantDataMap(String nodeName, Node node, String fullPath, String newFullPath) {
+
+		ConcurrentHashMap<String, Node> nodesByName = this.dataMap.get(nodeName);
+
+		if (nodesByName != null && nodesByName.remove(fullPath, node)) {
+
+			nodesByName.put(newFullPath, node);
+
+			if (this.pathIndex != null) {
+				this.pathIndex.remove(fullPath, node);
+				this.pathIndex.put(newFullPath, node);
+			}
+
+			this.forgetRuleSet(fullPath);
+			this.forgetRuleSet(newFullPath);
+		}
+
+		for (Map.Entry<String, Node> child : node.getChildren().entrySet()) {
+			this.moveDescendantDataMap(child.getKey(), child.getValue(), fullPath + "." + child.getKey(),
+					newFullPath + "." + child.getKey());
+		}
+	}
+
 	/* Renames the path of a node in a dataMap */
 	/**
 	 * 
@@ -167,6 +339,10 @@ public class MemoryStorage {
 
 		currentNode = nodesByName.remove(fullPath);
 
+		if (currentNode != null) {
+			this.unindexNode(nodeName, currentNode, fullPath);
+		}
+
 		newNodePath = fullPath.replace("." + oldParentName + ".", "." + newParentName + ".");
 
 		if (fullPath.startsWith(oldParentName + ".")) {
@@ -188,6 +364,10 @@ public class MemoryStorage {
 		nodesByName.put(newNodePath, currentNode);
 		this.dataMap.put(nodeName, nodesByName);
 
+		if (currentNode != null) {
+			this.indexNode(nodeName, currentNode, newNodePath);
+		}
+
 		return true;
 
 	}
@@ -201,276 +381,1072 @@ public class MemoryStorage {
 
 		if (nodesByName.isEmpty()) {
 
-			return false;
+			return false;
+		}
+		try {
+
+			Node removedNode = nodesByName.remove(fullPath);
+
+			if (removedNode != null) {
+				this.unindexNode(nodeName, removedNode, fullPath);
+			}
+
+		} catch (Exception e) {
+
+		}
+
+		if (nodesByName.isEmpty()) {
+
+			this.dataMap.remove(nodeName);
+
+		}
+
+		return true;
+
+	}
+
+	/**
+	 * Returns true if the subPath is inside the path, otherwise it returns false.
+	 * There are some things to take into consideration here. We do not want the
+	 * beginning or ending of a subPath to partially match a node name. For instance
+	 * we don't want something like 'database.2' matching 'database.22'. Therefore
+	 * numerous requirements are presented here to pass the check
+	 * 
+	 * @param subPath
+	 * @param path
+	 * @return
+	 */
+
+	public boolean checkSubPathInPath(String subPath, String path) {
+		boolean success = false;
+
+		if (subPath.equals("Root") || path.contains("." + subPath + ".") || path.startsWith(subPath + ".") || path.endsWith("." + subPath)
+				|| path.equals(subPath)) {
+
+			success = true;
+		}
+
+		return success;
+	}
+
+	/**
+	 * Accepts a string of the full path for a node and parses the node's name (the
+	 * last item in the full path). For instance, if a.b.c.d is provided as input, d
+	 * will be returned. If a is provided as input, a will be returned.
+	 * 
+	 * @param fullPath - the full path of the node, separated by periods
+	 * @return the parsed name of the node
+	 */
+	public String parseNodeName(String fullPath) {
+
+		String nodeName = "";
+		int lastDot = 0;
+
+		if (fullPath.contains(".")) {
+			lastDot = fullPath.lastIndexOf('.');
+			nodeName = fullPath.substring(lastDot + 1);
+		} else {
+			nodeName = fullPath;
+		}
+
+		return nodeName;
+
+	}
+
+	/**
+	 * Accepts a string of the full path for a node and parses the node's name (the
+	 * last item in the full path). For instance, if a.b.c.d is provided as input,
+	 * a.b.c will be returned. If a is provided as input, Root will be returned.
+	 * 
+	 * @param fullPath - the full path of the node, separated by periods
+	 * @return the parsed parent names of the node
+	 */
+	public String parseParentName(String fullPath) {
+
+		String parentName = "";
+
+		int lastDot = 0;
+
+		if (fullPath.contains(".")) {
+			lastDot = fullPath.lastIndexOf('.');
+			parentName = fullPath.substring(0, lastDot);
+		}
+
+		return parentName;
+
+	}
+
+	public String parseFullPath(ArrayList<String> parentNames, String selectedNodeName) {
+
+		String fullPath = "";
+
+		if (parentNames.size() > 0) {
+
+			fullPath = String.join(".", parentNames) + "." + selectedNodeName;
+
+		} else {
+
+			fullPath = selectedNodeName;
+
+		}
+
+		return fullPath;
+	}
+
+	/**
+	 * Accepts the data results as input (which is a concurrent hashmap with the key
+	 * containing the full path of a node and the value is the node) and returns an
+	 * arraylist of the nodes.
+	 * 
+	 * @param dataResults Full data containing the full paths as the keys and the
+	 *                    nodes
+	 * @return an array list of the nodes contained in the dataResults
+	 */
+	public ArrayList<Node> justNodes(ConcurrentHashMap<String, Node> dataResults) {
+
+		Collection<Node> values = dataResults.values();
+		return new ArrayList<Node>(values);
+
+	}
+
+	public String dumpDataMap() {
+
+		return MemoryStorage.sortDataMapLines(this.dumpDataMapLines());
+
+	}
+
+	/**
+	 * Returns a line in the master.database format for every node, in no
+	 * particular order. This is the part of dumpDataMap that has to see a
+	 * consistent node tree, the sorting can be done afterwards. When children are
+	 * kept in order the lines are read from the node tree, already in order.
+	 * 
+	 * @return the unsorted lines
+	 */
+	public ArrayList<String> dumpDataMapLines() {
+
+		ArrayList<String> lines = new ArrayList<String>();
+
+		if (Definitions.orderedChildren) {
+
+			if (this.segmentCache != null) {
+				this.segmentCache.loadAll();
+			}
+
+			MemoryStorage.addTreeLines(lines, "", this.rootNode);
+
+			return lines;
+		}
+
+		ConcurrentHashMap<String, Node> flatDataMap = this.getFlatDataMap();
+		Node currentNode;
+
+		for (String fullPath : flatDataMap.keySet()) {
+
+			/* We do not dump 'Root' which is a blank entry with no name or value */
+			if (fullPath.equals("")) {
+
+				continue;
+			}
+
+			currentNode = flatDataMap.get(fullPath);
+			lines.add(fullPath + ":" + currentNode.getValue());
+
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Sorts the lines produced by dumpDataMapLines into the order they are stored
+	 * in master.database. Reversing the sort puts every parent before its children
+	 * because ':' comes after '.'. When children are kept in order the lines come
+	 * from the node tree in order and are not sorted again.
+	 * 
+	 * @param lines the unsorted lines
+	 * @return the text of master.database
+	 */
+	public static String sortDataMapLines(ArrayList<String> lines) {
+
+		if (!Definitions.orderedChildren) {
+			Collections.sort(lines);
+			Collections.reverse(lines);
+		}
+
+		return String.join("\n", lines);
+
+	}
+
+	/* Adds a line for every node below a node, each parent before its children and children in order */
+	private static void addTreeLines(ArrayList<String> lines, String parentPath, Node parentNode) {
+
+		for (Map.Entry<String, Node> child : parentNode.getChildren().entrySet()) {
+
+			String fullPath = parentPath.isEmpty() ? child.getKey() : parentPath + "." + child.getKey();
+
+			lines.add(fullPath + ":" + child.getValue().getValue());
+			MemoryStorage.addTreeLines(lines, fullPath, child.getValue());
+		}
+	}
+
+	public String printDataMap() {
+
+		if (this.segmentCache != null) {
+			this.segmentCache.loadAll();
+		}
+
+		StringBuilder result = new StringBuilder();
+		String line = "";
+		Node currentNode;
+
+		ArrayList<String> sortedNames = new ArrayList<String>();
+		sortedNames.addAll(this.dataMap.keySet());
+		Collections.sort(sortedNames);
+
+		for (String nodeName : sortedNames) {
+
+			ConcurrentHashMap<String, Node> nodeRecords = this.dataMap.get(nodeName);
+
+			ArrayList<String> sortedRecords = new ArrayList<String>();
+			sortedRecords.addAll(nodeRecords.keySet());
+			Collections.sort(sortedRecords);
+
+			for (String fullPath : sortedRecords) {
+				currentNode = nodeRecords.get(fullPath);
+				line = fullPath + ":" + currentNode.getValue();
+				result.append(line + "\n");
+			}
+		}
+
+		return result.toString();
+	}
+
+	public long getUid() {
+		return this.uid.get();
+	}
+
+	public void setUid(long uid) {
+		this.uid.set(uid);
+	}
+
+	/**
+	 * Sets the storage engine the Newid high-water mark is saved by, see
+	 * reserveUids.
+	 * 
+	 * @param uidStore the storage engine the database is kept in
+	 */
+	public void setUidStore(StorageEngine uidStore) {
+		this.uidStore = uidStore;
+	}
+
+	/**
+	 * Reserves a block of ids for the Newid keyword of a session, which hands them
+	 * out without coming back here for each one. The end of the block is saved as
+	 * the high-water mark by the storage engine, outside the node tree, so that no
+	 * id is handed out twice, even after a restart or once the node given the id
+	 * has been deleted.
+	 * 
+	 * @param blockSize the number of ids to reserve
+	 * @return the first id of the block
+	 */
+	public synchronized long reserveUids(int blockSize) {
+
+		if (this.uid.get() < 0) {
+			this.readUidHighWaterMark();
+		}
+
+		long firstUid = this.uid.getAndAdd(blockSize);
+
+		this.saveUidHighWaterMark(firstUid + blockSize);
+
+		return firstUid;
+	}
+
+	/**
+	 * Gives back the ids of a block that a session has not handed out, when the
+	 * session closes. They can only be given back while no later block has been
+	 * reserved, otherwise they are skipped.
+	 * 
+	 * @param nextUid the first id of the block not handed out
+	 * @param endUid  the id after the last one of the block
+	 */
+	public synchronized void releaseUids(long nextUid, long endUid) {
+
+		if (nextUid < endUid && this.uid.compareAndSet(endUid, nextUid)) {
+			this.saveUidHighWaterMark(nextUid);
+		}
+	}
+
+	/*
+	 * Starts after the saved high-water mark, or in a database that has none yet,
+	 * after every node already named by a number
+	 */
+	private void readUidHighWaterMark() {
+
+		long highWaterMark = (this.uidStore == null) ? -1 : this.uidStore.readUidHighWaterMark();
+
+		if (highWaterMark < 0) {
+
+			highWaterMark = 0;
+
+			for (String nodeName : this.dataMap.keySet()) {
+				highWaterMark = Math.max(highWaterMark, parseUid(nodeName) + 1);
+			}
+		}
+
+		this.uid.set(highWaterMark);
+	}
+
+	/* Saves the high-water mark, reservations are made one at a time so marks are saved in order */
+	private void saveUidHighWaterMark(long highWaterMark) {
+
+		if (this.uidStore != null) {
+			this.uidStore.saveUidHighWaterMark(highWaterMark);
+		}
+	}
+
+	/* Reads an id given by Newid from a node name, -1 for a name that is not one */
+	private static long parseUid(String value) {
+
+		if (value.isEmpty() || value.length() > 18) {
+			return -1;
+		}
+
+		for (int i = 0; i < value.length(); i++) {
+
+			if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+				return -1;
+			}
+		}
+
+		return Long.parseLong(value);
+	}
+
+	public boolean getKillSignal() {
+		return this.killSignal;
+	}
+
+	public void setKillSignal(boolean killSignal) {
+		this.killSignal = killSignal;
+	}
+
+	public boolean getWriteToDiskSignal() {
+		return this.writeToDiskSignal;
+	}
+
+	public void setWriteToDiskSignal(boolean writeToDiskSignal) {
+		this.writeToDiskSignal = writeToDiskSignal;
+	}
+
+	/**
+	 * Records a change made to the node tree so that it can be appended to the
+	 * write-ahead log once the statement is complete.
+	 * 
+	 * @param mutation the change that was made
+	 */
+	public void logMutation(Mutation mutation) {
+		this.pendingMutations.add(mutation);
+	}
+
+	/**
+	 * Removes and returns the mutations recorded since the last time this method
+	 * was called, in the order they were made.
+	 * 
+	 * @return the pending mutations
+	 */
+	public ArrayList<Mutation> drainMutations() {
+
+		ArrayList<Mutation> mutations = new ArrayList<Mutation>();
+		Mutation mutation;
+
+		while ((mutation = this.pendingMutations.poll()) != null) {
+			mutations.add(mutation);
+		}
+
+		return mutations;
+	}
+
+	/**
+	 * Applies a mutation read back from the write-ahead log to the node tree. The
+	 * mutation is not recorded again.
+	 * 
+	 * @param mutation the mutation to replay
+	 * @return true if the mutation could be applied, otherwise false
+	 */
+	public boolean applyMutation(Mutation mutation) {
+
+		String fullPath = mutation.getFullPath();
+		String nodeName = this.parseNodeName(fullPath);
+		Node parentNode = this.getNodeByFullPath(this.parseParentName(fullPath));
+
+		if (parentNode == null) {
+			return false;
+		}
+
+		Node currentNode = parentNode.getChild(nodeName);
+
+		switch (mutation.getOperation()) {
+
+		case Mutation.WRITE:
+
+			if (currentNode == null) {
+
+				parentNode.addNodeChild(nodeName, mutation.getArgument());
+				currentNode = parentNode.getChild(nodeName);
+				currentNode.setValue(mutation.getArgument(), this.getValueType(nodeName));
+				this.putDataMap(currentNode, fullPath);
+
+			} else {
+
+				this.setNodeValue(currentNode, mutation.getArgument());
+			}
+
+			return true;
+
+		case Mutation.DELETE:
+
+			if (currentNode == null) {
+				return false;
+			}
+
+			parentNode.getChildren().remove(nodeName);
+			this.removeSubtreeDataMap(currentNode, fullPath);
+
+			return true;
+
+		case Mutation.RENAME:
+
+			if (currentNode == null) {
+				return false;
+			}
+
+			String parentPath = this.parseParentName(fullPath);
+			String newNodePath = parentPath.isEmpty() ? mutation.getArgument()
+					: parentPath + "." + mutation.getArgument();
+
+			parentNode.getChildren().remove(nodeName);
+
+			Node replacedNode = parentNode.getChild(mutation.getArgument());
+
+			if (replacedNode != null) {
+				this.removeSubtreeDataMap(replacedNode, newNodePath);
+			}
+
+			parentNode.setChild(mutation.getArgument(), currentNode);
+			this.moveSubtreeDataMap(currentNode, fullPath, newNodePath);
+
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Looks up a node by its exact full path, e.g. database.employee.3. The empty
+	 * path is the root node.
+	 * 
+	 * @param fullPath the full path of the node
+	 * @return the node, or null if no node has that full path
+	 */
+	public Node getNodeByFullPath(String fullPath) {
+
+		if (fullPath.isEmpty()) {
+			return this.rootNode;
+		}
+
+		/* A node below a top-level branch is only in the dataMap once the branch is loaded */
+		if (this.segmentCache != null) {
+
+			String branch = SegmentStore.segmentOf(fullPath);
+
+			if (!branch.equals(fullPath) && branch.indexOf('.') > 0) {
+
+				Node branchNode = this.getNodeByFullPath(branch);
+
+				if (branchNode != null) {
+					branchNode.getChildren();
+				}
+			}
+		}
+
+		ConcurrentHashMap<String, Node> nodesByName = this.dataMap.get(this.parseNodeName(fullPath));
+
+		if (nodesByName == null) {
+			return null;
+		}
+
+		return nodesByName.get(fullPath);
+	}
+
+	public ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> getDataMap() {
+		return this.dataMap;
+	}
+
+	public SegmentCache getSegmentCache() {
+		return this.segmentCache;
+	}
+
+	/**
+	 * Attaches the SegmentCache that loads the branches left on disk, when
+	 * segments are loaded lazily.
+	 * 
+	 * @param segmentCache the segment cache, or null
+	 */
+	public void setSegmentCache(SegmentCache segmentCache) {
+		this.segmentCache = segmentCache;
+	}
+
+	/**
+	 * Unloads branches that have not been used recently, when segments are loaded
+	 * lazily. Called between statements, while holding the dataMap lock.
+	 */
+	public void releaseColdSubtrees() {
+
+		if (this.segmentCache != null) {
+			this.segmentCache.trim();
+		}
+	}
+
+	/* Loads the branches left on disk that hold nodes named nodeName */
+	private void loadSubtreesByName(String nodeName) {
+
+		if (this.segmentCache != null) {
+			this.segmentCache.loadByName(nodeName);
+		}
+	}
+
+	/*
+	 * Loads the branches left on disk that hold nodes named nodeName, apart from
+	 * the record sets whose column of them loadIf rejects, and returns those
+	 * columns. See SegmentCache.loadByName.
+	 */
+	private ArrayList<Column> loadSubtreesByName(String nodeName, Predicate<Column> loadIf) {
+
+		if (this.segmentCache == null) {
+			return new ArrayList<Column>();
+		}
+
+		return this.segmentCache.loadByName(nodeName, loadIf);
+	}
+
+	/* Marks the branches holding search results as recently used */
+	private void touchSubtrees(Collection<String> fullPaths) {
+
+		if (this.segmentCache != null && !fullPaths.isEmpty()) {
+			this.segmentCache.touch(fullPaths);
+		}
+	}
+
+	public void setDataMap(ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap) {
+		this.dataMap = dataMap;
+		this.pathIndex = null;
+		this.valueIndex.clear();
+		this.rangeIndex.clear();
+		this.forgetRuleSets();
+	}
+
+	/**
+	 * Writes the value of a node that is in the dataMap. Values written any other
+	 * way are not seen by getNodesByValue and isUnique.
+	 * 
+	 * @param node  the node
+	 * @param value the new value
+	 */
+	public void setNodeValue(Node node, String value) {
+
+		String oldValue = node.getValue();
+
+		node.setValue(value);
+		this.valueIndex.changeValue(node.getName(), node, oldValue);
+		this.rangeIndex.changeValue(node.getName(), node, oldValue);
+
+		String ruleSetName = this.getRuleSetName(node);
+
+		if (ruleSetName != null) {
+			this.changedRuleSets.add(ruleSetName);
+			this.forgetRuleSets();
+		}
+	}
+
+	/* Adds a node that entered the dataMap to the indexes of its name */
+	private void indexNode(String nodeName, Node node, String fullPath) {
+		if (this.pathIndex != null) {
+			this.pathIndex.put(fullPath, node);
+		}
+
+		this.valueIndex.add(nodeName, node);
+		this.rangeIndex.add(nodeName, node);
+		this.forgetRuleSet(fullPath);
+	}
+
+	/* Removes a node that left the dataMap from the indexes of its name */
+	private void unindexNode(String nodeName, Node node, String fullPath) {
+		if (this.pathIndex != null) {
+			this.pathIndex.remove(fullPath, node);
+		}
+
+		this.valueIndex.remove(nodeName, node);
+		this.rangeIndex.remove(nodeName, node);
+		this.forgetRuleSet(fullPath);
+	}
+
+	/**
+	 * Returns the rule set of a node name, read from rule.<node name> the first
+	 * time it is asked for and kept until a rule changes.
+	 * 
+	 * @param nodeName the node name
+	 * @return the rule set, empty if the node name has none
+	 */
+	public RuleSet getRuleSet(String nodeName) {
+
+		RuleSet ruleSet = this.ruleSets.get(nodeName);
+
+		if (ruleSet == null) {
+
+			long version = this.ruleSetsVersion;
+			Node ruleNode = this.rootNode.getChild("rule");
+
+			ruleSet = RuleSet.compile((ruleNode == null) ? null : ruleNode.getChild(nodeName));
+
+			if (version == this.ruleSetsVersion) {
+				this.ruleSets.put(nodeName, ruleSet);
+			}
+		}
+
+		return ruleSet;
+	}
+
+	private void forgetRuleSets() {
+		this.ruleSetsVersion++;
+		this.ruleSets.clear();
+	}
+
+	/* Forgets the rule sets once a node below the rule node has changed, noting which rule set it is in */
+	private void forgetRuleSet(String fullPath) {
+
+		if (fullPath.startsWith("rule.")) {
+
+			int dot = fullPath.indexOf('.', 5);
+
+			this.changedRuleSets.add((dot < 0) ? fullPath.substring(5) : fullPath.substring(5, dot));
+			this.forgetRuleSets();
+		}
+	}
+
+	/* The name of the rule set a node below the rule node is in, null for any other node */
+	private String getRuleSetName(Node node) {
+
+		Node ruleSetNode = null;
+		Node parent = node.getParent();
+
+		while (parent != null && parent != this.rootNode) {
+			ruleSetNode = node;
+			node = parent;
+			parent = node.getParent();
+		}
+
+		return (parent != null && ruleSetNode != null && "rule".equals(node.getName())) ? ruleSetNode.getName()
+				: null;
+	}
+
+	/*
+	 * Indexes the values of the loaded nodes named nodeName, the first time they
+	 * are looked up by value. The index then follows the nodes as they are loaded.
+	 */
+	private void indexValues(String nodeName) {
+
+		if (!this.valueIndex.isIndexed(nodeName)) {
+
+			ConcurrentHashMap<String, Node> nodesByName = this.dataMap.get(nodeName);
+
+			this.valueIndex.index(nodeName,
+					(nodesByName == null) ? Collections.<Node>emptyList() : nodesByName.values());
+		}
+	}
+
+	/**
+	 * Accepts the full path of nodes and returns data of those nodes where the path
+	 * contains the string defined in path. If searchRules set to true, data
+	 * containing rules nodes will be returned in the results
+	 * 
+	 * @param path        string to search for
+	 * @param searchRules boolean whether or not to include rules in the results
+	 * @return a ConcurrentHashMap where the keys are the full paths and the values
+	 *         are the nodes themselves
+	 */
+	public ConcurrentHashMap<String, Node> getDataByPath(String path, boolean searchRules) {
+		ConcurrentHashMap<String, Node> dataResults = new ConcurrentHashMap<String, Node>();
+		String nodeName = this.parseNodeName(path);
+
+		this.loadSubtreesByName(nodeName);
+
+		ConcurrentHashMap<String, Node> nodeRecords = this.dataMap.get(nodeName);
+
+		if (nodeRecords == null) {
+			return dataResults;
+
+		}
+
+		/*
+		 * The node tree is itself a trie of the path's names, so rather than checking
+		 * the path of every node named nodeName, the search starts from the nodes of
+		 * whichever name in the path has the fewest, and follows the rest of the path
+		 * up and down the tree from each of them.
+		 */
+		String[] pathNames = path.split("\\.");
+		ConcurrentHashMap<String, Node> anchorRecords = nodeRecords;
+		int anchor = pathNames.length - 1;
+
+		for (int i = 0; i < pathNames.length - 1; i++) {
+
+			ConcurrentHashMap<String, Node> records = this.dataMap.get(pathNames[i]);
+
+			if (records == null) {
+				return dataResults;
+			}
+
+			if (records.size() < anchorRecords.size()) {
+				anchorRecords = records;
+				anchor = i;
+			}
+		}
+
+		if (anchor == pathNames.length - 1) {
+
+			for (String fullPath : nodeRecords.keySet()) {
+
+				if (this.checkSubPathInPath(path, fullPath)) {
+					dataResults.put(fullPath, nodeRecords.get(fullPath));
+				}
+			}
+
+		} else {
+
+			for (Map.Entry<String, Node> anchorRecord : anchorRecords.entrySet()) {
+				this.addPathMatches(pathNames, anchor, anchorRecord.getKey(), anchorRecord.getValue(), dataResults);
+			}
+		}
+
+		if (!searchRules) {
+
+			for (String fullPath : dataResults.keySet()) {
+
+				if (fullPath.matches("\\.rules\\.") || fullPath.endsWith("\\.rules")) {
+					dataResults.remove(fullPath);
+				}
+			}
+		}
+
+		this.touchSubtrees(dataResults.keySet());
+
+		return dataResults;
+	}
+
+	/*
+	 * Adds the node the path leads to from an anchor, a node named
+	 * pathNames[anchor], if the anchor's ancestors carry the names before it. Since
+	 * a path matches anywhere within a full path, the nodes below that one with the
+	 * same name are added as well.
+	 */
+	private void addPathMatches(String[] pathNames, int anchor, String anchorPath, Node anchorNode,
+			ConcurrentHashMap<String, Node> dataResults) {
+
+		Node currentNode = anchorNode;
+
+		for (int i = anchor - 1; i >= 0; i--) {
+
+			currentNode = currentNode.getParent();
+
+			if (currentNode == null || !pathNames[i].equals(currentNode.getName())) {
+				return;
+			}
+		}
+
+		StringBuilder fullPath = new StringBuilder(anchorPath);
+
+		currentNode = anchorNode;
+
+		for (int i = anchor + 1; i < pathNames.length; i++) {
+
+			currentNode = currentNode.getChild(pathNames[i]);
+
+			if (currentNode == null) {
+				return;
+			}
+
+			fullPath.append('.').append(pathNames[i]);
 		}
-		try {
 
-			nodesByName.remove(fullPath);
+		dataResults.put(fullPath.toString(), currentNode);
 
-		} catch (Exception e) {
+		this.addNamedDescendants(currentNode, fullPath.toString(), pathNames[pathNames.length - 1], dataResults);
+	}
+
+	/*
+	 * Adds the descendants of a node that have the given name. A stub is skipped,
+	 * the stubs with nodes of that name below them have already been loaded.
+	 */
+	private void addNamedDescendants(Node node, String fullPath, String nodeName,
+			ConcurrentHashMap<String, Node> dataResults) {
 
+		if (node.isStub()) {
+			return;
 		}
 
-		if (nodesByName.isEmpty()) {
+		for (Map.Entry<String, Node> child : node.getChildren().entrySet()) {
 
-			this.dataMap.remove(nodeName);
+			String childPath = fullPath + "." + child.getKey();
+
+			if (child.getKey().equals(nodeName)) {
+				dataResults.put(childPath, child.getValue());
+			}
 
+			this.addNamedDescendants(child.getValue(), childPath, nodeName, dataResults);
 		}
+	}
 
-		return true;
+	/**
+	 * Retrieves the node rules from memory and constructs a container out of them.
+	 * 
+	 * @param selectedNodeName the rule name set to build
+	 * @return ConcurrentHashMap<rule name, rule value>
+	 */
+	public ConcurrentHashMap<String, String> getRulesByRuleSetName(String selectedNodeName) {
+		return new ConcurrentHashMap<String, String>(this.getRuleSet(selectedNodeName).getRules());
+	}
 
+	/**
+	 * Returns the type the rule set of a node name declares for its values.
+	 * 
+	 * @param nodeName the node name
+	 * @return the type, or null if the node name has no type rule
+	 */
+	public String getValueType(String nodeName) {
+		return this.getRuleSet(nodeName).getType();
 	}
 
 	/**
-	 * Returns true if the subPath is inside the path, otherwise it returns false.
-	 * There are some things to take into consideration here. We do not want the
-	 * beginning or ending of a subPath to partially match a node name. For instance
-	 * we don't want something like 'database.2' matching 'database.22'. Therefore
-	 * numerous requirements are presented here to pass the check
+	 * Stores the values of the nodes with a node name in the form its rule set's
+	 * type declares, typed for integer, decimal, date, time and boolean and as text
+	 * otherwise, and builds or drops their range index as the index rule declares.
+	 * Called when the type or index rule of the node name may have changed.
 	 * 
-	 * @param subPath
-	 * @param path
-	 * @return
+	 * @param nodeName the node name
 	 */
+	public void applyValueType(String nodeName) {
 
-	public boolean checkSubPathInPath(String subPath, String path) {
-		boolean success = false;
+		ConcurrentHashMap<String, Node> nodesByName = this.dataMap.get(nodeName);
+		String type = this.getValueType(nodeName);
 
-		if (subPath.equals("Root") || path.contains("." + subPath + ".") || path.startsWith(subPath + ".") || path.endsWith("." + subPath)
-				|| path.equals(subPath)) {
+		this.valueTypes.put(nodeName, (type == null) ? "" : type);
 
-			success = true;
-		}
+		if (nodesByName != null) {
 
-		return success;
-	}
+			for (Map.Entry<String, Node> nodeByPath : nodesByName.entrySet()) {
 
-	/**
-	 * Accepts a string of the full path for a node and parses the node's name (the
-	 * last item in the full path). For instance, if a.b.c.d is provided as input, d
-	 * will be returned. If a is provided as input, a will be returned.
-	 * 
-	 * @param fullPath - the full path of the node, separated by periods
-	 * @return the parsed name of the node
-	 */
-	public String parseNodeName(String fullPath) {
+				/* The rule set itself is named after the node name, but is not one of its nodes */
+				if (nodeByPath.getKey().startsWith("rule.")) {
+					continue;
+				}
 
-		String nodeName = "";
-		int lastDot = 0;
+				Node node = nodeByPath.getValue();
 
-		if (fullPath.contains(".")) {
-			lastDot = fullPath.lastIndexOf('.');
-			nodeName = fullPath.substring(lastDot + 1);
-		} else {
-			nodeName = fullPath;
+				node.setValue(node.getValue(), type);
+			}
 		}
 
-		return nodeName;
-
+		this.applyRangeIndex(nodeName, type);
 	}
 
 	/**
-	 * Accepts a string of the full path for a node and parses the node's name (the
-	 * last item in the full path). For instance, if a.b.c.d is provided as input,
-	 * a.b.c will be returned. If a is provided as input, Root will be returned.
-	 * 
-	 * @param fullPath - the full path of the node, separated by periods
-	 * @return the parsed parent names of the node
+	 * Applies the rule sets whose rules have changed since it was last called, see
+	 * applyValueType. The values of a node name are only stored again when its
+	 * type has changed, otherwise only its range index is built or dropped.
+	 * Called after each statement, while holding the dataMap lock.
 	 */
-	public String parseParentName(String fullPath) {
-
-		String parentName = "";
+	public void applyRuleSetChanges() {
 
-		int lastDot = 0;
+		for (String ruleSetName : this.changedRuleSets) {
 
-		if (fullPath.contains(".")) {
-			lastDot = fullPath.lastIndexOf('.');
-			parentName = fullPath.substring(0, lastDot);
-		}
+			this.changedRuleSets.remove(ruleSetName);
 
-		return parentName;
+			String type = this.getValueType(ruleSetName);
 
+			if (this.valueTypes.getOrDefault(ruleSetName, "").equals((type == null) ? "" : type)) {
+				this.applyRangeIndex(ruleSetName, type);
+			} else {
+				this.applyValueType(ruleSetName);
+			}
+		}
 	}
 
-	public String parseFullPath(ArrayList<String> parentNames, String selectedNodeName) {
-
-		String fullPath = "";
+	/* Builds the range index of a node name from the nodes already loaded, once its rule set sets index */
+	private void applyRangeIndex(String nodeName, String type) {
 
-		if (parentNames.size() > 0) {
+		if (!this.getRuleSet(nodeName).isIndexed() || !RangeIndex.isOrdered(type)) {
 
-			fullPath = String.join(".", parentNames) + "." + selectedNodeName;
+			this.rangeIndex.drop(nodeName);
 
-		} else {
+		} else if (!type.equals(this.rangeIndex.getType(nodeName))) {
 
-			fullPath = selectedNodeName;
+			ConcurrentHashMap<String, Node> nodesByName = this.dataMap.get(nodeName);
 
+			this.rangeIndex.index(nodeName, type,
+					(nodesByName == null) ? Collections.<Node>emptyList() : nodesByName.values());
 		}
-
-		return fullPath;
 	}
 
 	/**
-	 * Accepts the data results as input (which is a concurrent hashmap with the key
-	 * containing the full path of a node and the value is the node) and returns an
-	 * arraylist of the nodes.
+	 * Returns the nodes with a node name whose value lies between two values, in
+	 * the order of their values. Values are compared as the integer, decimal, date
+	 * or time type the node name's rule set declares, through the range index if
+	 * the rule set sets index and by reading every node of the name otherwise.
 	 * 
-	 * @param dataResults Full data containing the full paths as the keys and the
-	 *                    nodes
-	 * @return an array list of the nodes contained in the dataResults
+	 * @param nodeName  the node name
+	 * @param lowValue  the smallest value, included, or empty for no lower bound
+	 * @param highValue the largest value, included, or empty for no upper bound
+	 * @return the nodes, empty if the node name's type has no order or a bound is
+	 *         not a value of the type
 	 */
-	public ArrayList<Node> justNodes(ConcurrentHashMap<String, Node> dataResults) {
+	public ArrayList<Node> getNodesByValueRange(String nodeName, String lowValue, String highValue) {
 
-		Collection<Node> values = dataResults.values();
-		return new ArrayList<Node>(values);
-
-	}
-
-	public String dumpDataMap() {
-
-		ConcurrentHashMap<String, Node> flatDataMap = this.getFlatDataMap();
-		ArrayList<String> lines = new ArrayList<String>();
-		Node currentNode;
-
-		for (String fullPath : flatDataMap.keySet()) {
+		String type = this.getValueType(nodeName);
+		TypedValue low = TypedValue.parse(lowValue, type);
+		TypedValue high = TypedValue.parse(highValue, type);
 
-			/* We do not dump 'Root' which is a blank entry with no name or value */
-			if (fullPath.equals("")) {
+		if (!RangeIndex.isOrdered(type) || (low == null && !lowValue.isEmpty())
+				|| (high == null && !highValue.isEmpty())) {
+			return new ArrayList<Node>();
+		}
 
-				continue;
-			}
+		return this.getRangeIndex(nodeName, type, low, high).getRange(nodeName, low, high);
+	}
 
-			currentNode = flatDataMap.get(fullPath);
-			lines.add(fullPath + ":" + currentNode.getValue());
+	/**
+	 * Returns the nodes with a node name that hold its smallest value, compared as
+	 * in getNodesByValueRange.
+	 * 
+	 * @param nodeName the node name
+	 * @return the nodes, empty if no node of the name has a value of an ordered
+	 *         type
+	 */
+	public ArrayList<Node> getNodesByMinValue(String nodeName) {
 
-		}
+		return this.getNodesByEndValue(nodeName, false);
+	}
 
-		Collections.sort(lines);
-		Collections.reverse(lines);
-		return String.join("\n", lines);
+	/**
+	 * Returns the nodes with a node name that hold its largest value, compared as
+	 * in getNodesByValueRange.
+	 * 
+	 * @param nodeName the node name
+	 * @return the nodes, empty if no node of the name has a value of an ordered
+	 *         type
+	 */
+	public ArrayList<Node> getNodesByMaxValue(String nodeName) {
 
+		return this.getNodesByEndValue(nodeName, true);
 	}
 
-	public String printDataMap() {
+	private ArrayList<Node> getNodesByEndValue(String nodeName, boolean largest) {
 
-		StringBuilder result = new StringBuilder();
-		String line = "";
-		Node currentNode;
+		String type = this.getValueType(nodeName);
 
-		ArrayList<String> sortedNames = new ArrayList<String>();
-		sortedNames.addAll(this.dataMap.keySet());
-		Collections.sort(sortedNames);
+		if (!RangeIndex.isOrdered(type)) {
+			return new ArrayList<Node>();
+		}
 
-		for (String nodeName : sortedNames) {
+		/* Record sets left on disk are scanned for their end value, and only read back if they hold it */
+		ArrayList<Column> columns = this.loadSubtreesByName(nodeName, column -> false);
+		TypedValue endValue = null;
 
-			ConcurrentHashMap<String, Node> nodeRecords = this.dataMap.get(nodeName);
+		if (type.equals(this.rangeIndex.getType(nodeName))) {
 
-			ArrayList<String> sortedRecords = new ArrayList<String>();
-			sortedRecords.addAll(nodeRecords.keySet());
-			Collections.sort(sortedRecords);
+			ArrayList<Node> endNodes = this.rangeIndex.getEnd(nodeName, largest);
 
-			for (String fullPath : sortedRecords) {
-				currentNode = nodeRecords.get(fullPath);
-				line = fullPath + ":" + currentNode.getValue();
-				result.append(line + "\n");
+			if (columns.isEmpty()) {
+				return endNodes;
 			}
-		}
-
-		return result.toString();
-	}
 
-	public long getUid() {
-		return this.uid;
-	}
+			endValue = endNodes.isEmpty() ? null : TypedValue.parse(endNodes.get(0).getValue(), type);
 
-	public void setUid(long uid) {
-		this.uid = uid;
-	}
+		} else {
 
-	public boolean getKillSignal() {
-		return this.killSignal;
-	}
+			/* Without an index, the end value is found first and its nodes are then taken as a range */
+			ConcurrentHashMap<String, Node> nodesByName = this.dataMap.get(nodeName);
 
-	public void setKillSignal(boolean killSignal) {
-		this.killSignal = killSignal;
-	}
+			for (Node node : (nodesByName == null) ? Collections.<Node>emptyList() : nodesByName.values()) {
 
-	public boolean getWriteToDiskSignal() {
-		return this.writeToDiskSignal;
-	}
+				TypedValue value = TypedValue.parse(node.getValue(), type);
 
-	public void setWriteToDiskSignal(boolean writeToDiskSignal) {
-		this.writeToDiskSignal = writeToDiskSignal;
-	}
+				if (value != null && (endValue == null || (value.compareTo(endValue) > 0) == largest)) {
+					endValue = value;
+				}
+			}
+		}
 
-	public ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> getDataMap() {
-		return this.dataMap;
-	}
+		for (Column column : columns) {
+			endValue = column.getEndValue(type, endValue, largest);
+		}
 
-	public void setDataMap(ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap) {
-		this.dataMap = dataMap;
+		return (endValue == null) ? new ArrayList<Node>()
+				: this.getRangeIndex(nodeName, type, endValue, endValue).getRange(nodeName, endValue, endValue);
 	}
 
-	/**
-	 * Accepts the full path of nodes and returns data of those nodes where the path
-	 * contains the string defined in path. If searchRules set to true, data
-	 * containing rules nodes will be returned in the results
-	 * 
-	 * @param path        string to search for
-	 * @param searchRules boolean whether or not to include rules in the results
-	 * @return a ConcurrentHashMap where the keys are the full paths and the values
-	 *         are the nodes themselves
+	/*
+	 * The range index of a node name, or if the name is not indexed, one built for
+	 * this lookup alone from the nodes with a value between low and high
 	 */
-	public ConcurrentHashMap<String, Node> getDataByPath(String path, boolean searchRules) {
-		ConcurrentHashMap<String, Node> dataResults = new ConcurrentHashMap<String, Node>();
-		String nodeName = this.parseNodeName(path);
-		ConcurrentHashMap<String, Node> nodeRecords = this.dataMap.get(nodeName);
+	private RangeIndex getRangeIndex(String nodeName, String type, TypedValue low, TypedValue high) {
 
-		if (nodeRecords == null) {
-			return dataResults;
+		/* Record sets left on disk are only read back if they hold a value in the range */
+		this.loadSubtreesByName(nodeName, column -> column.containsRange(type, low, high));
 
+		if (type.equals(this.rangeIndex.getType(nodeName))) {
+			return this.rangeIndex;
 		}
 
-		for (String fullPath : nodeRecords.keySet()) {
+		RangeIndex lookupIndex = new RangeIndex();
+		ArrayList<Node> rangeNodes = new ArrayList<Node>();
+		ConcurrentHashMap<String, Node> nodesByName = this.dataMap.get(nodeName);
 
-			if (this.checkSubPathInPath(path, fullPath)) {
+		for (Node node : (nodesByName == null) ? Collections.<Node>emptyList() : nodesByName.values()) {
 
-				if (fullPath.matches("\\.rules\\.") || fullPath.endsWith("\\.rules")) {
-					if (!searchRules) {
-						continue;
-					}
-				}
+			TypedValue value = TypedValue.parse(node.getValue(), type);
 
-				dataResults.put(fullPath, nodeRecords.get(fullPath));
+			if (value != null && (low == null || value.compareTo(low) >= 0)
+					&& (high == null || value.compareTo(high) <= 0)) {
+				rangeNodes.add(node);
 			}
-
 		}
 
-		return dataResults;
+		lookupIndex.index(nodeName, type, rangeNodes);
+
+		return lookupIndex;
 	}
 
 	/**
-	 * Retrieves the node rules from memory and constructs a container out of them.
-	 * 
-	 * @param selectedNodeName the rule name set to build
-	 * @return ConcurrentHashMap<rule name, rule value>
+	 * Stores the values of the nodes of every rule set that declares a type in
+	 * typed form, see applyValueType.
 	 */
-	public ConcurrentHashMap<String, String> getRulesByRuleSetName(String selectedNodeName) {
-		ConcurrentHashMap<String, String> theRules = new ConcurrentHashMap<String, String>();
+	public void applyValueTypes() {
 
-		Node ruleNode = this.getNodeByHierarchy("rule." + selectedNodeName, true);
+		Node ruleNode = this.rootNode.getChild("rule");
 
-		if (ruleNode != null) {
-			Set<String> ruleNames = ruleNode.getChildren().keySet();
+		/* The rule sets changed by the log replayed at startup are all applied here */
+		this.changedRuleSets.clear();
 
-			for (String ruleName : ruleNames) {
+		if (ruleNode == null) {
+			return;
+		}
 
-				theRules.put(ruleName, ruleNode.getChild(ruleName).getValue());
+		for (String ruleSetName : ruleNode.getChildren().keySet()) {
 
+			if (this.getValueType(ruleSetName) != null) {
+				this.applyValueType(ruleSetName);
 			}
-
 		}
-
-		return theRules;
 	}
 
 	/**
@@ -531,6 +1507,8 @@ public class MemoryStorage {
 		Node currentNode;
 		ArrayList<Node> resultNodes = new ArrayList<Node>();
 
+		this.loadSubtreesByName(nodeName);
+
 		for (String fullPath : this.dataMap.get(nodeName).keySet()) {
 
 			if (fullPath.matches("\\.rules\\.") || fullPath.endsWith("\\.rules")) {
@@ -560,6 +1538,8 @@ public class MemoryStorage {
 		Node currentNode;
 		ArrayList<Node> resultNodes = new ArrayList<Node>();
 
+		this.loadSubtreesByName(nodeName);
+
 		if (!this.dataMap.containsKey(nodeName)) {
 
 			return resultNodes;
@@ -678,11 +1658,15 @@ public class MemoryStorage {
 
 	public ArrayList<Node> getNodesByValue(String nodeValue) {
 
-		Node currentNode = this.rootNode;
-		ArrayList<Node> resultNodes = new ArrayList<Node>();
+		if (this.segmentCache != null) {
+			this.segmentCache.loadAll();
+		}
 
-		return this.getNodesByValue(nodeValue, currentNode, resultNodes);
+		if (!this.valueIndex.isAllIndexed()) {
+			this.valueIndex.indexAll(this.dataMap);
+		}
 
+		return this.valueIndex.getAll(nodeValue);
 	}
 
 	/**
@@ -708,19 +1692,13 @@ public class MemoryStorage {
 	 */
 	public ArrayList<Node> getNodesByValue(String nodeName, String nodeValue, boolean searchRules) {
 
-		ArrayList<Node> finalNodes = new ArrayList<Node>();
-		ArrayList<Node> resultNodes = this.getNodesByName(nodeName, searchRules);
-
-		for (Node resultNode : resultNodes) {
-
-			if (resultNode.getValue().equals(nodeValue)) {
-
-				finalNodes.add(resultNode);
+		/* Record sets left on disk are only read back if they hold the value */
+		this.loadSubtreesByName(nodeName, column -> column.count(nodeValue) > 0);
 
-			}
-		}
+		/* The rules filter of getNodesByName never excludes a node, so neither does the index */
+		this.indexValues(nodeName);
 
-		return finalNodes;
+		return this.valueIndex.get(nodeName, nodeValue);
 	}
 
 	/**
@@ -733,9 +1711,16 @@ public class MemoryStorage {
 	 */
 	public boolean isUnique(String nodeName, String nodeValue) {
 
-		ArrayList<Node> resultNodes = this.getNodesByValue(nodeName, nodeValue);
+		/* The values of record sets left on disk are counted where they are */
+		int count = 0;
+
+		for (Column column : this.loadSubtreesByName(nodeName, column -> false)) {
+			count += column.count(nodeValue);
+		}
+
+		this.indexValues(nodeName);
 
-		return (resultNodes.size() > 1) ? false : true;
+		return (count + this.valueIndex.count(nodeName, nodeValue) > 1) ? false : true;
 	}
 
 	/**
@@ -771,6 +1756,51 @@ public class MemoryStorage {
 		return this.getDataByPath(parentPath, searchRules);
 	}
 
+	/**
+	 * Does what getParentNodesDataByHierarchy does for a hierarchy that is fully
+	 * specified, one whose first name is only given to a node at the top of the
+	 * tree. Such a hierarchy can only be matched from that node, so the parent is
+	 * looked up by its full path rather than searched for.
+	 * 
+	 * @param nodePath the hierarchy of nodes to search
+	 * @return the same as getParentNodesDataByHierarchy, or null if the hierarchy
+	 *         is not fully specified
+	 */
+	public ConcurrentHashMap<String, Node> getParentNodesDataByFullPath(String nodePath) {
+
+		String parentPath = this.parseParentName(nodePath);
+		String parentName = this.parseNodeName(parentPath);
+		int dot = parentPath.indexOf('.');
+		String topName = (dot < 0) ? parentPath : parentPath.substring(0, dot);
+
+		/* Any node the hierarchy matches is in a branch holding nodes named parentName */
+		this.loadSubtreesByName(parentName);
+
+		ConcurrentHashMap<String, Node> topRecords = this.dataMap.get(topName);
+
+		if (topRecords == null || topRecords.size() != 1 || !topRecords.containsKey(topName)) {
+			return null;
+		}
+
+		ConcurrentHashMap<String, Node> dataResults = new ConcurrentHashMap<String, Node>();
+		Node parentNode = this.getNodeByFullPath(parentPath);
+
+		if (parentNode == null) {
+			return dataResults;
+		}
+
+		dataResults.put(parentPath, parentNode);
+
+		/* As in getDataByPath, the nodes below the parent with its name match as well */
+		if (this.dataMap.get(parentName).size() > 1) {
+			this.addNamedDescendants(parentNode, parentPath, parentName, dataResults);
+		}
+
+		this.touchSubtrees(dataResults.keySet());
+
+		return dataResults;
+	}
+
 	/**
 	 * This method is intended to resolve the child keyword name with the actual
 	 * names of the children in an ArrayList of Strings. You have to pass as a
@@ -821,7 +1851,7 @@ public class MemoryStorage {
 
 		int nodesDeleted = 0;
 
-		ConcurrentHashMap<String, Node> theChildren = parentNode.getChildren();
+		Map<String, Node> theChildren = parentNode.getChildren();
 		Node deletedNode = theChildren.remove(nodeName);
 
 		if (deletedNode != null) {
@@ -881,7 +1911,7 @@ public class MemoryStorage {
 
 		int renamedNodes = 0;
 
-		ConcurrentHashMap<String, Node> theChildren = parentNode.getChildren();
+		Map<String, Node> theChildren = parentNode.getChildren();
 		Node childNode = theChildren.get(nodeName);
 		Node deletedNode = theChildren.remove(nodeName);
 
@@ -895,38 +1925,6 @@ public class MemoryStorage {
 		return renamedNodes;
 	}
 
-	/**
-	 * This the private implementation of getNodesByValue with all of the extra
-	 * parameters that are automatically populated in the public method.
-	 * 
-	 * @param nodeValue   - the current node value being searched for
-	 * @param currentNode - the current Node object being traversed
-	 * @param resultNodes - the container of node found
-	 * @return an array list of the current result nodes
-	 */
-	private ArrayList<Node> getNodesByValue(String nodeValue, Node currentNode, ArrayList<Node> resultNodes) {
-
-		Node nextNode;
-
-		/* If its a LeafNode, stop traversing */
-		if (currentNode.getChildren().isEmpty()) {
-			return resultNodes;
-		}
-
-		for (String key : currentNode.getChildren().keySet()) {
-
-			nextNode = currentNode.getChild(key);
-
-			/* If the Next Node's name is a match, add it to the list of Result Nodes */
-			if (nextNode.getValue().equals(nodeValue)) {
-				resultNodes.add(nextNode);
-			}
-
-			resultNodes = this.getNodesByValue(nodeValue, nextNode, resultNodes);
-		}
-		return resultNodes;
-	}
-
 	/**
 	 * This is a helper method for getParentNodesByHierarchy. The method retrieves
 	 * the nodes that come from a parent - child structure encountering the 'child'
@@ -0,0 +1,300 @@
+/* 
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+The NameDictionary gives every distinct node name an int id, for as long as the
+server runs. Nodes key their children by these ids, so a name such as
+companyCity is kept once rather than once for every node that has it, and
+finding a child compares ints rather than strings.
+
+Names that are plain decimal numbers, like the ids given out by Newid, are not
+added to the dictionary: the number is the id, stored negated (-1 - number) so
+that it cannot be mistaken for the id of a named entry. Ids of names in the
+dictionary start at 0.
+
+An id is handed out as a boxed Integer that is shared by every node that uses
+it, so keying a ConcurrentHashMap by ids costs no more than keying it by names.
+The boxed ids of numbers are shared the same way up to MAX_SHARED_NUMBER, each
+boxed the first time it is asked for. A larger number is boxed every time.
+
+ORDER sorts ids by their names in the order children are kept in when they are
+ordered: names made only of digits first, by their value, and then every other
+name as a string. Ids of plain numbers are compared without looking up a name. */
+
+package rut;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class NameDictionary {
+
+	/* Returned by findId for a name that no node has ever had */
+	public static final int NO_NAME = Integer.MIN_VALUE;
+
+	/* Numbers with more digits than this are kept in the dictionary like any other name */
+	private static final int MAX_NUMBER_DIGITS = 9;
+
+	private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	/* The name and the shared boxed id of each id in the dictionary, grown as names are added */
+	private static volatile String[] names = new String[256];
+
+	private static volatile Integer[] keys = new Integer[256];
+
+	/* Numbers up to this share their boxed ids, see getNumberKey */
+	private static final int MAX_SHARED_NUMBER = (1 << 20) - 1;
+
+	/* The shared boxed id of each number, by the number, grown as numbers are asked for */
+	private static volatile Integer[] numberKeys = new Integer[256];
+
+	/* Orders ids by their names, see compareNames */
+	public static final Comparator<Integer> ORDER = (id1, id2) -> NameDictionary.compare(id1.intValue(), id2.intValue());
+
+	private NameDictionary() {
+	}
+
+	/**
+	 * Returns the id of a name, adding the name to the dictionary if it is new.
+	 * 
+	 * @param name the node name
+	 * @return the id, shared by every node with that name
+	 */
+	public static Integer getKey(String name) {
+
+		int number = NameDictionary.parseNumber(name);
+
+		if (number >= 0) {
+			return NameDictionary.getNumberKey(number);
+		}
+
+		Integer key = ids.get(name);
+
+		return (key != null) ? key : NameDictionary.add(name);
+	}
+
+	/**
+	 * Returns the id of a name, adding the name to the dictionary if it is new.
+	 * 
+	 * @param name the node name
+	 * @return the id
+	 */
+	public static int getId(String name) {
+		return NameDictionary.getKey(name).intValue();
+	}
+
+	/**
+	 * Returns the id of a name without adding it to the dictionary.
+	 * 
+	 * @param name the node name
+	 * @return the id, or NO_NAME if no node has ever had the name
+	 */
+	public static int findId(String name) {
+
+		int number = NameDictionary.parseNumber(name);
+
+		if (number >= 0) {
+			return -1 - number;
+		}
+
+		Integer key = ids.get(name);
+
+		return (key != null) ? key.intValue() : NO_NAME;
+	}
+
+	/**
+	 * Returns the name of an id.
+	 * 
+	 * @param id the id
+	 * @return the name
+	 */
+	public static String getName(int id) {
+		return (id < 0) ? Integer.toString(-1 - id) : names[id];
+	}
+
+	/**
+	 * Compares two ids by their names, see compareNames.
+	 * 
+	 * @param id1 the first id
+	 * @param id2 the second id
+	 * @return less than, equal to or greater than 0 as the first name comes
+	 *         before, is the same as or comes after the second
+	 */
+	public static int compare(int id1, int id2) {
+
+		/* The larger the number, the smaller its id */
+		if (id1 < 0 && id2 < 0) {
+			return Integer.compare(id2, id1);
+		}
+
+		return NameDictionary.compareNames(NameDictionary.getName(id1), NameDictionary.getName(id2));
+	}
+
+	/**
+	 * Compares two names: names made only of digits come first, in order of their
+	 * value, then every other name in string order. Numbers of the same value,
+	 * such as 7 and 007, are told apart by their strings.
+	 * 
+	 * @param name1 the first name
+	 * @param name2 the second name
+	 * @return less than, equal to or greater than 0 as the first name comes
+	 *         before, is the same as or comes after the second
+	 */
+	public static int compareNames(String name1, String name2) {
+
+		boolean number1 = NameDictionary.isDigits(name1);
+		boolean number2 = NameDictionary.isDigits(name2);
+
+		if (number1 != number2) {
+			return number1 ? -1 : 1;
+		}
+
+		if (!number1) {
+			return name1.compareTo(name2);
+		}
+
+		String digits1 = NameDictionary.stripZeros(name1);
+		String digits2 = NameDictionary.stripZeros(name2);
+
+		if (digits1.length() != digits2.length()) {
+			return Integer.compare(digits1.length(), digits2.length());
+		}
+
+		int result = digits1.compareTo(digits2);
+
+		return (result != 0) ? result : name1.compareTo(name2);
+	}
+
+	/* Returns the shared boxed id of an id returned by getId or findId */
+	static Integer toKey(int id) {
+		return (id < 0) ? NameDictionary.getNumberKey(-1 - id) : keys[id];
+	}
+
+	/* Returns the boxed id of a number, shared if the number is no larger than MAX_SHARED_NUMBER */
+	private static Integer getNumberKey(int number) {
+
+		if (number > MAX_SHARED_NUMBER) {
+			return Integer.valueOf(-1 - number);
+		}
+
+		Integer[] currentKeys = numberKeys;
+		Integer key = (number < currentKeys.length) ? currentKeys[number] : null;
+
+		return (key != null) ? key : NameDictionary.addNumber(number);
+	}
+
+	/* The number a name is made of, or -1 if it is not a plain decimal number */
+	private static int parseNumber(String name) {
+
+		int length = name.length();
+
+		if (length == 0 || length > MAX_NUMBER_DIGITS || (length > 1 && name.charAt(0) == '0')) {
+			return -1;
+		}
+
+		int number = 0;
+
+		for (int i = 0; i < length; i++) {
+
+			char digit = name.charAt(i);
+
+			if (digit < '0' || digit > '9') {
+				return -1;
+			}
+
+			number = number * 10 + (digit - '0');
+		}
+
+		return number;
+	}
+
+	private static boolean isDigits(String name) {
+
+		if (name.isEmpty()) {
+			return false;
+		}
+
+		for (int i = 0; i < name.length(); i++) {
+
+			if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static String stripZeros(String digits) {
+
+		int start = 0;
+
+		while (start < digits.length() - 1 && digits.charAt(start) == '0') {
+			start++;
+		}
+
+		return digits.substring(start);
+	}
+
+	private static synchronized Integer add(String name) {
+
+		Integer key = ids.get(name);
+
+		if (key != null) {
+			return key;
+		}
+
+		int id = ids.size();
+		String[] currentNames = names;
+		Integer[] currentKeys = keys;
+
+		if (id == currentNames.length) {
+			currentNames = Arrays.copyOf(currentNames, id * 2);
+			currentKeys = Arrays.copyOf(currentKeys, id * 2);
+		}
+
+		key = Integer.valueOf(id);
+
+		/* The name is readable by its id before the id is handed out */
+		currentNames[id] = name;
+		currentKeys[id] = key;
+		names = currentNames;
+		keys = currentKeys;
+		ids.put(name, key);
+
+		return key;
+	}
+
+	private static synchronized Integer addNumber(int number) {
+
+		Integer[] currentKeys = numberKeys;
+
+		if (number >= currentKeys.length) {
+			currentKeys = Arrays.copyOf(currentKeys,
+					Math.min(Math.max(currentKeys.length * 2, number + 1), MAX_SHARED_NUMBER + 1));
+		}
+
+		Integer key = currentKeys[number];
+
+		if (key == null) {
+			key = Integer.valueOf(-1 - number);
+			currentKeys[number] = key;
+		}
+
+		numberKeys = currentKeys;
+
+		return key;
+	}
+
+}
@@ -14,17 +14,56 @@ See the License for the specific language governing permissions and
 limitations under the License.
 -=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
 
-A Node object is a field of data. */
+A Node object is a field of data.
+
+A node can also be a stub: a node whose value is in memory but whose children
+are still on disk. The children of a stub are loaded by its SubtreeLoader the
+first time they are reached.
+
+Most nodes have no children or only a few, so a node keeps its children in the
+smallest container that holds them: nothing for a leaf, an array of name ids and
+nodes for up to SMALL_CHILDREN_LIMIT children, and a ConcurrentHashMap beyond
+that. Children are keyed by the ids the NameDictionary gives their names.
+
+When children are kept in order (Definitions.orderedChildren), the array is
+kept sorted by NameDictionary.ORDER and a ConcurrentSkipListMap takes the place
+of the ConcurrentHashMap, so children are iterated in order of their names,
+numbers by their value, and a range of them is found without a full scan.
+getChildren() returns a Map view, by name, of whichever container is in use, and
+changes made through the view are made to the node. Reads never lock. Changes
+lock the node, and replace the array as a whole rather than change it, so a
+reader always sees a complete array.
+
+A node also knows its parent and its own name, which are set when it is added
+as a child and cleared when it is removed, so that its full path can be found
+by walking up the tree rather than by searching the dataMap. */
 
 package rut;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import rut.storage.SubtreeLoader;
+import rut.utilities.TypedValue;
 
 public class Node {
 
+	/* The most children a node keeps in an array before moving them to a map */
+	private static final int SMALL_CHILDREN_LIMIT = 8;
+
+	private static final Object[] NO_CHILDREN = new Object[0];
+
 	/* This is a lock that determines whether or not a node can be written to. */
 	private boolean locked;
 
@@ -34,29 +73,42 @@ public class Node {
 
 	/*
 	 * This is the value assigned to a node, it be may cast to any atomic data type,
-	 * such as a numeric value.
+	 * such as a numeric value. It is a String, or a TypedValue once the node's rule
+	 * set declares a type other than text.
+	 */
+	private volatile Object value;
+
+	/*
+	 * This node's children: null if it has none, [name id, node, name id, node,
+	 * ...] if it has up to SMALL_CHILDREN_LIMIT, otherwise a ConcurrentHashMap, or
+	 * a ConcurrentSkipListMap when children are kept in order, of name ids to
+	 * nodes.
 	 */
-	private String value;
+	private volatile Object children;
 
-	/* This is a map of the names and references to this node's children nodes */
-	private ConcurrentHashMap<String, Node> children;
+	/* Set while the node is a stub, loads the node's children when they are reached */
+	private volatile SubtreeLoader subtreeLoader;
+
+	/* The node this node is a child of, null for the root node or a node that was removed */
+	private volatile Node parent;
+
+	/* The id of this node's name under its parent, NameDictionary.NO_NAME for the root node */
+	private int nameId = NameDictionary.NO_NAME;
 
 	public Node() {
-		this.setChildren(new ConcurrentHashMap<String, Node>());
 		this.setValue("");
 	}
 
-	public Node(ConcurrentHashMap<String, Node> children) {
+	public Node(Map<String, Node> children) {
 		this.setChildren(children);
 		this.setValue("");
 	}
 
 	public Node(String value) {
-		this.setChildren(new ConcurrentHashMap<String, Node>());
 		this.setValue(value);
 	}
 
-	public Node(String value, ConcurrentHashMap<String, Node> children) {
+	public Node(String value, Map<String, Node> children) {
 		this.setValue(value);
 		this.setChildren(children);
 	}
@@ -74,32 +126,560 @@ public class Node {
 	}
 
 	public Node getChild(String key) {
-		return this.getChildren().get(key);
+		this.loadSubtree();
+		return this.findChild(NameDictionary.findId(key));
+	}
+
+	/**
+	 * Returns a child by the id of its name, for callers that look up the same
+	 * name in many nodes.
+	 * 
+	 * @param nameId the id of the child's name, see NameDictionary
+	 * @return the child, or null if there is none
+	 */
+	public Node getChild(int nameId) {
+		this.loadSubtree();
+		return this.findChild(nameId);
 	}
 
 	public void setChild(String name, Node node) {
-		this.children.put(name, node);
+		this.loadSubtree();
+		this.putChild(NameDictionary.getKey(name), node);
 	}
 
 	public String getValue() {
-		return this.value;
+
+		Object current = this.value;
+
+		return (current instanceof TypedValue) ? current.toString() : (String) current;
 	}
 
+	/**
+	 * Sets the value, keeping it typed if the node's value is typed and the new
+	 * value is of the same type.
+	 * 
+	 * @param value the value
+	 */
 	public void setValue(String value) {
-		this.value = value;
+
+		Object current = this.value;
+		TypedValue typedValue = (current instanceof TypedValue)
+				? TypedValue.of(value, ((TypedValue) current).getType())
+				: null;
+
+		this.value = (typedValue != null) ? typedValue : value;
+	}
+
+	/**
+	 * Sets the value, typed if it is a valid value of the type.
+	 * 
+	 * @param value the value
+	 * @param type  the type declared by the node's rule set, text leaves the value
+	 *              as text
+	 */
+	public void setValue(String value, String type) {
+
+		TypedValue typedValue = TypedValue.of(value, type);
+
+		this.value = (typedValue != null) ? typedValue : value;
+	}
+
+	/**
+	 * Returns the value as it is kept when it is typed, so that it can be compared
+	 * without parsing it.
+	 * 
+	 * @return the typed value, or null if the value is text
+	 */
+	public TypedValue getTypedValue() {
+
+		Object current = this.value;
+
+		return (current instanceof TypedValue) ? (TypedValue) current : null;
 	}
 
 	public int getChildCount() {
+		this.loadSubtree();
+		return this.countChildren();
+	}
+
+	/**
+	 * Returns a view of this node's children. Changes made through the view are
+	 * made to this node.
+	 * 
+	 * @return the children, by name
+	 */
+	public Map<String, Node> getChildren() {
+		this.loadSubtree();
+		return new ChildMap();
+	}
+
+	/**
+	 * Returns the children whose names are from low to high, inclusive, in the
+	 * order of NameDictionary.ORDER. When children are kept in order only the
+	 * children in the range are visited, otherwise every child is checked. The
+	 * bounds are not added to the NameDictionary, a bound that no node has ever
+	 * had as its name is compared by its name as every child is checked.
+	 * 
+	 * @param low  the name of the first child in the range
+	 * @param high the name of the last child in the range
+	 * @return the children in the range, by name, in order
+	 */
+	public Map<String, Node> getChildrenInRange(String low, String high) {
+
+		this.loadSubtree();
+
+		LinkedHashMap<String, Node> range = new LinkedHashMap<String, Node>();
+		Object current = this.children;
+		int lowId = NameDictionary.findId(low);
+		int highId = NameDictionary.findId(high);
+
+		if (current == null || NameDictionary.compareNames(low, high) > 0) {
+			return range;
+		}
+
+		if (current instanceof ConcurrentSkipListMap && lowId != NameDictionary.NO_NAME
+				&& highId != NameDictionary.NO_NAME) {
+
+			for (Map.Entry<Integer, Node> child : ((ConcurrentSkipListMap<Integer, Node>) Node.asMap(current))
+					.subMap(NameDictionary.toKey(lowId), true, NameDictionary.toKey(highId), true).entrySet()) {
+				range.put(NameDictionary.getName(child.getKey().intValue()), child.getValue());
+			}
+
+			return range;
+		}
+
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+
+		if (current instanceof ConcurrentMap) {
+			keys.addAll(Node.asMap(current).keySet());
+		} else {
+
+			Object[] small = (Object[]) current;
+
+			for (int i = 0; i < small.length; i += 2) {
+				keys.add((Integer) small[i]);
+			}
+		}
+
+		/* Only the children in the range are sorted */
+		keys.removeIf(key -> NameDictionary.compareNames(NameDictionary.getName(key.intValue()), low) < 0
+				|| NameDictionary.compareNames(NameDictionary.getName(key.intValue()), high) > 0);
+		keys.sort(NameDictionary.ORDER);
+
+		for (Integer key : keys) {
+
+			Node child = this.findChild(key.intValue());
+
+			if (child != null) {
+				range.put(NameDictionary.getName(key.intValue()), child);
+			}
+		}
+
+		return range;
+	}
+
+	public void setChildren(Map<String, Node> children) {
+
+		this.loadSubtree();
+
+		/* The view returned by getChildren() is handed back after it was changed */
+		if (children instanceof ChildMap && ((ChildMap) children).getNode() == this) {
+			return;
+		}
+
+		synchronized (this) {
+			this.orphanChildren();
+			this.children = Node.compactChildren(children);
+			this.adoptChildren();
+		}
+	}
+
+	public Node getParent() {
+		return this.parent;
+	}
+
+	/**
+	 * Returns the name of this node under its parent.
+	 * 
+	 * @return the name, or null for the root node
+	 */
+	public String getName() {
+
+		int id = this.nameId;
+
+		return (id == NameDictionary.NO_NAME) ? null : NameDictionary.getName(id);
+	}
+
+	/**
+	 * Returns the full path of this node, e.g. database.employee.3, by walking up
+	 * to the root node. The root node's path is empty.
+	 * 
+	 * @return the full path, or null if the node has been removed from the tree
+	 */
+	public String getFullPath() {
+
+		ArrayList<Node> ancestors = new ArrayList<Node>();
+		Node current = this;
+
+		while (current.parent != null) {
+			ancestors.add(current);
+			current = current.parent;
+		}
+
+		if (current.nameId != NameDictionary.NO_NAME) {
+			return null;
+		}
+
+		StringBuilder fullPath = new StringBuilder();
+
+		for (int i = ancestors.size() - 1; i >= 0; i--) {
+
+			if (fullPath.length() > 0) {
+				fullPath.append('.');
+			}
+
+			fullPath.append(NameDictionary.getName(ancestors.get(i).nameId));
+		}
+
+		return fullPath.toString();
+	}
+
+	public boolean isStub() {
+		return this.subtreeLoader != null;
+	}
+
+	/**
+	 * Turns this node into a stub. Its children are dropped, and are loaded by the
+	 * subtreeLoader the next time they are reached.
+	 * 
+	 * @param subtreeLoader the loader of this node's children
+	 */
+	public void unloadSubtree(SubtreeLoader subtreeLoader) {
+		this.children = null;
+		this.subtreeLoader = subtreeLoader;
+	}
+
+	/**
+	 * Gives a stub its loaded children, after which it is no longer a stub. Called
+	 * by the node's SubtreeLoader.
+	 * 
+	 * @param children the children loaded from disk, the view of the children of
+	 *                 a node that is discarded afterwards
+	 */
+	public void finishLoadingSubtree(Map<String, Node> children) {
+
+		/* The loaded node's container is taken over as it is, rather than copied */
+		if (children instanceof ChildMap) {
+			this.children = ((ChildMap) children).getNode().children;
+		} else {
+			this.children = Node.compactChildren(children);
+		}
+
+		this.adoptChildren();
+		this.subtreeLoader = null;
+	}
+
+	private Node findChild(int nameId) {
+
+		Object current = this.children;
+
+		if (current == null || nameId == NameDictionary.NO_NAME) {
+			return null;
+		}
+
+		if (current instanceof Object[]) {
+
+			Object[] small = (Object[]) current;
+
+			for (int i = 0; i < small.length; i += 2) {
+
+				if (((Integer) small[i]).intValue() == nameId) {
+					return (Node) small[i + 1];
+				}
+			}
+
+			return null;
+		}
+
+		return Node.asMap(current).get(nameId);
+	}
+
+	/* Adds or replaces a child, moving the children to a map once there are too many */
+	private synchronized Node putChild(Integer nameKey, Node node) {
+
+		if (nameKey == null || node == null) {
+			throw new NullPointerException();
+		}
+
+		Object current = this.children;
+
+		this.adopt(nameKey, node);
+
+		if (current instanceof ConcurrentMap) {
+			return this.orphan(Node.asMap(current).put(nameKey, node), node);
+		}
+
+		Object[] small = (current == null) ? NO_CHILDREN : (Object[]) current;
+
+		for (int i = 0; i < small.length; i += 2) {
+
+			if (small[i].equals(nameKey)) {
+
+				Object[] changed = small.clone();
+				Node replaced = (Node) changed[i + 1];
+
+				changed[i + 1] = node;
+				this.children = changed;
+
+				return this.orphan(replaced, node);
+			}
+		}
+
+		if (small.length / 2 < SMALL_CHILDREN_LIMIT) {
+
+			Object[] changed = new Object[small.length + 2];
+			int position = small.length;
+
+			/* Ordered children are kept sorted, so the new child goes before the first name after it */
+			if (Definitions.orderedChildren) {
+
+				position = 0;
+
+				while (position < small.length && NameDictionary.ORDER.compare((Integer) small[position], nameKey) < 0) {
+					position += 2;
+				}
+			}
+
+			System.arraycopy(small, 0, changed, 0, position);
+			changed[position] = nameKey;
+			changed[position + 1] = node;
+			System.arraycopy(small, position, changed, position + 2, small.length - position);
+			this.children = changed;
+
+			return null;
+		}
+
+		ConcurrentMap<Integer, Node> large = Node.newLargeContainer(4 * SMALL_CHILDREN_LIMIT);
+
+		for (int i = 0; i < small.length; i += 2) {
+			large.put((Integer) small[i], (Node) small[i + 1]);
+		}
+
+		large.put(nameKey, node);
+		this.children = large;
+
+		return null;
+	}
+
+	/* Removes a child, moving the children back to an array once there are few enough */
+	private synchronized Node removeChild(int nameId) {
+
+		Object current = this.children;
+
+		if (current == null || nameId == NameDictionary.NO_NAME) {
+			return null;
+		}
+
+		if (current instanceof ConcurrentMap) {
+
+			ConcurrentMap<Integer, Node> large = Node.asMap(current);
+			Node removed = large.remove(nameId);
+
+			if (removed != null && large.size() <= SMALL_CHILDREN_LIMIT / 2) {
+				this.children = Node.copyContainer(large);
+			}
+
+			return this.orphan(removed, null);
+		}
+
+		Object[] small = (Object[]) current;
+
+		for (int i = 0; i < small.length; i += 2) {
 
-		return this.children.size();
+			if (((Integer) small[i]).intValue() == nameId) {
+
+				Object[] changed = new Object[small.length - 2];
+
+				System.arraycopy(small, 0, changed, 0, i);
+				System.arraycopy(small, i + 2, changed, i, small.length - i - 2);
+				this.children = (changed.length == 0) ? null : changed;
+
+				return this.orphan((Node) small[i + 1], null);
+			}
+		}
+
+		return null;
+	}
+
+	/* Makes this node the parent of a node added under a name, setting the name before the parent publishes it */
+	private void adopt(Integer nameKey, Node node) {
+		node.nameId = nameKey.intValue();
+		node.parent = this;
+	}
+
+	/* Clears the parent of a node that is no longer a child of this node, unless it is kept */
+	private Node orphan(Node removed, Node kept) {
+
+		if (removed != null && removed != kept && removed.parent == this) {
+			removed.parent = null;
+		}
+
+		return removed;
+	}
+
+	/* Makes this node the parent of every node in its container, once the container is replaced */
+	private void adoptChildren() {
+
+		Object current = this.children;
+
+		if (current instanceof ConcurrentMap) {
+
+			for (Map.Entry<Integer, Node> child : Node.asMap(current).entrySet()) {
+				this.adopt(child.getKey(), child.getValue());
+			}
+
+		} else if (current != null) {
+
+			Object[] small = (Object[]) current;
+
+			for (int i = 0; i < small.length; i += 2) {
+				this.adopt((Integer) small[i], (Node) small[i + 1]);
+			}
+		}
+	}
+
+	/* Clears the parent of every node in its container, before the container is replaced */
+	private void orphanChildren() {
+
+		Object current = this.children;
+
+		if (current instanceof ConcurrentMap) {
+
+			for (Node child : Node.asMap(current).values()) {
+				this.orphan(child, null);
+			}
+
+		} else if (current != null) {
+
+			Object[] small = (Object[]) current;
+
+			for (int i = 1; i < small.length; i += 2) {
+				this.orphan((Node) small[i], null);
+			}
+		}
+	}
+
+	private int countChildren() {
+
+		Object current = this.children;
+
+		if (current == null) {
+			return 0;
+		}
+
+		return (current instanceof Object[]) ? ((Object[]) current).length / 2 : Node.asMap(current).size();
+	}
+
+	/* The smallest container that holds a copy of the children, given by name */
+	private static Object compactChildren(Map<String, Node> children) {
+
+		if (children == null || children.isEmpty()) {
+			return null;
+		}
+
+		if (children instanceof ChildMap) {
+			return Node.copyContainer(((ChildMap) children).getNode().children);
+		}
+
+		ConcurrentMap<Integer, Node> large = Node.newLargeContainer(children.size());
+
+		for (Map.Entry<String, Node> child : children.entrySet()) {
+			large.put(NameDictionary.getKey(child.getKey()), child.getValue());
+		}
+
+		return (large.size() > SMALL_CHILDREN_LIMIT) ? large : Node.copyContainer(large);
+	}
+
+	/* The smallest container that holds a copy of the children in a container */
+	private static Object copyContainer(Object children) {
+
+		if (!(children instanceof ConcurrentMap)) {
+			return (children == null) ? null : ((Object[]) children).clone();
+		}
+
+		ConcurrentMap<Integer, Node> large = Node.asMap(children);
+
+		if (large.size() > SMALL_CHILDREN_LIMIT) {
+
+			ConcurrentMap<Integer, Node> copy = Node.newLargeContainer(large.size());
+
+			copy.putAll(large);
+
+			return copy;
+		}
+
+		ArrayList<Object> small = new ArrayList<Object>();
+
+		for (Map.Entry<Integer, Node> child : large.entrySet()) {
+			small.add(child.getKey());
+			small.add(child.getValue());
+		}
+
+		return small.isEmpty() ? null : small.toArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ConcurrentMap<Integer, Node> asMap(Object children) {
+		return (ConcurrentMap<Integer, Node>) children;
 	}
 
-	public ConcurrentHashMap<String, Node> getChildren() {
-		return this.children;
+	/* The map children are moved to once there are too many for an array */
+	private static ConcurrentMap<Integer, Node> newLargeContainer(int size) {
+
+		if (Definitions.orderedChildren) {
+			return new ConcurrentSkipListMap<Integer, Node>(NameDictionary.ORDER);
+		}
+
+		return new ConcurrentHashMap<Integer, Node>(size);
 	}
 
-	public void setChildren(ConcurrentHashMap<String, Node> children) {
-		this.children = children;
+	/* Loads the children of a stub */
+	private void loadSubtree() {
+
+		SubtreeLoader loader = this.subtreeLoader;
+
+		if (loader != null) {
+			loader.loadSubtree(this);
+		}
+	}
+
+	/*
+	 * Starts loading the children of this node that are stubs, since a traversal
+	 * descending into one is likely to reach its siblings as well.
+	 */
+	private void readAheadChildren() {
+
+		ArrayList<Node> stubs = null;
+		SubtreeLoader loader = null;
+
+		for (Node child : this.getChildren().values()) {
+
+			SubtreeLoader childLoader = child.subtreeLoader;
+
+			if (childLoader != null) {
+
+				if (stubs == null) {
+					stubs = new ArrayList<Node>();
+					loader = childLoader;
+				}
+
+				stubs.add(child);
+			}
+		}
+
+		if (stubs != null && stubs.size() > 1) {
+			loader.readAhead(stubs);
+		}
 	}
 
 	/*
@@ -132,6 +712,31 @@ public class Node {
 		this.addNodeChild(nodeName, "");
 	}
 
+	/**
+	 * Returns a copy of this node and all of its descendants. The copy shares the
+	 * node values, which are immutable, but none of the child containers, so the
+	 * copy does not change when the original does.
+	 * 
+	 * @return the copied node
+	 */
+	public Node copyTree() {
+
+		Node copiedNode = new Node();
+
+		copiedNode.value = this.value;
+
+		for (String childName : this.getChildren().keySet()) {
+
+			Node childNode = this.getChild(childName);
+
+			if (childNode != null) {
+				copiedNode.setChild(childName, childNode.copyTree());
+			}
+		}
+
+		return copiedNode;
+	}
+
 	public boolean getLocked() {
 		return this.locked;
 	}
@@ -179,6 +784,8 @@ public class Node {
 			return result;
 		}
 
+		currentNode.readAheadChildren();
+
 		/* For Where Condition */
 		if (!whereConditionRules.isEmpty()) {
 
@@ -272,6 +879,33 @@ public class Node {
 		return this.treeMapRecurse(nodeToTraverse, childName, outputRows, endNodePath);
 	}
 
+	/**
+	 * Does what generateTree does, but only for the children of the node named
+	 * childName whose names are from low to high, see getChildrenInRange.
+	 * 
+	 * @param childName the name of the child to read, or Root
+	 * @param low       the name of the first child in the range
+	 * @param high      the name of the last child in the range
+	 * @return the path:value lines of the child and the children in the range
+	 */
+	public ArrayList<String> generateRangeTree(String childName, String low, String high) {
+
+		Node nodeToTraverse = childName.equals("Root") ? this : this.getChild(childName);
+		ArrayList<String> outputRows = new ArrayList<String>();
+
+		if (nodeToTraverse == null) {
+			return outputRows;
+		}
+
+		outputRows.add(childName + ":" + nodeToTraverse.getValue());
+
+		for (Map.Entry<String, Node> child : nodeToTraverse.getChildrenInRange(low, high).entrySet()) {
+			this.treeMapRecurse(child.getValue(), childName + "." + child.getKey(), outputRows, "");
+		}
+
+		return outputRows;
+	}
+
 	/*
 	 * As input this method accepts the Where Condition Rules and the node to check
 	 * from. If the fields to test for the Where Condition rules are not present,
@@ -417,6 +1051,8 @@ public class Node {
 
 			}
 
+			currentNode.readAheadChildren();
+
 			for (String key : currentNode.getChildren().keySet()) {
 
 				
@@ -467,4 +1103,122 @@ public class Node {
 		return false;
 	}
 
+
+	/* The view of the node's children returned by getChildren() */
+	private class ChildMap extends AbstractMap<String, Node> {
+
+		Node getNode() {
+			return Node.this;
+		}
+
+		public int size() {
+			return Node.this.countChildren();
+		}
+
+		public boolean isEmpty() {
+			return Node.this.children == null;
+		}
+
+		public Node get(Object name) {
+			return (name instanceof String) ? Node.this.findChild(NameDictionary.findId((String) name)) : null;
+		}
+
+		public boolean containsKey(Object name) {
+			return this.get(name) != null;
+		}
+
+		public Node put(String name, Node node) {
+			return Node.this.putChild(NameDictionary.getKey(name), node);
+		}
+
+		public Node remove(Object name) {
+			return (name instanceof String) ? Node.this.removeChild(NameDictionary.findId((String) name)) : null;
+		}
+
+		public void clear() {
+
+			synchronized (Node.this) {
+				Node.this.orphanChildren();
+				Node.this.children = null;
+			}
+		}
+
+		public Set<Map.Entry<String, Node>> entrySet() {
+
+			return new AbstractSet<Map.Entry<String, Node>>() {
+
+				public int size() {
+					return Node.this.countChildren();
+				}
+
+				public Iterator<Map.Entry<String, Node>> iterator() {
+					return new ChildIterator(Node.this.children);
+				}
+			};
+		}
+	}
+
+	/*
+	 * Iterates over the children as they were when the iteration started if they
+	 * are in an array, or as the map's iterator does otherwise.
+	 */
+	private class ChildIterator implements Iterator<Map.Entry<String, Node>> {
+
+		private Object[] small;
+
+		private Iterator<Map.Entry<Integer, Node>> large;
+
+		private int index;
+
+		private Integer lastKey;
+
+		ChildIterator(Object children) {
+
+			if (children instanceof ConcurrentMap) {
+				this.large = Node.asMap(children).entrySet().iterator();
+			} else {
+				this.small = (children == null) ? NO_CHILDREN : (Object[]) children;
+			}
+		}
+
+		public boolean hasNext() {
+			return (this.large != null) ? this.large.hasNext() : this.index < this.small.length;
+		}
+
+		public Map.Entry<String, Node> next() {
+
+			Node child;
+
+			if (this.large != null) {
+
+				Map.Entry<Integer, Node> largeChild = this.large.next();
+
+				this.lastKey = largeChild.getKey();
+				child = largeChild.getValue();
+
+			} else {
+
+				if (this.index >= this.small.length) {
+					throw new NoSuchElementException();
+				}
+
+				this.lastKey = (Integer) this.small[this.index];
+				child = (Node) this.small[this.index + 1];
+				this.index += 2;
+			}
+
+			return new AbstractMap.SimpleImmutableEntry<String, Node>(NameDictionary.getName(this.lastKey.intValue()),
+					child);
+		}
+
+		public void remove() {
+
+			if (this.lastKey == null) {
+				throw new IllegalStateException();
+			}
+
+			Node.this.removeChild(this.lastKey.intValue());
+			this.lastKey = null;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,225 @@
+/* 
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+The RangeIndex keeps the values of a node name in order, so that the nodes with
+a value between two bounds, or with the smallest or largest value, are found
+without looking at every node of that name.
+
+A node name is indexed when its rule set sets the index rule to true and
+declares its type as integer, decimal, date or time. MemoryStorage builds the
+index from the nodes already in the dataMap when the rule set changes, and keeps
+it up to date as nodes enter and leave the dataMap and as their values are
+written, the same way it keeps its ValueIndex.
+
+Only values of the declared type are indexed, the nodes of the name whose value
+is empty or cannot be read as that type are left out. Values such as 1.50, that
+are kept as text so that they are read back as written, are indexed by the
+value they stand for. */
+
+package rut;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import rut.utilities.TypedValue;
+
+final class RangeIndex {
+
+	/* The types that have an order a range can be taken in */
+	static final String[] ORDERED_TYPES = { "integer", "decimal", "date", "time" };
+
+	/* The indexed node names, each to the type of its values */
+	private final HashMap<String, String> types;
+
+	/* The indexed node names, each to its values in order, each value to a Node or a HashSet<Node> */
+	private final HashMap<String, TreeMap<TypedValue, Object>> valuesByName;
+
+	RangeIndex() {
+		this.types = new HashMap<String, String>();
+		this.valuesByName = new HashMap<String, TreeMap<TypedValue, Object>>();
+	}
+
+	static boolean isOrdered(String type) {
+
+		for (String orderedType : ORDERED_TYPES) {
+
+			if (orderedType.equals(type)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	synchronized boolean isIndexed(String nodeName) {
+		return this.valuesByName.containsKey(nodeName);
+	}
+
+	synchronized String getType(String nodeName) {
+		return this.types.get(nodeName);
+	}
+
+	/**
+	 * Starts indexing a node name, or indexes it again for a new type.
+	 * 
+	 * @param nodeName the node name
+	 * @param type     the type declared by its rule set, one of ORDERED_TYPES
+	 * @param nodes    every node with that name
+	 */
+	synchronized void index(String nodeName, String type, Collection<Node> nodes) {
+
+		TreeMap<TypedValue, Object> values = new TreeMap<TypedValue, Object>();
+
+		this.types.put(nodeName, type);
+		this.valuesByName.put(nodeName, values);
+
+		for (Node node : nodes) {
+
+			TypedValue key = key(node.getTypedValue(), node.getValue(), type);
+
+			if (key != null) {
+				ValueIndex.add(values, key, node);
+			}
+		}
+	}
+
+	/* Stops indexing a node name */
+	synchronized void drop(String nodeName) {
+		this.types.remove(nodeName);
+		this.valuesByName.remove(nodeName);
+	}
+
+	/* Adds a node that entered the dataMap, if its name is indexed */
+	synchronized void add(String nodeName, Node node) {
+
+		TreeMap<TypedValue, Object> values = this.valuesByName.get(nodeName);
+		TypedValue key = (values == null) ? null
+				: key(node.getTypedValue(), node.getValue(), this.types.get(nodeName));
+
+		if (key != null) {
+			ValueIndex.add(values, key, node);
+		}
+	}
+
+	/* Removes a node that left the dataMap, if its name is indexed */
+	synchronized void remove(String nodeName, Node node) {
+
+		TreeMap<TypedValue, Object> values = this.valuesByName.get(nodeName);
+		TypedValue key = (values == null) ? null
+				: key(node.getTypedValue(), node.getValue(), this.types.get(nodeName));
+
+		if (key != null) {
+			ValueIndex.remove(values, key, node);
+		}
+	}
+
+	/* Moves a node whose value has been written from its old value to its new one */
+	synchronized void changeValue(String nodeName, Node node, String oldValue) {
+
+		TreeMap<TypedValue, Object> values = this.valuesByName.get(nodeName);
+
+		if (values == null) {
+			return;
+		}
+
+		String type = this.types.get(nodeName);
+		TypedValue oldKey = TypedValue.parse(oldValue, type);
+		TypedValue newKey = key(node.getTypedValue(), node.getValue(), type);
+
+		if (oldKey != null) {
+			ValueIndex.remove(values, oldKey, node);
+		}
+
+		if (newKey != null) {
+			ValueIndex.add(values, newKey, node);
+		}
+	}
+
+	/**
+	 * Returns the nodes of an indexed node name with a value between two bounds,
+	 * in the order of their values.
+	 * 
+	 * @param nodeName the node name
+	 * @param low      the smallest value, included, or null for no lower bound
+	 * @param high     the largest value, included, or null for no upper bound
+	 * @return the nodes, empty if there are none
+	 */
+	synchronized ArrayList<Node> getRange(String nodeName, TypedValue low, TypedValue high) {
+
+		ArrayList<Node> resultNodes = new ArrayList<Node>();
+		NavigableMap<TypedValue, Object> values = this.valuesByName.get(nodeName);
+
+		if (values == null || (low != null && high != null && low.compareTo(high) > 0)) {
+			return resultNodes;
+		}
+
+		if (low != null) {
+			values = values.tailMap(low, true);
+		}
+
+		if (high != null) {
+			values = values.headMap(high, true);
+		}
+
+		for (Object nodes : values.values()) {
+			ValueIndex.addNodes(nodes, resultNodes);
+		}
+
+		return resultNodes;
+	}
+
+	/**
+	 * Returns the nodes of an indexed node name with its smallest or largest value.
+	 * 
+	 * @param nodeName the node name
+	 * @param largest  true for the largest value, false for the smallest
+	 * @return the nodes, empty if no node of the name has a value of its type
+	 */
+	synchronized ArrayList<Node> getEnd(String nodeName, boolean largest) {
+
+		ArrayList<Node> resultNodes = new ArrayList<Node>();
+		TreeMap<TypedValue, Object> values = this.valuesByName.get(nodeName);
+		Map.Entry<TypedValue, Object> end = (values == null) ? null
+				: (largest ? values.lastEntry() : values.firstEntry());
+
+		if (end != null) {
+			ValueIndex.addNodes(end.getValue(), resultNodes);
+		}
+
+		return resultNodes;
+	}
+
+	/* Forgets every indexed name, for when the dataMap is replaced */
+	synchronized void clear() {
+		this.types.clear();
+		this.valuesByName.clear();
+	}
+
+	/* Values are kept typed when they are written, a value kept as text, such as 1.50, is read as the type here */
+	private static TypedValue key(TypedValue typedValue, String value, String type) {
+
+		if (typedValue != null && typedValue.getType().equals(type)) {
+			return typedValue;
+		}
+
+		return TypedValue.parse(value, type);
+	}
+
+}
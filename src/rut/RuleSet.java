@@ -0,0 +1,181 @@
+/* 
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+A RuleSet is the rule set of a node name, rule.<node name>, read once from its
+rule nodes into a form that is quick to check values against: the type, the max
+and min rules parsed as values of the type, and the true or false rules as
+booleans.
+
+A RuleSet never changes. MemoryStorage keeps one for each node name that has been
+checked, and forgets them all whenever a node under rule is written, deleted or
+renamed, so the next check reads the rule set again. */
+
+package rut;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import rut.utilities.TypedValue;
+
+public final class RuleSet {
+
+	/* The rule set of a node name that has none */
+	static final RuleSet NONE = new RuleSet(Collections.<String, String>emptyMap());
+
+	private final Map<String, String> rules;
+
+	private final String type;
+
+	private final TypedValue max;
+
+	private final TypedValue min;
+
+	private final boolean required;
+
+	private final boolean key;
+
+	private final boolean unique;
+
+	private final boolean index;
+
+	private RuleSet(Map<String, String> rules) {
+
+		String type = rules.get("type");
+
+		this.rules = rules;
+		this.type = (type == null || type.isEmpty()) ? null : type;
+		this.max = TypedValue.parse(rules.get("max"), this.type);
+		this.min = TypedValue.parse(rules.get("min"), this.type);
+		this.required = "true".equals(rules.get("required"));
+		this.key = "true".equals(rules.get("key"));
+		this.unique = "true".equals(rules.get("unique"));
+		this.index = "true".equals(rules.get("index"));
+	}
+
+	/**
+	 * Reads a rule set from its rule nodes.
+	 * 
+	 * @param ruleSetNode the node rule.<node name>, or null if there is none
+	 * @return the rule set
+	 */
+	static RuleSet compile(Node ruleSetNode) {
+
+		if (ruleSetNode == null) {
+			return NONE;
+		}
+
+		LinkedHashMap<String, String> rules = new LinkedHashMap<String, String>();
+
+		for (Map.Entry<String, Node> rule : ruleSetNode.getChildren().entrySet()) {
+			rules.put(rule.getKey(), rule.getValue().getValue());
+		}
+
+		return rules.isEmpty() ? NONE : new RuleSet(Collections.unmodifiableMap(rules));
+	}
+
+	public boolean isEmpty() {
+		return this.rules.isEmpty();
+	}
+
+	/**
+	 * Returns the rules by name, as they are written in the rule nodes.
+	 * 
+	 * @return the rules, which cannot be changed
+	 */
+	public Map<String, String> getRules() {
+		return this.rules;
+	}
+
+	/**
+	 * Returns the type the rule set declares.
+	 * 
+	 * @return the type, or null if it has no type rule
+	 */
+	public String getType() {
+		return this.type;
+	}
+
+	public boolean isRequired() {
+		return this.required;
+	}
+
+	public boolean isKey() {
+		return this.key;
+	}
+
+	public boolean isUnique() {
+		return this.unique;
+	}
+
+	public boolean isIndexed() {
+		return this.index;
+	}
+
+	/**
+	 * Checks a value against one rule without parsing the rule. Only a value that
+	 * is plainly allowed is accepted; anything else, a violation included, is left
+	 * to Interpreter.checkEnforcedNodeValue, which reports it.
+	 * 
+	 * @param ruleName  the rule
+	 * @param nodeValue the value to check
+	 * @return true if the value satisfies the rule
+	 */
+	public boolean accepts(String ruleName, String nodeValue) {
+
+		switch (ruleName) {
+
+		case "type":
+			return this.type == null || this.type.equals("text") || nodeValue.isEmpty()
+					|| TypedValue.of(nodeValue, this.type) != null;
+
+		case "max":
+		case "min":
+
+			String ruleValue = this.rules.get(ruleName);
+
+			if (ruleValue == null || ruleValue.isEmpty()) {
+				return true;
+			}
+
+			TypedValue bound = ruleName.equals("max") ? this.max : this.min;
+			TypedValue value = (bound == null || this.type.equals("boolean")) ? null
+					: TypedValue.parse(nodeValue, this.type);
+
+			if (value == null) {
+				return false;
+			}
+
+			return ruleName.equals("max") ? value.compareTo(bound) <= 0 : value.compareTo(bound) >= 0;
+
+		case "required":
+			return !this.required || !nodeValue.isEmpty();
+
+		case "key":
+			return !this.key || !nodeValue.isEmpty();
+
+		case "unique":
+			return !this.unique;
+
+		case "index":
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+}
@@ -28,6 +28,12 @@ package rut;
 
 import java.util.concurrent.ConcurrentHashMap;
 
+import rut.storage.ArenaStore;
+import rut.storage.Checkpointer;
+import rut.storage.ColumnStore;
+import rut.storage.StorageEngine;
+import rut.storage.StorageEngineFactory;
+
 public class Server {
 
 	public static void main(String[] args) {
@@ -36,12 +42,57 @@ public class Server {
 		
 		String VERSION = "Development Version 0.2";
 		
-		/* Get the database structure from the master database file */
-		DiskStorage disk = new DiskStorage("resources/master.database");
+		/* Children are kept in order from the first node that is read */
+		Definitions.orderedChildren = Boolean.parseBoolean(
+				System.getProperty("rut.children.ordered", String.valueOf(Definitions.orderedChildren)));
+		
+		/* Open the storage engine the database is kept in */
+		StorageEngine disk = null;
+		
+		try {
+			
+			disk = StorageEngineFactory.createStorageEngine(
+					System.getProperty("rut.storage.engine", Definitions.storageEngine), "resources/master.database");
+			
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage() + " Exiting...");
+			System.exit(1);
+		}
 		
 		/* Load database tree into memory with all of its methods and variables */
 		ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap = disk.readDataMapFromDisk();
 		MemoryStorage memory = new MemoryStorage(dataMap);
+		disk.attach(memory);
+		memory.setUidStore(disk);
+		
+		/* Keep the values of nodes whose rule sets declare a type in typed form */
+		memory.applyValueTypes();
+		
+		/* Move the top-level branches out of the heap, or record sets into columns, until they are reached */
+		boolean columnStore = Boolean.parseBoolean(
+				System.getProperty("rut.columns", String.valueOf(Definitions.columnStore)));
+		
+		if (columnStore || Boolean.parseBoolean(System.getProperty("rut.arena", String.valueOf(Definitions.nodeArena)))) {
+			
+			if (disk instanceof DiskStorage || disk.isReadOnly() || memory.getSegmentCache() != null) {
+				System.out.println("The " + (columnStore ? "column store" : "node arena")
+						+ " needs the lsm or pages storage engine, without lazy loading. Exiting...");
+				System.exit(1);
+			}
+			
+			ArenaStore branchStore = columnStore ? new ColumnStore(memory) : new ArenaStore(memory);
+			
+			branchStore.attach(Integer.getInteger("rut.segments.cacheSize", Definitions.segmentCacheSize),
+					Double.parseDouble(System.getProperty("rut.segments.heapThreshold",
+							String.valueOf(Definitions.segmentHeapThreshold))));
+		}
+		
+		/* Fold the write-ahead log into master.database in the background */
+		Checkpointer checkpointer = new Checkpointer(memory, disk,
+				Long.getLong("rut.checkpoint.logBytes", Definitions.checkpointLogBytes),
+				Long.getLong("rut.checkpoint.mutations", Definitions.checkpointMutations),
+				Long.getLong("rut.checkpoint.intervalMillis", Definitions.checkpointIntervalMillis));
+		checkpointer.start();
 		
 		/* Load the Rut Querying Language interpreter */
 		Interpreter interpreter = new Interpreter(memory, disk);
@@ -49,6 +100,10 @@ public class Server {
 		/* Attach a shell to the interpreter for statement processing */
 		Shell shell = new Shell(VERSION);
 		shell.spawnShell(interpreter, args); 
+		interpreter.close();
+		
+		checkpointer.shutdown();
+		disk.close();
 		
 	}
 }
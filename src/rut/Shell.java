@@ -134,6 +134,7 @@ public class Shell {
 			if (debug.length() != 0) {
 			
 				System.out.println(statement);
+				System.out.println(interpreter.getDisk().getDurabilityStatistics());
 			}
 			
 			System.out.println(this.response);
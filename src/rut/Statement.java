@@ -30,6 +30,7 @@ import java.util.regex.Pattern;
 
 import rut.utilities.DataTypes;
 import rut.utilities.Randomizer;
+import rut.utilities.TypedValue;
 
 /**
  * A Statement object is an instruction that is to be structured and passed to
@@ -117,6 +118,14 @@ public class Statement {
 
 	private int iterations;
 
+	/**
+	 * The names of the first and last children of the selected node to read, set
+	 * with the Range keyword. Empty when every child is read.
+	 */
+	private String rangeLow;
+
+	private String rangeHigh;
+
 	/**
 	 * Error messages that are returned for errors caught by the statement parser
 	 */
@@ -162,6 +171,7 @@ public class Statement {
 		statementString.append("Where Condition: \"" + this.whereCondition + "\"" + newline);
 		statementString.append("Where Condition Rules: " + this.whereConditionRules + newline);
 		statementString.append("Iterations: " + this.iterations + newline);
+		statementString.append("Range: \"" + this.rangeLow + "\" to \"" + this.rangeHigh + "\"" + newline);
 		statementString.append("Parse Error Messages: " + this.errorMessages + newline);
 		statementString.append("Keyword Tokens: " + this.keywordTokens + newline);
 		return statementString.toString();
@@ -180,6 +190,8 @@ public class Statement {
 		this.setWhereCondition("");
 		this.setWhereConditionRules(new ConcurrentHashMap<String, ArrayList<String>>());
 		this.setIterations(1);
+		this.rangeLow = "";
+		this.rangeHigh = "";
 		this.errorMessages = new HashSet<String>();
 		this.hiddenTokens = new ConcurrentHashMap<String, String>();
 		this.keywordTokens = new ConcurrentHashMap<String, String>();
@@ -247,6 +259,11 @@ public class Statement {
 			return;
 		}
 
+		/* Like Times, Range is taken off the end of the statement before it is parsed */
+		if (!this.processRangeKeyword()) {
+			return;
+		}
+
 		/* Remove all repeating spaces */
 		this.statementString = this.statementString.replaceAll("\\s+", " ");
 
@@ -430,6 +447,19 @@ public class Statement {
 		this.iterations = iterations;
 	}
 
+	public String getRangeLow() {
+		return this.rangeLow;
+	}
+
+	public String getRangeHigh() {
+		return this.rangeHigh;
+	}
+
+	/* True if the Range keyword selects the children to read */
+	public boolean hasRange() {
+		return !this.rangeLow.isEmpty();
+	}
+
 	public Set<String> getErrorMessages() {
 		return this.errorMessages;
 	}
@@ -909,6 +939,48 @@ public class Statement {
 
 	}
 
+	/**
+	 * The typed form of isLessThanOrEqual, for values that were parsed once. Both
+	 * values must be of the same type.
+	 * 
+	 * @param value1 the first value to compare
+	 * @param value2 the second value to compare
+	 * @return
+	 */
+	public static boolean isLessThanOrEqual(TypedValue value1, TypedValue value2) {
+
+		/* boolean is not evaluated */
+		return !value1.getType().equals("boolean") && value1.compareTo(value2) <= 0;
+	}
+
+	/**
+	 * The typed form of isGreaterThan, for values that were parsed once. Both
+	 * values must be of the same type.
+	 * 
+	 * @param value1 the first value to compare
+	 * @param value2 the second value to compare
+	 * @return
+	 */
+	public static boolean isGreaterThan(TypedValue value1, TypedValue value2) {
+
+		/* boolean is not evaluated */
+		return !value1.getType().equals("boolean") && value1.compareTo(value2) > 0;
+	}
+
+	/**
+	 * The typed form of isLessThan, for values that were parsed once. Both values
+	 * must be of the same type.
+	 * 
+	 * @param value1 the first value to compare
+	 * @param value2 the second value to compare
+	 * @return
+	 */
+	public static boolean isLessThan(TypedValue value1, TypedValue value2) {
+
+		/* boolean is not evaluated */
+		return !value1.getType().equals("boolean") && value1.compareTo(value2) < 0;
+	}
+
 	/*
 	 * Populates the structured Statement member variables with the content of the
 	 * statement as defined in statementString
@@ -1202,10 +1274,18 @@ public class Statement {
 	 */
 	private void checkForOpErrors() {
 
+		if (this.hasRange() && !this.operation.equals("read")) {
+			this.addError("The Range keyword can only be used with the read operation.");
+		}
+
 		switch (this.operation) {
 
 		case "read":
 
+			if (this.hasRange() && !this.childNamesValues.isEmpty()) {
+				this.addError("The Range keyword cannot be used with children names.");
+			}
+
 			if (!this.selectedNodeValue.isEmpty()) {
 				this.addError("Cannot set a value for the read operation.");
 			}
@@ -1789,4 +1869,41 @@ public class Statement {
 
 		return true;
 	}
+
+	/*
+	 * Takes 'Range <first> <last>' off the end of the statement, e.g. read
+	 * database.employee Range 1000 1999, which reads only the children of the
+	 * selected node from 1000 to 1999.
+	 */
+	private boolean processRangeKeyword() {
+
+		int countRange = this.countCharacterRegex(this.statementString, " Range ");
+
+		if (countRange == 0) {
+
+			return true;
+
+		} else if (countRange > 1) {
+
+			this.addError("The Range keyword can only be used once in a statement.");
+			return false;
+
+		}
+
+		Matcher matcher = Pattern.compile("^(.*?) Range ([a-zA-Z0-9\\-_]+) ([a-zA-Z0-9\\-_]+)$")
+				.matcher(this.statementString.trim());
+
+		if (!matcher.matches()) {
+
+			this.addError("The Range keyword needs the names of the first and last children to read, e.g. Range 1000 1999.");
+			return false;
+
+		}
+
+		this.statementString = matcher.group(1);
+		this.rangeLow = matcher.group(2);
+		this.rangeHigh = matcher.group(3);
+
+		return true;
+	}
 }
\ No newline at end of file
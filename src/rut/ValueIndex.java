@@ -0,0 +1,254 @@
+/* 
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+The ValueIndex finds the nodes with a given name and value without looking at
+every node of that name. MemoryStorage keeps one, and keeps it up to date as
+nodes enter and leave the dataMap and as their values are written.
+
+A node name is only indexed once its values are first looked up, so names that
+are never searched by value cost nothing. The values of every node, whatever
+its name, are indexed apart the first time a value is looked up across names. Most values are held by a single node,
+so a value refers to its node directly, and only to a set of nodes once a
+second node shares it. */
+
+package rut;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+final class ValueIndex {
+
+	/* The indexed node names, each to its values, each value to a Node or a HashSet<Node> */
+	private final HashMap<String, HashMap<String, Object>> valuesByName;
+
+	/* The values of the nodes of every name but the root, null until they are first looked up */
+	private HashMap<String, Object> allValues;
+
+	ValueIndex() {
+		this.valuesByName = new HashMap<String, HashMap<String, Object>>();
+	}
+
+	synchronized boolean isIndexed(String nodeName) {
+		return this.valuesByName.containsKey(nodeName);
+	}
+
+	/**
+	 * Starts indexing a node name.
+	 * 
+	 * @param nodeName the node name
+	 * @param nodes    every node with that name
+	 */
+	synchronized void index(String nodeName, Collection<Node> nodes) {
+
+		HashMap<String, Object> values = new HashMap<String, Object>();
+
+		this.valuesByName.put(nodeName, values);
+
+		for (Node node : nodes) {
+			add(values, node.getValue(), node);
+		}
+	}
+
+	synchronized boolean isAllIndexed() {
+		return this.allValues != null;
+	}
+
+	/**
+	 * Starts indexing the values of every node, whatever its name.
+	 * 
+	 * @param dataMap the dataMap holding every node
+	 */
+	synchronized void indexAll(Map<String, ? extends Map<String, Node>> dataMap) {
+
+		this.allValues = new HashMap<String, Object>();
+
+		for (Map.Entry<String, ? extends Map<String, Node>> nodesByName : dataMap.entrySet()) {
+
+			if (nodesByName.getKey().isEmpty()) {
+				continue;
+			}
+
+			for (Node node : nodesByName.getValue().values()) {
+				add(this.allValues, node.getValue(), node);
+			}
+		}
+	}
+
+	/* Adds a node that entered the dataMap, if its name is indexed */
+	synchronized void add(String nodeName, Node node) {
+
+		HashMap<String, Object> values = this.valuesByName.get(nodeName);
+
+		if (values != null) {
+			add(values, node.getValue(), node);
+		}
+
+		if (this.allValues != null && !nodeName.isEmpty()) {
+			add(this.allValues, node.getValue(), node);
+		}
+	}
+
+	/* Removes a node that left the dataMap, if its name is indexed */
+	synchronized void remove(String nodeName, Node node) {
+
+		HashMap<String, Object> values = this.valuesByName.get(nodeName);
+
+		if (values != null) {
+			remove(values, node.getValue(), node);
+		}
+
+		if (this.allValues != null && !nodeName.isEmpty()) {
+			remove(this.allValues, node.getValue(), node);
+		}
+	}
+
+	/* Moves a node whose value has been written from its old value to its new one */
+	synchronized void changeValue(String nodeName, Node node, String oldValue) {
+
+		HashMap<String, Object> values = this.valuesByName.get(nodeName);
+
+		if (values != null) {
+			remove(values, oldValue, node);
+			add(values, node.getValue(), node);
+		}
+
+		if (this.allValues != null && !nodeName.isEmpty()) {
+			remove(this.allValues, oldValue, node);
+			add(this.allValues, node.getValue(), node);
+		}
+	}
+
+	/**
+	 * Returns the nodes of an indexed node name that hold a value.
+	 * 
+	 * @param nodeName  the node name
+	 * @param nodeValue the value
+	 * @return the nodes, empty if there are none
+	 */
+	synchronized ArrayList<Node> get(String nodeName, String nodeValue) {
+		return get(this.valuesByName.get(nodeName), nodeValue);
+	}
+
+	/**
+	 * Returns the nodes of any name but the root that hold a value, once every
+	 * node is indexed.
+	 * 
+	 * @param nodeValue the value
+	 * @return the nodes, empty if there are none
+	 */
+	synchronized ArrayList<Node> getAll(String nodeValue) {
+		return get(this.allValues, nodeValue);
+	}
+
+	/**
+	 * Counts the nodes of an indexed node name that hold a value.
+	 * 
+	 * @param nodeName  the node name
+	 * @param nodeValue the value
+	 * @return the number of nodes
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized int count(String nodeName, String nodeValue) {
+
+		HashMap<String, Object> values = this.valuesByName.get(nodeName);
+		Object nodes = (values == null) ? null : values.get(nodeValue);
+
+		if (nodes instanceof Node) {
+			return 1;
+		}
+
+		return (nodes == null) ? 0 : ((HashSet<Node>) nodes).size();
+	}
+
+	/* Forgets every indexed name, for when the dataMap is replaced */
+	synchronized void clear() {
+		this.valuesByName.clear();
+		this.allValues = null;
+	}
+
+	/* The nodes of a value of an index, the RangeIndex keeps its values the same way */
+	static <K> ArrayList<Node> get(Map<K, Object> values, K value) {
+
+		ArrayList<Node> resultNodes = new ArrayList<Node>();
+
+		if (values != null) {
+			addNodes(values.get(value), resultNodes);
+		}
+
+		return resultNodes;
+	}
+
+	@SuppressWarnings("unchecked")
+	static void addNodes(Object nodes, ArrayList<Node> resultNodes) {
+
+		if (nodes instanceof Node) {
+			resultNodes.add((Node) nodes);
+		} else if (nodes != null) {
+			resultNodes.addAll((HashSet<Node>) nodes);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K> void add(Map<K, Object> values, K value, Node node) {
+
+		Object nodes = values.get(value);
+
+		if (nodes == null) {
+
+			values.put(value, node);
+
+		} else if (nodes instanceof Node) {
+
+			if (nodes != node) {
+
+				HashSet<Node> sharedNodes = new HashSet<Node>();
+
+				sharedNodes.add((Node) nodes);
+				sharedNodes.add(node);
+				values.put(value, sharedNodes);
+			}
+
+		} else {
+
+			((HashSet<Node>) nodes).add(node);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K> void remove(Map<K, Object> values, K value, Node node) {
+
+		Object nodes = values.get(value);
+
+		if (nodes == node) {
+
+			values.remove(value);
+
+		} else if (nodes instanceof HashSet) {
+
+			HashSet<Node> sharedNodes = (HashSet<Node>) nodes;
+
+			sharedNodes.remove(node);
+
+			if (sharedNodes.size() == 1) {
+				values.put(value, sharedNodes.iterator().next());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+A BenchmarkDatabase is a database opened the way the Server opens one, on a
+copy of master.database in a directory of its own, so that the benchmarks can
+run statements against any storage engine without touching the real database.
+
+*/
+
+package rut.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import rut.Interpreter;
+import rut.MemoryStorage;
+import rut.Statement;
+import rut.storage.StorageEngine;
+import rut.storage.StorageEngineFactory;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+class BenchmarkDatabase {
+
+	/* The database every copy starts from */
+	static final String MASTER_DATABASE = "resources/master.database";
+
+	private String engineName;
+
+	private Path directory;
+
+	private StorageEngine disk;
+
+	private MemoryStorage memory;
+
+	private Interpreter interpreter;
+
+	private Statement statement;
+
+	/**
+	 * Opens the database in a directory, the storage engine is configured from
+	 * the system properties as it is for the Server.
+	 *
+	 * @param engineName the storage engine, see StorageEngineFactory
+	 * @param directory  the directory the database is kept in, see copy and write
+	 */
+	BenchmarkDatabase(String engineName, Path directory) {
+
+		this.engineName = engineName;
+		this.directory = directory;
+
+		this.disk = StorageEngineFactory.createStorageEngine(engineName,
+				directory.resolve("master.database").toString());
+		this.memory = new MemoryStorage(this.disk.readDataMapFromDisk());
+		this.disk.attach(this.memory);
+		this.memory.setUidStore(this.disk);
+		this.memory.applyValueTypes();
+
+		this.interpreter = new Interpreter(this.memory, this.disk);
+		this.statement = new Statement();
+	}
+
+	/**
+	 * Copies master.database into a new temporary directory.
+	 *
+	 * @return the directory
+	 */
+	static Path copy() {
+
+		try {
+
+			Path directory = Files.createTempDirectory("rut-benchmark");
+
+			Files.copy(Paths.get(MASTER_DATABASE), directory.resolve("master.database"));
+
+			return directory;
+
+		} catch (IOException e) {
+
+			System.out.println("Could not copy \"" + MASTER_DATABASE + "\" for the benchmark.\n" + e.getMessage()
+					+ " Exiting...");
+			System.exit(1);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Writes a database of its own, rather than master.database, into a new
+	 * temporary directory.
+	 *
+	 * @param databaseText the database, in the master.database format
+	 * @return the directory
+	 */
+	static Path write(String databaseText) {
+
+		try {
+
+			Path directory = Files.createTempDirectory("rut-benchmark");
+
+			Files.write(directory.resolve("master.database"), databaseText.getBytes(StandardCharsets.UTF_8));
+
+			return directory;
+
+		} catch (IOException e) {
+
+			System.out.println("Could not write a database for the benchmark.\n" + e.getMessage() + " Exiting...");
+			System.exit(1);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Deletes a directory made by copy or write, with everything the storage engine has
+	 * written to it.
+	 *
+	 * @param directory the directory
+	 */
+	static void delete(Path directory) {
+
+		try (Stream<Path> paths = Files.walk(directory)) {
+
+			for (Object path : paths.sorted(Comparator.reverseOrder()).toArray()) {
+				Files.delete((Path) path);
+			}
+
+		} catch (IOException e) {
+			System.out.println("Could not delete \"" + directory + "\".");
+		}
+	}
+
+	/**
+	 * Runs a statement as the shell does.
+	 *
+	 * @param statementText the statement, without its ';'
+	 * @return the response
+	 */
+	String run(String statementText) {
+
+		this.statement.parseStatement(statementText);
+
+		return this.interpreter.processStatement(this.statement);
+	}
+
+	/**
+	 * Opens another session on the database, as another shell would have. Its
+	 * statements are run with Interpreter.processStatement, and it is closed with
+	 * Interpreter.close.
+	 *
+	 * @return the interpreter of the session
+	 */
+	Interpreter openSession() {
+		return new Interpreter(this.memory, this.disk);
+	}
+
+	/**
+	 * Returns the database in the master.database format, sorted so that any two
+	 * storage engines holding the same nodes give the same text.
+	 *
+	 * @return the text of the database
+	 */
+	String dump() {
+		return MemoryStorage.sortDataMapLines(this.memory.dumpDataMapLines());
+	}
+
+	/**
+	 * Writes a checkpoint, as the Checkpointer does.
+	 */
+	void checkpoint() {
+		this.disk.checkpoint(this.memory);
+	}
+
+	/**
+	 * Closes the database as the Server does when it shuts down.
+	 */
+	void close() {
+		this.interpreter.close();
+		this.disk.close();
+	}
+
+	/**
+	 * Closes the database and opens it again from what the storage engine left on
+	 * disk.
+	 *
+	 * @return the database, opened again
+	 */
+	BenchmarkDatabase reopen() {
+
+		this.close();
+
+		return new BenchmarkDatabase(this.engineName, this.directory);
+	}
+
+	String getEngineName() {
+		return this.engineName;
+	}
+
+	Path getDirectory() {
+		return this.directory;
+	}
+
+	StorageEngine getDisk() {
+		return this.disk;
+	}
+
+	MemoryStorage getMemory() {
+		return this.memory;
+	}
+
+	/**
+	 * Puts the lines of a response in order, children are not read back in the
+	 * same order by every storage engine.
+	 *
+	 * @param response the response to a statement
+	 * @return the lines of the response, sorted
+	 */
+	static String sortLines(String response) {
+
+		String[] lines = response.split("\n");
+
+		Arrays.sort(lines);
+
+		return String.join("\n", lines);
+	}
+
+}
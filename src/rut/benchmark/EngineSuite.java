@@ -0,0 +1,435 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+The EngineSuite checks that the storage engines of StorageEngineFactory give
+the same results, and times each of them on the same work.
+
+Conformance: the same statements are run against a copy of master.database
+in each engine. Every response, and the database left behind, has to be the
+same in each engine, both as it is in memory and once it is opened again from
+the write-ahead log alone and from a checkpoint.
+
+Throughput: the same loop of writes, reads, renames and deletes is timed
+against each engine, and the databases it leaves behind are compared as well.
+
+Log sync modes: writes are timed against the first engine in each sync mode
+of GroupCommit, from one session and from several at once, along with how
+long statements waited for durability and how long each force of the log
+took.
+
+Checkpoints during group commits: sessions write to each engine in group
+mode while checkpoints are taken one after another, which moves the log
+aside under the statements waiting for it to become durable. Every session
+has to finish within CHECKPOINT_TIMEOUT_MILLIS, and the engines have to be
+left holding the same database.
+
+Run from the directory that holds resources/master.database, with the same
+system properties as the Server (e.g. -Drut.log.syncMode=group):
+
+java -cp <classes> rut.benchmark.EngineSuite [records] [engine ...]
+
+The suite exits with 1 if any two engines differ.
+
+*/
+
+package rut.benchmark;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rut.Interpreter;
+import rut.Statement;
+import rut.storage.GroupCommit;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class EngineSuite {
+
+	/* The engines of StorageEngineFactory */
+	private static final String[] ENGINES = { "disk", "lsm", "pages" };
+
+	/* The number of records the throughput loop writes by default */
+	private static final int RECORDS = 2000;
+
+	/* The sync modes of GroupCommit */
+	private static final String[] SYNC_MODES = { GroupCommit.SYNC, GroupCommit.GROUP, GroupCommit.ASYNC };
+
+	/* The numbers of sessions writing at once in each sync mode */
+	private static final int[] SESSIONS = { 1, 8 };
+
+	/* The writes and sessions while checkpoints are taken, and the longest they may take */
+	private static final int CHECKPOINT_RECORDS = 4000;
+
+	private static final int CHECKPOINT_SESSIONS = 8;
+
+	private static final long CHECKPOINT_TIMEOUT_MILLIS = 60000;
+
+	/* Statements run against master.database as it ships, in this order */
+	private static final String[] CONFORMANCE_STATEMENTS = {
+			/* Reads */
+			"read database", "read employeeFirstName", "read database.employee.3.employeeFirstName",
+			"read 10.employeeTitle", "read company: companyName, companyMotto",
+			"read employee:employeeFirstName, employeeLastName, employeeTitle where employeeCompany = Morris Baker",
+			"read Root.database.company.5.companyName",
+			/* Writes, including new names and Newid */
+			"write database.company.5.companyName = Acme", "write database.company.5.zz = hello",
+			"write zz.a = 1", "write zz.a.x = 2", "write zz.a.b.a.x = 3", "write zz.a.x = 9", "read zz",
+			"write employee.Newid", "write employee.Newid", "write company.Newid", "read database.employee",
+			"write companyMotto = Winning where companyName = Acme", "read companyMotto",
+			/* Typed values and rules */
+			"write database.company.5.employees = 12", "write database.company.6.employees = 40",
+			"write database.company.5.founded = 03/14/1999", "write database.company.6.founded = 11/02/2005",
+			"write rule.employees: type = integer, max = 50, min = 10", "write rule.employees.max = 30",
+			"write database.company.6.employees = 44", "write database.company.7.employees = 007",
+			"read employees", "write rule.founded: type = date, max = 01/01/2010", "read founded", "read rule",
+			"write rule.employeeTitle: unique = true", "write database.employee.1.employeeTitle = Programmer",
+			"write database.employee.1.employeeTitle = Boss", "write database.employee.3.employeeTitle = Boss",
+			"read employeeTitle",
+			/* Ranges */
+			"read database.employee Range 2 10", "read database.employee Range 10 2",
+			"read database.company.5 Range companyA companyM", "read database Range aaaunknown employee",
+			/* Renames and deletes */
+			"rename zz.a.b = c", "read zz", "rename database.company.5.zz = yy", "delete zz.a.c.a.x",
+			"delete database.company.6", "delete employee where employeeCompany = Tritech", "read database.company",
+			"read database.employee", "delete zz", "read zz" };
+
+	public static void main(String[] args) {
+
+		int records = (args.length > 0) ? Integer.parseInt(args[0]) : RECORDS;
+		String[] engines = (args.length > 1) ? Arrays.copyOfRange(args, 1, args.length) : ENGINES;
+
+		boolean conforms = true;
+
+		System.out.println("Conformance, " + CONFORMANCE_STATEMENTS.length + " statements:");
+
+		List<String> expected = null;
+
+		for (String engineName : engines) {
+
+			List<String> results = EngineSuite.runConformance(engineName);
+
+			if (expected == null) {
+				expected = results;
+			} else {
+				conforms &= EngineSuite.compare(engines[0], expected, engineName, results);
+			}
+		}
+
+		/* The first pass only warms up the JIT, so the first engine timed is not at a disadvantage */
+		EngineSuite.runThroughput(engines[0], records / 4, false);
+
+		System.out.println("\nThroughput, " + records + " records:");
+
+		String expectedDump = null;
+
+		for (String engineName : engines) {
+
+			String dump = EngineSuite.runThroughput(engineName, records, true);
+
+			if (expectedDump == null) {
+				expectedDump = dump;
+			} else if (!expectedDump.equals(dump)) {
+				System.out.println(engineName + " left a different database behind than " + engines[0] + ".");
+				conforms = false;
+			}
+		}
+
+		System.out.println("\nLog sync modes, " + records + " writes to " + engines[0] + ":");
+
+		String syncMode = System.getProperty("rut.log.syncMode");
+
+		for (String mode : SYNC_MODES) {
+
+			System.setProperty("rut.log.syncMode", mode);
+
+			for (int sessions : SESSIONS) {
+				EngineSuite.runSyncMode(engines[0], records, sessions);
+			}
+		}
+
+		System.out.println("\nCheckpoints during group commits, " + CHECKPOINT_RECORDS + " writes from "
+				+ CHECKPOINT_SESSIONS + " sessions:");
+
+		System.setProperty("rut.log.syncMode", GroupCommit.GROUP);
+		expectedDump = null;
+
+		for (String engineName : engines) {
+
+			String dump = EngineSuite.runCheckpoints(engineName, CHECKPOINT_RECORDS);
+
+			if (expectedDump == null) {
+				expectedDump = dump;
+			} else if (!expectedDump.equals(dump)) {
+				System.out.println(engineName + " left a different database behind than " + engines[0] + ".");
+				conforms = false;
+			}
+		}
+
+		if (syncMode == null) {
+			System.clearProperty("rut.log.syncMode");
+		} else {
+			System.setProperty("rut.log.syncMode", syncMode);
+		}
+
+		if (!conforms) {
+			System.out.println("\nThe storage engines differ. Exiting...");
+			System.exit(1);
+		}
+
+		System.out.println("\nThe storage engines give the same results.");
+	}
+
+	/*
+	 * Runs the conformance statements and returns each response, followed by the
+	 * database in memory, after it is opened from the write-ahead log and after it
+	 * is opened from a checkpoint
+	 */
+	private static List<String> runConformance(String engineName) {
+
+		ArrayList<String> results = new ArrayList<String>();
+		Path directory = BenchmarkDatabase.copy();
+		BenchmarkDatabase database = new BenchmarkDatabase(engineName, directory);
+
+		for (String statementText : CONFORMANCE_STATEMENTS) {
+			results.add(BenchmarkDatabase.sortLines(database.run(statementText)));
+		}
+
+		results.add(database.dump());
+
+		database = database.reopen();
+		results.add(database.dump());
+
+		database.checkpoint();
+		database = database.reopen();
+		results.add(database.dump());
+
+		database.close();
+		BenchmarkDatabase.delete(directory);
+
+		System.out.println(String.format("  %-6s done", engineName));
+
+		return results;
+	}
+
+	/* Returns true if two engines gave the same results, otherwise prints the first difference */
+	private static boolean compare(String expectedEngine, List<String> expected, String engineName,
+			List<String> results) {
+
+		String[] dumps = { "the database in memory", "the database opened from the log",
+				"the database opened from a checkpoint" };
+
+		for (int i = 0; i < expected.size(); i++) {
+
+			if (expected.get(i).equals(results.get(i))) {
+				continue;
+			}
+
+			String result = (i < CONFORMANCE_STATEMENTS.length) ? "\"" + CONFORMANCE_STATEMENTS[i] + "\""
+					: dumps[i - CONFORMANCE_STATEMENTS.length];
+
+			System.out.println(engineName + " differs from " + expectedEngine + " in " + result + ":\n"
+					+ expectedEngine + ":\n" + expected.get(i) + "\n" + engineName + ":\n" + results.get(i));
+
+			return false;
+		}
+
+		return true;
+	}
+
+	/* Times the loop against an engine and returns the database it leaves behind */
+	private static String runThroughput(String engineName, int records, boolean report) {
+
+		Path directory = BenchmarkDatabase.copy();
+		BenchmarkDatabase database = new BenchmarkDatabase(engineName, directory);
+
+		/* A node is only written below a parent that exists */
+		database.run("write database.bench");
+
+		long writes = EngineSuite.time(database, records, "write database.bench.%d = v%d");
+		long reads = EngineSuite.time(database, records, "read database.bench.%d");
+		long renames = EngineSuite.time(database, records / 2, "rename database.bench.%d = renamed%d");
+		long deletes = EngineSuite.time(database, records / 2, "delete database.bench.renamed%d");
+
+		String statistics = database.getDisk().getDurabilityStatistics();
+
+		database = database.reopen();
+
+		String dump = database.dump();
+
+		database.close();
+		BenchmarkDatabase.delete(directory);
+
+		if (report) {
+			System.out.println(String.format("  %-6s writes %s, reads %s, renames %s, deletes %s", engineName,
+					EngineSuite.rate(records, writes), EngineSuite.rate(records, reads),
+					EngineSuite.rate(records / 2, renames), EngineSuite.rate(records / 2, deletes)));
+			System.out.println("         " + statistics);
+		}
+
+		return dump;
+	}
+
+	/* Times writes from a number of sessions at once, each writing its own share of the records */
+	private static void runSyncMode(String engineName, int records, int sessions) {
+
+		Path directory = BenchmarkDatabase.copy();
+		BenchmarkDatabase database = new BenchmarkDatabase(engineName, directory);
+
+		long start = System.nanoTime();
+
+		EngineSuite.joinSessions(EngineSuite.startSessions(database, records, sessions), 0);
+
+		long nanos = System.nanoTime() - start;
+
+		System.out.println(String.format("  %-18s %d session%s: %s", System.getProperty("rut.log.syncMode"),
+				sessions, (sessions == 1) ? "" : "s", EngineSuite.rate(records, nanos)));
+		System.out.println("         " + database.getDisk().getDurabilityStatistics());
+
+		database.close();
+		BenchmarkDatabase.delete(directory);
+	}
+
+	/*
+	 * Writes from several sessions in group mode while checkpoints are taken, and
+	 * returns the database left behind. Exits if a session does not finish, its
+	 * thread cannot be stopped.
+	 */
+	private static String runCheckpoints(String engineName, int records) {
+
+		Path directory = BenchmarkDatabase.copy();
+		BenchmarkDatabase database = new BenchmarkDatabase(engineName, directory);
+		Thread[] threads = EngineSuite.startSessions(database, records, CHECKPOINT_SESSIONS);
+		int checkpoints = 0;
+
+		long deadline = System.currentTimeMillis() + CHECKPOINT_TIMEOUT_MILLIS;
+
+		while (EngineSuite.isAnyAlive(threads) && System.currentTimeMillis() < deadline) {
+			database.checkpoint();
+			checkpoints++;
+		}
+
+		if (!EngineSuite.joinSessions(threads, Math.max(deadline - System.currentTimeMillis(), 1))) {
+			System.out.println("  " + engineName + ": a session was still waiting for the log after "
+					+ CHECKPOINT_TIMEOUT_MILLIS + " ms. Exiting...");
+			System.exit(1);
+		}
+
+		System.out.println(String.format("  %-6s %d checkpoints", engineName, checkpoints));
+
+		database = database.reopen();
+
+		String dump = database.dump();
+
+		database.close();
+		BenchmarkDatabase.delete(directory);
+
+		return dump;
+	}
+
+	/* Starts sessions that each write their own share of the records, below database.bench */
+	private static Thread[] startSessions(BenchmarkDatabase database, int records, int sessions) {
+
+		Thread[] threads = new Thread[sessions];
+
+		/* A node is only written below a parent that exists */
+		database.run("write database.bench");
+
+		for (int session = 0; session < sessions; session++) {
+
+			int firstRecord = session * records / sessions;
+			int lastRecord = (session + 1) * records / sessions;
+			Interpreter interpreter = database.openSession();
+
+			threads[session] = new Thread(() -> {
+
+				Statement statement = new Statement();
+
+				for (int record = firstRecord; record < lastRecord; record++) {
+					statement.parseStatement("write database.bench." + record + " = " + record);
+					interpreter.processStatement(statement);
+				}
+
+				interpreter.close();
+			});
+
+			threads[session].setDaemon(true);
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		return threads;
+	}
+
+	/* Returns true if every session finished within the time given, 0 for no limit */
+	private static boolean joinSessions(Thread[] threads, long timeoutMillis) {
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+
+		for (Thread thread : threads) {
+
+			try {
+
+				if (timeoutMillis == 0) {
+					thread.join();
+				} else {
+					thread.join(Math.max(deadline - System.currentTimeMillis(), 1));
+				}
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return !EngineSuite.isAnyAlive(threads);
+	}
+
+	private static boolean isAnyAlive(Thread[] threads) {
+
+		for (Thread thread : threads) {
+
+			if (thread.isAlive()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/* Runs a statement for each record, and returns the nanoseconds taken */
+	private static long time(BenchmarkDatabase database, int records, String statementFormat) {
+
+		long start = System.nanoTime();
+
+		for (int record = 0; record < records; record++) {
+			database.run(String.format(statementFormat, record, record));
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static String rate(int statements, long nanos) {
+		return String.format("%.0f/s", statements * 1e9 / Math.max(nanos, 1));
+	}
+
+}
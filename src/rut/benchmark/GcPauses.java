@@ -0,0 +1,280 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+The GcPauses benchmark measures the garbage collection pauses of the same
+work with the cold top-level branches kept on the heap, in a node arena
+(ArenaStore, rut.arena) and column-wise (ColumnStore, rut.columns).
+
+A database is generated with many branches of records, e.g.
+database.t17.8521.f3 = v8521, and opened in the lsm storage engine. The same
+random mix of statements is then run against it, reads and writes of single
+records, so that the branches are read back onto the heap and moved off it
+again as they are reached. Most statements reach a tenth of the branches, the
+rest are spread over them all. Every record has an id of its own, as it would
+be given by Newid, so that a statement only reaches the branch the record is
+in. The heap left in use is measured once the statements are done, with the
+garbage collected. Each collection is timed as it is
+reported by the JVM.
+
+Each mode runs in a JVM of its own, started with the same JVM options, so
+that the heap one mode leaves behind does not count against the next:
+
+java -Xmx1g -cp <classes> rut.benchmark.GcPauses [statements] [branches] [records]
+
+The most branches kept on the heap in the arena and column modes is
+rut.segments.cacheSize, 32 unless it is set.
+
+*/
+
+package rut.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import rut.Definitions;
+import rut.MemoryStorage;
+import rut.storage.ArenaStore;
+import rut.storage.ColumnStore;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class GcPauses {
+
+	/* Branches on the heap, in a node arena and column-wise */
+	private static final String[] MODES = { "heap", "arena", "columns" };
+
+	private static final int STATEMENTS = 10000;
+
+	private static final int BRANCHES = 200;
+
+	private static final int RECORDS_PER_BRANCH = 500;
+
+	private static final int FIELDS_PER_RECORD = 5;
+
+	/* The percentage of statements that reach the hot tenth of the branches */
+	private static final int HOT_PERCENT = 90;
+
+	/* The most branches kept on the heap by default */
+	private static final int CACHE_SIZE = 32;
+
+	/* The pauses of every collection while the statements run, in milliseconds */
+	private static List<Long> pauses = Collections.synchronizedList(new ArrayList<Long>());
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		/* A mode is given to the JVM started for it */
+		if (args.length > 0 && !Character.isDigit(args[0].charAt(0))) {
+
+			int statements = Integer.parseInt(args[1]);
+			int branches = Integer.parseInt(args[2]);
+			int records = Integer.parseInt(args[3]);
+
+			GcPauses.runMode(args[0], statements, branches, records);
+			return;
+		}
+
+		String statements = (args.length > 0) ? args[0] : String.valueOf(STATEMENTS);
+		String branches = (args.length > 1) ? args[1] : String.valueOf(BRANCHES);
+		String records = (args.length > 2) ? args[2] : String.valueOf(RECORDS_PER_BRANCH);
+
+		System.out.println("GC pauses, " + statements + " statements against " + branches + " branches of "
+				+ records + " records:");
+
+		for (String mode : MODES) {
+
+			ArrayList<String> command = new ArrayList<String>();
+
+			command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+			command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(GcPauses.class.getName());
+			command.add(mode);
+			command.add(statements);
+			command.add(branches);
+			command.add(records);
+
+			Process process = new ProcessBuilder(command).inheritIO().start();
+
+			if (process.waitFor() != 0) {
+				System.out.println("The " + mode + " mode did not complete. Exiting...");
+				System.exit(1);
+			}
+		}
+	}
+
+	/* Opens the database with its branches kept as the mode has them and times the collections */
+	private static void runMode(String mode, int statements, int branches, int records) {
+
+		Path directory = BenchmarkDatabase.write(GcPauses.generateDatabase(branches, records));
+		BenchmarkDatabase database = new BenchmarkDatabase("lsm", directory);
+		MemoryStorage memory = database.getMemory();
+
+		if (!mode.equals("heap")) {
+
+			ArenaStore branchStore = mode.equals("columns") ? new ColumnStore(memory) : new ArenaStore(memory);
+
+			branchStore.attach(Integer.getInteger("rut.segments.cacheSize", CACHE_SIZE),
+					Double.parseDouble(System.getProperty("rut.segments.heapThreshold",
+							String.valueOf(Definitions.segmentHeapThreshold))));
+		}
+
+		System.gc();
+
+		long collectionsBefore = GcPauses.getCollectionCount();
+		GcPauses.listen();
+
+		Random random = new Random(1922);
+		int hotBranches = Math.max(branches / 10, 1);
+		long start = System.nanoTime();
+
+		for (int i = 0; i < statements; i++) {
+
+			int branch = random.nextInt((random.nextInt(100) < HOT_PERCENT) ? hotBranches : branches);
+			String recordPath = "database.t" + branch + "." + (branch * records + random.nextInt(records));
+
+			if (random.nextInt(100) < 80) {
+				database.run("read " + recordPath);
+			} else {
+				database.run("write " + recordPath + " = w" + i);
+			}
+		}
+
+		long nanos = System.nanoTime() - start;
+		long collections = GcPauses.getCollectionCount() - collectionsBefore;
+
+		ArrayList<Long> sortedPauses;
+
+		synchronized (pauses) {
+			sortedPauses = new ArrayList<Long>(pauses);
+		}
+
+		Collections.sort(sortedPauses);
+
+		System.gc();
+
+		long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+		long totalPause = 0;
+
+		for (long pause : sortedPauses) {
+			totalPause += pause;
+		}
+
+		System.out.println(String.format(
+				"  %-8s %.1f s, %d collections, pauses total %d ms, p99 %d ms, max %d ms, heap in use %.1f MB",
+				mode, nanos / 1e9, collections, totalPause, GcPauses.percentile(sortedPauses, 0.99),
+				GcPauses.percentile(sortedPauses, 1.0), heapUsed / 1048576.0));
+
+		database.close();
+		BenchmarkDatabase.delete(directory);
+	}
+
+	/* Generates the branches of records, in the master.database format */
+	private static String generateDatabase(int branches, int records) {
+
+		ArrayList<String> lines = new ArrayList<String>();
+
+		lines.add("database:");
+
+		for (int branch = 0; branch < branches; branch++) {
+
+			lines.add("database.t" + branch + ":");
+
+			for (int record = branch * records; record < (branch + 1) * records; record++) {
+
+				String recordPath = "database.t" + branch + "." + record;
+
+				lines.add(recordPath + ":");
+
+				for (int field = 0; field < FIELDS_PER_RECORD; field++) {
+					lines.add(recordPath + ".f" + field + ":v" + record);
+				}
+			}
+		}
+
+		return MemoryStorage.sortDataMapLines(lines);
+	}
+
+	/* Records the pause of every collection from now on */
+	private static void listen() {
+
+		NotificationListener listener = (Notification notification, Object handback) -> {
+
+			if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+
+				GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+						.from((CompositeData) notification.getUserData());
+
+				pauses.add(info.getGcInfo().getDuration());
+			}
+		};
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+
+			if (GcPauses.pauses(collector)) {
+				((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+			}
+		}
+	}
+
+	private static long getCollectionCount() {
+
+		long count = 0;
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+
+			if (GcPauses.pauses(collector)) {
+				count += Math.max(collector.getCollectionCount(), 0);
+			}
+		}
+
+		return count;
+	}
+
+	/* The cycles of a concurrent collector run alongside the statements, only its pauses stop them */
+	private static boolean pauses(GarbageCollectorMXBean collector) {
+		return !collector.getName().contains("Concurrent") && !collector.getName().contains("Cycles");
+	}
+
+	private static long percentile(List<Long> sortedPauses, double fraction) {
+
+		if (sortedPauses.isEmpty()) {
+			return 0;
+		}
+
+		return sortedPauses.get((int) Math.ceil(fraction * sortedPauses.size()) - 1);
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+The HeapFootprint benchmark measures the heap a node tree takes, before and
+after nodes kept their children in an adaptive container, named them by int
+ids from the NameDictionary and pointed back at their parents.
+
+The same tree is built three times: groups of 100 records, each record with 5
+fields that hold a value, e.g. group0.17.field3 = v17.
+
+* before  - the nodes as they were, see BaselineNode: a ConcurrentHashMap of
+            children for every node, leaves included, keyed by the names as
+            they are read from master.database, one String for each line.
+* after   - Node as it is, with children kept in order off (the default).
+* ordered - Node as it is, with children kept in order (rut.children.ordered).
+
+The heap in use is measured after each tree is built, with the garbage
+collected, and compared with the heap in use before it. The figures are
+steadiest with a collector that does not collect concurrently:
+
+java -XX:+UseParallelGC -Xmx4g -cp <classes> rut.benchmark.HeapFootprint [records]
+
+*/
+
+package rut.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rut.Definitions;
+import rut.Node;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class HeapFootprint {
+
+	/* The number of records the tree holds by default */
+	private static final int RECORDS = 200000;
+
+	private static final int RECORDS_PER_GROUP = 100;
+
+	private static final int FIELDS_PER_RECORD = 5;
+
+	public static void main(String[] args) {
+
+		int records = (args.length > 0) ? Integer.parseInt(args[0]) : RECORDS;
+		int groups = (records + RECORDS_PER_GROUP - 1) / RECORDS_PER_GROUP;
+		long nodes = 1 + groups + (long) records * (1 + FIELDS_PER_RECORD);
+
+		System.out.println("Heap footprint, " + nodes + " nodes:");
+
+		boolean orderedChildren = Definitions.orderedChildren;
+
+		long before = HeapFootprint.measureBaseline(records);
+
+		Definitions.orderedChildren = false;
+		long after = HeapFootprint.measureNodes(records);
+
+		Definitions.orderedChildren = true;
+		long ordered = HeapFootprint.measureNodes(records);
+
+		Definitions.orderedChildren = orderedChildren;
+
+		HeapFootprint.report("before", before, nodes, before);
+		HeapFootprint.report("after", after, nodes, before);
+		HeapFootprint.report("ordered", ordered, nodes, before);
+	}
+
+	/* Returns the heap taken by the tree as the nodes were */
+	private static long measureBaseline(int records) {
+
+		long start = HeapFootprint.usedHeap();
+		BaselineNode root = new BaselineNode("");
+
+		for (int record = 0; record < records; record++) {
+
+			String groupName = "group" + record / RECORDS_PER_GROUP;
+			BaselineNode group = root.children.get(groupName);
+
+			if (group == null) {
+				group = new BaselineNode("");
+				root.children.put(groupName, group);
+			}
+
+			BaselineNode recordNode = new BaselineNode("");
+
+			for (int field = 0; field < FIELDS_PER_RECORD; field++) {
+				recordNode.children.put("field" + field, new BaselineNode("v" + record));
+			}
+
+			group.children.put(String.valueOf(record), recordNode);
+		}
+
+		long used = HeapFootprint.usedHeap() - start;
+
+		/* The tree is only dropped once it has been measured */
+		return (root.children.isEmpty()) ? 0 : used;
+	}
+
+	/* Returns the heap taken by the tree as Node keeps it */
+	private static long measureNodes(int records) {
+
+		long start = HeapFootprint.usedHeap();
+		Node root = new Node();
+
+		for (int record = 0; record < records; record++) {
+
+			String groupName = "group" + record / RECORDS_PER_GROUP;
+			Node group = root.getChild(groupName);
+
+			if (group == null) {
+				root.addNodeChild(groupName);
+				group = root.getChild(groupName);
+			}
+
+			Node recordNode = new Node();
+
+			for (int field = 0; field < FIELDS_PER_RECORD; field++) {
+				recordNode.addNodeChild("field" + field, "v" + record);
+			}
+
+			group.setChild(String.valueOf(record), recordNode);
+		}
+
+		long used = HeapFootprint.usedHeap() - start;
+
+		return (root.getChildCount() == 0) ? 0 : used;
+	}
+
+	/* Collects the garbage until the heap in use stops shrinking, then returns it */
+	private static long usedHeap() {
+
+		MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+
+		for (int i = 0; i < 10; i++) {
+
+			System.gc();
+
+			long nowUsed = memoryBean.getHeapMemoryUsage().getUsed();
+
+			if (nowUsed >= used) {
+				break;
+			}
+
+			used = nowUsed;
+		}
+
+		return used;
+	}
+
+	private static void report(String layout, long bytes, long nodes, long before) {
+		System.out.println(String.format("  %-8s %8.1f MB, %6.1f bytes per node, %5.1f%% of before", layout,
+				bytes / 1048576.0, (double) bytes / nodes, 100.0 * bytes / before));
+	}
+
+	/*
+	 * A node as it was kept before the adaptive children, name ids and parent
+	 * pointers, with the same fields and the same container for its children
+	 */
+	private static class BaselineNode {
+
+		@SuppressWarnings("unused")
+		private boolean locked;
+
+		@SuppressWarnings("unused")
+		private String shellId;
+
+		@SuppressWarnings("unused")
+		private String value;
+
+		private ConcurrentHashMap<String, BaselineNode> children;
+
+		private BaselineNode(String value) {
+			this.children = new ConcurrentHashMap<String, BaselineNode>();
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+The RenameCost benchmark times rename against branches of growing size, to
+show what a rename costs and what it does not.
+
+A database is generated with one branch of records, each with 5 fields, e.g.
+database.big.8521.f3 = v8521, and opened in the disk storage engine. Then:
+
+* one record  - single records of the branch are renamed, one statement at a
+                time. The nodes being renamed are found by their name, so this
+                should not grow with the branch.
+* branch      - the whole branch is renamed and renamed back. Every node below
+                it is keyed by its full path in the dataMap and the storage
+                engines, so this grows with the branch.
+
+The log is not forced after each statement unless rut.log.syncMode is given,
+so that the time of a rename is not hidden by the time of a force:
+
+java -cp <classes> rut.benchmark.RenameCost [records ...]
+
+*/
+
+package rut.benchmark;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+import rut.MemoryStorage;
+import rut.storage.GroupCommit;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class RenameCost {
+
+	/* The sizes of the branch by default, in records */
+	private static final int[] RECORDS = { 1000, 10000, 100000 };
+
+	private static final int FIELDS_PER_RECORD = 5;
+
+	/* The records renamed one at a time, and the times the whole branch is renamed */
+	private static final int RECORD_RENAMES = 200;
+
+	private static final int BRANCH_RENAMES = 4;
+
+	public static void main(String[] args) {
+
+		if (System.getProperty("rut.log.syncMode") == null) {
+			System.setProperty("rut.log.syncMode", GroupCommit.ASYNC);
+		}
+
+		int[] sizes = RECORDS;
+
+		if (args.length > 0) {
+
+			sizes = new int[args.length];
+
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		/* The first pass only warms up the JIT */
+		RenameCost.measure(sizes[0], false);
+
+		System.out.println("Rename cost, " + RECORD_RENAMES + " records and " + BRANCH_RENAMES
+				+ " whole branches renamed:");
+
+		for (int records : sizes) {
+			RenameCost.measure(records, true);
+		}
+	}
+
+	/* Times the renames against a branch of records */
+	private static void measure(int records, boolean report) {
+
+		Path directory = BenchmarkDatabase.write(RenameCost.generateDatabase(records));
+		BenchmarkDatabase database = new BenchmarkDatabase("disk", directory);
+
+		Random random = new Random(1922);
+		long start = System.nanoTime();
+
+		for (int i = 0; i < RECORD_RENAMES; i++) {
+
+			int record = random.nextInt(records);
+
+			RenameCost.rename(database, "database.big." + record, "renamed" + record);
+		}
+
+		long recordNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+
+		for (int i = 0; i < BRANCH_RENAMES; i += 2) {
+			RenameCost.rename(database, "database.big", "moved");
+			RenameCost.rename(database, "database.moved", "big");
+		}
+
+		long branchNanos = System.nanoTime() - start;
+
+		if (report) {
+			System.out.println(String.format("  %7d records: one record %8.1f us, branch %8.1f ms", records,
+					recordNanos / 1e3 / RECORD_RENAMES, branchNanos / 1e6 / BRANCH_RENAMES));
+		}
+
+		database.close();
+		BenchmarkDatabase.delete(directory);
+	}
+
+	/* Renames a node, a record that has been renamed already is left as it is */
+	private static void rename(BenchmarkDatabase database, String nodePath, String newName) {
+
+		String response = database.run("rename " + nodePath + " = " + newName);
+
+		if (!response.contains("renamed to") && !response.startsWith("No nodes")) {
+			System.out.println("Could not rename " + nodePath + ": " + response + " Exiting...");
+			System.exit(1);
+		}
+	}
+
+	/* Generates the branch of records, in the master.database format */
+	private static String generateDatabase(int records) {
+
+		ArrayList<String> lines = new ArrayList<String>();
+
+		lines.add("database:");
+		lines.add("database.big:");
+
+		for (int record = 0; record < records; record++) {
+
+			String recordPath = "database.big." + record;
+
+			lines.add(recordPath + ":");
+
+			for (int field = 0; field < FIELDS_PER_RECORD; field++) {
+				lines.add(recordPath + ".f" + field + ":v" + record);
+			}
+		}
+
+		return MemoryStorage.sortDataMapLines(lines);
+	}
+
+}
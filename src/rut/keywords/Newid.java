@@ -4,14 +4,16 @@ import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 
 import rut.MemoryStorage;
-import rut.Node;
 import rut.Statement;
 
 public class Newid extends Keyword {
 
-	public Newid(MemoryStorage memory) {
+	private NewidBlock block;
+
+	public Newid(MemoryStorage memory, NewidBlock block) {
 		super(memory, "Newid");
 
+		this.block = block;
 	}
 
 	/** Overrides the parent class Keyword's definition of execute.
@@ -86,11 +88,10 @@ public class Newid extends Keyword {
 	
 	
 	/**
-	 * Creates a unique ID that doesn't currently exist in the database. It will try
-	 * to generate one until a unique id is available
+	 * Creates a unique ID that has never been handed out before and doesn't
+	 * currently exist in the database, from the ids reserved by the session.
 	 * 
-	 * @param memory the instance of MemoryStorage that the application is using,
-	 *               access is needed to the data
+	 * @param parameter the keyword's parameter, Newid takes none
 	 * 
 	 * @return a long converted into a unique String
 	 */
@@ -103,20 +104,7 @@ public class Newid extends Keyword {
 
 		}
 
-		long uid = this.memory.getUid();
-
-		String temporaryNewId;
-		Node nodeToSearchFor = null;
-		do {
-			temporaryNewId = Long.toString(uid++);
-			nodeToSearchFor = this.memory.getNodeByName(temporaryNewId);
-			/*
-			 * New ID must be unique, if we find it in the database, try the next number...
-			 */
-		} while (nodeToSearchFor != null);
-
-		this.memory.setUid(uid);
-		return temporaryNewId;
+		return this.block.nextId();
 	}
 
 }
@@ -0,0 +1,68 @@
+package rut.keywords;
+
+import rut.MemoryStorage;
+
+/**
+ * The ids a session hands out for the Newid keyword. Ids are reserved from
+ * MemoryStorage in blocks, so that generating an id takes constant time and
+ * sessions only meet when one of them reserves its next block. The ids left in
+ * a block when the session closes are given back, see release.
+ * 
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public class NewidBlock {
+
+	/* The number of ids reserved at a time */
+	private static final int BLOCK_SIZE = 1024;
+
+	private MemoryStorage memory;
+
+	/* The next id of the block, and the id after its last one */
+	private long nextUid;
+
+	private long endUid;
+
+	public NewidBlock(MemoryStorage memory) {
+		this.memory = memory;
+	}
+
+	/**
+	 * Returns the next id of the block, reserving a new block once it is used up.
+	 * 
+	 * @return the id, as a node name
+	 */
+	public String nextId() {
+
+		String newId;
+
+		do {
+
+			if (this.nextUid == this.endUid) {
+				this.nextUid = this.memory.reserveUids(BLOCK_SIZE);
+				this.endUid = this.nextUid + BLOCK_SIZE;
+			}
+
+			newId = Long.toString(this.nextUid++);
+
+			/* A node can also be given a number as its name without Newid, that id is skipped */
+		} while (this.memory.getNodeByName(newId) != null);
+
+		return newId;
+	}
+
+	/**
+	 * Gives back the ids of the block that have not been handed out, so the next
+	 * block reserved starts with them.
+	 */
+	public void release() {
+
+		if (this.nextUid < this.endUid) {
+			this.memory.releaseUids(this.nextUid, this.endUid);
+		}
+
+		this.nextUid = 0;
+		this.endUid = 0;
+	}
+
+}
@@ -2,11 +2,12 @@ package rut.operation;
 
 
 import java.util.LinkedHashSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 
 import rut.MemoryStorage;
 import rut.Node;
 import rut.Statement;
+import rut.storage.Mutation;
 
 public class Delete extends Operation {
 
@@ -20,7 +21,7 @@ public class Delete extends Operation {
 		Node parentNode = new Node();
 		int nodesDeleted = 0;
 		String childName = "";
-		ConcurrentHashMap<String, Node> theChildren = new ConcurrentHashMap<String, Node>();
+		Map<String, Node> theChildren = null;
 		LinkedHashSet<String> dataToProcessOrder = this.generateChildDataToProcess(fullPath, fetchedNode);
 		String resultLine = "";
 		
@@ -38,6 +39,7 @@ public class Delete extends Operation {
 				this.memory.setWriteToDiskSignal(true);
 				parentNode.setChildren(theChildren);
 				this.memory.deleteDataMap(fullChildPath);
+				this.memory.logMutation(new Mutation(Mutation.DELETE, fullChildPath, ""));
 
 				resultLine = fullChildPath + " deleted.";
 				this.outputBufferRows.add(resultLine);
@@ -20,9 +20,11 @@ package rut.operation;
 
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import rut.MemoryStorage;
+import rut.NameDictionary;
 import rut.Node;
 import rut.Statement;
 import rut.dataFormat.DataFormat;
@@ -40,6 +42,8 @@ public abstract class Operation {
 	public String operation;
 	public String opVerbPastTense;
 	public String childNameToProcess;
+	/* The id of childNameToProcess, looked up once rather than in every parent node */
+	protected int childNameIdToProcess;
 	public ConcurrentHashMap<String, Node> childDataToProcess;
 	protected ConcurrentHashMap<String, Node> fetchedNodesData;
 	protected ConcurrentHashMap<String, String> childNamesValues;
@@ -73,6 +77,8 @@ public abstract class Operation {
 	public String execute() {
 
 		this.childNameToProcess = this.statement.getSelectedNodeName();
+		/* A name no node has is not added to the NameDictionary, its id is NO_NAME and finds no child */
+		this.childNameIdToProcess = NameDictionary.findId(this.childNameToProcess);
 
 		String selectedNodeValue = this.statement.getSelectedNodeValue();
 		this.childNamesValues = this.statement.getChildNamesValues();
@@ -95,7 +101,12 @@ public abstract class Operation {
 			nodesData = this.memory.getParentNodesDataByChildName(this.childNameToProcess, searchRules);
 
 		} else {
-			nodesData = this.memory.getParentNodesDataByHierarchy(nodeHierarchy, searchRules);
+			/* A fully specified hierarchy is looked up by its full path, any other is searched for */
+			nodesData = this.memory.getParentNodesDataByFullPath(nodeHierarchy);
+
+			if (nodesData == null) {
+				nodesData = this.memory.getParentNodesDataByHierarchy(nodeHierarchy, searchRules);
+			}
 
 			/*
 			 * We have retrieved the parent node but still have to check if this node has a
@@ -147,7 +158,7 @@ public abstract class Operation {
 
 			parentNode = uncheckedNodesData.get(fullPath);
 
-			childNode = parentNode.getChild(this.childNameToProcess);
+			childNode = parentNode.getChild(this.childNameIdToProcess);
 
 			if (childNode != null) {
 
@@ -220,55 +231,38 @@ public abstract class Operation {
 
 	protected LinkedHashSet<String> generateChildDataToProcess(String fullPath, Node fetchedNode) {
 
-		StringBuilder finalPath = new StringBuilder();
-		finalPath.append(fullPath);
-
-		if (finalPath.length() > 0) {
-
-			finalPath.append(".");
-
-		}
-
 		LinkedHashSet<String> dataToProcessOrder = new LinkedHashSet<String>();
-		String rawLine = "";
-		String pathFromChild = "";
-		String fullPathOfChild = "";
-		String parentName = "";
-		int separatorToken = 0;
-		Node parentNode = new Node();
-
-		ArrayList<String> recursiveReadLines = fetchedNode.generateTree(this.childNameToProcess);
-		if (recursiveReadLines.size() > 1) {
+		String fullPathOfChild = fullPath.isEmpty() ? this.childNameToProcess
+				: fullPath + "." + this.childNameToProcess;
+		Node childNode = fetchedNode.getChild(this.childNameIdToProcess);
 
-			ConcurrentHashMap<String, Node> parentNodeData = new ConcurrentHashMap<String, Node>();
+		if (childNode == null) {
 
-			for (int i = recursiveReadLines.size() - 1; i >= 0; i--) {
+			dataToProcessOrder.add(fullPathOfChild);
+			this.childDataToProcess.put(fullPathOfChild, fetchedNode);
 
-				rawLine = recursiveReadLines.get(i);
-				separatorToken = rawLine.indexOf(':');
-				pathFromChild = rawLine.substring(0, separatorToken);
-				fullPathOfChild = finalPath.toString() + pathFromChild;
-				parentName = this.memory.parseParentName(fullPathOfChild);
-				parentNodeData = this.memory.getDataByPath(parentName, false);
+		} else {
 
-				if (parentNodeData.size() > 0) {
+			this.addSubtreeToProcess(fullPathOfChild, childNode, dataToProcessOrder);
+		}
 
-					parentNode = memory.justNodes((parentNodeData)).get(0);
-					this.childDataToProcess.put(fullPathOfChild, parentNode);
-					dataToProcessOrder.add(fullPathOfChild);
-				}
+		return dataToProcessOrder;
 
-			}
+	}
 
-		} else {
+	/*
+	 * Adds the descendants of a node, deepest first, and then the node itself,
+	 * each with its parent. The tree is walked directly, so every node is visited
+	 * once.
+	 */
+	private void addSubtreeToProcess(String fullPathOfNode, Node node, LinkedHashSet<String> dataToProcessOrder) {
 
-			fullPathOfChild = finalPath.toString() + this.childNameToProcess;
-			dataToProcessOrder.add(fullPathOfChild);
-			this.childDataToProcess.put(fullPathOfChild, fetchedNode);
+		for (Map.Entry<String, Node> child : node.getChildren().entrySet()) {
+			this.addSubtreeToProcess(fullPathOfNode + "." + child.getKey(), child.getValue(), dataToProcessOrder);
 		}
 
-		return dataToProcessOrder;
-
+		dataToProcessOrder.add(fullPathOfNode);
+		this.childDataToProcess.put(fullPathOfNode, node.getParent());
 	}
 
 	protected boolean validate() {
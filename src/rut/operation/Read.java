@@ -20,7 +20,10 @@ public class Read extends Operation {
 
 		int nodeCount = 0;
 		ArrayList<String> rawResultLines = new ArrayList<String>();
-		if (this.childNamesValues.isEmpty()) {
+		if (this.statement.hasRange()) {
+			rawResultLines = fetchedNode.generateRangeTree(this.childNameToProcess, this.statement.getRangeLow(),
+					this.statement.getRangeHigh());
+		} else if (this.childNamesValues.isEmpty()) {
 			rawResultLines = fetchedNode.generateTree(this.childNameToProcess);
 		} else {
 			
@@ -1,11 +1,12 @@
 package rut.operation;
 
-import java.util.LinkedHashSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Map;
 
 import rut.MemoryStorage;
 import rut.Node;
 import rut.Statement;
+import rut.storage.Mutation;
 
 public class Rename extends Operation {
 
@@ -20,44 +21,74 @@ public class Rename extends Operation {
 	}
 
 	public int processNodeData(String fullPath, Node fetchedNode) {
-		Node renamedNode = new Node();
-		Node parentNode = new Node();
 		int nodesRenamed = 0;
-		String childName = "";
-		ConcurrentHashMap<String, Node> theChildren = new ConcurrentHashMap<String, Node>();
-
-		LinkedHashSet<String> dataToProcessOrder = this.generateChildDataToProcess(fullPath, fetchedNode);
-		String resultLine = "";
-		
-		
-		/* A parent Node matches each child path in the DataToProcess container */
-		for (String fullChildPath : dataToProcessOrder) {
-
-			parentNode = this.childDataToProcess.get(fullChildPath);
-			theChildren = parentNode.getChildren();
-			childName = this.memory.parseNodeName(fullChildPath);
-
-			if (this.childNameToProcess.equals(childName)) {
-
-				renamedNode = theChildren.remove(childName);
-				theChildren.put(this.newNodeName, renamedNode);
-				this.memory.setWriteToDiskSignal(true);
-				parentNode.setChildren(theChildren);
-				nodesRenamed++;
-				
-				/* The decision was made to only output actual nodes that are being renamed.
-				 * The fact that a node's descendants will have to have their dataMap path updated should be 
-				 * no concern of the user's. */
-				resultLine = fullChildPath + " renamed to " + "'" + this.newNodeName + "'.";
-				this.outputBufferRows.add(resultLine);
-				
+
+		Node subtreeNode = fetchedNode.getChild(this.childNameIdToProcess);
+
+		if (subtreeNode == null) {
+			return 0;
+		}
+
+		/*
+		 * The nodes with the name being renamed are found first, deepest first, so that
+		 * each is renamed while the paths above it are unchanged. Each renamed node is
+		 * then moved in the dataMap, which only changes the paths below it. A rename
+		 * therefore costs in proportion to the renamed subtree, however large the rest
+		 * of the tree is, see RenameCost.
+		 */
+		String subtreePath = fullPath.isEmpty() ? this.childNameToProcess : fullPath + "." + this.childNameToProcess;
+		ArrayList<String> renamedPaths = new ArrayList<String>();
+		ArrayList<Node> renamedNodes = new ArrayList<Node>();
+
+		this.findNodesToRename(subtreePath, subtreeNode, renamedPaths, renamedNodes);
+
+		for (int i = 0; i < renamedPaths.size(); i++) {
+
+			String fullChildPath = renamedPaths.get(i);
+			Node renamedNode = renamedNodes.get(i);
+			Node parentNode = renamedNode.getParent();
+			String parentPath = this.memory.parseParentName(fullChildPath);
+			String newChildPath = parentPath.isEmpty() ? this.newNodeName : parentPath + "." + this.newNodeName;
+
+			/* A sibling that had the new name is replaced, along with everything below it */
+			Node replacedNode = parentNode.getChild(this.newNodeName);
+
+			if (replacedNode != null && replacedNode != renamedNode) {
+				this.memory.removeSubtreeDataMap(replacedNode, newChildPath);
 			}
 
-			this.memory.renameParentDataMap(fullChildPath, this.childNameToProcess, this.newNodeName);
+			Map<String, Node> theChildren = parentNode.getChildren();
 
-			
+			theChildren.remove(this.childNameToProcess);
+			theChildren.put(this.newNodeName, renamedNode);
+			parentNode.setChildren(theChildren);
+
+			this.memory.moveSubtreeDataMap(renamedNode, fullChildPath, newChildPath);
+			this.memory.setWriteToDiskSignal(true);
+			this.memory.logMutation(new Mutation(Mutation.RENAME, fullChildPath, this.newNodeName));
+			nodesRenamed++;
+
+			/* The decision was made to only output actual nodes that are being renamed.
+			 * The fact that a node's descendants will have to have their dataMap path updated should be 
+			 * no concern of the user's. */
+			this.outputBufferRows.add(fullChildPath + " renamed to " + "'" + this.newNodeName + "'.");
 		}
+
 		return nodesRenamed;
 	}
 
+	/* Adds the nodes in a subtree with the name being renamed, deepest first, with their paths */
+	private void findNodesToRename(String fullPathOfNode, Node node, ArrayList<String> renamedPaths,
+			ArrayList<Node> renamedNodes) {
+
+		for (Map.Entry<String, Node> child : node.getChildren().entrySet()) {
+			this.findNodesToRename(fullPathOfNode + "." + child.getKey(), child.getValue(), renamedPaths, renamedNodes);
+		}
+
+		if (this.memory.parseNodeName(fullPathOfNode).equals(this.childNameToProcess)) {
+			renamedPaths.add(fullPathOfNode);
+			renamedNodes.add(node);
+		}
+	}
+
 }
\ No newline at end of file
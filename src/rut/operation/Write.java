@@ -3,8 +3,10 @@ package rut.operation;
 import java.util.concurrent.ConcurrentHashMap;
 
 import rut.MemoryStorage;
+import rut.NameDictionary;
 import rut.Node;
 import rut.Statement;
+import rut.storage.Mutation;
 
 public class Write extends Operation {
 
@@ -38,14 +40,19 @@ public class Write extends Operation {
 		 * child name to process
 		 * fetched node
 		 * */
-		Node currentNode = fetchedNode.getChild(this.childNameToProcess);
+		Node currentNode = fetchedNode.getChild(this.childNameIdToProcess);
 		if (currentNode == null) {
 		
 			fetchedNode.addNodeChild(this.childNameToProcess, this.statement.getSelectedNodeValue());
-			currentNode = fetchedNode.getChild(this.childNameToProcess);
+
+			/* The name has an id once the first node with it has been added */
+			this.childNameIdToProcess = NameDictionary.findId(this.childNameToProcess);
+			currentNode = fetchedNode.getChild(this.childNameIdToProcess);
+			currentNode.setValue(currentNode.getValue(), this.memory.getValueType(this.childNameToProcess));
 			
 			
 			this.memory.addDataMap(currentNode, fullNodeName);
+			this.memory.logMutation(new Mutation(Mutation.WRITE, fullNodeName, currentNode.getValue()));
 			newNode = true;
 		
 		}
@@ -54,7 +61,8 @@ public class Write extends Operation {
 			/* We only overwrite the existing value if a new value is set. Otherwise the node is not touched. */
 			if (setValue) {
 			
-				currentNode.setValue(this.statement.getSelectedNodeValue());
+				this.memory.setNodeValue(currentNode, this.statement.getSelectedNodeValue());
+				this.memory.logMutation(new Mutation(Mutation.WRITE, fullNodeName, currentNode.getValue()));
 			}
 		}
 		/**/
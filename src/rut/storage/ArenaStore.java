@@ -0,0 +1,108 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ * Keeps the top-level branches of a database in a NodeArena, outside the Java
+ * heap, while they are not in use. Each branch is left as a stub of a
+ * SegmentCache, which reads it back onto the heap the first time it is reached
+ * and writes it to the arena again once it has not been used recently.
+ *
+ * The arena only holds copies of branches: the storage engine saves every
+ * change as usual, so the arena is lost without harm when the server stops.
+ * A branch is written to the arena as it is when it is unloaded, so every
+ * branch is clean.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public class ArenaStore implements BranchStore {
+
+	private NodeArena arena;
+
+	private MemoryStorage memory;
+
+	/**
+	 * Construct an ArenaStore object.
+	 *
+	 * @param memory the MemoryStorage attached to the database
+	 */
+	public ArenaStore(MemoryStorage memory) {
+		this.arena = new NodeArena();
+		this.memory = memory;
+	}
+
+	/**
+	 * Moves every top-level branch to the arena, apart from the rule sets which
+	 * are read by every statement, and attaches the SegmentCache that brings them
+	 * back.
+	 *
+	 * @param cacheSize     the most branches kept on the heap, 0 for no limit
+	 * @param heapThreshold the fraction of the heap in use above which branches
+	 *                      are moved back to the arena, 0 for none
+	 */
+	public void attach(int cacheSize, double heapThreshold) {
+
+		SegmentCache segmentCache = new SegmentCache(this, this.memory, cacheSize, heapThreshold);
+
+		synchronized (this.memory.getDataMap()) {
+
+			for (Map.Entry<String, Node> topEntry : this.memory.getRootNode().getChildren().entrySet()) {
+
+				if (topEntry.getKey().equals("rule")) {
+					continue;
+				}
+
+				for (Map.Entry<String, Node> branchEntry : new ArrayList<Map.Entry<String, Node>>(
+						topEntry.getValue().getChildren().entrySet())) {
+
+					String branch = topEntry.getKey() + "." + branchEntry.getKey();
+					Node branchNode = branchEntry.getValue();
+					HashSet<String> names = new HashSet<String>();
+
+					SegmentStore.addNames(branchNode, 1, names);
+
+					for (Map.Entry<String, Node> child : branchNode.getChildren().entrySet()) {
+						this.memory.removeSubtreeDataMap(child.getValue(), branch + "." + child.getKey());
+					}
+
+					segmentCache.addStub(branchNode, branch, names);
+				}
+			}
+
+			this.memory.setSegmentCache(segmentCache);
+		}
+	}
+
+	/**
+	 * Writes the branch to the arena as it is now.
+	 *
+	 * @param branch the branch, e.g. database.employee
+	 * @return the reference to the branch's block in the arena
+	 */
+	public String getBranchKey(String branch) {
+
+		Node branchNode = this.memory.getNodeByFullPath(branch);
+
+		return Long.toString(this.arena.write(branchNode != null ? branchNode : new Node()));
+	}
+
+	public Node readBranchNode(String branchKey) throws IOException {
+		return this.arena.read(Long.parseLong(branchKey));
+	}
+
+	public boolean isClean(String branch) {
+		return true;
+	}
+
+	public void releaseBranchKey(String branchKey) {
+		this.arena.release(Long.parseLong(branchKey));
+	}
+
+}
@@ -0,0 +1,45 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces files atomically, so a crash leaves either the old or the new file
+ * in place.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public class AtomicFiles {
+
+	/**
+	 * Atomically renames a file that has been written and forced to the disk over
+	 * the file it replaces, then forces the directory so the rename itself is
+	 * durable.
+	 *
+	 * @param fileName       the new file
+	 * @param targetFileName the file it replaces
+	 * @throws IOException
+	 */
+	public static void replace(String fileName, String targetFileName) throws IOException {
+
+		Path targetPath = Paths.get(targetFileName).toAbsolutePath();
+
+		Files.move(Paths.get(fileName), targetPath, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+
+		try (FileChannel directory = FileChannel.open(targetPath.getParent(), StandardOpenOption.READ)) {
+
+			directory.force(true);
+
+		} catch (IOException e) {
+			/* Not every platform can open a directory, the rename is still atomic */
+		}
+	}
+
+}
@@ -0,0 +1,375 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * A page of a B+tree in a PageFile, either a leaf that holds keys and their
+ * values or a branch that holds the first key below each of its children. Keys
+ * are full paths (or other strings) in path order, see LsmEntry.PATH_ORDER. The
+ * first key of a branch is never compared, its child holds every key before the
+ * second one.
+ *
+ * A page is laid out as an 8 byte header [byte type][byte 0][short count][int 0],
+ * a slot with the offset of each entry, and the entries:
+ *
+ * leaf entry:   [short key length][key][byte kind][value]
+ * branch entry: [short key length][key][long child page]
+ *
+ * A value is either INLINE [int length][bytes] or, once it is longer than
+ * MAX_INLINE_VALUE, in OVERFLOW pages [long first page][int length] that follow
+ * each other in the file.
+ *
+ * Committed pages are read straight from the mapped file with the static
+ * methods, without decoding them. A page is only decoded into a BTreePage to be
+ * changed, and encoded again into a new page when the change is committed.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class BTreePage {
+
+	static final byte LEAF = 1;
+
+	static final byte BRANCH = 2;
+
+	static final byte INLINE = 0;
+
+	static final byte OVERFLOW = 1;
+
+	static final int HEADER_SIZE = 8;
+
+	/* Keys and inline values are kept short enough for any page to hold four entries */
+	static final int MAX_KEY_LENGTH = 480;
+
+	static final int MAX_INLINE_VALUE = 480;
+
+	private boolean leaf;
+
+	private ArrayList<String> keys;
+
+	private ArrayList<byte[]> keyBytes;
+
+	/* The encoded kind and value of each leaf entry */
+	private ArrayList<byte[]> values;
+
+	private ArrayList<Long> children;
+
+	BTreePage(boolean leaf) {
+		this.leaf = leaf;
+		this.keys = new ArrayList<String>();
+		this.keyBytes = new ArrayList<byte[]>();
+		this.values = leaf ? new ArrayList<byte[]>() : null;
+		this.children = leaf ? null : new ArrayList<Long>();
+	}
+
+	boolean isLeaf() {
+		return this.leaf;
+	}
+
+	int size() {
+		return this.keys.size();
+	}
+
+	String getKey(int index) {
+		return this.keys.get(index);
+	}
+
+	byte[] getValue(int index) {
+		return this.values.get(index);
+	}
+
+	long getChild(int index) {
+		return this.children.get(index);
+	}
+
+	void setValue(int index, byte[] value) {
+		this.values.set(index, value);
+	}
+
+	void setChild(int index, long child) {
+		this.children.set(index, child);
+	}
+
+	void addEntry(int index, String key, byte[] value) {
+		this.keys.add(index, key);
+		this.keyBytes.add(index, key.getBytes(StandardCharsets.UTF_8));
+		this.values.add(index, value);
+	}
+
+	void addChild(int index, String key, long child) {
+		this.keys.add(index, key);
+		this.keyBytes.add(index, key.getBytes(StandardCharsets.UTF_8));
+		this.children.add(index, child);
+	}
+
+	void remove(int index) {
+
+		this.keys.remove(index);
+		this.keyBytes.remove(index);
+
+		if (this.leaf) {
+			this.values.remove(index);
+		} else {
+			this.children.remove(index);
+		}
+	}
+
+	/**
+	 * Finds a key the way Collections.binarySearch does.
+	 *
+	 * @param key the key
+	 * @return the index of the key, or (-(insertion point) - 1)
+	 */
+	int search(String key) {
+
+		int low = 0;
+		int high = this.keys.size() - 1;
+
+		while (low <= high) {
+
+			int middle = (low + high) >>> 1;
+			int comparison = LsmEntry.PATH_ORDER.compare(this.keys.get(middle), key);
+
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/* The child of a branch that holds a key */
+	int childIndex(String key) {
+
+		int index = this.search(key);
+
+		return Math.max(0, (index >= 0) ? index : -index - 2);
+	}
+
+	int getEncodedSize() {
+
+		int size = HEADER_SIZE;
+
+		for (int i = 0; i < this.keys.size(); i++) {
+			size += this.getEntrySize(i);
+		}
+
+		return size;
+	}
+
+	/**
+	 * Splits the page into pages that each fit in pageSize. The first part is
+	 * left in this page.
+	 *
+	 * @param pageSize the page size
+	 * @return the pages split off, in key order
+	 */
+	ArrayList<BTreePage> split(int pageSize) {
+
+		ArrayList<BTreePage> parts = new ArrayList<BTreePage>();
+		int totalSize = this.getEncodedSize();
+
+		if (totalSize <= pageSize) {
+			return parts;
+		}
+
+		/* The entries are divided in two by size, each half is split again if needed */
+		int leftSize = HEADER_SIZE;
+		int splitIndex = 0;
+
+		while (splitIndex < this.keys.size() - 1 && leftSize + this.getEntrySize(splitIndex) <= totalSize / 2) {
+			leftSize += this.getEntrySize(splitIndex);
+			splitIndex++;
+		}
+
+		splitIndex = Math.max(1, splitIndex);
+
+		BTreePage right = new BTreePage(this.leaf);
+
+		while (this.keys.size() > splitIndex) {
+
+			int last = right.size();
+
+			right.keys.add(last, this.keys.remove(splitIndex));
+			right.keyBytes.add(last, this.keyBytes.remove(splitIndex));
+
+			if (this.leaf) {
+				right.values.add(last, this.values.remove(splitIndex));
+			} else {
+				right.children.add(last, this.children.remove(splitIndex));
+			}
+		}
+
+		ArrayList<BTreePage> leftParts = this.split(pageSize);
+		ArrayList<BTreePage> rightParts = right.split(pageSize);
+
+		parts.addAll(leftParts);
+		parts.add(right);
+		parts.addAll(rightParts);
+
+		return parts;
+	}
+
+	/**
+	 * Encodes the page.
+	 *
+	 * @param pageSize the page size
+	 * @return the page, ready to be written
+	 */
+	ByteBuffer encode(int pageSize) {
+
+		ByteBuffer page = ByteBuffer.allocate(pageSize);
+		int count = this.keys.size();
+		int offset = HEADER_SIZE + 2 * count;
+
+		page.put(0, this.leaf ? LEAF : BRANCH);
+		page.putShort(2, (short) count);
+
+		for (int i = 0; i < count; i++) {
+
+			byte[] key = this.keyBytes.get(i);
+
+			page.putShort(HEADER_SIZE + 2 * i, (short) offset);
+			page.putShort(offset, (short) key.length);
+			page.put(offset + 2, key);
+			offset += 2 + key.length;
+
+			if (this.leaf) {
+
+				page.put(offset, this.values.get(i));
+				offset += this.values.get(i).length;
+
+			} else {
+
+				page.putLong(offset, this.children.get(i));
+				offset += 8;
+			}
+		}
+
+		return page;
+	}
+
+	/**
+	 * Decodes a committed page so that it can be changed.
+	 *
+	 * @param page the page
+	 * @return the decoded page
+	 * @throws IOException if the page is not a B+tree page
+	 */
+	static BTreePage decode(ByteBuffer page) throws IOException {
+
+		BTreePage decoded = new BTreePage(BTreePage.isLeaf(page));
+		int count = BTreePage.getCount(page);
+
+		for (int i = 0; i < count; i++) {
+
+			String key = BTreePage.getKey(page, i);
+
+			if (decoded.leaf) {
+
+				int valueOffset = BTreePage.getValueOffset(page, i);
+				int valueLength = (page.get(valueOffset) == OVERFLOW) ? 13 : 5 + page.getInt(valueOffset + 1);
+				byte[] value = new byte[valueLength];
+
+				page.get(valueOffset, value);
+				decoded.addEntry(i, key, value);
+
+			} else {
+
+				decoded.addChild(i, key, BTreePage.getChild(page, i));
+			}
+		}
+
+		return decoded;
+	}
+
+	static boolean isLeaf(ByteBuffer page) throws IOException {
+
+		byte type = page.get(0);
+
+		if (type != LEAF && type != BRANCH) {
+			throw new IOException("The page is not a B+tree page.");
+		}
+
+		return type == LEAF;
+	}
+
+	static int getCount(ByteBuffer page) {
+		return Short.toUnsignedInt(page.getShort(2));
+	}
+
+	static String getKey(ByteBuffer page, int index) {
+
+		int offset = BTreePage.getEntryOffset(page, index);
+		byte[] key = new byte[Short.toUnsignedInt(page.getShort(offset))];
+
+		page.get(offset + 2, key);
+
+		return new String(key, StandardCharsets.UTF_8);
+	}
+
+	static long getChild(ByteBuffer page, int index) {
+		return page.getLong(BTreePage.getValueOffset(page, index));
+	}
+
+	/* The offset of the kind byte of a leaf entry, or of the child of a branch entry */
+	static int getValueOffset(ByteBuffer page, int index) {
+
+		int offset = BTreePage.getEntryOffset(page, index);
+
+		return offset + 2 + Short.toUnsignedInt(page.getShort(offset));
+	}
+
+	/**
+	 * Finds a key in a committed page the way Collections.binarySearch does.
+	 *
+	 * @param page the page
+	 * @param key  the key
+	 * @return the index of the key, or (-(insertion point) - 1)
+	 */
+	static int search(ByteBuffer page, String key) {
+
+		int low = 0;
+		int high = BTreePage.getCount(page) - 1;
+
+		while (low <= high) {
+
+			int middle = (low + high) >>> 1;
+			int comparison = LsmEntry.PATH_ORDER.compare(BTreePage.getKey(page, middle), key);
+
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/* The child of a committed branch page that holds a key */
+	static int childIndex(ByteBuffer page, String key) {
+
+		int index = BTreePage.search(page, key);
+
+		return Math.max(0, (index >= 0) ? index : -index - 2);
+	}
+
+	private static int getEntryOffset(ByteBuffer page, int index) {
+		return Short.toUnsignedInt(page.getShort(HEADER_SIZE + 2 * index));
+	}
+
+	private int getEntrySize(int index) {
+		return 2 + 2 + this.keyBytes.get(index).length + (this.leaf ? this.values.get(index).length : 8);
+	}
+
+}
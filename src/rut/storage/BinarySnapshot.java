@@ -0,0 +1,308 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+Binary Snapshot is a compact alternative to the text format of master.database.
+The text format repeats the full path of every node, the binary format stores
+every distinct node name once, in a dictionary, and stores the node tree as a
+pre-order stream of records. A node's path is never written out, it is implied
+by the records that come before it, so shared path prefixes cost nothing.
+
+The layout of a binary snapshot is as follows:
+
+[byte 'R'][byte 'U'][byte 'T'][byte 'B'][byte version]
+records, starting with the root node:
+    [varint name id][varint child count][varint value length][value]
+    followed by the records of the node's children
+dictionary:
+    [varint name count] then for each name [varint length][name]
+checksum table, covering every byte before it (see SnapshotChecksums):
+    [int block size][long content length][int count] then each [int crc32c]
+footer:
+    [long dictionary offset][long checksum table offset][int 'RUTB']
+
+Every varint is an unsigned LEB128 integer and all strings are UTF-8. The root
+node's name is the empty string. Because the dictionary is written last, the
+snapshot is written in a single pass over the node tree. The blocks of a
+snapshot are verified against the checksum table before it is parsed. Version 1
+snapshots have no checksum table and a footer of [long dictionary offset][int
+'RUTB'].
+
+*/
+
+package rut.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class BinarySnapshot {
+
+	private static final int MAGIC = 0x52555442;
+
+	private static final byte VERSION = 2;
+
+	private static final int HEADER_LENGTH = 5;
+
+	private static final int VERSION_1_FOOTER_LENGTH = 12;
+
+	private static final int FOOTER_LENGTH = 20;
+
+	private ChannelInput input;
+
+	private BinarySnapshot(FileChannel channel) {
+		this.input = new ChannelInput(channel);
+	}
+
+	/**
+	 * Returns true if the file starts like a binary snapshot.
+	 *
+	 * @param fileName the snapshot file
+	 * @return true for a binary snapshot, false for a text snapshot (or no file)
+	 * @throws IOException
+	 */
+	public static boolean isBinarySnapshot(String fileName) throws IOException {
+
+		Path path = Paths.get(fileName);
+
+		if (!Files.exists(path) || Files.size(path) < HEADER_LENGTH + VERSION_1_FOOTER_LENGTH) {
+			return false;
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+			ByteBuffer header = ByteBuffer.allocate(4);
+			channel.read(header, 0);
+
+			return header.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Writes the node tree below rootNode (the root included) to a binary
+	 * snapshot. The tree must not change while it is written, either hold the
+	 * dataMap lock or pass a copy.
+	 *
+	 * @param rootNode the root of the node tree
+	 * @param fileName the file to write
+	 * @throws IOException
+	 */
+	public static void write(Node rootNode, String fileName) throws IOException {
+
+		FileOutputStream fileStream = new FileOutputStream(fileName);
+		BlockChecksumOutputStream output = new BlockChecksumOutputStream(new BufferedOutputStream(fileStream, 1 << 16),
+				SnapshotChecksums.BLOCK_SIZE);
+		LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+
+		try {
+
+			output.write(new byte[] { 'R', 'U', 'T', 'B', VERSION });
+			BinarySnapshot.writeNode(output, dictionary, "", rootNode);
+
+			long dictionaryOffset = output.getCount();
+			BinarySnapshot.writeVarint(output, dictionary.size());
+
+			for (String name : dictionary.keySet()) {
+				BinarySnapshot.writeString(output, name);
+			}
+
+			long checksumOffset = output.getCount();
+			output.getChecksums().writeTable(output);
+
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_LENGTH);
+			footer.putLong(dictionaryOffset);
+			footer.putLong(checksumOffset);
+			footer.putInt(MAGIC);
+			output.write(footer.array());
+			output.flush();
+
+			fileStream.getChannel().force(true);
+
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Reads a binary snapshot into a new dataMap.
+	 *
+	 * @param fileName the snapshot file
+	 * @return the dataMap, in the same form DiskStorage.readDataMapFromDisk returns
+	 * @throws IOException
+	 */
+	public static ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> read(String fileName)
+			throws IOException {
+
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+			long fileLength = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			channel.read(header, 0);
+
+			byte version = header.get(4);
+			int footerLength = (version == 1) ? VERSION_1_FOOTER_LENGTH : FOOTER_LENGTH;
+
+			if (version < 1 || version > VERSION || fileLength < HEADER_LENGTH + footerLength) {
+				throw new IOException("\"" + fileName + "\" is not a binary snapshot this server can read.");
+			}
+
+			ByteBuffer footer = ByteBuffer.allocate(footerLength);
+			channel.read(footer, fileLength - footerLength);
+
+			long dictionaryOffset = footer.getLong(0);
+			long checksumOffset = (version == 1) ? fileLength - footerLength : footer.getLong(8);
+
+			if (footer.getInt(footerLength - 4) != MAGIC || dictionaryOffset < HEADER_LENGTH
+					|| checksumOffset < dictionaryOffset || checksumOffset > fileLength - footerLength) {
+				throw new IOException("\"" + fileName + "\" is not a complete binary snapshot.");
+			}
+
+			/* A corrupt snapshot is rejected before any of it is parsed */
+			if (version > 1) {
+
+				SnapshotChecksums checksums = SnapshotChecksums.readTable(channel, checksumOffset, fileName);
+
+				if (checksums.getContentLength() != checksumOffset) {
+					throw new IOException("The checksum table of \"" + fileName + "\" is corrupt.");
+				}
+
+				checksums.verify(channel, fileName);
+			}
+
+			BinarySnapshot reader = new BinarySnapshot(channel);
+
+			/* The dictionary comes first, the records refer to it */
+			reader.input.seek(dictionaryOffset);
+			String[] names = new String[reader.input.readVarint()];
+
+			for (int i = 0; i < names.length; i++) {
+				names[i] = reader.input.readString();
+			}
+
+			reader.input.seek(HEADER_LENGTH);
+
+			ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Node>>();
+			ConcurrentHashMap<String, Node> rootRecord = new ConcurrentHashMap<String, Node>();
+			Node rootNode = new Node();
+
+			rootRecord.put("", rootNode);
+			dataMap.put("", rootRecord);
+			MemoryStorage memory = new MemoryStorage(dataMap);
+
+			/* The root record holds the root's value and child count */
+			reader.input.readVarint();
+			int rootChildCount = reader.input.readVarint();
+			rootNode.setValue(reader.input.readString());
+
+			for (int i = 0; i < rootChildCount; i++) {
+				reader.readNode(memory, names, rootNode, "");
+			}
+
+			return dataMap;
+		}
+	}
+
+	/*
+	 * Writes a node's record followed by the records of its descendants. The child
+	 * names are copied first so that the child count always matches the number of
+	 * child records written.
+	 */
+	private static void writeNode(OutputStream output, LinkedHashMap<String, Integer> dictionary, String nodeName,
+			Node node) throws IOException {
+
+		Integer nameId = dictionary.get(nodeName);
+
+		if (nameId == null) {
+			nameId = dictionary.size();
+			dictionary.put(nodeName, nameId);
+		}
+
+		ArrayList<String> childNames = new ArrayList<String>();
+		ArrayList<Node> children = new ArrayList<Node>();
+
+		for (String childName : node.getChildren().keySet()) {
+
+			Node child = node.getChild(childName);
+
+			if (child != null) {
+				childNames.add(childName);
+				children.add(child);
+			}
+		}
+
+		BinarySnapshot.writeVarint(output, nameId);
+		BinarySnapshot.writeVarint(output, children.size());
+		BinarySnapshot.writeString(output, node.getValue());
+
+		for (int i = 0; i < children.size(); i++) {
+			BinarySnapshot.writeNode(output, dictionary, childNames.get(i), children.get(i));
+		}
+	}
+
+	static void writeString(OutputStream output, String value) throws IOException {
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		BinarySnapshot.writeVarint(output, bytes.length);
+		output.write(bytes);
+	}
+
+	static void writeVarint(OutputStream output, int value) throws IOException {
+
+		while ((value & ~0x7F) != 0) {
+			output.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		output.write(value);
+	}
+
+	/* Reads a node's record and its descendants, linking them into the tree */
+	private void readNode(MemoryStorage memory, String[] names, Node parentNode, String parentPath)
+			throws IOException {
+
+		String nodeName = names[this.input.readVarint()];
+		int childCount = this.input.readVarint();
+		Node node = new Node(this.input.readString());
+		String fullPath = parentPath.isEmpty() ? nodeName : parentPath + "." + nodeName;
+
+		parentNode.setChild(nodeName, node);
+		memory.putDataMap(node, fullPath);
+
+		for (int i = 0; i < childCount; i++) {
+			this.readNode(memory, names, node, fullPath);
+		}
+	}
+
+}
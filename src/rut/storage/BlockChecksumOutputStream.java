@@ -0,0 +1,98 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * An output stream that keeps a CRC32C of every block of bytes written through
+ * it, for the checksums of a snapshot file.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class BlockChecksumOutputStream extends CountingOutputStream {
+
+	private int blockSize;
+
+	private CRC32C blockCrc;
+
+	private int[] checksums;
+
+	private int blockCount;
+
+	public BlockChecksumOutputStream(OutputStream output, int blockSize) {
+		super(output);
+		this.blockSize = blockSize;
+		this.blockCrc = new CRC32C();
+		this.checksums = new int[16];
+	}
+
+	/**
+	 * Returns the checksums of everything written so far.
+	 *
+	 * @return the checksums
+	 */
+	public SnapshotChecksums getChecksums() {
+
+		int[] allChecksums = Arrays.copyOf(this.checksums, this.blockCount + 1);
+		allChecksums[this.blockCount] = (int) this.blockCrc.getValue();
+
+		long contentLength = this.getCount();
+
+		if (contentLength % this.blockSize == 0) {
+			allChecksums = Arrays.copyOf(allChecksums, this.blockCount);
+		}
+
+		return new SnapshotChecksums(this.blockSize, contentLength, allChecksums);
+	}
+
+	public void write(int b) throws IOException {
+
+		super.write(b);
+		this.blockCrc.update(b);
+		this.endBlock();
+	}
+
+	public void write(byte[] b, int offset, int length) throws IOException {
+
+		super.write(b, offset, length);
+
+		/* The count already includes these bytes, so work out where they started */
+		long position = this.getCount() - length;
+
+		while (length > 0) {
+
+			int blockRemaining = this.blockSize - (int) (position % this.blockSize);
+			int chunk = Math.min(length, blockRemaining);
+
+			this.blockCrc.update(b, offset, chunk);
+			position += chunk;
+			offset += chunk;
+			length -= chunk;
+
+			if (position % this.blockSize == 0) {
+				this.addChecksum();
+			}
+		}
+	}
+
+	private void endBlock() {
+
+		if (this.getCount() % this.blockSize == 0) {
+			this.addChecksum();
+		}
+	}
+
+	private void addChecksum() {
+
+		if (this.blockCount == this.checksums.length) {
+			this.checksums = Arrays.copyOf(this.checksums, this.blockCount * 2);
+		}
+
+		this.checksums[this.blockCount++] = (int) this.blockCrc.getValue();
+		this.blockCrc.reset();
+	}
+
+}
@@ -0,0 +1,85 @@
+package rut.storage;
+
+/**
+ * A bloom filter over the paths in a sorted run, so that a run holding nothing
+ * of a branch is not read when the branch is loaded.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class BloomFilter {
+
+	/* About a 1% false positive rate */
+	private static final int BITS_PER_KEY = 10;
+
+	private static final int HASH_COUNT = 7;
+
+	private long[] bits;
+
+	private int hashCount;
+
+	BloomFilter(long expectedKeys) {
+		this(new long[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (expectedKeys * BITS_PER_KEY + 63) / 64))],
+				HASH_COUNT);
+	}
+
+	BloomFilter(long[] bits, int hashCount) {
+		this.bits = bits;
+		this.hashCount = hashCount;
+	}
+
+	long[] getBits() {
+		return this.bits;
+	}
+
+	int getHashCount() {
+		return this.hashCount;
+	}
+
+	void add(String key) {
+
+		long hash = BloomFilter.hash(key);
+		long bitCount = (long) this.bits.length * 64;
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+
+		for (int i = 0; i < this.hashCount; i++) {
+
+			long bit = Math.floorMod(h1 + i * h2, bitCount);
+			this.bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	boolean mightContain(String key) {
+
+		long hash = BloomFilter.hash(key);
+		long bitCount = (long) this.bits.length * 64;
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+
+		for (int i = 0; i < this.hashCount; i++) {
+
+			long bit = Math.floorMod(h1 + i * h2, bitCount);
+
+			if ((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/* 64-bit FNV-1a, split into the two hashes the bits are picked with */
+	private static long hash(String key) {
+
+		long hash = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		return hash;
+	}
+
+}
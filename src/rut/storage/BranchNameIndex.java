@@ -0,0 +1,24 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A BranchStore that can find the branches holding nodes of a name by itself,
+ * so that stubs can be left on disk without the names below them.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public interface BranchNameIndex {
+
+	/**
+	 * Returns the branches that have nodes of a name below them.
+	 *
+	 * @param nodeName the node name
+	 * @return the branches, e.g. database.employee
+	 * @throws IOException
+	 */
+	public ArrayList<String> getBranchesWithName(String nodeName) throws IOException;
+
+}
@@ -0,0 +1,64 @@
+package rut.storage;
+
+import java.io.IOException;
+
+import rut.Node;
+
+/**
+ * Permanent storage that can read a single top-level branch back, so that the
+ * branch can be left on disk by a SegmentCache until it is reached.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public interface BranchStore {
+
+	/**
+	 * Returns the key a branch is read back with, as long as it stays clean.
+	 *
+	 * @param branch the branch, e.g. database.employee
+	 * @return the key to pass to readBranchNode
+	 */
+	public String getBranchKey(String branch);
+
+	/**
+	 * Reads a branch node, along with everything below it.
+	 *
+	 * @param branchKey the key returned by getBranchKey when the branch was left
+	 *                  on disk
+	 * @return the branch node
+	 * @throws IOException
+	 */
+	public Node readBranchNode(String branchKey) throws IOException;
+
+	/**
+	 * Returns true if the branch can be read back as it is in memory, so it can
+	 * be dropped from memory.
+	 *
+	 * @param branch the branch
+	 * @return true if the branch is clean
+	 */
+	public boolean isClean(String branch);
+
+	/**
+	 * Returns the values of the nodes of a name in a branch, for stores that can
+	 * scan them without reading the branch back, see ColumnStore.
+	 *
+	 * @param branchKey the key returned by getBranchKey
+	 * @param nodeName  the node name
+	 * @return the values, or null if the branch has to be read to find them
+	 */
+	public default Column getColumn(String branchKey, String nodeName) {
+		return null;
+	}
+
+	/**
+	 * Called once a branch has been read back for the last time with a key, for
+	 * stores that hold the branch under that key only until it is read.
+	 *
+	 * @param branchKey the key returned by getBranchKey
+	 */
+	public default void releaseBranchKey(String branchKey) {
+	}
+
+}
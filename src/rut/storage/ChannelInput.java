@@ -0,0 +1,123 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the varints and strings of a binary file through a direct buffer, for
+ * the binary snapshot and the sorted run readers.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class ChannelInput {
+
+	/* The size of the direct buffer that records are read through */
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer;
+
+	/* The file position just past the last byte read into the buffer */
+	private long channelPosition;
+
+	ChannelInput(FileChannel channel) {
+		this(channel, READ_BUFFER_SIZE);
+	}
+
+	ChannelInput(FileChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer.flip();
+	}
+
+	/* The file position of the next byte to be read */
+	long getPosition() {
+		return this.channelPosition - this.buffer.remaining();
+	}
+
+	void seek(long position) {
+
+		this.channelPosition = position;
+		this.buffer.clear();
+		this.buffer.flip();
+	}
+
+	byte readByte() throws IOException {
+
+		this.fill(1);
+		return this.buffer.get();
+	}
+
+	long readLong() throws IOException {
+
+		this.fill(8);
+		return this.buffer.getLong();
+	}
+
+	int readVarint() throws IOException {
+
+		int value = 0;
+		int shift = 0;
+		byte nextByte;
+
+		do {
+			this.fill(1);
+			nextByte = this.buffer.get();
+			value |= (nextByte & 0x7F) << shift;
+			shift += 7;
+		} while ((nextByte & 0x80) != 0 && shift < 35);
+
+		return value;
+	}
+
+	String readString() throws IOException {
+
+		int length = this.readVarint();
+
+		if (length == 0) {
+			return "";
+		}
+
+		byte[] bytes = new byte[length];
+		int offset = 0;
+
+		/* Strings longer than the buffer are read a buffer at a time */
+		while (offset < length) {
+
+			int chunk = Math.min(length - offset, this.buffer.capacity());
+			this.fill(chunk);
+			this.buffer.get(bytes, offset, chunk);
+			offset += chunk;
+		}
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/* Makes sure at least byteCount bytes are in the buffer */
+	private void fill(int byteCount) throws IOException {
+
+		if (this.buffer.remaining() >= byteCount) {
+			return;
+		}
+
+		this.buffer.compact();
+
+		while (this.buffer.position() < byteCount) {
+
+			int bytesRead = this.channel.read(this.buffer, this.channelPosition);
+
+			if (bytesRead < 0) {
+				throw new IOException("Unexpected end of file.");
+			}
+
+			this.channelPosition += bytesRead;
+		}
+
+		this.buffer.flip();
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+The Checkpointer is a background thread that keeps the write-ahead log from
+growing without limit. It periodically checks the log and, once a trigger is
+reached, has the storage engine write a fresh snapshot and start a new log.
+
+A checkpoint is triggered by any one of the following (a limit of 0 disables
+that trigger):
+
+* the log file reaching a size in bytes
+* a number of mutations logged since the last checkpoint
+* an amount of time passing since the last checkpoint, as long as there is
+  something in the log
+
+*/
+
+package rut.storage;
+
+import rut.MemoryStorage;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class Checkpointer extends Thread {
+
+	/* The longest the checkpointer waits between checking its triggers */
+	private static final long MAX_POLL_MILLIS = 1000;
+
+	/* The longest shutdown() waits for a checkpoint that is already running */
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 30000;
+
+	private MemoryStorage memory;
+
+	private StorageEngine disk;
+
+	private long maxLogBytes;
+
+	private long maxMutations;
+
+	private long intervalMillis;
+
+	private volatile boolean running;
+
+	/* Woken by shutdown(), rather than interrupting a checkpoint's file channels */
+	private final Object wakeup = new Object();
+
+	/**
+	 * Construct a Checkpointer. Call start() to begin checkpointing.
+	 *
+	 * @param memory         the MemoryStorage attached to the database
+	 * @param disk           the storage engine the database is saved with
+	 * @param maxLogBytes    checkpoint once the log reaches this many bytes
+	 * @param maxMutations   checkpoint once this many mutations are logged
+	 * @param intervalMillis checkpoint once this much time has passed
+	 */
+	public Checkpointer(MemoryStorage memory, StorageEngine disk, long maxLogBytes, long maxMutations,
+			long intervalMillis) {
+
+		super("rut-checkpointer");
+		this.setDaemon(true);
+
+		this.memory = memory;
+		this.disk = disk;
+		this.maxLogBytes = maxLogBytes;
+		this.maxMutations = maxMutations;
+		this.intervalMillis = intervalMillis;
+		this.running = true;
+	}
+
+	public void run() {
+
+		long pollMillis = MAX_POLL_MILLIS;
+
+		if (this.intervalMillis > 0 && this.intervalMillis < pollMillis) {
+			pollMillis = this.intervalMillis;
+		}
+
+		while (this.running) {
+
+			try {
+
+				synchronized (this.wakeup) {
+
+					if (this.running) {
+						this.wakeup.wait(pollMillis);
+					}
+				}
+
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (this.running && this.isCheckpointDue()) {
+				this.disk.checkpoint(this.memory);
+			}
+		}
+	}
+
+	/**
+	 * Stops the checkpointer and waits for it to stop. A checkpoint that is
+	 * already running is completed, for up to SHUTDOWN_TIMEOUT_MILLIS.
+	 */
+	public void shutdown() {
+
+		this.running = false;
+
+		synchronized (this.wakeup) {
+			this.wakeup.notifyAll();
+		}
+
+		try {
+
+			this.join(SHUTDOWN_TIMEOUT_MILLIS);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (this.isAlive()) {
+			System.out.println("The checkpointer did not stop within " + SHUTDOWN_TIMEOUT_MILLIS + " ms.");
+		}
+	}
+
+	/**
+	 * Returns true if any of the triggers has been reached.
+	 *
+	 * @return true if a checkpoint should be taken, otherwise false
+	 */
+	public boolean isCheckpointDue() {
+
+		long mutations = this.disk.getMutationsSinceCheckpoint();
+
+		if (mutations == 0) {
+			return false;
+		}
+
+		if (this.maxLogBytes > 0 && this.disk.getLogLength() >= this.maxLogBytes) {
+			return true;
+		}
+
+		if (this.maxMutations > 0 && mutations >= this.maxMutations) {
+			return true;
+		}
+
+		if (this.intervalMillis > 0
+				&& System.currentTimeMillis() - this.disk.getLastCheckpointTime() >= this.intervalMillis) {
+			return true;
+		}
+
+		return false;
+	}
+
+}
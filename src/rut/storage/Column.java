@@ -0,0 +1,172 @@
+package rut.storage;
+
+import rut.utilities.TypedValue;
+
+/**
+ * The values of one field of a record set kept column-wise by a ColumnStore,
+ * one value for each record. A field whose values are typed is kept as the
+ * primitives of its values in a long[], along with the text of the few values
+ * of the field that are kept as text, such as 007 in a field of integers. A
+ * field none of whose values are typed is kept as text in a String[].
+ *
+ * A column is never changed, so it can be scanned while its branch is read back
+ * onto the heap.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public final class Column {
+
+	/* The type of the typed values, or null if every value is kept as text */
+	private final String type;
+
+	/* The primitives of the typed values, see TypedValue.getBits, or null if every value is kept as text */
+	private final long[] bits;
+
+	/* The values kept as text, null for a typed value, or null if every value is typed */
+	private final String[] values;
+
+	Column(String type, long[] bits, String[] values) {
+		this.type = type;
+		this.bits = bits;
+		this.values = values;
+	}
+
+	Column(String[] values) {
+		this.type = null;
+		this.bits = null;
+		this.values = values;
+	}
+
+	/**
+	 * Returns the number of values, one for each record.
+	 *
+	 * @return the number of values
+	 */
+	public int size() {
+		return (this.bits != null) ? this.bits.length : this.values.length;
+	}
+
+	/**
+	 * Returns the type a value is kept as.
+	 *
+	 * @param record the number of the record
+	 * @return the type, or null if the value is kept as text
+	 */
+	public String getType(int record) {
+		return this.isTyped(record) ? this.type : null;
+	}
+
+	/**
+	 * Returns the text of a value, as it was written.
+	 *
+	 * @param record the number of the record
+	 * @return the value
+	 */
+	public String getValue(int record) {
+		return this.isTyped(record) ? TypedValue.fromBits(this.type, this.bits[record]).toString()
+				: this.values[record];
+	}
+
+	/**
+	 * Counts the values that are the same as a value, as it is written.
+	 *
+	 * @param value the value
+	 * @return the number of records that hold it
+	 */
+	public int count(String value) {
+
+		int count = 0;
+
+		/* A value is only kept typed if its text is written as the value is */
+		TypedValue typedValue = (this.bits != null) ? TypedValue.of(value, this.type) : null;
+		long valueBits = (typedValue != null) ? typedValue.getBits() : 0;
+
+		for (int record = 0; record < this.size(); record++) {
+
+			if (this.isTyped(record) ? typedValue != null && this.bits[record] == valueBits
+					: value.equals(this.values[record])) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns true if any value lies between two values, compared as a type.
+	 *
+	 * @param type the type the values are compared as
+	 * @param low  the smallest value, included, or null for no lower bound
+	 * @param high the largest value, included, or null for no upper bound
+	 * @return true if a value is in the range
+	 */
+	public boolean containsRange(String type, TypedValue low, TypedValue high) {
+
+		boolean sameType = type.equals(this.type);
+
+		for (int record = 0; record < this.size(); record++) {
+
+			if (sameType && this.isTyped(record)) {
+
+				long cell = this.bits[record];
+
+				if ((low == null || low.compareToBits(cell) <= 0) && (high == null || high.compareToBits(cell) >= 0)) {
+					return true;
+				}
+
+				continue;
+			}
+
+			TypedValue value = TypedValue.parse(this.getValue(record), type);
+
+			if (value != null && (low == null || value.compareTo(low) >= 0)
+					&& (high == null || value.compareTo(high) <= 0)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Finds the smallest or largest value, compared as a type, starting from a
+	 * value found elsewhere.
+	 *
+	 * @param type     the type the values are compared as
+	 * @param endValue the end value found so far, or null for none
+	 * @param largest  true for the largest value, false for the smallest
+	 * @return the end value, null if there is none
+	 */
+	public TypedValue getEndValue(String type, TypedValue endValue, boolean largest) {
+
+		boolean sameType = type.equals(this.type);
+
+		for (int record = 0; record < this.size(); record++) {
+
+			if (sameType && this.isTyped(record)) {
+
+				long cell = this.bits[record];
+
+				if (endValue == null || (endValue.compareToBits(cell) < 0) == largest) {
+					endValue = TypedValue.fromBits(type, cell);
+				}
+
+				continue;
+			}
+
+			TypedValue value = TypedValue.parse(this.getValue(record), type);
+
+			if (value != null && (endValue == null || (value.compareTo(endValue) > 0) == largest)) {
+				endValue = value;
+			}
+		}
+
+		return endValue;
+	}
+
+	private boolean isTyped(int record) {
+		return this.bits != null && (this.values == null || this.values[record] == null);
+	}
+
+}
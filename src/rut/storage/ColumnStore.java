@@ -0,0 +1,104 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ * Keeps the top-level branches of a database that are record sets column-wise
+ * while they are not in use, see RecordColumns, and the other branches in a
+ * node arena as an ArenaStore does. A branch is found to be a record set when
+ * it is unloaded, so no branch has to be declared one.
+ *
+ * While a record set is left as a stub, the values of one of its fields can be
+ * scanned in their Column without reading the branch back, so that searches by
+ * value, by range of values and for the smallest or largest value only read
+ * back the record sets that hold what is searched for, see
+ * SegmentCache.loadByName.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public class ColumnStore extends ArenaStore {
+
+	/* Record set keys start with this, the keys of the arena are numbers */
+	private static final String KEY_PREFIX = "columns:";
+
+	/* The record sets left as stubs, by key */
+	private ConcurrentHashMap<String, RecordColumns> recordSets;
+
+	private AtomicLong nextKey;
+
+	private MemoryStorage memory;
+
+	/**
+	 * Construct a ColumnStore object.
+	 *
+	 * @param memory the MemoryStorage attached to the database
+	 */
+	public ColumnStore(MemoryStorage memory) {
+		super(memory);
+		this.recordSets = new ConcurrentHashMap<String, RecordColumns>();
+		this.nextKey = new AtomicLong();
+		this.memory = memory;
+	}
+
+	/**
+	 * Writes the branch column-wise if it is a record set, otherwise to the arena.
+	 *
+	 * @param branch the branch, e.g. database.employee
+	 * @return the key of the branch's columns, or the reference to its block in
+	 *         the arena
+	 */
+	public String getBranchKey(String branch) {
+
+		Node branchNode = this.memory.getNodeByFullPath(branch);
+		RecordColumns recordSet = (branchNode != null) ? RecordColumns.of(branchNode) : null;
+
+		if (recordSet == null) {
+			return super.getBranchKey(branch);
+		}
+
+		String branchKey = KEY_PREFIX + this.nextKey.getAndIncrement();
+
+		this.recordSets.put(branchKey, recordSet);
+
+		return branchKey;
+	}
+
+	public Node readBranchNode(String branchKey) throws IOException {
+
+		if (!branchKey.startsWith(KEY_PREFIX)) {
+			return super.readBranchNode(branchKey);
+		}
+
+		RecordColumns recordSet = this.recordSets.get(branchKey);
+
+		if (recordSet == null) {
+			throw new IOException("The column store no longer holds " + branchKey + ".");
+		}
+
+		return recordSet.toNode();
+	}
+
+	public Column getColumn(String branchKey, String nodeName) {
+
+		RecordColumns recordSet = this.recordSets.get(branchKey);
+
+		return (recordSet == null) ? null : recordSet.getColumn(nodeName);
+	}
+
+	public void releaseBranchKey(String branchKey) {
+
+		if (!branchKey.startsWith(KEY_PREFIX)) {
+			super.releaseBranchKey(branchKey);
+			return;
+		}
+
+		this.recordSets.remove(branchKey);
+	}
+
+}
@@ -0,0 +1,36 @@
+package rut.storage;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that keeps count of the bytes written through it, so a
+ * snapshot writer knows the file offset it is at without seeking.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+	private long count;
+
+	public CountingOutputStream(OutputStream output) {
+		super(output);
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	public void write(int b) throws IOException {
+		this.out.write(b);
+		this.count++;
+	}
+
+	public void write(byte[] b, int offset, int length) throws IOException {
+		this.out.write(b, offset, length);
+		this.count += length;
+	}
+
+}
@@ -0,0 +1,303 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+Group Commit decides when the write-ahead log is forced to the disk, which is
+when a statement's changes become durable. There are three sync modes:
+
+* sync-per-statement - every statement forces the log before it returns.
+* group              - statements wait for the log to be forced, but a single
+                       force is shared by every statement that was appended
+                       before it. While other statements are waiting, the
+                       force is held back by a bounded delay (in microseconds)
+                       so more can join; a statement waiting alone is forced
+                       at once.
+* async              - statements return as soon as their changes are appended,
+                       the log is forced in the background on an interval.
+                       Changes made within the last interval can be lost.
+
+The group and async modes force the log on this thread. Every mode keeps
+statistics on the number of commits, the number of forces, the time each
+force of the log took and the time statements spent waiting for durability,
+see getStatistics().
+
+*/
+
+package rut.storage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class GroupCommit extends Thread {
+
+	public static final String SYNC = "sync-per-statement";
+
+	public static final String GROUP = "group";
+
+	public static final String ASYNC = "async";
+
+	private WriteAheadLog log;
+
+	private String syncMode;
+
+	private long groupDelayMicros;
+
+	private long asyncIntervalMillis;
+
+	private volatile boolean running;
+
+	/* Statements waiting for the log to be forced wait on this monitor */
+	private Object durableMonitor;
+
+	/* The number of statements waiting in commit() in group mode */
+	private AtomicInteger waitingCommits;
+
+	private long startTime;
+
+	private AtomicLong commitCount;
+
+	private AtomicLong forceCount;
+
+	private AtomicLong totalLatencyNanos;
+
+	private AtomicLong maxLatencyNanos;
+
+	private AtomicLong totalForceNanos;
+
+	private AtomicLong maxForceNanos;
+
+	/**
+	 * Construct a GroupCommit. Call start() before committing in the group or
+	 * async modes.
+	 *
+	 * @param log                 the write-ahead log to force
+	 * @param syncMode            sync-per-statement, group or async
+	 * @param groupDelayMicros    the longest a group waits for more statements
+	 * @param asyncIntervalMillis how often the log is forced in async mode
+	 */
+	public GroupCommit(WriteAheadLog log, String syncMode, long groupDelayMicros, long asyncIntervalMillis) {
+
+		super("rut-group-commit");
+		this.setDaemon(true);
+
+		if (!syncMode.equals(SYNC) && !syncMode.equals(GROUP) && !syncMode.equals(ASYNC)) {
+			throw new IllegalArgumentException("Unknown sync mode " + syncMode + ".");
+		}
+
+		this.log = log;
+		this.log.setDurableListener(this::notifyDurable);
+		this.syncMode = syncMode;
+		this.groupDelayMicros = groupDelayMicros;
+		this.asyncIntervalMillis = asyncIntervalMillis;
+		this.running = true;
+		this.durableMonitor = new Object();
+		this.waitingCommits = new AtomicInteger();
+
+		this.startTime = System.nanoTime();
+		this.commitCount = new AtomicLong();
+		this.forceCount = new AtomicLong();
+		this.totalLatencyNanos = new AtomicLong();
+		this.maxLatencyNanos = new AtomicLong();
+		this.totalForceNanos = new AtomicLong();
+		this.maxForceNanos = new AtomicLong();
+	}
+
+	public String getSyncMode() {
+		return this.syncMode;
+	}
+
+	/**
+	 * Waits until the log is durable up to the appended position, as far as the
+	 * sync mode requires. Must not be called while holding the dataMap lock, or
+	 * other statements could not join the group.
+	 *
+	 * @param appendedPosition the position returned by WriteAheadLog.append
+	 * @throws IOException
+	 */
+	public void commit(long appendedPosition) throws IOException {
+
+		long commitStart = System.nanoTime();
+
+		switch (this.syncMode) {
+
+		case SYNC:
+
+			this.force();
+
+			break;
+
+		case GROUP:
+
+			this.waitingCommits.incrementAndGet();
+
+			try {
+
+				synchronized (this.durableMonitor) {
+
+					/* Wake the group commit thread up in case it is idle */
+					this.durableMonitor.notifyAll();
+
+					while (this.log.getDurablePosition() < appendedPosition && this.running) {
+
+						try {
+							this.durableMonitor.wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return;
+						}
+					}
+				}
+
+			} finally {
+				this.waitingCommits.decrementAndGet();
+			}
+
+			break;
+
+		default:
+			/* async statements do not wait */
+		}
+
+		this.recordCommit(System.nanoTime() - commitStart);
+	}
+
+	public void run() {
+
+		/* Statements force the log themselves in sync-per-statement mode */
+		if (this.syncMode.equals(SYNC)) {
+			return;
+		}
+
+		while (this.running) {
+
+			try {
+
+				if (this.syncMode.equals(GROUP)) {
+
+					this.waitForAppend();
+
+					/* Let more statements join the group before forcing, unless one is waiting alone */
+					if (this.waitingCommits.get() > 1) {
+						TimeUnit.MICROSECONDS.sleep(this.groupDelayMicros);
+					}
+
+				} else {
+
+					Thread.sleep(this.asyncIntervalMillis);
+				}
+
+				if (this.log.getAppendedPosition() > this.log.getDurablePosition()) {
+					this.force();
+				}
+
+			} catch (InterruptedException e) {
+				/* Woken up by shutdown() */
+			} catch (IOException e) {
+
+				System.out.println("Could not force the log file \"" + this.log.getLogFileName() + "\" to disk.\n"
+						+ "Access to this file is required for Rut Database Server to run. Exiting...");
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Forces whatever is left in the log and stops the thread.
+	 *
+	 * @throws IOException
+	 */
+	public void shutdown() throws IOException {
+
+		this.running = false;
+		this.interrupt();
+		this.log.force();
+	}
+
+	/**
+	 * Returns a one line summary of the commits made so far: how many there were,
+	 * how many forces they took, the throughput, the average and worst time a
+	 * statement waited for its changes to become durable, and the average and
+	 * worst time a force of the log took.
+	 *
+	 * @return the statistics
+	 */
+	public String getStatistics() {
+
+		long commits = this.commitCount.get();
+		long forces = this.forceCount.get();
+		double elapsedSeconds = (System.nanoTime() - this.startTime) / 1e9;
+		double averageMicros = (commits == 0) ? 0 : this.totalLatencyNanos.get() / 1e3 / commits;
+		double averageForceMicros = (forces == 0) ? 0 : this.totalForceNanos.get() / 1e3 / forces;
+
+		return String.format(
+				"Sync mode %s: %d commits, %d forces (%.1f commits per force), %.1f commits per second, "
+						+ "average latency %.1f us, max latency %.1f us, average force %.1f us, max force %.1f us.",
+				this.syncMode, commits, forces, (forces == 0) ? 0.0 : (double) commits / forces,
+				(elapsedSeconds == 0) ? 0.0 : commits / elapsedSeconds, averageMicros,
+				this.maxLatencyNanos.get() / 1e3, averageForceMicros, this.maxForceNanos.get() / 1e3);
+	}
+
+	/* Forces the log, timing how long the disk takes */
+	private void force() throws IOException {
+
+		long forceStart = System.nanoTime();
+
+		this.log.force();
+
+		long forceNanos = System.nanoTime() - forceStart;
+
+		this.forceCount.incrementAndGet();
+		this.totalForceNanos.addAndGet(forceNanos);
+		this.maxForceNanos.accumulateAndGet(forceNanos, Math::max);
+	}
+
+	/*
+	 * Wakes the statements waiting for the log, each time it is forced, including
+	 * when a checkpoint closes it to truncate or rotate it
+	 */
+	private void notifyDurable() {
+
+		synchronized (this.durableMonitor) {
+			this.durableMonitor.notifyAll();
+		}
+	}
+
+	/* Blocks the group commit thread until something is appended to the log */
+	private void waitForAppend() throws InterruptedException {
+
+		synchronized (this.durableMonitor) {
+
+			while (this.running && this.log.getAppendedPosition() <= this.log.getDurablePosition()) {
+				this.durableMonitor.wait();
+			}
+		}
+	}
+
+	private void recordCommit(long latencyNanos) {
+
+		this.commitCount.incrementAndGet();
+		this.totalLatencyNanos.addAndGet(latencyNanos);
+		this.maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+	}
+
+}
@@ -0,0 +1,76 @@
+package rut.storage;
+
+import java.util.Comparator;
+
+/**
+ * The state of one full node path in the LSM storage engine: the node's value,
+ * and whether it deletes whatever older runs hold at and below the path. A
+ * deleted node is an entry with no value that deletes its subtree.
+ *
+ * Paths are ordered with '.' before every other character, so that a node is
+ * followed directly by all of its descendants.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class LsmEntry {
+
+	static final Comparator<String> PATH_ORDER = new Comparator<String>() {
+
+		public int compare(String a, String b) {
+
+			int length = Math.min(a.length(), b.length());
+
+			for (int i = 0; i < length; i++) {
+
+				char ca = a.charAt(i);
+				char cb = b.charAt(i);
+
+				if (ca != cb) {
+
+					if (ca == '.') {
+						return -1;
+					}
+
+					if (cb == '.') {
+						return 1;
+					}
+
+					return ca - cb;
+				}
+			}
+
+			return a.length() - b.length();
+		}
+	};
+
+	static final LsmEntry TOMBSTONE = new LsmEntry(null, true);
+
+	private String value;
+
+	private boolean deletesSubtree;
+
+	LsmEntry(String value, boolean deletesSubtree) {
+		this.value = value;
+		this.deletesSubtree = deletesSubtree;
+	}
+
+	String getValue() {
+		return this.value;
+	}
+
+	boolean hasValue() {
+		return this.value != null;
+	}
+
+	boolean deletesSubtree() {
+		return this.deletesSubtree;
+	}
+
+	/* True if fullPath is the path itself or below it, the empty path covers every path */
+	static boolean covers(String path, String fullPath) {
+		return path.isEmpty() || (fullPath.startsWith(path)
+				&& (fullPath.length() == path.length() || fullPath.charAt(path.length()) == '.'));
+	}
+
+}
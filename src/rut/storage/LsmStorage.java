@@ -0,0 +1,928 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+LSM Storage is the "lsm" storage engine, a log-structured merge tree keyed by
+full node path. It suits write-heavy workloads: saving a statement never
+rewrites existing files, it only adds the statement's changes to a sorted
+in-memory memtable and appends them to a write-ahead log.
+
+A checkpoint flushes the memtable to a new sorted run, an immutable file of
+entries in path order (see SortedRun), and starts a new log. Once there are
+compactionRuns runs, they are merged into a single run on the compaction
+thread pool, dropping the entries that newer runs replace or delete. Each run
+has a bloom filter over its paths and branches, so loading a branch only reads
+the runs that hold something of it.
+
+With lazy loading, only the nodes above the top-level branches are kept in
+memory on startup and each branch is read from the runs when it is first
+reached, see SegmentCache. Any branch can be dropped from memory again, since
+the runs and the memtable always hold it as it is, so MemoryStorage acts as a
+cache over a database that need not fit in memory.
+
+The engine keeps its files in a directory next to master.database:
+
+master.database.lsm/manifest - the line flushed:<n> followed by the run files,
+                               oldest first
+master.database.lsm/<n>.run  - a sorted run
+master.database.lsm/log      - the write-ahead log
+master.database.lsm/<n>.log  - the log being flushed to run <n>
+
+The manifest is replaced atomically by every flush and compaction, a run file
+it does not name is left over from one that was interrupted and is deleted on
+startup. A flushed log whose run is not in the manifest (n is greater than the
+flushed number) is replayed on startup. When the directory does not exist, the
+database is imported from master.database on startup.
+
+*/
+
+package rut.storage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rut.DiskStorage;
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class LsmStorage implements StorageEngine, BranchStore {
+
+	private static final String RUN_SUFFIX = ".run";
+
+	private static final String LOG_SUFFIX = ".log";
+
+	private static final String FLUSHED_PREFIX = "flushed:";
+
+	private String storageFileName;
+
+	private String directoryName;
+
+	private String manifestFileName;
+
+	private WriteAheadLog log;
+
+	private GroupCommit groupCommit;
+
+	/* The changes made since the last flush, replaced under the dataMap lock */
+	private volatile Memtable memtable;
+
+	/* The memtables being flushed, newest first */
+	private ArrayList<Memtable> flushingMemtables;
+
+	/* The sorted runs, oldest first. Guards every change to the runs and the memtables read with them */
+	private ArrayList<SortedRun> runs;
+
+	private long nextRunNumber;
+
+	/* The number of the newest run a log has been flushed to */
+	private long flushedRunNumber;
+
+	/* A compaction starts once there are this many runs, 0 to never compact */
+	private int compactionRuns;
+
+	private ExecutorService compactionPool;
+
+	private AtomicBoolean compactionScheduled;
+
+	/* True to leave the top-level branches on disk until they are reached */
+	private boolean lazyLoading;
+
+	private int cacheSize;
+
+	private double heapThreshold;
+
+	private MemoryStorage memory;
+
+	private SegmentCache segmentCache;
+
+	private AtomicLong mutationsSinceCheckpoint;
+
+	private volatile long lastCheckpointTime;
+
+	/**
+	 * Construct an LsmStorage object.
+	 *
+	 * @param storageFileName     full path of master.database, the engine's files
+	 *                            are kept next to it
+	 * @param syncMode            sync-per-statement, group or async
+	 * @param groupDelayMicros    the longest a group commit waits for more
+	 *                            statements
+	 * @param asyncIntervalMillis how often the log is forced in async mode
+	 * @param compactionRuns      the number of runs that starts a compaction, 0
+	 *                            to never compact
+	 * @param compactionThreads   the number of threads compactions run on
+	 */
+	public LsmStorage(String storageFileName, String syncMode, long groupDelayMicros, long asyncIntervalMillis,
+			int compactionRuns, int compactionThreads) {
+
+		this.storageFileName = storageFileName;
+		this.directoryName = storageFileName + ".lsm";
+		this.manifestFileName = this.directoryName + File.separator + "manifest";
+		this.log = new WriteAheadLog(this.directoryName + File.separator + "log");
+		this.groupCommit = new GroupCommit(this.log, syncMode, groupDelayMicros, asyncIntervalMillis);
+		this.groupCommit.start();
+		this.memtable = new Memtable();
+		this.flushingMemtables = new ArrayList<Memtable>();
+		this.runs = new ArrayList<SortedRun>();
+		this.compactionRuns = compactionRuns;
+		this.compactionPool = Executors.newFixedThreadPool(Math.max(1, compactionThreads), task -> {
+
+			Thread thread = new Thread(task, "rut-compaction");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.compactionScheduled = new AtomicBoolean();
+		this.mutationsSinceCheckpoint = new AtomicLong();
+		this.lastCheckpointTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Sets whether the top-level branches are left on disk until they are first
+	 * reached. Takes effect the next time the database is read.
+	 *
+	 * @param lazyLoading   true to load branches when they are first reached
+	 * @param cacheSize     the most branches kept loaded, 0 for no limit
+	 * @param heapThreshold the fraction of the heap in use above which loaded
+	 *                      branches are unloaded, 0 for none
+	 */
+	public void setLazyLoading(boolean lazyLoading, int cacheSize, double heapThreshold) {
+		this.lazyLoading = lazyLoading;
+		this.cacheSize = cacheSize;
+		this.heapThreshold = heapThreshold;
+	}
+
+	public long getLogLength() {
+		return this.log.getLength();
+	}
+
+	public long getMutationsSinceCheckpoint() {
+		return this.mutationsSinceCheckpoint.get();
+	}
+
+	public long getLastCheckpointTime() {
+		return this.lastCheckpointTime;
+	}
+
+	public String getDurabilityStatistics() {
+
+		synchronized (this.runs) {
+			return this.groupCommit.getStatistics() + " Sorted runs: " + this.runs.size() + ".";
+		}
+	}
+
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	public String getUidMarkFileName() {
+		return this.directoryName + File.separator + "newid";
+	}
+
+	/**
+	 * Reads the runs into a new dataMap and replays the logs that have not been
+	 * flushed on top of them. The database is imported from master.database if
+	 * the engine has no files yet.
+	 *
+	 * @return the dataMap
+	 */
+	public ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> readDataMapFromDisk() {
+
+		MemoryStorage memory = null;
+
+		try {
+
+			if (!new File(this.manifestFileName).isFile()) {
+				this.importDatabase();
+			}
+
+			this.openRuns();
+			memory = this.lazyLoading ? this.readBranchesLazily() : this.readAllBranches();
+
+			/* Logs left by an interrupted flush come before the current log */
+			TreeMap<Long, File> flushLogs = this.listFiles(LOG_SUFFIX);
+
+			for (Map.Entry<Long, File> flushLog : flushLogs.entrySet()) {
+
+				if (flushLog.getKey() > this.flushedRunNumber) {
+					this.replayLog(memory, new WriteAheadLog(flushLog.getValue().getPath()));
+				}
+			}
+
+			this.replayLog(memory, this.log);
+
+		} catch (FileNotFoundException e) {
+			System.out.println("Could not find the LSM manifest \"" + this.manifestFileName + "\".\n"
+					+ "This file is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+		} catch (IOException | UncheckedIOException e) {
+			System.out.println("Could not read the LSM storage in \"" + this.directoryName + "\".\n"
+					+ e.getMessage() + " Exiting...");
+			System.exit(1);
+		}
+
+		/* The replayed changes are flushed to a run right away, and the old logs dropped */
+		this.checkpoint(memory);
+		this.deleteFlushedLogs();
+
+		return memory.getDataMap();
+	}
+
+	public void attach(MemoryStorage memory) {
+
+		this.memory = memory;
+		memory.setSegmentCache(this.segmentCache);
+	}
+
+	/**
+	 * Flushes the memtable, so that every change is in a run. The engine never
+	 * writes the whole database again, the runs are merged by compactions.
+	 *
+	 * @param dataMap the dataMap
+	 */
+	public void writeDataMapToDisk(ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap) {
+		this.checkpoint(new MemoryStorage(dataMap));
+	}
+
+	/**
+	 * Adds the mutations of a statement to the memtable and appends them to the
+	 * write-ahead log. Called while holding the dataMap lock.
+	 *
+	 * @param mutations the mutations to save, in the order they were made
+	 * @return the log position to pass to waitForLog
+	 */
+	public long writeMutationsToLog(ArrayList<Mutation> mutations) {
+
+		long logPosition = 0;
+
+		try {
+
+			this.markDirty(mutations);
+			logPosition = this.log.append(mutations);
+
+		} catch (IOException e) {
+
+			System.out.println("Could not write to the log file \"" + this.log.getLogFileName() + "\".\n"
+					+ "Access to this file is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		}
+
+		return logPosition;
+	}
+
+	/**
+	 * Adds mutations to the memtable without logging them, they are saved by the
+	 * next flush. Called while holding the dataMap lock.
+	 *
+	 * @param mutations the mutations made
+	 */
+	public void markDirty(ArrayList<Mutation> mutations) {
+
+		for (Mutation mutation : mutations) {
+			this.applyToMemtable(mutation, this.memory);
+		}
+
+		this.mutationsSinceCheckpoint.addAndGet(mutations.size());
+	}
+
+	public void waitForLog(long logPosition) {
+
+		try {
+
+			this.groupCommit.commit(logPosition);
+
+		} catch (IOException e) {
+
+			System.out.println("Could not force the log file \"" + this.log.getLogFileName() + "\" to disk.\n"
+					+ "Access to this file is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		}
+	}
+
+	/**
+	 * Flushes the memtable to a new sorted run. The memtable is swapped for an
+	 * empty one and the log moved aside while holding the dataMap lock, the run is
+	 * written while statements carry on.
+	 *
+	 * @param memory the MemoryStorage attached to the database
+	 */
+	public synchronized void checkpoint(MemoryStorage memory) {
+
+		Memtable flushingMemtable;
+		long runNumber;
+		String flushLogFileName;
+
+		try {
+
+			synchronized (memory.getDataMap()) {
+
+				if (this.memtable.isEmpty()) {
+					return;
+				}
+
+				synchronized (this.runs) {
+
+					flushingMemtable = this.memtable;
+					this.flushingMemtables.add(0, flushingMemtable);
+					this.memtable = new Memtable();
+					runNumber = this.nextRunNumber++;
+				}
+
+				flushLogFileName = this.directoryName + File.separator + runNumber + LOG_SUFFIX;
+				this.log.rotate(flushLogFileName);
+				this.mutationsSinceCheckpoint.set(0);
+			}
+
+			SortedRun run = SortedRun.write(flushingMemtable.scan(""), flushingMemtable.size(),
+					this.runFileName(runNumber));
+
+			synchronized (this.runs) {
+
+				this.runs.add(run);
+				this.flushingMemtables.remove(flushingMemtable);
+				this.flushedRunNumber = runNumber;
+				this.writeManifest();
+			}
+
+			Files.deleteIfExists(Paths.get(flushLogFileName));
+			this.lastCheckpointTime = System.currentTimeMillis();
+
+		} catch (IOException e) {
+
+			System.out.println("Could not flush to a sorted run in \"" + this.directoryName + "\".\n"
+					+ "Access to this directory is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		}
+
+		this.scheduleCompaction();
+	}
+
+	public void close() {
+
+		this.compactionPool.shutdown();
+
+		try {
+
+			/* A compaction that does not finish is simply redone, its run is never in the manifest */
+			this.compactionPool.awaitTermination(1, TimeUnit.MINUTES);
+			this.groupCommit.shutdown();
+			this.log.close();
+
+		} catch (IOException e) {
+
+			System.out.println("Could not close the log file \"" + this.log.getLogFileName() + "\".");
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (this.runs) {
+
+			for (SortedRun run : this.runs) {
+				run.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the key a branch is read back with, the branch itself. Stubs whose
+	 * branch is changed by a delete or rename are loaded before the memtable
+	 * changes, so the branch always reads back as it was left on disk.
+	 *
+	 * @param branch the branch
+	 * @return the branch
+	 */
+	public String getBranchKey(String branch) {
+		return branch;
+	}
+
+	/**
+	 * Reads a branch node and everything below it from the memtables and the runs
+	 * that might hold something of it.
+	 *
+	 * @param branch the branch
+	 * @return the branch node
+	 * @throws IOException
+	 */
+	public Node readBranchNode(String branch) throws IOException {
+
+		String topPath = branch.substring(0, branch.indexOf('.'));
+		ArrayList<Iterator<Map.Entry<String, LsmEntry>>> sources = new ArrayList<Iterator<Map.Entry<String, LsmEntry>>>();
+		int deletingSource = Integer.MAX_VALUE;
+		HashMap<String, Node> nodesByPath = new HashMap<String, Node>();
+		Node branchNode = null;
+
+		try {
+
+			synchronized (this.runs) {
+
+				/* The sources are listed newest first */
+				ArrayList<Object> allSources = new ArrayList<Object>();
+
+				allSources.add(this.memtable);
+				allSources.addAll(this.flushingMemtables);
+
+				for (int i = this.runs.size() - 1; i >= 0; i--) {
+					allSources.add(this.runs.get(i));
+				}
+
+				for (Object source : allSources) {
+
+					/* Nothing older than a deletion of the node above the branch is read */
+					if (deletingSource < sources.size()) {
+						break;
+					}
+
+					LsmEntry topEntry;
+
+					if (source instanceof Memtable) {
+
+						topEntry = ((Memtable) source).get(topPath);
+						sources.add(((Memtable) source).scan(branch));
+
+					} else {
+
+						SortedRun run = (SortedRun) source;
+
+						if (!run.mightContain(branch) && !run.mightContain(topPath)) {
+							continue;
+						}
+
+						topEntry = run.get(topPath);
+						sources.add(run.scan(branch));
+					}
+
+					if (topEntry != null && topEntry.deletesSubtree()) {
+						deletingSource = sources.size() - 1;
+					}
+				}
+
+				MergeIterator entries = new MergeIterator(sources, Math.min(deletingSource, sources.size()));
+
+				while (entries.hasNext()) {
+
+					Map.Entry<String, LsmEntry> entry = entries.next();
+					String fullPath = entry.getKey();
+
+					if (!LsmEntry.covers(branch, fullPath)) {
+						break;
+					}
+
+					Node node = new Node(entry.getValue().getValue());
+
+					if (fullPath.equals(branch)) {
+
+						branchNode = node;
+
+					} else {
+
+						int dot = fullPath.lastIndexOf('.');
+						Node parentNode = nodesByPath.get(fullPath.substring(0, dot));
+
+						if (parentNode == null) {
+							throw new IOException("The node above " + fullPath + " is missing.");
+						}
+
+						parentNode.setChild(fullPath.substring(dot + 1), node);
+					}
+
+					nodesByPath.put(fullPath, node);
+				}
+			}
+
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		if (branchNode == null) {
+			throw new IOException("The branch " + branch + " is not in \"" + this.directoryName + "\".");
+		}
+
+		return branchNode;
+	}
+
+	/* Every branch can be read back as it is, the memtable holds every change */
+	public boolean isClean(String branch) {
+		return true;
+	}
+
+	/*
+	 * Adds a mutation to the memtable. A delete or rename changes a whole subtree:
+	 * the stubs in it are loaded first, while they can still be read back, and a
+	 * renamed subtree is copied from memory under its new path.
+	 */
+	private void applyToMemtable(Mutation mutation, MemoryStorage memory) {
+
+		String fullPath = mutation.getFullPath();
+
+		if (mutation.getOperation().equals(Mutation.WRITE)) {
+
+			this.memtable.put(fullPath, mutation.getArgument());
+			return;
+		}
+
+		if (this.segmentCache != null) {
+			this.segmentCache.loadWithin(fullPath);
+		}
+
+		if (mutation.getOperation().equals(Mutation.DELETE)) {
+
+			this.memtable.deleteSubtree(fullPath);
+
+		} else if (mutation.getOperation().equals(Mutation.RENAME)) {
+
+			int dot = fullPath.lastIndexOf('.');
+			String newPath = (dot < 0) ? mutation.getArgument()
+					: fullPath.substring(0, dot) + "." + mutation.getArgument();
+			Node renamedNode = memory.getNodeByFullPath(newPath);
+
+			this.memtable.deleteSubtree(fullPath);
+
+			if (renamedNode != null) {
+				this.memtable.putSubtree(newPath, renamedNode);
+			}
+		}
+	}
+
+	/* Builds the whole database from the runs */
+	private MemoryStorage readAllBranches() throws IOException {
+
+		MemoryStorage memory = this.newMemoryStorage();
+		MergeIterator entries = this.mergeRuns();
+
+		while (entries.hasNext()) {
+
+			Map.Entry<String, LsmEntry> entry = entries.next();
+			this.addNode(memory, entry.getKey(), entry.getValue().getValue());
+		}
+
+		return memory;
+	}
+
+	/*
+	 * Builds the nodes above the top-level branches from the runs, and leaves the
+	 * branches on disk as stubs along with the names below them.
+	 */
+	private MemoryStorage readBranchesLazily() throws IOException {
+
+		MemoryStorage memory = this.newMemoryStorage();
+		HashMap<String, HashSet<String>> namesByBranch = new HashMap<String, HashSet<String>>();
+		MergeIterator entries = this.mergeRuns();
+
+		while (entries.hasNext()) {
+
+			Map.Entry<String, LsmEntry> entry = entries.next();
+			String fullPath = entry.getKey();
+			String branch = SegmentStore.segmentOf(fullPath);
+
+			if (branch.equals(fullPath) || branch.equals(SegmentStore.ROOT_SEGMENT)) {
+
+				this.addNode(memory, fullPath, entry.getValue().getValue());
+
+			} else {
+
+				namesByBranch.computeIfAbsent(branch, key -> new HashSet<String>())
+						.add(fullPath.substring(fullPath.lastIndexOf('.') + 1));
+			}
+		}
+
+		this.segmentCache = new SegmentCache(this, memory, this.cacheSize, this.heapThreshold);
+
+		for (Map.Entry<String, HashSet<String>> branchNames : namesByBranch.entrySet()) {
+
+			Node branchNode = memory.getNodeByFullPath(branchNames.getKey());
+
+			if (branchNode == null) {
+				throw new IOException("The node above the branch " + branchNames.getKey() + " is missing.");
+			}
+
+			this.segmentCache.addStub(branchNode, branchNames.getKey(), branchNames.getValue());
+		}
+
+		memory.setSegmentCache(this.segmentCache);
+
+		return memory;
+	}
+
+	private MemoryStorage newMemoryStorage() {
+
+		ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Node>>();
+		ConcurrentHashMap<String, Node> rootRecord = new ConcurrentHashMap<String, Node>();
+
+		rootRecord.put("", new Node());
+		dataMap.put("", rootRecord);
+
+		return new MemoryStorage(dataMap);
+	}
+
+	/* Links a node read from the runs into the database, its parent always comes first */
+	private void addNode(MemoryStorage memory, String fullPath, String value) throws IOException {
+
+		if (fullPath.isEmpty()) {
+
+			memory.getRootNode().setValue(value);
+			return;
+		}
+
+		int dot = fullPath.lastIndexOf('.');
+		Node parentNode = memory.getNodeByFullPath((dot < 0) ? "" : fullPath.substring(0, dot));
+
+		if (parentNode == null) {
+			throw new IOException("The node above " + fullPath + " is missing.");
+		}
+
+		Node node = new Node(value);
+
+		parentNode.setChild(fullPath.substring(dot + 1), node);
+		memory.putDataMap(node, fullPath);
+	}
+
+	/* Merges every run, newest first */
+	private MergeIterator mergeRuns() {
+
+		ArrayList<Iterator<Map.Entry<String, LsmEntry>>> sources = new ArrayList<Iterator<Map.Entry<String, LsmEntry>>>();
+
+		for (int i = this.runs.size() - 1; i >= 0; i--) {
+			sources.add(this.runs.get(i).scan(""));
+		}
+
+		return new MergeIterator(sources, sources.size());
+	}
+
+	/* Replays a log into the database and the memtable */
+	private void replayLog(MemoryStorage memory, WriteAheadLog log) throws IOException {
+
+		for (Mutation mutation : log.readMutations()) {
+
+			if (!memory.applyMutation(mutation)) {
+
+				System.out.println("Skipping a logged change that no longer applies: " + mutation + ".");
+				continue;
+			}
+
+			this.applyToMemtable(mutation, memory);
+			this.mutationsSinceCheckpoint.incrementAndGet();
+		}
+	}
+
+	/* Schedules a compaction once there are enough runs, unless one is already scheduled */
+	private void scheduleCompaction() {
+
+		synchronized (this.runs) {
+
+			if (this.compactionRuns <= 0 || this.runs.size() < Math.max(2, this.compactionRuns)) {
+				return;
+			}
+		}
+
+		if (this.compactionScheduled.compareAndSet(false, true)) {
+
+			try {
+				this.compactionPool.execute(this::compact);
+			} catch (RejectedExecutionException e) {
+				/* The engine is closing */
+				this.compactionScheduled.set(false);
+			}
+		}
+	}
+
+	/*
+	 * Merges every run into a single new one. Runs flushed while the merge is
+	 * written are kept after it. Nothing is older than the merged runs, so deleted
+	 * subtrees are dropped from the new run altogether.
+	 */
+	private void compact() {
+
+		ArrayList<SortedRun> mergedRuns;
+		long runNumber;
+		long entryCount = 0;
+
+		try {
+
+			synchronized (this.runs) {
+
+				mergedRuns = new ArrayList<SortedRun>(this.runs);
+				runNumber = this.nextRunNumber++;
+			}
+
+			ArrayList<Iterator<Map.Entry<String, LsmEntry>>> sources = new ArrayList<Iterator<Map.Entry<String, LsmEntry>>>();
+
+			for (int i = mergedRuns.size() - 1; i >= 0; i--) {
+				sources.add(mergedRuns.get(i).scan(""));
+				entryCount += mergedRuns.get(i).getEntryCount();
+			}
+
+			SortedRun run = SortedRun.write(new MergeIterator(sources, sources.size()), entryCount,
+					this.runFileName(runNumber));
+
+			synchronized (this.runs) {
+
+				this.runs.removeAll(mergedRuns);
+				this.runs.add(0, run);
+				this.writeManifest();
+
+				for (SortedRun mergedRun : mergedRuns) {
+					mergedRun.delete();
+				}
+			}
+
+		} catch (IOException | UncheckedIOException e) {
+
+			System.out.println("Could not compact the sorted runs in \"" + this.directoryName + "\".\n"
+					+ "Access to this directory is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		} finally {
+			this.compactionScheduled.set(false);
+		}
+
+		this.scheduleCompaction();
+	}
+
+	/*
+	 * Imports the database from master.database into the first run, through the
+	 * disk storage engine so that its write-ahead log and segments are included.
+	 */
+	private void importDatabase() throws IOException {
+
+		DiskStorage disk = new DiskStorage(this.storageFileName);
+
+		disk.setSegmented(disk.isSegmentedOnDisk());
+		MemoryStorage diskMemory = new MemoryStorage(disk.readDataMapFromDisk());
+		disk.close();
+
+		Memtable importMemtable = new Memtable();
+		importMemtable.putSubtree("", diskMemory.getRootNode());
+
+		new File(this.directoryName).mkdirs();
+		this.runs.add(SortedRun.write(importMemtable.scan(""), importMemtable.size(), this.runFileName(0)));
+		this.nextRunNumber = 1;
+		this.writeManifest();
+		this.runs.get(0).close();
+		this.runs.clear();
+	}
+
+	/* Reads the manifest, opens its runs and deletes the run files it does not name */
+	private void openRuns() throws IOException {
+
+		HashSet<String> runFileNames = new HashSet<String>();
+
+		for (String line : Files.readAllLines(Paths.get(this.manifestFileName), StandardCharsets.UTF_8)) {
+
+			if (line.isEmpty()) {
+				continue;
+			}
+
+			if (line.startsWith(FLUSHED_PREFIX)) {
+
+				this.flushedRunNumber = this.parseNumber(line.substring(FLUSHED_PREFIX.length()));
+
+			} else if (line.endsWith(RUN_SUFFIX)) {
+
+				this.runs.add(SortedRun.open(this.directoryName + File.separator + line, true));
+				runFileNames.add(line);
+
+			} else {
+				throw new IOException("The manifest \"" + this.manifestFileName + "\" is corrupt.");
+			}
+		}
+
+		TreeMap<Long, File> runFiles = this.listFiles(RUN_SUFFIX);
+
+		for (Map.Entry<Long, File> runFile : runFiles.entrySet()) {
+
+			if (!runFileNames.contains(runFile.getValue().getName())) {
+				runFile.getValue().delete();
+			}
+		}
+
+		/* Numbers are never reused, a flushed log may name a run that was merged away */
+		this.nextRunNumber = this.flushedRunNumber + 1;
+
+		if (!runFiles.isEmpty()) {
+			this.nextRunNumber = Math.max(this.nextRunNumber, runFiles.lastKey() + 1);
+		}
+
+		for (Long logNumber : this.listFiles(LOG_SUFFIX).keySet()) {
+			this.nextRunNumber = Math.max(this.nextRunNumber, logNumber + 1);
+		}
+	}
+
+	/* Deletes the logs whose runs are in the manifest */
+	private void deleteFlushedLogs() {
+
+		for (Map.Entry<Long, File> flushLog : this.listFiles(LOG_SUFFIX).entrySet()) {
+
+			if (flushLog.getKey() <= this.flushedRunNumber) {
+				flushLog.getValue().delete();
+			}
+		}
+	}
+
+	/* Writes the manifest to a temporary file and renames it over the manifest */
+	private void writeManifest() throws IOException {
+
+		ArrayList<String> lines = new ArrayList<String>();
+
+		lines.add(FLUSHED_PREFIX + this.flushedRunNumber);
+
+		for (SortedRun run : this.runs) {
+			lines.add(new File(run.getFileName()).getName());
+		}
+
+		String manifestTempFileName = this.manifestFileName + ".tmp";
+
+		FileOutputStream manifestStream = new FileOutputStream(manifestTempFileName);
+
+		try {
+
+			manifestStream.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+			manifestStream.getChannel().force(true);
+
+		} finally {
+			manifestStream.close();
+		}
+
+		AtomicFiles.replace(manifestTempFileName, this.manifestFileName);
+	}
+
+	/* Lists the files of the directory named <n><suffix>, by number */
+	private TreeMap<Long, File> listFiles(String suffix) {
+
+		TreeMap<Long, File> files = new TreeMap<Long, File>();
+		File[] directoryFiles = new File(this.directoryName).listFiles();
+
+		if (directoryFiles == null) {
+			return files;
+		}
+
+		for (File file : directoryFiles) {
+
+			String name = file.getName();
+
+			if (name.endsWith(suffix)) {
+
+				long number = this.parseNumber(name.substring(0, name.length() - suffix.length()));
+
+				if (number >= 0) {
+					files.put(number, file);
+				}
+			}
+		}
+
+		return files;
+	}
+
+	private String runFileName(long runNumber) {
+		return this.directoryName + File.separator + runNumber + RUN_SUFFIX;
+	}
+
+	private long parseNumber(String number) {
+
+		try {
+			return Long.parseLong(number);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package rut.storage;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import rut.Node;
+
+/**
+ * The in-memory, sorted part of the LSM storage engine, holding the changes
+ * made since the last flush. Changes are made while holding the dataMap lock,
+ * and the memtable can be read at the same time.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class Memtable {
+
+	private ConcurrentSkipListMap<String, LsmEntry> entries;
+
+	Memtable() {
+		this.entries = new ConcurrentSkipListMap<String, LsmEntry>(LsmEntry.PATH_ORDER);
+	}
+
+	boolean isEmpty() {
+		return this.entries.isEmpty();
+	}
+
+	int size() {
+		return this.entries.size();
+	}
+
+	LsmEntry get(String fullPath) {
+		return this.entries.get(fullPath);
+	}
+
+	/* Returns the entries from a path onward, in path order */
+	Iterator<Map.Entry<String, LsmEntry>> scan(String fromPath) {
+		return this.entries.tailMap(fromPath, true).entrySet().iterator();
+	}
+
+	/* Sets the value of a node, keeping a deletion of the older subtree at the same path */
+	void put(String fullPath, String value) {
+
+		LsmEntry entry = this.entries.get(fullPath);
+
+		this.entries.put(fullPath, new LsmEntry(value, entry != null && entry.deletesSubtree()));
+	}
+
+	/* Deletes a node and everything below it */
+	void deleteSubtree(String fullPath) {
+
+		Iterator<String> paths = this.entries.tailMap(fullPath, true).keySet().iterator();
+
+		while (paths.hasNext() && LsmEntry.covers(fullPath, paths.next())) {
+			paths.remove();
+		}
+
+		this.entries.put(fullPath, LsmEntry.TOMBSTONE);
+	}
+
+	/* Replaces whatever is at and below a path with a node and its descendants */
+	void putSubtree(String fullPath, Node node) {
+
+		this.deleteSubtree(fullPath);
+		this.entries.put(fullPath, new LsmEntry(node.getValue(), true));
+		this.putDescendants(fullPath, node);
+	}
+
+	private void putDescendants(String fullPath, Node node) {
+
+		for (Map.Entry<String, Node> child : node.getChildren().entrySet()) {
+
+			String childPath = fullPath.isEmpty() ? child.getKey() : fullPath + "." + child.getKey();
+
+			this.entries.put(childPath, new LsmEntry(child.getValue().getValue(), false));
+			this.putDescendants(childPath, child.getValue());
+		}
+	}
+
+}
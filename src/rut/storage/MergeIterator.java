@@ -0,0 +1,152 @@
+package rut.storage;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the entries of several LSM sources (memtables and sorted runs) into
+ * the live nodes they add up to, in path order. Where sources hold the same
+ * path the newest one wins, and a subtree deleted in a source hides whatever
+ * older sources hold at and below the deleted path.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class MergeIterator implements Iterator<Map.Entry<String, LsmEntry>> {
+
+	private PriorityQueue<Head> heads;
+
+	/* The subtrees deleted by the entries above the current path, innermost last */
+	private ArrayDeque<Deletion> deletions;
+
+	private Map.Entry<String, LsmEntry> nextEntry;
+
+	/**
+	 * Construct a MergeIterator.
+	 *
+	 * @param sources        the entries of each source in path order, newest
+	 *                       source first
+	 * @param deletingSource the newest source that deletes a subtree above every
+	 *                       path in the sources, or sources.size() if none
+	 */
+	MergeIterator(ArrayList<Iterator<Map.Entry<String, LsmEntry>>> sources, int deletingSource) {
+
+		this.heads = new PriorityQueue<Head>();
+		this.deletions = new ArrayDeque<Deletion>();
+
+		for (int i = 0; i < sources.size(); i++) {
+			this.advance(new Head(sources.get(i), i));
+		}
+
+		if (deletingSource < sources.size()) {
+			this.deletions.addLast(new Deletion("", deletingSource));
+		}
+
+		this.findNext();
+	}
+
+	public boolean hasNext() {
+		return this.nextEntry != null;
+	}
+
+	public Map.Entry<String, LsmEntry> next() {
+
+		if (this.nextEntry == null) {
+			throw new NoSuchElementException();
+		}
+
+		Map.Entry<String, LsmEntry> entry = this.nextEntry;
+		this.findNext();
+
+		return entry;
+	}
+
+	private void findNext() {
+
+		this.nextEntry = null;
+
+		while (this.nextEntry == null && !this.heads.isEmpty()) {
+
+			Head head = this.heads.poll();
+			String fullPath = head.entry.getKey();
+			LsmEntry entry = head.entry.getValue();
+			int source = head.source;
+
+			this.advance(head);
+
+			/* Older sources holding the same path are outdone */
+			while (!this.heads.isEmpty() && this.heads.peek().entry.getKey().equals(fullPath)) {
+				this.advance(this.heads.poll());
+			}
+
+			while (!this.deletions.isEmpty() && !LsmEntry.covers(this.deletions.peekLast().path, fullPath)) {
+				this.deletions.removeLast();
+			}
+
+			int deletingSource = this.deletions.isEmpty() ? Integer.MAX_VALUE : this.deletions.peekLast().newestSource;
+
+			/* Deleted by a newer source */
+			if (deletingSource < source) {
+				continue;
+			}
+
+			if (entry.deletesSubtree()) {
+				this.deletions.addLast(new Deletion(fullPath, Math.min(source, deletingSource)));
+			}
+
+			if (entry.hasValue()) {
+				this.nextEntry = new AbstractMap.SimpleImmutableEntry<String, LsmEntry>(fullPath,
+						new LsmEntry(entry.getValue(), false));
+			}
+		}
+	}
+
+	private void advance(Head head) {
+
+		if (head.entries.hasNext()) {
+
+			head.entry = head.entries.next();
+			this.heads.add(head);
+		}
+	}
+
+	private static class Head implements Comparable<Head> {
+
+		private Iterator<Map.Entry<String, LsmEntry>> entries;
+
+		private int source;
+
+		private Map.Entry<String, LsmEntry> entry;
+
+		Head(Iterator<Map.Entry<String, LsmEntry>> entries, int source) {
+			this.entries = entries;
+			this.source = source;
+		}
+
+		public int compareTo(Head other) {
+
+			int order = LsmEntry.PATH_ORDER.compare(this.entry.getKey(), other.entry.getKey());
+
+			return (order != 0) ? order : this.source - other.source;
+		}
+	}
+
+	private static class Deletion {
+
+		private String path;
+
+		/* The newest source deleting this path or a path above it */
+		private int newestSource;
+
+		Deletion(String path, int newestSource) {
+			this.path = path;
+			this.newestSource = newestSource;
+		}
+	}
+
+}
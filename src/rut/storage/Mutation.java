@@ -0,0 +1,81 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+A Mutation is a single change made to the node tree by an operation.
+Mutations are recorded by MemoryStorage while a statement runs and are then
+appended to the write-ahead log, so that the change can be replayed on top of
+the last snapshot of the database when the server starts.
+
+The operation of a Mutation is one of the following:
+
+* write  - fullPath is the node written to, argument is the node's value
+* delete - fullPath is the node deleted, argument is empty
+* rename - fullPath is the node renamed, argument is the node's new name
+
+*/
+
+package rut.storage;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class Mutation {
+
+	public static final String WRITE = "write";
+
+	public static final String DELETE = "delete";
+
+	public static final String RENAME = "rename";
+
+	private String operation;
+
+	private String fullPath;
+
+	private String argument;
+
+	/**
+	 * Construct a Mutation.
+	 *
+	 * @param operation the operation that changed the node (write, delete, rename)
+	 * @param fullPath  the full path of the node that was changed
+	 * @param argument  the node value for write, the new node name for rename
+	 */
+	public Mutation(String operation, String fullPath, String argument) {
+		this.operation = operation;
+		this.fullPath = fullPath;
+		this.argument = (argument == null) ? "" : argument;
+	}
+
+	public String toString() {
+		return this.operation + " " + this.fullPath + ":" + this.argument;
+	}
+
+	public String getOperation() {
+		return this.operation;
+	}
+
+	public String getFullPath() {
+		return this.fullPath;
+	}
+
+	public String getArgument() {
+		return this.argument;
+	}
+
+}
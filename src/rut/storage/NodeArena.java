@@ -0,0 +1,331 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import rut.NameDictionary;
+import rut.Node;
+import rut.utilities.TypedValue;
+
+/**
+ * Keeps whole branches of nodes outside the Java heap, in direct memory
+ * segments, so that a large database does not leave the garbage collector
+ * millions of nodes to trace.
+ *
+ * A branch is written as one block of fixed size node records, followed by the
+ * values of the nodes. The children of a node are written next to each other,
+ * and a node refers to them and to its value by their offset in the block:
+ *
+ * [int block length][int node count]
+ * [int name id][int child count][int offset of first child][int offset of value]...
+ * [byte type][int length, -1 for no value][UTF-8 value]...
+ *
+ * The block of a branch is never changed. A branch that is changed is written
+ * to a new block, and a segment is handed back once every block in it has been
+ * released.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class NodeArena {
+
+	/* The size of the segments blocks are written to, a larger block gets a segment of its own */
+	private static final int SEGMENT_SIZE = 1 << 26;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final int RECORD_SIZE = 16;
+
+	/* The types a value can be kept in, 0 being text */
+	private static final String[] VALUE_TYPES = { "text", "integer", "decimal", "date", "time", "boolean" };
+
+	/* The segments, null once they have been handed back */
+	private ArrayList<ByteBuffer> segments;
+
+	/* The bytes of each segment that are in blocks not yet released */
+	private ArrayList<Long> liveBytes;
+
+	/* The segment new blocks are written to, -1 before the first one */
+	private int currentSegment;
+
+	NodeArena() {
+		this.segments = new ArrayList<ByteBuffer>();
+		this.liveBytes = new ArrayList<Long>();
+		this.currentSegment = -1;
+	}
+
+	/**
+	 * Writes a node and everything below it to a new block.
+	 *
+	 * @param branchNode the node
+	 * @return the reference to the block, to read it back with
+	 */
+	synchronized long write(Node branchNode) {
+
+		/* Nodes are numbered level by level, so the children of a node are numbered in a row */
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		int[] nameIds = new int[16];
+		int[] firstChildren = new int[16];
+		int[] childCounts = new int[16];
+
+		nodes.add(branchNode);
+		nameIds[0] = NameDictionary.NO_NAME;
+
+		for (int i = 0; i < nodes.size(); i++) {
+
+			Map<String, Node> children = nodes.get(i).getChildren();
+
+			firstChildren[i] = nodes.size();
+
+			for (Map.Entry<String, Node> child : children.entrySet()) {
+
+				int index = nodes.size();
+
+				if (index == nameIds.length) {
+					nameIds = Arrays.copyOf(nameIds, index * 2);
+					firstChildren = Arrays.copyOf(firstChildren, index * 2);
+					childCounts = Arrays.copyOf(childCounts, index * 2);
+				}
+
+				nodes.add(child.getValue());
+				nameIds[index] = NameDictionary.getId(child.getKey());
+			}
+
+			childCounts[i] = nodes.size() - firstChildren[i];
+		}
+
+		byte[][] values = new byte[nodes.size()][];
+		byte[] valueTypes = new byte[nodes.size()];
+		long blockLength = HEADER_SIZE + (long) RECORD_SIZE * nodes.size();
+
+		for (int i = 0; i < nodes.size(); i++) {
+
+			Node node = nodes.get(i);
+			TypedValue typedValue = node.getTypedValue();
+			String value = node.getValue();
+
+			values[i] = (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+			valueTypes[i] = (typedValue == null) ? 0 : typeCode(typedValue.getType());
+			blockLength += 5 + ((value == null) ? 0 : values[i].length);
+		}
+
+		if (blockLength > Integer.MAX_VALUE) {
+			throw new IllegalStateException("A branch of " + nodes.size() + " nodes is too large for the node arena.");
+		}
+
+		long reference = this.allocate((int) blockLength);
+		ByteBuffer segment = this.segments.get(segmentOf(reference));
+		int blockStart = offsetOf(reference);
+		int valueOffset = HEADER_SIZE + RECORD_SIZE * nodes.size();
+
+		segment.putInt(blockStart, (int) blockLength);
+		segment.putInt(blockStart + 4, nodes.size());
+
+		for (int i = 0; i < nodes.size(); i++) {
+
+			int record = blockStart + HEADER_SIZE + RECORD_SIZE * i;
+
+			segment.putInt(record, nameIds[i]);
+			segment.putInt(record + 4, childCounts[i]);
+			segment.putInt(record + 8, HEADER_SIZE + RECORD_SIZE * firstChildren[i]);
+			segment.putInt(record + 12, valueOffset);
+
+			segment.put(blockStart + valueOffset, valueTypes[i]);
+
+			if (values[i] == null) {
+
+				segment.putInt(blockStart + valueOffset + 1, -1);
+				valueOffset += 5;
+
+			} else {
+
+				segment.putInt(blockStart + valueOffset + 1, values[i].length);
+				segment.put(blockStart + valueOffset + 5, values[i]);
+				valueOffset += 5 + values[i].length;
+			}
+		}
+
+		return reference;
+	}
+
+	/**
+	 * Reads a block back into nodes on the heap.
+	 *
+	 * @param reference the reference returned by write
+	 * @return the node the block was written from, with everything below it
+	 * @throws IOException if the block has been released
+	 */
+	synchronized Node read(long reference) throws IOException {
+
+		ByteBuffer segment = this.getSegment(reference);
+		int blockStart = offsetOf(reference);
+		int nodeCount = segment.getInt(blockStart + 4);
+		Node[] nodes = new Node[nodeCount];
+
+		/* Children are numbered after their parents, so they are built first */
+		for (int i = nodeCount - 1; i >= 0; i--) {
+
+			int record = blockStart + HEADER_SIZE + RECORD_SIZE * i;
+			int childCount = segment.getInt(record + 4);
+			Node node;
+
+			if (childCount == 0) {
+
+				node = new Node();
+
+			} else {
+
+				HashMap<String, Node> children = new HashMap<String, Node>();
+				int firstChild = (segment.getInt(record + 8) - HEADER_SIZE) / RECORD_SIZE;
+
+				for (int child = firstChild; child < firstChild + childCount; child++) {
+					children.put(NameDictionary.getName(segment.getInt(blockStart + HEADER_SIZE + RECORD_SIZE * child)),
+							nodes[child]);
+					nodes[child] = null;
+				}
+
+				node = new Node(children);
+			}
+
+			int value = blockStart + segment.getInt(record + 12);
+			int valueLength = segment.getInt(value + 1);
+
+			if (valueLength < 0) {
+
+				node.setValue(null);
+
+			} else {
+
+				byte[] valueBytes = new byte[valueLength];
+
+				segment.get(value + 5, valueBytes);
+				node.setValue(new String(valueBytes, StandardCharsets.UTF_8), VALUE_TYPES[segment.get(value)]);
+			}
+
+			nodes[i] = node;
+		}
+
+		return nodes[0];
+	}
+
+	/**
+	 * Releases a block that will not be read again, handing back its segment once
+	 * nothing else in the segment is in use.
+	 *
+	 * @param reference the reference returned by write
+	 */
+	synchronized void release(long reference) {
+
+		int segmentNumber = segmentOf(reference);
+		ByteBuffer segment = this.segments.get(segmentNumber);
+
+		if (segment == null) {
+			return;
+		}
+
+		long live = this.liveBytes.get(segmentNumber) - segment.getInt(offsetOf(reference));
+
+		this.liveBytes.set(segmentNumber, live);
+
+		if (live == 0 && segmentNumber != this.currentSegment) {
+			this.segments.set(segmentNumber, null);
+		}
+	}
+
+	/* Finds room for a block, in the current segment or a new one */
+	private long allocate(int length) {
+
+		if (length > SEGMENT_SIZE) {
+
+			int segmentNumber = this.addSegment(length);
+
+			this.liveBytes.set(segmentNumber, (long) length);
+
+			return reference(segmentNumber, 0);
+		}
+
+		if (this.currentSegment < 0
+				|| this.segments.get(this.currentSegment).position() + length > SEGMENT_SIZE) {
+
+			int previousSegment = this.currentSegment;
+
+			this.currentSegment = this.addSegment(SEGMENT_SIZE);
+
+			/* The segment that was being filled can be handed back now if it is already empty */
+			if (previousSegment >= 0 && this.liveBytes.get(previousSegment) == 0) {
+				this.segments.set(previousSegment, null);
+			}
+		}
+
+		ByteBuffer segment = this.segments.get(this.currentSegment);
+		int offset = segment.position();
+
+		segment.position(offset + length);
+		this.liveBytes.set(this.currentSegment, this.liveBytes.get(this.currentSegment) + length);
+
+		return reference(this.currentSegment, offset);
+	}
+
+	/* Reuses the slot of a segment that was handed back, if there is one */
+	private int addSegment(int size) {
+
+		ByteBuffer segment = ByteBuffer.allocateDirect(size);
+		int segmentNumber = this.segments.indexOf(null);
+
+		if (segmentNumber < 0) {
+
+			segmentNumber = this.segments.size();
+			this.segments.add(segment);
+			this.liveBytes.add(0L);
+
+		} else {
+
+			this.segments.set(segmentNumber, segment);
+			this.liveBytes.set(segmentNumber, 0L);
+		}
+
+		return segmentNumber;
+	}
+
+	private ByteBuffer getSegment(long reference) throws IOException {
+
+		int segmentNumber = segmentOf(reference);
+		ByteBuffer segment = (segmentNumber < this.segments.size()) ? this.segments.get(segmentNumber) : null;
+
+		if (segment == null) {
+			throw new IOException("The node arena no longer holds block " + reference + ".");
+		}
+
+		return segment;
+	}
+
+	private static byte typeCode(String type) {
+
+		for (byte code = 1; code < VALUE_TYPES.length; code++) {
+
+			if (VALUE_TYPES[code].equals(type)) {
+				return code;
+			}
+		}
+
+		return 0;
+	}
+
+	private static long reference(int segmentNumber, int offset) {
+		return ((long) segmentNumber << 32) | offset;
+	}
+
+	private static int segmentOf(long reference) {
+		return (int) (reference >>> 32);
+	}
+
+	private static int offsetOf(long reference) {
+		return (int) reference;
+	}
+
+}
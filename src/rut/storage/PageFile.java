@@ -0,0 +1,381 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A file of fixed size pages holding the B+trees of the page storage engine,
+ * read through memory-mapped regions of the file.
+ *
+ * Pages are never changed once they are committed: a transaction writes the
+ * pages it changes to the end of the file, and is committed by writing a meta
+ * page that points at the new roots. The file starts with two meta pages that
+ * are written in turn, so the meta page of the last commit is always intact
+ * even if the server goes down while writing the next one:
+ *
+ * [int magic "RUTP"][int version][int page size][long generation][long page count]
+ * [long live pages][long root of each tree]...[int CRC32C of the preceding bytes]
+ *
+ * Readers that hold the roots of a commit keep seeing that commit, whatever is
+ * written after it.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class PageFile {
+
+	static final int PAGE_SIZE = 4096;
+
+	/* The trees in the file */
+	static final int NODES = 0;
+
+	static final int TOP = 1;
+
+	static final int NAMES = 2;
+
+	static final int TREE_COUNT = 3;
+
+	static final long NO_PAGE = -1;
+
+	private static final int MAGIC = 0x52555450;
+
+	private static final int VERSION = 1;
+
+	private static final int META_SIZE = 40 + 8 * TREE_COUNT;
+
+	/* The file is mapped in regions of this size, a page never spans two */
+	private static final int REGION_SIZE = 1 << 26;
+
+	private String fileName;
+
+	private FileChannel channel;
+
+	private ArrayList<MappedByteBuffer> regions;
+
+	private long generation;
+
+	private long pageCount;
+
+	private long livePages;
+
+	private long[] roots;
+
+	private PageFile(String fileName, FileChannel channel) {
+		this.fileName = fileName;
+		this.channel = channel;
+		this.regions = new ArrayList<MappedByteBuffer>();
+		this.roots = new long[TREE_COUNT];
+	}
+
+	/**
+	 * Opens a page file, creating an empty one if it does not exist.
+	 *
+	 * @param fileName the page file
+	 * @param readOnly true to open the file for reading only
+	 * @return the page file
+	 * @throws IOException
+	 */
+	static PageFile open(String fileName, boolean readOnly) throws IOException {
+
+		FileChannel channel = readOnly ? FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)
+				: FileChannel.open(Paths.get(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE);
+		PageFile pageFile = new PageFile(fileName, channel);
+
+		try {
+
+			if (channel.size() == 0 && !readOnly) {
+				pageFile.create(0);
+			} else {
+				pageFile.readMeta();
+			}
+
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		return pageFile;
+	}
+
+	/**
+	 * Creates an empty page file, replacing any file of that name. The file starts
+	 * at the given generation, so that it can take the place of another page file.
+	 *
+	 * @param fileName   the page file
+	 * @param generation the generation of the empty file
+	 * @return the page file
+	 * @throws IOException
+	 */
+	static PageFile create(String fileName, long generation) throws IOException {
+
+		Files.deleteIfExists(Paths.get(fileName));
+
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+		PageFile pageFile = new PageFile(fileName, channel);
+
+		try {
+			pageFile.create(generation);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		return pageFile;
+	}
+
+	String getFileName() {
+		return this.fileName;
+	}
+
+	long getGeneration() {
+		return this.generation;
+	}
+
+	long getPageCount() {
+		return this.pageCount;
+	}
+
+	long getLivePages() {
+		return this.livePages;
+	}
+
+	long getRoot(int tree) {
+		return this.roots[tree];
+	}
+
+	/**
+	 * Returns a committed page, read from the mapped file.
+	 *
+	 * @param pageNumber the page
+	 * @return the page
+	 * @throws IOException
+	 */
+	ByteBuffer getPage(long pageNumber) throws IOException {
+
+		if (pageNumber < 2 || pageNumber >= this.pageCount) {
+			throw new IOException("\"" + this.fileName + "\" is corrupt, page " + pageNumber + " is out of range.");
+		}
+
+		long position = pageNumber * PAGE_SIZE;
+		int region = (int) (position / REGION_SIZE);
+		int offset = (int) (position % REGION_SIZE);
+
+		return this.getRegion(region, offset + PAGE_SIZE).slice(offset, PAGE_SIZE);
+	}
+
+	/**
+	 * Reads an encoded value of a leaf entry, following it into its overflow pages
+	 * if needed.
+	 *
+	 * @param page   the leaf page
+	 * @param offset the offset of the value's kind byte
+	 * @return the value
+	 * @throws IOException
+	 */
+	String readValue(ByteBuffer page, int offset) throws IOException {
+
+		if (page.get(offset) == BTreePage.INLINE) {
+
+			byte[] value = new byte[page.getInt(offset + 1)];
+
+			page.get(offset + 5, value);
+
+			return new String(value, StandardCharsets.UTF_8);
+		}
+
+		long firstPage = page.getLong(offset + 1);
+		int length = page.getInt(offset + 9);
+		ByteBuffer value = ByteBuffer.allocate(length);
+
+		if (firstPage < 2 || (firstPage * PAGE_SIZE) + length > this.pageCount * PAGE_SIZE) {
+			throw new IOException("\"" + this.fileName + "\" is corrupt, an overflow value is out of range.");
+		}
+
+		while (value.hasRemaining()) {
+
+			if (this.channel.read(value, firstPage * PAGE_SIZE + value.position()) < 0) {
+				throw new IOException("Unexpected end of page file.");
+			}
+		}
+
+		return new String(value.array(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the pages of a transaction and commits it by writing the next meta
+	 * page. Both are forced to the disk.
+	 *
+	 * @param pages     the pages written by the transaction, by page number
+	 * @param pageCount the number of pages in the file after the transaction
+	 * @param livePages the number of pages reachable from the new roots
+	 * @param roots     the new root of each tree
+	 * @throws IOException
+	 */
+	void commit(Map<Long, ByteBuffer> pages, long pageCount, long livePages, long[] roots) throws IOException {
+
+		for (Map.Entry<Long, ByteBuffer> page : pages.entrySet()) {
+
+			ByteBuffer buffer = page.getValue().duplicate();
+
+			buffer.rewind();
+
+			while (buffer.hasRemaining()) {
+				this.channel.write(buffer, page.getKey() * PAGE_SIZE + buffer.position());
+			}
+		}
+
+		this.extendTo(pageCount);
+		this.channel.force(false);
+
+		this.writeMeta(this.generation + 1, pageCount, livePages, roots);
+		this.channel.force(true);
+
+		this.generation++;
+		this.pageCount = pageCount;
+		this.livePages = livePages;
+		this.roots = roots.clone();
+	}
+
+	void close() throws IOException {
+
+		this.regions.clear();
+		this.channel.close();
+	}
+
+	/* Only the meta page of the generation is written, the other one is left empty until the next commit */
+	private void create(long generation) throws IOException {
+
+		long[] emptyRoots = new long[TREE_COUNT];
+
+		Arrays.fill(emptyRoots, NO_PAGE);
+
+		this.writeMeta(generation, 2, 0, emptyRoots);
+		this.extendTo(2);
+		this.channel.force(true);
+
+		this.generation = generation;
+		this.pageCount = 2;
+		this.livePages = 0;
+		this.roots = emptyRoots;
+	}
+
+	/* Reads both meta pages and keeps the newest one that is intact */
+	private void readMeta() throws IOException {
+
+		boolean found = false;
+
+		for (int slot = 0; slot < 2; slot++) {
+
+			ByteBuffer meta = ByteBuffer.allocate(META_SIZE);
+
+			while (meta.hasRemaining()) {
+
+				if (this.channel.read(meta, (long) slot * PAGE_SIZE + meta.position()) < 0) {
+					break;
+				}
+			}
+
+			CRC32C crc = new CRC32C();
+
+			crc.update(meta.array(), 0, META_SIZE - 4);
+
+			if (meta.hasRemaining() || meta.getInt(0) != MAGIC || meta.getInt(META_SIZE - 4) != (int) crc.getValue()) {
+				continue;
+			}
+
+			if (meta.getInt(4) != VERSION || meta.getInt(8) != PAGE_SIZE) {
+				throw new IOException("\"" + this.fileName + "\" was written by an unsupported version.");
+			}
+
+			long generation = meta.getLong(12);
+
+			if (found && generation <= this.generation) {
+				continue;
+			}
+
+			found = true;
+			this.generation = generation;
+			this.pageCount = meta.getLong(20);
+			this.livePages = meta.getLong(28);
+
+			for (int tree = 0; tree < TREE_COUNT; tree++) {
+				this.roots[tree] = meta.getLong(36 + 8 * tree);
+			}
+		}
+
+		if (!found) {
+			throw new IOException("\"" + this.fileName + "\" is not a page file, or both of its meta pages are corrupt.");
+		}
+
+		if (this.pageCount * PAGE_SIZE > this.channel.size()) {
+			throw new IOException("\"" + this.fileName + "\" is shorter than its last commit.");
+		}
+	}
+
+	private void writeMeta(long generation, long pageCount, long livePages, long[] roots) throws IOException {
+
+		ByteBuffer meta = ByteBuffer.allocate(META_SIZE);
+
+		meta.putInt(0, MAGIC);
+		meta.putInt(4, VERSION);
+		meta.putInt(8, PAGE_SIZE);
+		meta.putLong(12, generation);
+		meta.putLong(20, pageCount);
+		meta.putLong(28, livePages);
+
+		for (int tree = 0; tree < TREE_COUNT; tree++) {
+			meta.putLong(36 + 8 * tree, roots[tree]);
+		}
+
+		CRC32C crc = new CRC32C();
+
+		crc.update(meta.array(), 0, META_SIZE - 4);
+		meta.putInt(META_SIZE - 4, (int) crc.getValue());
+
+		while (meta.hasRemaining()) {
+			this.channel.write(meta, (generation % 2) * PAGE_SIZE + meta.position());
+		}
+	}
+
+	/* Pages dropped by a transaction are never written, the file is extended past them */
+	private void extendTo(long pageCount) throws IOException {
+
+		if (this.channel.size() < pageCount * PAGE_SIZE) {
+			this.channel.write(ByteBuffer.allocate(1), pageCount * PAGE_SIZE - 1);
+		}
+	}
+
+	/* Maps a region of the file, again if the file has grown past the end of its mapping */
+	private synchronized MappedByteBuffer getRegion(int region, int length) throws IOException {
+
+		while (this.regions.size() <= region) {
+			this.regions.add(null);
+		}
+
+		MappedByteBuffer mapped = this.regions.get(region);
+
+		if (mapped == null || mapped.capacity() < length) {
+
+			long start = (long) region * REGION_SIZE;
+
+			mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, start,
+					Math.min(REGION_SIZE, this.channel.size() - start));
+			this.regions.set(region, mapped);
+		}
+
+		return mapped;
+	}
+
+}
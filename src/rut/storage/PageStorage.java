@@ -0,0 +1,804 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+Page Storage is the "pages" storage engine. The database is kept in a single
+memory-mapped file of copy-on-write B+trees, see PageFile:
+
+* the nodes tree, every node's value by full path
+* the top tree, the nodes above the top-level branches (e.g. database and
+  database.employee) by full path
+* the names tree, the number of nodes of each name below each top-level branch,
+  keyed by <name>\0<branch>
+
+Statements are saved to a write-ahead log and collected in a memtable, as in the
+LSM storage engine. A checkpoint applies the memtable to the trees in a single
+transaction, which only writes the pages it changes, and commits it with a new
+meta page. Once the file is more than twice the size of the pages in use, a
+checkpoint writes a new file instead.
+
+The engine can also serve a page file read-only (rut.pages.readOnly=true), e.g.
+on a reporting replica that only runs read statements. The file is mapped and
+only the top tree is read on startup, so the server starts in about the same
+time whatever the size of the database. Every top-level branch is left as a
+stub and is read straight from the mapped pages when a statement first reaches
+it, with the names tree finding the branches a node name is in, see
+SegmentCache.
+
+The engine keeps its files next to master.database:
+
+master.database.pages          - the page file
+master.database.pages.log      - the write-ahead log
+master.database.pages.log.<n>  - the log being applied by the commit of
+                                 generation <n>
+
+On startup a log whose generation is greater than the page file's is replayed,
+one that is not is deleted. When the page file does not exist, the database is
+imported from master.database on startup.
+
+*/
+
+package rut.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rut.DiskStorage;
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class PageStorage implements StorageEngine, BranchStore, BranchNameIndex {
+
+	/* A checkpoint writes a new file once the file has this many times the pages in use */
+	private static final int REWRITE_RATIO = 2;
+
+	/* Files smaller than this many pages are never rewritten */
+	private static final long REWRITE_MINIMUM_PAGES = 1024;
+
+	private static final char NAME_SEPARATOR = '\0';
+
+	private String storageFileName;
+
+	private String pageFileName;
+
+	private String logFileName;
+
+	private boolean readOnly;
+
+	private PageFile pageFile;
+
+	private WriteAheadLog log;
+
+	private GroupCommit groupCommit;
+
+	/* The changes made since the last checkpoint, replaced under the dataMap lock */
+	private volatile Memtable memtable;
+
+	private int cacheSize;
+
+	private double heapThreshold;
+
+	private MemoryStorage memory;
+
+	private SegmentCache segmentCache;
+
+	private AtomicLong mutationsSinceCheckpoint;
+
+	private volatile long lastCheckpointTime;
+
+	/**
+	 * Construct a PageStorage object.
+	 *
+	 * @param storageFileName     full path of master.database, the engine's files
+	 *                            are kept next to it
+	 * @param readOnly            true to serve the page file read-only
+	 * @param syncMode            sync-per-statement, group or async
+	 * @param groupDelayMicros    the longest a group commit waits for more
+	 *                            statements
+	 * @param asyncIntervalMillis how often the log is forced in async mode
+	 */
+	public PageStorage(String storageFileName, boolean readOnly, String syncMode, long groupDelayMicros,
+			long asyncIntervalMillis) {
+
+		this.storageFileName = storageFileName;
+		this.pageFileName = storageFileName + ".pages";
+		this.logFileName = this.pageFileName + ".log";
+		this.readOnly = readOnly;
+		this.memtable = new Memtable();
+		this.mutationsSinceCheckpoint = new AtomicLong();
+		this.lastCheckpointTime = System.currentTimeMillis();
+
+		/* Nothing is ever saved to a read-only database */
+		if (!readOnly) {
+
+			this.log = new WriteAheadLog(this.logFileName);
+			this.groupCommit = new GroupCommit(this.log, syncMode, groupDelayMicros, asyncIntervalMillis);
+			this.groupCommit.start();
+		}
+	}
+
+	/**
+	 * Sets how many branches a read-only server keeps loaded.
+	 *
+	 * @param cacheSize     the most branches kept loaded, 0 for no limit
+	 * @param heapThreshold the fraction of the heap in use above which loaded
+	 *                      branches are unloaded, 0 for none
+	 */
+	public void setCacheLimits(int cacheSize, double heapThreshold) {
+		this.cacheSize = cacheSize;
+		this.heapThreshold = heapThreshold;
+	}
+
+	public long getLogLength() {
+		return this.readOnly ? 0 : this.log.getLength();
+	}
+
+	public long getMutationsSinceCheckpoint() {
+		return this.mutationsSinceCheckpoint.get();
+	}
+
+	public long getLastCheckpointTime() {
+		return this.lastCheckpointTime;
+	}
+
+	public String getDurabilityStatistics() {
+
+		String pages = "Pages: " + this.pageFile.getLivePages() + " in use of " + this.pageFile.getPageCount() + ".";
+
+		return this.readOnly ? "Read-only. " + pages : this.groupCommit.getStatistics() + " " + pages;
+	}
+
+	public boolean isReadOnly() {
+		return this.readOnly;
+	}
+
+	public String getUidMarkFileName() {
+		return this.pageFileName + ".newid";
+	}
+
+	/**
+	 * Reads the database from the page file. A read-only server only reads the
+	 * nodes above the top-level branches, any other server reads every node and
+	 * replays the logs that were not committed to the page file.
+	 *
+	 * @return the dataMap
+	 */
+	public ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> readDataMapFromDisk() {
+
+		MemoryStorage memory = null;
+
+		try {
+
+			if (!new File(this.pageFileName).isFile()) {
+
+				if (this.readOnly) {
+					System.out.println("Could not find the page file \"" + this.pageFileName + "\".\n"
+							+ "A read-only server needs a page file written by the pages storage engine. Exiting...");
+					System.exit(1);
+				}
+
+				this.importDatabase();
+			}
+
+			this.pageFile = PageFile.open(this.pageFileName, this.readOnly);
+
+			if (this.readOnly) {
+				return this.readBranchesLazily().getDataMap();
+			}
+
+			memory = this.readAllBranches();
+
+			/* A log left by an interrupted checkpoint comes before the current log */
+			for (Map.Entry<Long, File> checkpointLog : this.listCheckpointLogs().entrySet()) {
+
+				if (checkpointLog.getKey() > this.pageFile.getGeneration()) {
+					this.replayLog(memory, new WriteAheadLog(checkpointLog.getValue().getPath()));
+				}
+			}
+
+			this.replayLog(memory, this.log);
+
+		} catch (IOException | UncheckedIOException e) {
+			System.out.println("Could not read the page file \"" + this.pageFileName + "\".\n" + e.getMessage()
+					+ " Exiting...");
+			System.exit(1);
+		}
+
+		/* The replayed changes are committed right away, and the old logs dropped */
+		this.checkpoint(memory);
+		this.deleteCommittedLogs();
+
+		return memory.getDataMap();
+	}
+
+	public void attach(MemoryStorage memory) {
+
+		this.memory = memory;
+		memory.setSegmentCache(this.segmentCache);
+	}
+
+	/**
+	 * Commits the memtable, so that every change is in the page file. The engine
+	 * never writes the whole database again unless the page file needs to be
+	 * rewritten.
+	 *
+	 * @param dataMap the dataMap
+	 */
+	public void writeDataMapToDisk(ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap) {
+		this.checkpoint(new MemoryStorage(dataMap));
+	}
+
+	/**
+	 * Adds the mutations of a statement to the memtable and appends them to the
+	 * write-ahead log. Called while holding the dataMap lock.
+	 *
+	 * @param mutations the mutations to save, in the order they were made
+	 * @return the log position to pass to waitForLog
+	 */
+	public long writeMutationsToLog(ArrayList<Mutation> mutations) {
+
+		if (this.readOnly) {
+			return 0;
+		}
+
+		long logPosition = 0;
+
+		try {
+
+			this.markDirty(mutations);
+			logPosition = this.log.append(mutations);
+
+		} catch (IOException e) {
+
+			System.out.println("Could not write to the log file \"" + this.log.getLogFileName() + "\".\n"
+					+ "Access to this file is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		}
+
+		return logPosition;
+	}
+
+	/**
+	 * Adds mutations to the memtable without logging them, they are saved by the
+	 * next checkpoint. Called while holding the dataMap lock.
+	 *
+	 * @param mutations the mutations made
+	 */
+	public void markDirty(ArrayList<Mutation> mutations) {
+
+		if (this.readOnly) {
+			return;
+		}
+
+		for (Mutation mutation : mutations) {
+			this.applyToMemtable(mutation, this.memory);
+		}
+
+		this.mutationsSinceCheckpoint.addAndGet(mutations.size());
+	}
+
+	public void waitForLog(long logPosition) {
+
+		if (this.readOnly) {
+			return;
+		}
+
+		try {
+
+			this.groupCommit.commit(logPosition);
+
+		} catch (IOException e) {
+
+			System.out.println("Could not force the log file \"" + this.log.getLogFileName() + "\" to disk.\n"
+					+ "Access to this file is required for Rut Database Server to run. Exiting...");
+			System.exit(1);
+
+		}
+	}
+
+	/**
+	 * Commits the memtable to the page file. The memtable is swapped for an empty
+	 * one and the log moved aside while holding the dataMap lock, the pages are
+	 * written while statements carry on.
+	 *
+	 * @param memory the MemoryStorage attached to the database
+	 */
+	public synchronized void checkpoint(MemoryStorage memory) {
+
+		if (this.readOnly) {
+			return;
+		}
+
+		Memtable committingMemtable;
+		String checkpointLogFileName;
+
+		try {
+
+			synchronized (memory.getDataMap()) {
+
+				if (this.memtable.isEmpty()) {
+					return;
+				}
+
+				committingMemtable = this.memtable;
+				this.memtable = new Memtable();
+
+				checkpointLogFileName = this.logFileName + "." + (this.pageFile.getGeneration() + 1);
+				this.log.rotate(checkpointLogFileName);
+				this.mutationsSinceCheckpoint.set(0);
+			}
+
+			if (this.pageFile.getPageCount() > REWRITE_MINIMUM_PAGES
+					&& this.pageFile.getPageCount() > REWRITE_RATIO * this.pageFile.getLivePages()) {
+				this.rewritePageFile(committingMemtable);
+			} else {
+				this.commitMemtable(this.pageFile, committingMemtable);
+			}
+
+			Files.deleteIfExists(Paths.get(checkpointLogFileName));
+			this.lastCheckpointTime = System.currentTimeMillis();
+
+		} catch (IOException | UncheckedIOException e) {
+
+			System.out.println("Could not commit to the page file \"" + this.pageFileName + "\".\n"
+					+ e.getMessage() + " Exiting...");
+			System.exit(1);
+
+		}
+	}
+
+	public void close() {
+
+		try {
+
+			if (!this.readOnly) {
+				this.groupCommit.shutdown();
+				this.log.close();
+			}
+
+			if (this.pageFile != null) {
+				this.pageFile.close();
+			}
+
+		} catch (IOException e) {
+
+			System.out.println("Could not close the page file \"" + this.pageFileName + "\".");
+
+		}
+	}
+
+	public String getBranchKey(String branch) {
+		return branch;
+	}
+
+	/**
+	 * Reads a branch node and everything below it from the mapped pages.
+	 *
+	 * @param branch the branch
+	 * @return the branch node
+	 * @throws IOException
+	 */
+	public Node readBranchNode(String branch) throws IOException {
+
+		TreeMap<String, Node> nodesByPath = new TreeMap<String, Node>();
+		Node branchNode = null;
+
+		try {
+
+			Iterator<Map.Entry<String, String>> entries = PageTree.scan(this.pageFile, PageFile.NODES, branch);
+
+			while (entries.hasNext()) {
+
+				Map.Entry<String, String> entry = entries.next();
+				String fullPath = entry.getKey();
+
+				if (!LsmEntry.covers(branch, fullPath)) {
+					break;
+				}
+
+				Node node = new Node(entry.getValue());
+
+				if (fullPath.equals(branch)) {
+
+					branchNode = node;
+
+				} else {
+
+					int dot = fullPath.lastIndexOf('.');
+					Node parentNode = nodesByPath.get(fullPath.substring(0, dot));
+
+					if (parentNode == null) {
+						throw new IOException("The node above " + fullPath + " is missing.");
+					}
+
+					parentNode.setChild(fullPath.substring(dot + 1), node);
+				}
+
+				nodesByPath.put(fullPath, node);
+			}
+
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		if (branchNode == null) {
+			throw new IOException("The branch " + branch + " is not in \"" + this.pageFileName + "\".");
+		}
+
+		return branchNode;
+	}
+
+	/* A read-only database is never changed, and branches are only left on disk when it is read-only */
+	public boolean isClean(String branch) {
+		return true;
+	}
+
+	/**
+	 * Looks up the branches that have nodes of a name below them in the names
+	 * tree.
+	 *
+	 * @param nodeName the node name
+	 * @return the branches
+	 * @throws IOException
+	 */
+	public ArrayList<String> getBranchesWithName(String nodeName) throws IOException {
+
+		ArrayList<String> branches = new ArrayList<String>();
+		String prefix = nodeName + NAME_SEPARATOR;
+
+		try {
+
+			Iterator<Map.Entry<String, String>> entries = PageTree.scan(this.pageFile, PageFile.NAMES, prefix);
+
+			while (entries.hasNext()) {
+
+				String key = entries.next().getKey();
+
+				if (!key.startsWith(prefix)) {
+					break;
+				}
+
+				branches.add(key.substring(prefix.length()));
+			}
+
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		return branches;
+	}
+
+	/* Adds a mutation to the memtable, a renamed subtree is copied from memory under its new path */
+	private void applyToMemtable(Mutation mutation, MemoryStorage memory) {
+
+		String fullPath = mutation.getFullPath();
+
+		if (mutation.getOperation().equals(Mutation.WRITE)) {
+
+			this.memtable.put(fullPath, mutation.getArgument());
+
+		} else if (mutation.getOperation().equals(Mutation.DELETE)) {
+
+			this.memtable.deleteSubtree(fullPath);
+
+		} else if (mutation.getOperation().equals(Mutation.RENAME)) {
+
+			int dot = fullPath.lastIndexOf('.');
+			String newPath = (dot < 0) ? mutation.getArgument()
+					: fullPath.substring(0, dot) + "." + mutation.getArgument();
+			Node renamedNode = memory.getNodeByFullPath(newPath);
+
+			this.memtable.deleteSubtree(fullPath);
+
+			if (renamedNode != null) {
+				this.memtable.putSubtree(newPath, renamedNode);
+			}
+		}
+	}
+
+	/* Applies a memtable to the trees of a page file in a single transaction */
+	private void commitMemtable(PageFile pageFile, Memtable memtable) throws IOException {
+
+		PageTransaction transaction = new PageTransaction(pageFile);
+		Iterator<Map.Entry<String, LsmEntry>> entries = memtable.scan("");
+
+		while (entries.hasNext()) {
+
+			Map.Entry<String, LsmEntry> entry = entries.next();
+
+			if (entry.getValue().deletesSubtree()) {
+				this.removeSubtree(transaction, entry.getKey());
+			}
+
+			if (entry.getValue().hasValue()) {
+				this.putNode(transaction, entry.getKey(), entry.getValue().getValue());
+			}
+		}
+
+		transaction.commit();
+	}
+
+	/*
+	 * Writes the committed trees, with the memtable applied, to a new page file and
+	 * moves it over the old one. The new file continues the old file's generations.
+	 */
+	private void rewritePageFile(Memtable memtable) throws IOException {
+
+		String rewriteFileName = this.pageFileName + ".tmp";
+		PageFile rewrittenFile = PageFile.create(rewriteFileName, this.pageFile.getGeneration());
+		PageTransaction transaction = new PageTransaction(rewrittenFile);
+		ArrayList<Iterator<Map.Entry<String, LsmEntry>>> sources = new ArrayList<Iterator<Map.Entry<String, LsmEntry>>>();
+
+		sources.add(memtable.scan(""));
+		sources.add(new CommittedEntries(PageTree.scan(this.pageFile, PageFile.NODES, "")));
+
+		MergeIterator entries = new MergeIterator(sources, sources.size());
+
+		while (entries.hasNext()) {
+
+			Map.Entry<String, LsmEntry> entry = entries.next();
+
+			this.putNode(transaction, entry.getKey(), entry.getValue().getValue());
+		}
+
+		transaction.commit();
+		rewrittenFile.close();
+
+		AtomicFiles.replace(rewriteFileName, this.pageFileName);
+		this.pageFile.close();
+		this.pageFile = PageFile.open(this.pageFileName, false);
+	}
+
+	/* Puts a node in the nodes tree, and in the top tree or the names tree */
+	private void putNode(PageTransaction transaction, String fullPath, String value) throws IOException {
+
+		boolean existed = transaction.put(PageFile.NODES, fullPath, value);
+		String branch = SegmentStore.segmentOf(fullPath);
+
+		if (branch.equals(fullPath) || branch.equals(SegmentStore.ROOT_SEGMENT)) {
+
+			transaction.put(PageFile.TOP, fullPath, value);
+
+		} else if (!existed) {
+
+			this.countName(transaction, fullPath, branch, 1);
+		}
+	}
+
+	/* Removes a node and everything below it from every tree */
+	private void removeSubtree(PageTransaction transaction, String fullPath) throws IOException {
+
+		String key;
+
+		while ((key = transaction.ceiling(PageFile.NODES, fullPath)) != null && LsmEntry.covers(fullPath, key)) {
+
+			String branch = SegmentStore.segmentOf(key);
+
+			transaction.remove(PageFile.NODES, key);
+
+			if (branch.equals(key) || branch.equals(SegmentStore.ROOT_SEGMENT)) {
+				transaction.remove(PageFile.TOP, key);
+			} else {
+				this.countName(transaction, key, branch, -1);
+			}
+		}
+	}
+
+	/* Counts a node in or out of the names tree */
+	private void countName(PageTransaction transaction, String fullPath, String branch, int change)
+			throws IOException {
+
+		String nameKey = fullPath.substring(fullPath.lastIndexOf('.') + 1) + NAME_SEPARATOR + branch;
+		String count = transaction.get(PageFile.NAMES, nameKey);
+		long newCount = ((count == null) ? 0 : Long.parseLong(count)) + change;
+
+		if (newCount > 0) {
+			transaction.put(PageFile.NAMES, nameKey, String.valueOf(newCount));
+		} else {
+			transaction.remove(PageFile.NAMES, nameKey);
+		}
+	}
+
+	/* Builds the whole database from the nodes tree */
+	private MemoryStorage readAllBranches() throws IOException {
+
+		MemoryStorage memory = this.newMemoryStorage();
+		Iterator<Map.Entry<String, String>> entries = PageTree.scan(this.pageFile, PageFile.NODES, "");
+
+		while (entries.hasNext()) {
+
+			Map.Entry<String, String> entry = entries.next();
+			this.addNode(memory, entry.getKey(), entry.getValue());
+		}
+
+		return memory;
+	}
+
+	/* Builds the nodes above the top-level branches from the top tree, and leaves every branch on disk */
+	private MemoryStorage readBranchesLazily() throws IOException {
+
+		MemoryStorage memory = this.newMemoryStorage();
+		Iterator<Map.Entry<String, String>> entries = PageTree.scan(this.pageFile, PageFile.TOP, "");
+
+		this.segmentCache = new SegmentCache(this, memory, this.cacheSize, this.heapThreshold);
+		this.segmentCache.setNameIndex(this);
+
+		while (entries.hasNext()) {
+
+			Map.Entry<String, String> entry = entries.next();
+			String fullPath = entry.getKey();
+			Node node = this.addNode(memory, fullPath, entry.getValue());
+
+			if (SegmentStore.segmentOf(fullPath).equals(fullPath)) {
+				this.segmentCache.addStub(node, fullPath, new HashSet<String>());
+			}
+		}
+
+		memory.setSegmentCache(this.segmentCache);
+
+		return memory;
+	}
+
+	private MemoryStorage newMemoryStorage() {
+
+		ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Node>>();
+		ConcurrentHashMap<String, Node> rootRecord = new ConcurrentHashMap<String, Node>();
+
+		rootRecord.put("", new Node());
+		dataMap.put("", rootRecord);
+
+		return new MemoryStorage(dataMap);
+	}
+
+	/* Links a node read from a tree into the database, its parent always comes first */
+	private Node addNode(MemoryStorage memory, String fullPath, String value) throws IOException {
+
+		if (fullPath.isEmpty()) {
+
+			memory.getRootNode().setValue(value);
+			return memory.getRootNode();
+		}
+
+		int dot = fullPath.lastIndexOf('.');
+		Node parentNode = memory.getNodeByFullPath((dot < 0) ? "" : fullPath.substring(0, dot));
+
+		if (parentNode == null) {
+			throw new IOException("The node above " + fullPath + " is missing.");
+		}
+
+		Node node = new Node(value);
+
+		parentNode.setChild(fullPath.substring(dot + 1), node);
+		memory.putDataMap(node, fullPath);
+
+		return node;
+	}
+
+	/* Replays a log into the database and the memtable */
+	private void replayLog(MemoryStorage memory, WriteAheadLog log) throws IOException {
+
+		for (Mutation mutation : log.readMutations()) {
+
+			if (!memory.applyMutation(mutation)) {
+
+				System.out.println("Skipping a logged change that no longer applies: " + mutation + ".");
+				continue;
+			}
+
+			this.applyToMemtable(mutation, memory);
+			this.mutationsSinceCheckpoint.incrementAndGet();
+		}
+	}
+
+	/*
+	 * Imports the database from master.database into a new page file, through the
+	 * disk storage engine so that its write-ahead log and segments are included.
+	 */
+	private void importDatabase() throws IOException {
+
+		DiskStorage disk = new DiskStorage(this.storageFileName);
+
+		disk.setSegmented(disk.isSegmentedOnDisk());
+		MemoryStorage diskMemory = new MemoryStorage(disk.readDataMapFromDisk());
+		disk.close();
+
+		Memtable importMemtable = new Memtable();
+		importMemtable.putSubtree("", diskMemory.getRootNode());
+
+		String importFileName = this.pageFileName + ".tmp";
+		PageFile importFile = PageFile.create(importFileName, 0);
+
+		this.commitMemtable(importFile, importMemtable);
+		importFile.close();
+
+		AtomicFiles.replace(importFileName, this.pageFileName);
+	}
+
+	/* Deletes the logs of generations that are in the page file */
+	private void deleteCommittedLogs() {
+
+		for (Map.Entry<Long, File> checkpointLog : this.listCheckpointLogs().entrySet()) {
+
+			if (checkpointLog.getKey() <= this.pageFile.getGeneration()) {
+				checkpointLog.getValue().delete();
+			}
+		}
+	}
+
+	/* Lists the logs moved aside by checkpoints, by generation */
+	private TreeMap<Long, File> listCheckpointLogs() {
+
+		TreeMap<Long, File> logs = new TreeMap<Long, File>();
+		File[] files = new File(this.pageFileName).getAbsoluteFile().getParentFile().listFiles();
+		String prefix = new File(this.logFileName).getName() + ".";
+
+		if (files == null) {
+			return logs;
+		}
+
+		for (File file : files) {
+
+			if (file.getName().startsWith(prefix)) {
+
+				try {
+					logs.put(Long.parseLong(file.getName().substring(prefix.length())), file);
+				} catch (NumberFormatException e) {
+					/* Not a log moved aside by a checkpoint */
+				}
+			}
+		}
+
+		return logs;
+	}
+
+	/* The entries of a committed tree, as the entries of a merge */
+	private static class CommittedEntries implements Iterator<Map.Entry<String, LsmEntry>> {
+
+		private Iterator<Map.Entry<String, String>> entries;
+
+		CommittedEntries(Iterator<Map.Entry<String, String>> entries) {
+			this.entries = entries;
+		}
+
+		public boolean hasNext() {
+			return this.entries.hasNext();
+		}
+
+		public Map.Entry<String, LsmEntry> next() {
+
+			Map.Entry<String, String> entry = this.entries.next();
+
+			return Map.entry(entry.getKey(), new LsmEntry(entry.getValue(), false));
+		}
+	}
+
+}
@@ -0,0 +1,448 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A copy-on-write change to the B+trees of a PageFile. The first time a page is
+ * changed it is copied to a new page at the end of the file, along with the
+ * pages above it up to the root, so the committed trees are never touched.
+ * Nothing is visible to readers of the file until commit() writes the new meta
+ * page.
+ *
+ * Pages are split once they no longer fit, but are not merged as keys are
+ * removed, only dropped once they are empty. The page storage engine rewrites
+ * the whole file once too little of it is in use.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class PageTransaction {
+
+	private PageFile file;
+
+	private long[] roots;
+
+	/* The pages changed by the transaction, by their new page number */
+	private HashMap<Long, BTreePage> pages;
+
+	/* The overflow pages of the values written by the transaction */
+	private TreeMap<Long, ByteBuffer> overflowPages;
+
+	private long pageCount;
+
+	/* The committed pages that are no longer reachable once the transaction is committed */
+	private long freedPages;
+
+	PageTransaction(PageFile file) {
+
+		this.file = file;
+		this.roots = new long[PageFile.TREE_COUNT];
+		this.pages = new HashMap<Long, BTreePage>();
+		this.overflowPages = new TreeMap<Long, ByteBuffer>();
+		this.pageCount = file.getPageCount();
+
+		for (int tree = 0; tree < PageFile.TREE_COUNT; tree++) {
+			this.roots[tree] = file.getRoot(tree);
+		}
+	}
+
+	/**
+	 * Sets the value of a key.
+	 *
+	 * @param tree  the tree
+	 * @param key   the key
+	 * @param value the value
+	 * @return true if the key was already in the tree
+	 * @throws IOException
+	 */
+	boolean put(int tree, String key, String value) throws IOException {
+
+		if (key.getBytes(StandardCharsets.UTF_8).length > BTreePage.MAX_KEY_LENGTH) {
+			throw new IOException("The path " + key + " is longer than the page storage engine allows.");
+		}
+
+		byte[] encodedValue = this.encodeValue(value);
+
+		if (this.roots[tree] == PageFile.NO_PAGE) {
+
+			BTreePage leaf = new BTreePage(true);
+
+			leaf.addEntry(0, key, encodedValue);
+			this.roots[tree] = this.addPage(leaf);
+
+			return false;
+		}
+
+		boolean[] existed = new boolean[1];
+		ArrayList<Part> parts = this.insert(this.roots[tree], key, encodedValue, existed);
+
+		if (parts.size() == 1) {
+
+			this.roots[tree] = parts.get(0).pageNumber;
+
+		} else {
+
+			BTreePage root = new BTreePage(false);
+
+			for (int i = 0; i < parts.size(); i++) {
+				root.addChild(i, parts.get(i).firstKey, parts.get(i).pageNumber);
+			}
+
+			this.roots[tree] = this.addPage(root);
+		}
+
+		return existed[0];
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param tree the tree
+	 * @param key  the key
+	 * @return true if the key was in the tree
+	 * @throws IOException
+	 */
+	boolean remove(int tree, String key) throws IOException {
+
+		if (this.roots[tree] == PageFile.NO_PAGE) {
+			return false;
+		}
+
+		boolean[] removed = new boolean[1];
+		long root = this.delete(this.roots[tree], key, removed);
+
+		/* A root left with a single child is replaced by it */
+		while (root != PageFile.NO_PAGE) {
+
+			BTreePage rootPage = this.readPage(root);
+
+			if (rootPage.isLeaf() || rootPage.size() > 1) {
+				break;
+			}
+
+			this.dropPage(root);
+			root = rootPage.getChild(0);
+		}
+
+		this.roots[tree] = root;
+
+		return removed[0];
+	}
+
+	/**
+	 * Returns the value of a key, as changed by the transaction.
+	 *
+	 * @param tree the tree
+	 * @param key  the key
+	 * @return the value, or null if the key is not in the tree
+	 * @throws IOException
+	 */
+	String get(int tree, String key) throws IOException {
+
+		long pageNumber = this.roots[tree];
+
+		while (pageNumber != PageFile.NO_PAGE) {
+
+			BTreePage page = this.readPage(pageNumber);
+
+			if (page.isLeaf()) {
+
+				int index = page.search(key);
+
+				return (index >= 0) ? this.decodeValue(page.getValue(index)) : null;
+			}
+
+			pageNumber = page.getChild(page.childIndex(key));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the first key at or after a key, as changed by the transaction.
+	 *
+	 * @param tree the tree
+	 * @param key  the key
+	 * @return the first key at or after key, or null if there is none
+	 * @throws IOException
+	 */
+	String ceiling(int tree, String key) throws IOException {
+		return (this.roots[tree] == PageFile.NO_PAGE) ? null : this.ceiling(this.roots[tree], key);
+	}
+
+	/**
+	 * Writes the changed pages and commits the transaction.
+	 *
+	 * @throws IOException
+	 */
+	void commit() throws IOException {
+
+		TreeMap<Long, ByteBuffer> writtenPages = new TreeMap<Long, ByteBuffer>(this.overflowPages);
+
+		for (Map.Entry<Long, BTreePage> page : this.pages.entrySet()) {
+			writtenPages.put(page.getKey(), page.getValue().encode(PageFile.PAGE_SIZE));
+		}
+
+		this.file.commit(writtenPages, this.pageCount,
+				this.file.getLivePages() - this.freedPages + writtenPages.size(), this.roots);
+	}
+
+	/*
+	 * Inserts or replaces a key below a page. Returns the pages the page was split
+	 * into, the first being the copy of the page itself.
+	 */
+	private ArrayList<Part> insert(long pageNumber, String key, byte[] value, boolean[] existed) throws IOException {
+
+		long newPageNumber = this.copyPage(pageNumber);
+		BTreePage page = this.pages.get(newPageNumber);
+
+		if (page.isLeaf()) {
+
+			int index = page.search(key);
+
+			if (index >= 0) {
+
+				this.freeValue(page.getValue(index));
+				page.setValue(index, value);
+				existed[0] = true;
+
+			} else {
+
+				page.addEntry(-index - 1, key, value);
+			}
+
+		} else {
+
+			int index = page.childIndex(key);
+			ArrayList<Part> childParts = this.insert(page.getChild(index), key, value, existed);
+
+			page.setChild(index, childParts.get(0).pageNumber);
+
+			for (int i = 1; i < childParts.size(); i++) {
+				page.addChild(index + i, childParts.get(i).firstKey, childParts.get(i).pageNumber);
+			}
+		}
+
+		ArrayList<Part> parts = new ArrayList<Part>();
+
+		parts.add(new Part(page.getKey(0), newPageNumber));
+
+		for (BTreePage splitPage : page.split(PageFile.PAGE_SIZE)) {
+			parts.add(new Part(splitPage.getKey(0), this.addPage(splitPage)));
+		}
+
+		return parts;
+	}
+
+	/*
+	 * Removes a key below a page. Returns the page's new number, the same number if
+	 * the key was not found, or NO_PAGE if the page is left empty.
+	 */
+	private long delete(long pageNumber, String key, boolean[] removed) throws IOException {
+
+		BTreePage page = this.readPage(pageNumber);
+		int index;
+		long newChild = PageFile.NO_PAGE;
+
+		if (page.isLeaf()) {
+
+			index = page.search(key);
+
+			if (index < 0) {
+				return pageNumber;
+			}
+
+		} else {
+
+			index = page.childIndex(key);
+			newChild = this.delete(page.getChild(index), key, removed);
+
+			if (newChild == page.getChild(index)) {
+				return pageNumber;
+			}
+		}
+
+		long newPageNumber = this.copyPage(pageNumber, page);
+
+		if (page.isLeaf()) {
+
+			this.freeValue(page.getValue(index));
+			page.remove(index);
+			removed[0] = true;
+
+		} else if (newChild == PageFile.NO_PAGE) {
+
+			page.remove(index);
+
+		} else {
+
+			page.setChild(index, newChild);
+		}
+
+		if (page.size() == 0) {
+
+			this.pages.remove(newPageNumber);
+			return PageFile.NO_PAGE;
+		}
+
+		return newPageNumber;
+	}
+
+	private String ceiling(long pageNumber, String key) throws IOException {
+
+		BTreePage page = this.readPage(pageNumber);
+
+		if (page.isLeaf()) {
+
+			int index = page.search(key);
+
+			if (index < 0) {
+				index = -index - 1;
+			}
+
+			return (index < page.size()) ? page.getKey(index) : null;
+		}
+
+		for (int i = page.childIndex(key); i < page.size(); i++) {
+
+			String found = this.ceiling(page.getChild(i), key);
+
+			if (found != null) {
+				return found;
+			}
+		}
+
+		return null;
+	}
+
+	/* A page changed by the transaction, or a decoded copy of a committed page */
+	private BTreePage readPage(long pageNumber) throws IOException {
+
+		BTreePage page = this.pages.get(pageNumber);
+
+		return (page != null) ? page : BTreePage.decode(this.file.getPage(pageNumber));
+	}
+
+	private long copyPage(long pageNumber) throws IOException {
+		return this.copyPage(pageNumber, this.readPage(pageNumber));
+	}
+
+	/* Moves a committed page to a new page that the transaction can change */
+	private long copyPage(long pageNumber, BTreePage page) {
+
+		if (this.pages.containsKey(pageNumber)) {
+			return pageNumber;
+		}
+
+		this.freedPages++;
+
+		return this.addPage(page);
+	}
+
+	private long addPage(BTreePage page) {
+
+		long pageNumber = this.pageCount++;
+
+		this.pages.put(pageNumber, page);
+
+		return pageNumber;
+	}
+
+	private void dropPage(long pageNumber) {
+
+		if (this.pages.remove(pageNumber) == null) {
+			this.freedPages++;
+		}
+	}
+
+	/* Encodes a value, writing it to overflow pages if it is too long to keep in its leaf */
+	private byte[] encodeValue(String value) {
+
+		byte[] valueBytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+
+		if (valueBytes.length <= BTreePage.MAX_INLINE_VALUE) {
+
+			ByteBuffer encoded = ByteBuffer.allocate(5 + valueBytes.length);
+
+			encoded.put(BTreePage.INLINE).putInt(valueBytes.length).put(valueBytes);
+
+			return encoded.array();
+		}
+
+		long firstPage = this.pageCount;
+
+		for (int offset = 0; offset < valueBytes.length; offset += PageFile.PAGE_SIZE) {
+
+			ByteBuffer overflowPage = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+
+			overflowPage.put(valueBytes, offset, Math.min(PageFile.PAGE_SIZE, valueBytes.length - offset));
+			this.overflowPages.put(this.pageCount++, overflowPage);
+		}
+
+		ByteBuffer encoded = ByteBuffer.allocate(13);
+
+		encoded.put(BTreePage.OVERFLOW).putLong(firstPage).putInt(valueBytes.length);
+
+		return encoded.array();
+	}
+
+	private String decodeValue(byte[] encodedValue) throws IOException {
+
+		ByteBuffer encoded = ByteBuffer.wrap(encodedValue);
+		long firstPage = (encoded.get(0) == BTreePage.OVERFLOW) ? encoded.getLong(1) : PageFile.NO_PAGE;
+
+		if (this.overflowPages.containsKey(firstPage)) {
+
+			byte[] valueBytes = new byte[encoded.getInt(9)];
+
+			for (int offset = 0; offset < valueBytes.length; offset += PageFile.PAGE_SIZE) {
+				this.overflowPages.get(firstPage + offset / PageFile.PAGE_SIZE).get(0, valueBytes, offset,
+						Math.min(PageFile.PAGE_SIZE, valueBytes.length - offset));
+			}
+
+			return new String(valueBytes, StandardCharsets.UTF_8);
+		}
+
+		return this.file.readValue(encoded, 0);
+	}
+
+	/* Frees the overflow pages of a value that is replaced or removed */
+	private void freeValue(byte[] encodedValue) {
+
+		ByteBuffer encoded = ByteBuffer.wrap(encodedValue);
+
+		if (encoded.get(0) != BTreePage.OVERFLOW) {
+			return;
+		}
+
+		long firstPage = encoded.getLong(1);
+		int pageCount = (encoded.getInt(9) + PageFile.PAGE_SIZE - 1) / PageFile.PAGE_SIZE;
+
+		for (long pageNumber = firstPage; pageNumber < firstPage + pageCount; pageNumber++) {
+
+			if (this.overflowPages.remove(pageNumber) == null) {
+				this.freedPages++;
+			}
+		}
+	}
+
+	/* A page an insert left below a branch, and the first key below it */
+	private static class Part {
+
+		private String firstKey;
+
+		private long pageNumber;
+
+		Part(String firstKey, long pageNumber) {
+			this.firstKey = firstKey;
+			this.pageNumber = pageNumber;
+		}
+	}
+
+}
@@ -0,0 +1,172 @@
+package rut.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the committed B+trees of a PageFile straight from the mapped pages. A
+ * reader starts from the roots of the last commit and keeps reading that commit,
+ * since committed pages are never changed.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class PageTree {
+
+	/**
+	 * Returns the value of a key.
+	 *
+	 * @param file the page file
+	 * @param tree the tree
+	 * @param key  the key
+	 * @return the value, or null if the key is not in the tree
+	 * @throws IOException
+	 */
+	static String get(PageFile file, int tree, String key) throws IOException {
+
+		long pageNumber = file.getRoot(tree);
+
+		while (pageNumber != PageFile.NO_PAGE) {
+
+			ByteBuffer page = file.getPage(pageNumber);
+
+			if (BTreePage.isLeaf(page)) {
+
+				int index = BTreePage.search(page, key);
+
+				return (index >= 0) ? file.readValue(page, BTreePage.getValueOffset(page, index)) : null;
+			}
+
+			pageNumber = BTreePage.getChild(page, BTreePage.childIndex(page, key));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the keys and values of a tree in key order, from a key onwards. The
+	 * iterator throws UncheckedIOException if a page cannot be read.
+	 *
+	 * @param file    the page file
+	 * @param tree    the tree
+	 * @param fromKey the first key to return, if it is in the tree
+	 * @return the keys and values
+	 * @throws IOException
+	 */
+	static Iterator<Map.Entry<String, String>> scan(PageFile file, int tree, String fromKey) throws IOException {
+		return new Scanner(file, file.getRoot(tree), fromKey);
+	}
+
+	private static class Scanner implements Iterator<Map.Entry<String, String>> {
+
+		private PageFile file;
+
+		/* The page being read at each level of the tree, the leaf last */
+		private ArrayDeque<Position> positions;
+
+		private Map.Entry<String, String> nextEntry;
+
+		Scanner(PageFile file, long root, String fromKey) throws IOException {
+
+			this.file = file;
+			this.positions = new ArrayDeque<Position>();
+
+			long pageNumber = root;
+
+			while (pageNumber != PageFile.NO_PAGE) {
+
+				ByteBuffer page = file.getPage(pageNumber);
+
+				if (BTreePage.isLeaf(page)) {
+
+					int index = BTreePage.search(page, fromKey);
+
+					this.positions.addLast(new Position(page, (index >= 0) ? index : -index - 1));
+					break;
+				}
+
+				int index = BTreePage.childIndex(page, fromKey);
+
+				this.positions.addLast(new Position(page, index));
+				pageNumber = BTreePage.getChild(page, index);
+			}
+
+			this.findNext();
+		}
+
+		public boolean hasNext() {
+			return this.nextEntry != null;
+		}
+
+		public Map.Entry<String, String> next() {
+
+			if (this.nextEntry == null) {
+				throw new NoSuchElementException();
+			}
+
+			Map.Entry<String, String> entry = this.nextEntry;
+
+			try {
+				this.findNext();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			return entry;
+		}
+
+		private void findNext() throws IOException {
+
+			this.nextEntry = null;
+
+			while (!this.positions.isEmpty()) {
+
+				Position position = this.positions.peekLast();
+
+				/* A page that has been read to the end moves its parent on to the next child */
+				if (position.index >= BTreePage.getCount(position.page)) {
+
+					this.positions.removeLast();
+
+					if (!this.positions.isEmpty()) {
+						this.positions.peekLast().index++;
+					}
+
+					continue;
+				}
+
+				if (BTreePage.isLeaf(position.page)) {
+
+					this.nextEntry = new AbstractMap.SimpleImmutableEntry<String, String>(
+							BTreePage.getKey(position.page, position.index),
+							this.file.readValue(position.page, BTreePage.getValueOffset(position.page, position.index)));
+					position.index++;
+
+					return;
+				}
+
+				this.positions.addLast(
+						new Position(this.file.getPage(BTreePage.getChild(position.page, position.index)), 0));
+			}
+		}
+	}
+
+	private static class Position {
+
+		private ByteBuffer page;
+
+		private int index;
+
+		Position(ByteBuffer page, int index) {
+			this.page = page;
+			this.index = index;
+		}
+	}
+
+}
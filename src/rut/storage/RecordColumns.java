@@ -0,0 +1,220 @@
+package rut.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import rut.NameDictionary;
+import rut.Node;
+import rut.utilities.TypedValue;
+
+/**
+ * A branch whose children are records, each with the same fields and nothing
+ * below them, e.g. database.employee.<id>.employeeTitle, kept column-wise: the
+ * names and values of the records in arrays, and the values of each field in a
+ * Column. The nodes of the branch are only made again when it is read back.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+class RecordColumns {
+
+	/* The name ids of the records, see NameDictionary */
+	private final int[] recordIds;
+
+	/* The values of the records themselves */
+	private final String[] recordValues;
+
+	/* The names of the fields, each record has one node of each */
+	private final String[] fieldNames;
+
+	/* The values of each field, in the order of fieldNames */
+	private final Column[] columns;
+
+	private RecordColumns(int[] recordIds, String[] recordValues, String[] fieldNames, Column[] columns) {
+		this.recordIds = recordIds;
+		this.recordValues = recordValues;
+		this.fieldNames = fieldNames;
+		this.columns = columns;
+	}
+
+	/**
+	 * Writes a branch column-wise, if it is a record set.
+	 *
+	 * @param branchNode the node of the branch
+	 * @return the columns, or null if the branch is not a record set, or a value
+	 *         could not be kept in its column as it is
+	 */
+	static RecordColumns of(Node branchNode) {
+
+		Map<String, Node> records = branchNode.getChildren();
+		int recordCount = records.size();
+
+		if (recordCount == 0) {
+			return null;
+		}
+
+		int[] recordIds = new int[recordCount];
+		String[] recordValues = new String[recordCount];
+		String[] fieldNames = null;
+		Node[][] cells = null;
+		int record = 0;
+
+		for (Map.Entry<String, Node> recordEntry : records.entrySet()) {
+
+			Node recordNode = recordEntry.getValue();
+
+			if (recordNode.getTypedValue() != null) {
+				return null;
+			}
+
+			if (fieldNames == null) {
+
+				fieldNames = recordNode.getChildren().keySet().toArray(new String[0]);
+				cells = new Node[fieldNames.length][recordCount];
+
+				if (fieldNames.length == 0) {
+					return null;
+				}
+			}
+
+			if (recordNode.getChildCount() != fieldNames.length) {
+				return null;
+			}
+
+			for (int field = 0; field < fieldNames.length; field++) {
+
+				Node cell = recordNode.getChild(fieldNames[field]);
+
+				if (cell == null || cell.getChildCount() != 0) {
+					return null;
+				}
+
+				cells[field][record] = cell;
+			}
+
+			recordIds[record] = NameDictionary.getId(recordEntry.getKey());
+			recordValues[record] = recordNode.getValue();
+			record++;
+		}
+
+		Column[] columns = new Column[fieldNames.length];
+
+		for (int field = 0; field < fieldNames.length; field++) {
+
+			/* A field name that is also a record name could not be scanned as a column alone */
+			if (records.containsKey(fieldNames[field])) {
+				return null;
+			}
+
+			columns[field] = toColumn(cells[field]);
+
+			if (columns[field] == null) {
+				return null;
+			}
+		}
+
+		return new RecordColumns(recordIds, recordValues, fieldNames, columns);
+	}
+
+	/**
+	 * Returns the values of a field.
+	 *
+	 * @param fieldName the name of the field
+	 * @return the column, or null if the records have no field of that name
+	 */
+	Column getColumn(String fieldName) {
+
+		for (int field = 0; field < this.fieldNames.length; field++) {
+
+			if (this.fieldNames[field].equals(fieldName)) {
+				return this.columns[field];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Makes the nodes of the branch again.
+	 *
+	 * @return the node of the branch, with the records below it
+	 */
+	Node toNode() {
+
+		HashMap<String, Node> records = new HashMap<String, Node>();
+
+		for (int record = 0; record < this.recordIds.length; record++) {
+
+			HashMap<String, Node> fields = new HashMap<String, Node>();
+
+			for (int field = 0; field < this.fieldNames.length; field++) {
+
+				Column column = this.columns[field];
+				Node cell = new Node();
+
+				cell.setValue(column.getValue(record), column.getType(record));
+				fields.put(this.fieldNames[field], cell);
+			}
+
+			Node recordNode = new Node(fields);
+
+			recordNode.setValue(this.recordValues[record]);
+			records.put(NameDictionary.getName(this.recordIds[record]), recordNode);
+		}
+
+		return new Node(records);
+	}
+
+	/*
+	 * Keeps the typed values of a field as primitives, and the others as text.
+	 * Returns null for a field whose values are of more than one type, or that
+	 * has both typed values and no value, so that each value is read back as it
+	 * was kept.
+	 */
+	private static Column toColumn(Node[] cells) {
+
+		String type = null;
+		long[] bits = null;
+		String[] values = null;
+
+		for (int record = 0; record < cells.length; record++) {
+
+			TypedValue value = cells[record].getTypedValue();
+
+			if (value == null) {
+
+				if (values == null) {
+					values = new String[cells.length];
+				}
+
+				values[record] = cells[record].getValue();
+
+				if (values[record] == null && type != null) {
+					return null;
+				}
+
+				continue;
+			}
+
+			if (type == null) {
+
+				type = value.getType();
+				bits = new long[cells.length];
+
+				/* A text value left as null would be taken for a typed one */
+				if (values != null && Arrays.asList(values).subList(0, record).contains(null)) {
+					return null;
+				}
+
+			} else if (!value.getType().equals(type)) {
+				return null;
+			}
+
+			bits[record] = value.getBits();
+		}
+
+		return (type == null) ? new Column(values) : new Column(type, bits, values);
+	}
+
+}
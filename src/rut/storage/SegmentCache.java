@@ -0,0 +1,464 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+Segment Cache loads the top-level branches of a database on demand, from a
+BranchStore: the segments of a segmented database, the runs of the LSM
+storage engine, the page file of the pages storage engine, the node arena or
+the column store.
+
+On startup only the nodes above the top-level branches are read, and every
+top-level branch is left as a stub: a node that has its value but whose
+children are still on disk. A stub is loaded the first time its children are
+reached, either through the node tree (Node.getChildren()) or through the
+dataMap, in which case MemoryStorage asks the cache to load the stubs that hold
+the node name being searched for. The names below each stub are known without
+reading it, e.g. from the names file of its segment, see SegmentStore, or are
+looked up in the store's BranchNameIndex.
+
+A store that keeps a branch column-wise, see ColumnStore, can hand out the
+values of a node name in it without reading it back. Searches by value then
+only load the stubs whose values hold what is searched for.
+
+When a traversal reaches a node with several stubs below it, their segment
+files are read ahead in the background, since the traversal is likely to reach
+all of them.
+
+Between statements, loaded branches that have not been used recently are turned
+back into stubs once more than cacheSize branches are loaded, or once the heap
+is fuller than heapThreshold. Only a branch the BranchStore can read back as
+it is (e.g. one that has not changed since its segment was committed) is
+unloaded, so nothing is lost by dropping it from memory.
+
+*/
+
+package rut.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class SegmentCache implements SubtreeLoader {
+
+	/* The most segment files that are read ahead at a time */
+	private static final int MAX_READ_AHEAD = 8;
+
+	private BranchStore store;
+
+	private MemoryStorage memory;
+
+	/* The most branches kept loaded, 0 for no limit */
+	private int cacheSize;
+
+	/* The fraction of the heap in use above which branches are unloaded, 0 for none */
+	private double heapThreshold;
+
+	/* The key each stub is read back with */
+	private HashMap<Node, String> stubKeys;
+
+	/* The branch each stub was at when it was left on disk */
+	private HashMap<Node, String> stubBranches;
+
+	/* The stubs, by the branch they were at when they were left on disk */
+	private HashMap<String, Node> stubsByBranch;
+
+	/* Finds the stubs that hold a name when their names were not given, or null */
+	private BranchNameIndex nameIndex;
+
+	/* The stubs that have nodes of a name below them, by name */
+	private HashMap<String, HashSet<Node>> stubsByName;
+
+	/* The names below each stub, to take it out of stubsByName once loaded */
+	private HashMap<Node, HashSet<String>> namesByStub;
+
+	/* The loaded branches, least recently used first */
+	private LinkedHashMap<Node, Boolean> loadedBranches;
+
+	/* The branches being read ahead, by stub */
+	private HashMap<Node, CompletableFuture<Node>> readAheads;
+
+	/**
+	 * Construct a SegmentCache object.
+	 *
+	 * @param store         the permanent storage the branches are read from
+	 * @param memory        the MemoryStorage attached to the database
+	 * @param cacheSize     the most branches kept loaded, 0 for no limit
+	 * @param heapThreshold the fraction of the heap in use above which branches
+	 *                      are unloaded, 0 for none
+	 */
+	public SegmentCache(BranchStore store, MemoryStorage memory, int cacheSize, double heapThreshold) {
+		this.store = store;
+		this.memory = memory;
+		this.cacheSize = cacheSize;
+		this.heapThreshold = heapThreshold;
+		this.stubKeys = new HashMap<Node, String>();
+		this.stubBranches = new HashMap<Node, String>();
+		this.stubsByBranch = new HashMap<String, Node>();
+		this.stubsByName = new HashMap<String, HashSet<Node>>();
+		this.namesByStub = new HashMap<Node, HashSet<String>>();
+		this.loadedBranches = new LinkedHashMap<Node, Boolean>(16, 0.75f, true);
+		this.readAheads = new HashMap<Node, CompletableFuture<Node>>();
+	}
+
+	/**
+	 * Sets the index that finds the stubs holding a name, for stores whose stubs
+	 * are left on disk without their names.
+	 *
+	 * @param nameIndex the name index
+	 */
+	public synchronized void setNameIndex(BranchNameIndex nameIndex) {
+		this.nameIndex = nameIndex;
+	}
+
+	/**
+	 * Leaves a branch on disk, turning its node into a stub.
+	 *
+	 * @param branchNode the node of the branch
+	 * @param branch     the branch
+	 * @param names      the node names below the branch
+	 */
+	public synchronized void addStub(Node branchNode, String branch, HashSet<String> names) {
+
+		/* The key is taken first, since a store may write the branch out as it is */
+		this.stubKeys.put(branchNode, this.store.getBranchKey(branch));
+		branchNode.unloadSubtree(this);
+		this.stubBranches.put(branchNode, branch);
+		this.stubsByBranch.put(branch, branchNode);
+		this.namesByStub.put(branchNode, names);
+
+		for (String name : names) {
+			this.stubsByName.computeIfAbsent(name, key -> new HashSet<Node>()).add(branchNode);
+		}
+	}
+
+	/**
+	 * Reads a stub's branch from permanent storage and links the nodes below it
+	 * into the database.
+	 *
+	 * @param stub the stub node
+	 */
+	public synchronized void loadSubtree(Node stub) {
+
+		String branchKey = this.stubKeys.remove(stub);
+
+		/* Loaded already, by another thread */
+		if (branchKey == null) {
+			return;
+		}
+
+		this.stubsByBranch.remove(this.stubBranches.remove(stub), stub);
+
+		this.removeNames(stub);
+
+		CompletableFuture<Node> readAhead = this.readAheads.remove(stub);
+		String branch = this.findBranch(stub);
+
+		/* A branch deleted while it was a stub has nothing left to load */
+		if (branch == null) {
+
+			stub.finishLoadingSubtree(new HashMap<String, Node>());
+			this.store.releaseBranchKey(branchKey);
+			return;
+		}
+
+		Node loadedNode = null;
+
+		try {
+
+			if (readAhead != null) {
+
+				try {
+					loadedNode = readAhead.join();
+				} catch (CompletionException e) {
+					/* The segment is read again below, to report why it cannot be read */
+				}
+			}
+
+			if (loadedNode == null) {
+				loadedNode = this.store.readBranchNode(branchKey);
+			}
+
+		} catch (IOException e) {
+			System.out.println("Could not read " + branch + " from disk.\n" + e.getMessage() + " Exiting...");
+			System.exit(1);
+		}
+
+		this.store.releaseBranchKey(branchKey);
+		stub.finishLoadingSubtree(loadedNode.getChildren());
+
+		for (Map.Entry<String, Node> child : loadedNode.getChildren().entrySet()) {
+			this.memory.putSubtreeDataMap(child.getValue(), branch + "." + child.getKey());
+		}
+
+		this.loadedBranches.put(stub, Boolean.TRUE);
+	}
+
+	/**
+	 * Starts reading the branches of stubs in the background.
+	 *
+	 * @param stubs the stub nodes
+	 */
+	public synchronized void readAhead(ArrayList<Node> stubs) {
+
+		for (Node stub : stubs) {
+
+			String branchKey = this.stubKeys.get(stub);
+
+			if (this.readAheads.size() >= MAX_READ_AHEAD) {
+				return;
+			}
+
+			if (branchKey == null || this.readAheads.containsKey(stub)) {
+				continue;
+			}
+
+			this.readAheads.put(stub, CompletableFuture.supplyAsync(() -> {
+
+				try {
+					return this.store.readBranchNode(branchKey);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Loads every stub that has nodes of the given name below it.
+	 *
+	 * @param nodeName the node name
+	 */
+	public synchronized void loadByName(String nodeName) {
+		this.loadByName(nodeName, column -> true);
+	}
+
+	/**
+	 * Loads every stub that has nodes of the given name below it, apart from the
+	 * stubs whose store can scan the values of those nodes without reading them
+	 * back, see BranchStore.getColumn, and whose values are not needed.
+	 *
+	 * @param nodeName the node name
+	 * @param loadIf   true for the values of a stub that has to be loaded
+	 * @return the values of the stubs left on disk
+	 */
+	public synchronized ArrayList<Column> loadByName(String nodeName, Predicate<Column> loadIf) {
+
+		ArrayList<Column> columns = new ArrayList<Column>();
+		HashSet<Node> stubs = this.stubsByName.get(nodeName);
+
+		if (stubs != null) {
+
+			for (Node stub : new ArrayList<Node>(stubs)) {
+
+				/* The values of a branch deleted while it was a stub are not counted */
+				Column column = (this.findBranch(stub) == null) ? null
+						: this.store.getColumn(this.stubKeys.get(stub), nodeName);
+
+				if (column == null || loadIf.test(column)) {
+					this.loadSubtree(stub);
+				} else {
+					columns.add(column);
+				}
+			}
+		}
+
+		if (this.nameIndex == null) {
+			return columns;
+		}
+
+		try {
+
+			for (String branch : this.nameIndex.getBranchesWithName(nodeName)) {
+
+				Node stub = this.stubsByBranch.get(branch);
+
+				if (stub != null) {
+					this.loadSubtree(stub);
+				}
+			}
+
+		} catch (IOException e) {
+			System.out.println("Could not look up " + nodeName + " on disk.\n" + e.getMessage() + " Exiting...");
+			System.exit(1);
+		}
+
+		return columns;
+	}
+
+	/**
+	 * Loads every stub, for operations that need the whole dataMap.
+	 */
+	public synchronized void loadAll() {
+
+		for (Node stub : new ArrayList<Node>(this.stubKeys.keySet())) {
+			this.loadSubtree(stub);
+		}
+	}
+
+	/**
+	 * Loads every stub that was left on disk at or below a path, before permanent
+	 * storage changes what the stub's key reads back.
+	 *
+	 * @param fullPath the full path
+	 */
+	public synchronized void loadWithin(String fullPath) {
+
+		for (Map.Entry<Node, String> entry : new ArrayList<Map.Entry<Node, String>>(this.stubBranches.entrySet())) {
+
+			String branch = entry.getValue();
+
+			if (fullPath.isEmpty() || branch.equals(fullPath) || branch.startsWith(fullPath + ".")) {
+				this.loadSubtree(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Marks the branches holding nodes as recently used.
+	 *
+	 * @param fullPaths the full paths of the nodes
+	 */
+	public synchronized void touch(Collection<String> fullPaths) {
+
+		HashSet<String> branches = new HashSet<String>();
+
+		for (String fullPath : fullPaths) {
+			branches.add(SegmentStore.segmentOf(fullPath));
+		}
+
+		for (String branch : branches) {
+
+			Node branchNode = this.memory.getNodeByFullPath(branch);
+
+			if (branchNode != null) {
+				this.loadedBranches.get(branchNode);
+			}
+		}
+	}
+
+	/**
+	 * Unloads the least recently used branches while there are more loaded than
+	 * the cache size or the heap is fuller than the heap threshold. Must be called
+	 * between statements, while holding the dataMap lock.
+	 */
+	public synchronized void trim() {
+
+		/* Segments read ahead that were never reached are not kept */
+		this.readAheads.clear();
+
+		int excess = (this.cacheSize > 0) ? this.loadedBranches.size() - this.cacheSize : 0;
+
+		if (this.heapThreshold > 0 && this.getHeapUsage() > this.heapThreshold) {
+			excess = Math.max(excess, (this.loadedBranches.size() + 3) / 4);
+		}
+
+		Iterator<Node> iterator = this.loadedBranches.keySet().iterator();
+
+		while (excess > 0 && iterator.hasNext()) {
+
+			Node branchNode = iterator.next();
+			String branch = this.findBranch(branchNode);
+
+			/* A branch that has been deleted is simply forgotten */
+			if (branch == null) {
+
+				iterator.remove();
+				continue;
+			}
+
+			if (!this.store.isClean(branch)) {
+				continue;
+			}
+
+			HashSet<String> names = new HashSet<String>();
+
+			SegmentStore.addNames(branchNode, 1, names);
+
+			for (Map.Entry<String, Node> child : branchNode.getChildren().entrySet()) {
+				this.memory.removeSubtreeDataMap(child.getValue(), branch + "." + child.getKey());
+			}
+
+			iterator.remove();
+			this.addStub(branchNode, branch, names);
+			excess--;
+		}
+	}
+
+	/*
+	 * Finds the full path of a branch node by walking up from it, since the branch
+	 * or the node above it may have been renamed. Returns null if the node is no
+	 * longer in the database.
+	 */
+	private String findBranch(Node branchNode) {
+
+		Node topNode = branchNode.getParent();
+
+		if (topNode == null || topNode.getParent() != this.memory.getRootNode()) {
+			return null;
+		}
+
+		return topNode.getName() + "." + branchNode.getName();
+	}
+
+	private void removeNames(Node stub) {
+
+		HashSet<String> names = this.namesByStub.remove(stub);
+
+		if (names == null) {
+			return;
+		}
+
+		for (String name : names) {
+
+			HashSet<Node> stubs = this.stubsByName.get(name);
+
+			if (stubs != null) {
+
+				stubs.remove(stub);
+
+				if (stubs.isEmpty()) {
+					this.stubsByName.remove(name);
+				}
+			}
+		}
+	}
+
+	private double getHeapUsage() {
+
+		Runtime runtime = Runtime.getRuntime();
+
+		return (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+	}
+
+}
@@ -0,0 +1,690 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+Segment Store keeps the database in one snapshot file per top-level branch,
+so that a checkpoint only rewrites the branches that changed.
+
+A top-level branch is a node two levels below the root (e.g. database.employee)
+along with everything below it. Each branch is a segment, and the root node
+together with the nodes directly below it is the root segment. Every mutation
+marks the segment it touches as dirty, see markDirty().
+
+The segments are kept in a directory next to master.database:
+
+master.database.segments/manifest      - one line per segment, <file>:<branch>
+master.database.segments/<n>.segment   - a snapshot of one segment
+
+Segment files are never rewritten. A dirty segment is written to a new file and
+the manifest is replaced atomically to point at it, after which the file it
+replaces is deleted. The manifest is what makes a set of segment files a
+database: a file it does not name is left over from an interrupted checkpoint
+and is deleted when the segments are read.
+
+A segment file is a snapshot in either format, holding the segment's branch
+and the (empty) node above it. The root segment's file holds the root, the
+nodes directly below it and the top-level branches, without their children.
+
+Next to each segment file is a <n>.names file listing the distinct node names
+below the segment's branch, one per line. When segments are loaded lazily (see
+SegmentCache) only the root segment is read on startup, and the names files
+tell which branches have to be read for a search by node name.
+
+*/
+
+package rut.storage;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class SegmentStore implements BranchStore {
+
+	/* The branch of the root segment */
+	public static final String ROOT_SEGMENT = "";
+
+	private static final String SEGMENT_SUFFIX = ".segment";
+
+	private static final String NAMES_SUFFIX = ".names";
+
+	private String directoryName;
+
+	private String manifestFileName;
+
+	/* The format new segment files are written in, text or binary */
+	private String snapshotFormat;
+
+	/* The committed manifest, branch to segment file name */
+	private TreeMap<String, String> manifest;
+
+	/* The manifest a written checkpoint will commit */
+	private TreeMap<String, String> pendingManifest;
+
+	private long nextSegmentNumber;
+
+	/* The branches changed since their segments were last captured */
+	private Set<String> dirtySegments;
+
+	private volatile boolean allSegmentsDirty;
+
+	/* True from the time dirty segments are captured until they are committed */
+	private volatile boolean checkpointInProgress;
+
+	/**
+	 * Construct a SegmentStore object.
+	 *
+	 * @param directoryName the directory the segments are kept in
+	 */
+	public SegmentStore(String directoryName) {
+		this.directoryName = directoryName;
+		this.manifestFileName = directoryName + File.separator + "manifest";
+		this.snapshotFormat = "text";
+		this.manifest = new TreeMap<String, String>();
+		this.dirtySegments = ConcurrentHashMap.newKeySet();
+		this.allSegmentsDirty = true;
+	}
+
+	public String getManifestFileName() {
+		return this.manifestFileName;
+	}
+
+	public void setSnapshotFormat(String snapshotFormat) {
+		this.snapshotFormat = snapshotFormat;
+	}
+
+	/**
+	 * Returns true if a segmented database exists on disk.
+	 *
+	 * @return true if the manifest exists
+	 */
+	public boolean exists() {
+		return new File(this.manifestFileName).isFile();
+	}
+
+	/**
+	 * Returns the branch whose segment holds a node: the first two names of the
+	 * node's full path, or the root segment for the root and the nodes directly
+	 * below it.
+	 *
+	 * @param fullPath the full path of the node
+	 * @return the branch
+	 */
+	public static String segmentOf(String fullPath) {
+
+		int firstDot = fullPath.indexOf('.');
+
+		if (firstDot < 0) {
+			return ROOT_SEGMENT;
+		}
+
+		int secondDot = fullPath.indexOf('.', firstDot + 1);
+
+		return (secondDot < 0) ? fullPath : fullPath.substring(0, secondDot);
+	}
+
+	/**
+	 * Marks the segments a mutation changes as dirty. A mutation of a node
+	 * directly below the root changes the paths of entire branches, so it marks
+	 * every segment.
+	 *
+	 * @param mutation the mutation
+	 */
+	public void markDirty(Mutation mutation) {
+
+		String fullPath = mutation.getFullPath();
+		String segment = SegmentStore.segmentOf(fullPath);
+
+		if (segment.equals(ROOT_SEGMENT) && !mutation.getOperation().equals(Mutation.WRITE)) {
+
+			this.allSegmentsDirty = true;
+			return;
+		}
+
+		this.dirtySegments.add(segment);
+
+		/* Renaming a branch moves it to a new segment */
+		if (mutation.getOperation().equals(Mutation.RENAME) && segment.equals(fullPath)) {
+			this.dirtySegments.add(segment.substring(0, segment.indexOf('.') + 1) + mutation.getArgument());
+		}
+	}
+
+	public void markAllDirty() {
+		this.allSegmentsDirty = true;
+	}
+
+	/**
+	 * Reads every segment named by the manifest into a new dataMap, and deletes
+	 * segment files the manifest does not name.
+	 *
+	 * @return the dataMap, in the same form DiskStorage.readDataMapFromDisk returns
+	 * @throws IOException
+	 */
+	public ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> read() throws IOException {
+
+		MemoryStorage memory = new MemoryStorage(this.readRoot());
+
+		for (String branch : this.getBranches()) {
+			this.readBranch(memory, branch);
+		}
+
+		return memory.getDataMap();
+	}
+
+	/**
+	 * Reads the root segment named by the manifest into a new dataMap, and deletes
+	 * segment files the manifest does not name. The other segments are read with
+	 * readBranch() or loaded lazily.
+	 *
+	 * @return the dataMap holding the root segment
+	 * @throws IOException
+	 */
+	public ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> readRoot() throws IOException {
+
+		this.manifest = this.readManifest();
+
+		String rootFileName = this.manifest.get(ROOT_SEGMENT);
+
+		if (rootFileName == null) {
+			throw new IOException("The manifest \"" + this.manifestFileName + "\" has no root segment.");
+		}
+
+		ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap = this.readSegmentFile(rootFileName);
+
+		this.deleteUnusedSegmentFiles();
+		this.dirtySegments.clear();
+		this.allSegmentsDirty = false;
+
+		return dataMap;
+	}
+
+	/**
+	 * Reads a branch's segment and links it into the database read by readRoot().
+	 *
+	 * @param memory the MemoryStorage attached to the database
+	 * @param branch the branch
+	 * @throws IOException
+	 */
+	public void readBranch(MemoryStorage memory, String branch) throws IOException {
+		this.graftSegment(memory, branch, this.readSegmentFile(this.manifest.get(branch)));
+	}
+
+	/**
+	 * Returns the branches of the committed manifest, other than the root segment.
+	 *
+	 * @return the branches
+	 */
+	public ArrayList<String> getBranches() {
+
+		ArrayList<String> branches = new ArrayList<String>(this.manifest.keySet());
+
+		branches.remove(ROOT_SEGMENT);
+		return branches;
+	}
+
+	/**
+	 * Returns the file a branch's segment is kept in, according to the committed
+	 * manifest. The file is the key the branch is read back with.
+	 *
+	 * @param branch the branch
+	 * @return the segment file name, or null if the manifest has no such branch
+	 */
+	public String getBranchKey(String branch) {
+		return this.manifest.get(branch);
+	}
+
+	/**
+	 * Returns true if the node names below a branch are known without reading its
+	 * segment, i.e. its segment file has a names file.
+	 *
+	 * @param branch the branch
+	 * @return true if the branch has a names file
+	 */
+	public boolean hasNames(String branch) {
+
+		String fileName = this.manifest.get(branch);
+
+		return fileName != null && new File(this.directoryName + File.separator + this.namesFileName(fileName)).isFile();
+	}
+
+	/**
+	 * Reads the node names below a branch from the names file of its segment.
+	 *
+	 * @param branch the branch
+	 * @return the distinct node names below the branch
+	 * @throws IOException
+	 */
+	public HashSet<String> readNames(String branch) throws IOException {
+
+		String fullFileName = this.directoryName + File.separator + this.namesFileName(this.manifest.get(branch));
+		HashSet<String> names = new HashSet<String>();
+
+		for (String name : Files.readAllLines(Paths.get(fullFileName), StandardCharsets.UTF_8)) {
+
+			if (!name.isEmpty()) {
+				names.add(name);
+			}
+		}
+
+		return names;
+	}
+
+	/**
+	 * Reads the branch node out of a segment file, along with everything below it.
+	 * The branch is taken from the file as it is, so a branch that has been
+	 * renamed since the file was written is still found.
+	 *
+	 * @param fileName the segment file
+	 * @return the branch node
+	 * @throws IOException
+	 */
+	public Node readBranchNode(String fileName) throws IOException {
+
+		Node segmentRoot = this.readSegmentFile(fileName).get("").get("");
+
+		for (Node topNode : segmentRoot.getChildren().values()) {
+
+			for (Node branchNode : topNode.getChildren().values()) {
+				return branchNode;
+			}
+		}
+
+		throw new IOException("The segment file \"" + fileName + "\" in \"" + this.directoryName
+				+ "\" holds no branch.");
+	}
+
+	/**
+	 * Returns true if a branch has not changed since its segment was last
+	 * committed, so the branch can be read back from its segment file.
+	 *
+	 * @param branch the branch
+	 * @return true if the committed segment file matches the branch in memory
+	 */
+	public boolean isClean(String branch) {
+		return !this.allSegmentsDirty && !this.checkpointInProgress && !this.dirtySegments.contains(branch)
+				&& this.manifest.containsKey(branch);
+	}
+
+	/**
+	 * Copies the dirty segments so they can be written while statements carry on.
+	 * Must be called while holding the dataMap lock. The segments are no longer
+	 * dirty once captured.
+	 *
+	 * @param memory the MemoryStorage attached to the database
+	 * @return a copy of each dirty segment by branch, null for a branch that no
+	 *         longer exists
+	 */
+	public LinkedHashMap<String, Node> captureDirtySegments(MemoryStorage memory) {
+
+		LinkedHashMap<String, Node> segments = new LinkedHashMap<String, Node>();
+		Node rootNode = memory.getRootNode();
+
+		if (this.allSegmentsDirty) {
+
+			/* Every branch that exists is written, every other one is dropped */
+			for (String branch : this.manifest.keySet()) {
+				segments.put(branch, null);
+			}
+
+			for (String topName : rootNode.getChildren().keySet()) {
+
+				Node topNode = rootNode.getChild(topName);
+
+				if (topNode != null) {
+
+					for (String branchName : topNode.getChildren().keySet()) {
+						segments.put(topName + "." + branchName, null);
+					}
+				}
+			}
+
+		} else {
+
+			for (String branch : this.dirtySegments) {
+				segments.put(branch, null);
+			}
+		}
+
+		this.dirtySegments.clear();
+		this.allSegmentsDirty = false;
+		this.checkpointInProgress = true;
+
+		for (Map.Entry<String, Node> entry : segments.entrySet()) {
+			entry.setValue(this.copySegment(memory, entry.getKey()));
+		}
+
+		/* The root segment is always written, it is small */
+		segments.put(ROOT_SEGMENT, this.copySegment(memory, ROOT_SEGMENT));
+
+		return segments;
+	}
+
+	/**
+	 * Writes captured segments to new segment files, followed by the manifest that
+	 * names them. The manifest is not committed until it is renamed over the
+	 * current manifest and commit() is called.
+	 *
+	 * @param segments         the segments returned by captureDirtySegments
+	 * @param manifestFileName the file to write the manifest to
+	 * @throws IOException
+	 */
+	public void writeSegments(LinkedHashMap<String, Node> segments, String manifestFileName) throws IOException {
+
+		new File(this.directoryName).mkdirs();
+
+		TreeMap<String, String> newManifest = new TreeMap<String, String>(this.manifest);
+
+		for (Map.Entry<String, Node> entry : segments.entrySet()) {
+
+			if (entry.getValue() == null) {
+
+				newManifest.remove(entry.getKey());
+				continue;
+			}
+
+			String fileName = (this.nextSegmentNumber++) + SEGMENT_SUFFIX;
+			String fullFileName = this.directoryName + File.separator + fileName;
+
+			if (this.snapshotFormat.equals("binary")) {
+				BinarySnapshot.write(entry.getValue(), fullFileName);
+			} else {
+				TextSnapshot.write(entry.getValue(), fullFileName);
+			}
+
+			if (!entry.getKey().equals(ROOT_SEGMENT)) {
+
+				HashSet<String> names = new HashSet<String>();
+
+				SegmentStore.addNames(entry.getValue(), 3, names);
+				this.writeLines(names, this.directoryName + File.separator + this.namesFileName(fileName));
+			}
+
+			newManifest.put(entry.getKey(), fileName);
+		}
+
+		this.writeManifest(newManifest, manifestFileName);
+		this.pendingManifest = newManifest;
+	}
+
+	/**
+	 * Adds the names of the nodes below a node to names, starting at a depth
+	 * below the node.
+	 *
+	 * @param node  the node
+	 * @param depth the depth below node the names start at, 1 for its children
+	 * @param names the set of names to add to
+	 */
+	public static void addNames(Node node, int depth, Set<String> names) {
+
+		for (Map.Entry<String, Node> child : node.getChildren().entrySet()) {
+
+			if (depth <= 1) {
+				names.add(child.getKey());
+			}
+
+			SegmentStore.addNames(child.getValue(), depth - 1, names);
+		}
+	}
+
+	/**
+	 * Makes the manifest written by writeSegments the current one, once it has
+	 * been renamed over the manifest file, and deletes the segment files it
+	 * replaced.
+	 */
+	public void commit() {
+
+		if (this.pendingManifest != null) {
+
+			this.manifest = this.pendingManifest;
+			this.pendingManifest = null;
+			this.deleteUnusedSegmentFiles();
+		}
+
+		this.checkpointInProgress = false;
+	}
+
+	/**
+	 * Deletes the segments directory. Called once the database has been written
+	 * back to a single master.database file.
+	 */
+	public void delete() {
+
+		File[] files = new File(this.directoryName).listFiles();
+
+		if (files != null) {
+
+			/* The manifest goes first, without it the segment files are not a database */
+			new File(this.manifestFileName).delete();
+
+			for (File file : files) {
+				file.delete();
+			}
+		}
+
+		new File(this.directoryName).delete();
+		this.manifest = new TreeMap<String, String>();
+		this.allSegmentsDirty = true;
+	}
+
+	/*
+	 * Copies a segment into a tree of its own, below a new root node. Returns null
+	 * if the branch no longer exists.
+	 */
+	private Node copySegment(MemoryStorage memory, String branch) {
+
+		Node rootNode = memory.getRootNode();
+		Node segmentRoot = new Node(rootNode.getValue());
+
+		if (branch.equals(ROOT_SEGMENT)) {
+
+			for (String topName : rootNode.getChildren().keySet()) {
+
+				Node topNode = rootNode.getChild(topName);
+
+				if (topNode == null) {
+					continue;
+				}
+
+				Node topCopy = new Node(topNode.getValue());
+				segmentRoot.setChild(topName, topCopy);
+
+				/* The branches are copied without their children, which may not be loaded */
+				for (Map.Entry<String, Node> branchEntry : topNode.getChildren().entrySet()) {
+					topCopy.setChild(branchEntry.getKey(), new Node(branchEntry.getValue().getValue()));
+				}
+			}
+
+			return segmentRoot;
+		}
+
+		Node branchNode = memory.getNodeByFullPath(branch);
+
+		if (branchNode == null) {
+			return null;
+		}
+
+		int dot = branch.indexOf('.');
+		Node topNode = new Node();
+
+		segmentRoot.setChild(branch.substring(0, dot), topNode);
+		topNode.setChild(branch.substring(dot + 1), branchNode.copyTree());
+
+		return segmentRoot;
+	}
+
+	/* Links a branch read from its segment file into the database */
+	private void graftSegment(MemoryStorage memory, String branch,
+			ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> segmentDataMap) throws IOException {
+
+		int dot = branch.indexOf('.');
+		String branchName = branch.substring(dot + 1);
+		Node topNode = memory.getNodeByFullPath(branch.substring(0, dot));
+		ConcurrentHashMap<String, Node> branchNodes = segmentDataMap.get(branchName);
+		Node branchNode = (branchNodes == null) ? null : branchNodes.get(branch);
+
+		if (topNode == null || branchNode == null) {
+			throw new IOException("The segment of " + branch + " in \"" + this.directoryName
+					+ "\" does not match the root segment.");
+		}
+
+		topNode.setChild(branchName, branchNode);
+
+		/* The root and the empty node above the branch are not part of the segment */
+		for (ConcurrentHashMap<String, Node> nodesByPath : segmentDataMap.values()) {
+
+			for (Map.Entry<String, Node> entry : nodesByPath.entrySet()) {
+
+				if (entry.getKey().indexOf('.') > 0) {
+					memory.putDataMap(entry.getValue(), entry.getKey());
+				}
+			}
+		}
+	}
+
+	private ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> readSegmentFile(String fileName)
+			throws IOException {
+
+		String fullFileName = this.directoryName + File.separator + fileName;
+
+		if (BinarySnapshot.isBinarySnapshot(fullFileName)) {
+			return BinarySnapshot.read(fullFileName);
+		}
+
+		return TextSnapshot.read(fullFileName);
+	}
+
+	private TreeMap<String, String> readManifest() throws IOException {
+
+		TreeMap<String, String> manifest = new TreeMap<String, String>();
+
+		if (!this.exists()) {
+			throw new FileNotFoundException(this.manifestFileName);
+		}
+
+		for (String line : Files.readAllLines(Paths.get(this.manifestFileName), StandardCharsets.UTF_8)) {
+
+			if (line.isEmpty()) {
+				continue;
+			}
+
+			String[] fields = line.split(":", 2);
+
+			if (fields.length != 2 || !fields[0].endsWith(SEGMENT_SUFFIX)) {
+				throw new IOException("The manifest \"" + this.manifestFileName + "\" is corrupt.");
+			}
+
+			manifest.put(fields[1], fields[0]);
+			this.nextSegmentNumber = Math.max(this.nextSegmentNumber, this.parseSegmentNumber(fields[0]) + 1);
+		}
+
+		return manifest;
+	}
+
+	private void writeManifest(TreeMap<String, String> manifest, String manifestFileName) throws IOException {
+
+		ArrayList<String> lines = new ArrayList<String>();
+
+		for (Map.Entry<String, String> entry : manifest.entrySet()) {
+			lines.add(entry.getValue() + ":" + entry.getKey());
+		}
+
+		this.writeLines(lines, manifestFileName);
+	}
+
+	/* Writes a file of lines and forces it to the disk */
+	private void writeLines(Iterable<String> lines, String fileName) throws IOException {
+
+		FileOutputStream fileStream = new FileOutputStream(fileName);
+		BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(fileStream, StandardCharsets.UTF_8));
+
+		try {
+
+			for (String line : lines) {
+				fileWriter.write(line + "\n");
+			}
+
+			fileWriter.flush();
+			fileStream.getChannel().force(true);
+
+		} finally {
+			fileWriter.close();
+		}
+	}
+
+	/* Deletes the segment files that neither the manifest nor a pending manifest name */
+	private void deleteUnusedSegmentFiles() {
+
+		File[] files = new File(this.directoryName).listFiles();
+
+		if (files == null) {
+			return;
+		}
+
+		HashSet<String> usedFileNames = new HashSet<String>(this.manifest.values());
+
+		if (this.pendingManifest != null) {
+			usedFileNames.addAll(this.pendingManifest.values());
+		}
+
+		for (File file : files) {
+
+			String fileName = file.getName();
+
+			if (fileName.endsWith(NAMES_SUFFIX)) {
+				fileName = fileName.substring(0, fileName.length() - NAMES_SUFFIX.length()) + SEGMENT_SUFFIX;
+			}
+
+			if (fileName.endsWith(SEGMENT_SUFFIX) && !usedFileNames.contains(fileName)) {
+				file.delete();
+			}
+		}
+	}
+
+	/* The names file that goes with a segment file */
+	private String namesFileName(String segmentFileName) {
+		return segmentFileName.substring(0, segmentFileName.length() - SEGMENT_SUFFIX.length()) + NAMES_SUFFIX;
+	}
+
+	private long parseSegmentNumber(String fileName) {
+
+		try {
+			return Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,317 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+Snapshot Checksums are the block checksums of a snapshot file. The content of
+the snapshot is divided into fixed size blocks and a CRC32C is kept for each
+block, so a snapshot can be verified block by block on every available core
+before it is parsed.
+
+Text snapshots end with a trailer line holding the checksums:
+
+#rut-checksums:<block size>:<content length>:<crc>,<crc>,...
+
+where the content is every byte before the line break that precedes the trailer
+and each crc is in hexadecimal. A text snapshot without a trailer line (e.g. one
+edited by hand) is read without being verified.
+
+Binary snapshots hold the checksums in a table before the footer, see
+BinarySnapshot.
+
+*/
+
+package rut.storage;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32C;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class SnapshotChecksums {
+
+	public static final String TRAILER_PREFIX = "#rut-checksums:";
+
+	public static final int BLOCK_SIZE = 1 << 20;
+
+	/* The longest a text trailer can be, one checksum per block of a 1 TB snapshot */
+	private static final int MAX_TRAILER_LENGTH = 9 << 20;
+
+	private int blockSize;
+
+	private long contentLength;
+
+	private int[] checksums;
+
+	public SnapshotChecksums(int blockSize, long contentLength, int[] checksums) {
+		this.blockSize = blockSize;
+		this.contentLength = contentLength;
+		this.checksums = checksums;
+	}
+
+	public int getBlockSize() {
+		return this.blockSize;
+	}
+
+	public long getContentLength() {
+		return this.contentLength;
+	}
+
+	/**
+	 * Returns the checksums as a text snapshot trailer line, without a line break.
+	 *
+	 * @return the trailer line
+	 */
+	public String toTrailer() {
+
+		StringBuilder trailer = new StringBuilder(TRAILER_PREFIX);
+
+		trailer.append(this.blockSize).append(':').append(this.contentLength).append(':');
+
+		for (int i = 0; i < this.checksums.length; i++) {
+
+			if (i > 0) {
+				trailer.append(',');
+			}
+
+			trailer.append(Integer.toHexString(this.checksums[i]));
+		}
+
+		return trailer.toString();
+	}
+
+	/**
+	 * Writes the checksums as a binary table: [int block size][long content
+	 * length][int count] followed by each checksum.
+	 *
+	 * @param output the stream to write to
+	 * @throws IOException
+	 */
+	public void writeTable(OutputStream output) throws IOException {
+
+		DataOutputStream dataOutput = new DataOutputStream(output);
+
+		dataOutput.writeInt(this.blockSize);
+		dataOutput.writeLong(this.contentLength);
+		dataOutput.writeInt(this.checksums.length);
+
+		for (int checksum : this.checksums) {
+			dataOutput.writeInt(checksum);
+		}
+
+		dataOutput.flush();
+	}
+
+	/**
+	 * Reads a binary checksum table written by writeTable.
+	 *
+	 * @param channel  the snapshot file
+	 * @param position the position of the table
+	 * @param fileName the name of the snapshot file, for error messages
+	 * @return the checksums
+	 * @throws IOException
+	 */
+	public static SnapshotChecksums readTable(FileChannel channel, long position, String fileName)
+			throws IOException {
+
+		ByteBuffer header = ByteBuffer.allocate(16);
+		SnapshotChecksums.readFully(channel, header, position);
+
+		int blockSize = header.getInt(0);
+		long contentLength = header.getLong(4);
+		int count = header.getInt(12);
+
+		if (blockSize <= 0 || contentLength < 0 || contentLength > position || count < 0
+				|| count != SnapshotChecksums.blockCount(contentLength, blockSize)) {
+			throw new IOException("The checksum table of \"" + fileName + "\" is corrupt.");
+		}
+
+		ByteBuffer table = ByteBuffer.allocate(count * 4);
+		SnapshotChecksums.readFully(channel, table, position + 16);
+		table.flip();
+
+		int[] checksums = new int[count];
+		table.asIntBuffer().get(checksums);
+
+		return new SnapshotChecksums(blockSize, contentLength, checksums);
+	}
+
+	/**
+	 * Reads the trailer line at the end of a text snapshot.
+	 *
+	 * @param channel  the snapshot file
+	 * @param fileName the name of the snapshot file, for error messages
+	 * @return the checksums, or null if the snapshot has no trailer
+	 * @throws IOException
+	 */
+	public static SnapshotChecksums readTrailer(FileChannel channel, String fileName) throws IOException {
+
+		long fileLength = channel.size();
+		int tailLength = (int) Math.min(fileLength, MAX_TRAILER_LENGTH);
+		ByteBuffer tail = ByteBuffer.allocate(tailLength);
+		SnapshotChecksums.readFully(channel, tail, fileLength - tailLength);
+
+		byte[] tailBytes = tail.array();
+		int end = tailLength;
+
+		while (end > 0 && (tailBytes[end - 1] == '\n' || tailBytes[end - 1] == '\r')) {
+			end--;
+		}
+
+		int start = end;
+
+		while (start > 0 && tailBytes[start - 1] != '\n') {
+			start--;
+		}
+
+		String trailer = new String(tailBytes, start, end - start, StandardCharsets.UTF_8);
+
+		if (!trailer.startsWith(TRAILER_PREFIX)) {
+			return null;
+		}
+
+		try {
+
+			String[] fields = trailer.substring(TRAILER_PREFIX.length()).split(":", 3);
+			int blockSize = Integer.parseInt(fields[0]);
+			long contentLength = Long.parseLong(fields[1]);
+			String[] hexChecksums = fields[2].isEmpty() ? new String[0] : fields[2].split(",");
+			int[] checksums = new int[hexChecksums.length];
+
+			for (int i = 0; i < checksums.length; i++) {
+				checksums[i] = Integer.parseUnsignedInt(hexChecksums[i], 16);
+			}
+
+			/* The content ends at the line break before the trailer */
+			if (blockSize <= 0 || contentLength != fileLength - tailLength + start - 1
+					|| checksums.length != SnapshotChecksums.blockCount(contentLength, blockSize)) {
+				throw new NumberFormatException();
+			}
+
+			return new SnapshotChecksums(blockSize, contentLength, checksums);
+
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("The checksum trailer of \"" + fileName + "\" is corrupt.");
+		}
+	}
+
+	/**
+	 * Checks every block of the snapshot against its checksum, on the fork-join
+	 * pool.
+	 *
+	 * @param channel  the snapshot file
+	 * @param fileName the name of the snapshot file, for error messages
+	 * @throws IOException if a block does not match its checksum
+	 */
+	public void verify(FileChannel channel, String fileName) throws IOException {
+
+		try {
+
+			ForkJoinPool.commonPool().invoke(new VerifyTask(channel, fileName, 0, this.checksums.length));
+
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	static int blockCount(long contentLength, int blockSize) {
+		return (int) ((contentLength + blockSize - 1) / blockSize);
+	}
+
+	private void verifyBlock(FileChannel channel, String fileName, int block) throws IOException {
+
+		long start = (long) block * this.blockSize;
+		long length = Math.min(this.blockSize, this.contentLength - start);
+		CRC32C crc = new CRC32C();
+
+		crc.update(channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+
+		if ((int) crc.getValue() != this.checksums[block]) {
+			throw new IOException("\"" + fileName + "\" is corrupt, the block at byte " + start
+					+ " does not match its checksum.");
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+		while (buffer.hasRemaining()) {
+
+			int bytesRead = channel.read(buffer, position + buffer.position());
+
+			if (bytesRead < 0) {
+				throw new IOException("Unexpected end of snapshot file.");
+			}
+		}
+	}
+
+	/* Verifies a range of blocks, splitting the range in half until it is small */
+	private class VerifyTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/* The number of blocks a task verifies without splitting */
+		private static final int BLOCKS_PER_TASK = 4;
+
+		private FileChannel channel;
+
+		private String fileName;
+
+		private int firstBlock;
+
+		private int endBlock;
+
+		VerifyTask(FileChannel channel, String fileName, int firstBlock, int endBlock) {
+			this.channel = channel;
+			this.fileName = fileName;
+			this.firstBlock = firstBlock;
+			this.endBlock = endBlock;
+		}
+
+		protected void compute() {
+
+			if (this.endBlock - this.firstBlock > BLOCKS_PER_TASK) {
+
+				int middleBlock = (this.firstBlock + this.endBlock) >>> 1;
+
+				invokeAll(new VerifyTask(this.channel, this.fileName, this.firstBlock, middleBlock),
+						new VerifyTask(this.channel, this.fileName, middleBlock, this.endBlock));
+
+				return;
+			}
+
+			try {
+
+				for (int block = this.firstBlock; block < this.endBlock; block++) {
+					verifyBlock(this.channel, this.fileName, block);
+				}
+
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+}
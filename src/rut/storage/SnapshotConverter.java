@@ -0,0 +1,80 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+Snapshot Converter converts a master.database file between the text and the
+binary format. The input file is read the way the server reads it on startup,
+so any changes still in its write-ahead log are included in the output.
+
+Usage:
+
+java rut.storage.SnapshotConverter text-to-binary <input file> <output file>
+java rut.storage.SnapshotConverter binary-to-text <input file> <output file>
+
+*/
+
+package rut.storage;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rut.DiskStorage;
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class SnapshotConverter {
+
+	public static void main(String[] args) {
+
+		if (args.length != 3 || (!args[0].equals("text-to-binary") && !args[0].equals("binary-to-text"))) {
+			System.out.println("Usage: SnapshotConverter text-to-binary|binary-to-text <input file> <output file>");
+			System.exit(1);
+		}
+
+		DiskStorage disk = new DiskStorage(args[1]);
+
+		/* The input is read as it is, without moving it to another layout */
+		disk.setSegmented(disk.isSegmentedOnDisk());
+		ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap = disk.readDataMapFromDisk();
+		MemoryStorage memory = new MemoryStorage(dataMap);
+
+		try {
+
+			if (args[0].equals("text-to-binary")) {
+
+				BinarySnapshot.write(memory.getRootNode(), args[2]);
+
+			} else {
+
+				TextSnapshot.write(memory.dumpDataMap(), args[2]);
+			}
+
+			disk.close();
+
+		} catch (IOException e) {
+			System.out.println("Could not write the snapshot file \"" + args[2] + "\".\n" + e.getMessage());
+			System.exit(1);
+		}
+
+		System.out.println("Converted " + args[1] + " to " + args[2] + ".");
+	}
+
+}
@@ -0,0 +1,414 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+A Sorted Run is an immutable file of LSM entries, sorted by full path in path
+order (see LsmEntry). Runs are written once, by a memtable flush or by a
+compaction, and deleted once a compaction has merged them into a new run.
+
+The layout of a sorted run is as follows:
+
+[byte 'R'][byte 'U'][byte 'T'][byte 'L'][byte version]
+entries:
+    [varint path length][path][byte flags] then, if the entry has a value,
+    [varint value length][value]
+index, every INDEX_INTERVAL'th entry:
+    [varint count] then for each [varint path length][path][long offset]
+bloom filter over every path and every branch in the run:
+    [varint hash count][varint long count] then each [long]
+checksum table, covering every byte before it (see SnapshotChecksums):
+    [int block size][long content length][int count] then each [int crc32c]
+footer:
+    [long index offset][long bloom offset][long checksum table offset]
+    [long entry count][int 'RUTL']
+
+*/
+
+package rut.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+class SortedRun {
+
+	private static final int MAGIC = 0x5255544C;
+
+	private static final byte VERSION = 1;
+
+	private static final int HEADER_LENGTH = 5;
+
+	private static final int FOOTER_LENGTH = 36;
+
+	private static final int INDEX_INTERVAL = 128;
+
+	private static final byte HAS_VALUE = 1;
+
+	private static final byte DELETES_SUBTREE = 2;
+
+	/* The buffer a scan reads through, small since many scans may be open at once */
+	private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
+	private String fileName;
+
+	private FileChannel channel;
+
+	private long entryCount;
+
+	private long indexOffset;
+
+	private String[] indexPaths;
+
+	private long[] indexOffsets;
+
+	private BloomFilter bloomFilter;
+
+	private SortedRun(String fileName, FileChannel channel) {
+		this.fileName = fileName;
+		this.channel = channel;
+	}
+
+	String getFileName() {
+		return this.fileName;
+	}
+
+	long getEntryCount() {
+		return this.entryCount;
+	}
+
+	/**
+	 * Writes entries in path order to a new run file and opens it.
+	 *
+	 * @param entries       the entries, in path order
+	 * @param expectedCount about how many entries there are, to size the bloom
+	 *                      filter
+	 * @param fileName      the file to write
+	 * @return the run
+	 * @throws IOException
+	 */
+	static SortedRun write(Iterator<Map.Entry<String, LsmEntry>> entries, long expectedCount, String fileName)
+			throws IOException {
+
+		FileOutputStream fileStream = new FileOutputStream(fileName);
+		BlockChecksumOutputStream output = new BlockChecksumOutputStream(new BufferedOutputStream(fileStream, 1 << 16),
+				SnapshotChecksums.BLOCK_SIZE);
+		BloomFilter bloomFilter = new BloomFilter(expectedCount * 2);
+		ArrayList<String> indexPaths = new ArrayList<String>();
+		ArrayList<Long> indexOffsets = new ArrayList<Long>();
+		long entryCount = 0;
+
+		try {
+
+			output.write(new byte[] { 'R', 'U', 'T', 'L', VERSION });
+
+			while (entries.hasNext()) {
+
+				Map.Entry<String, LsmEntry> entry = entries.next();
+				String fullPath = entry.getKey();
+				LsmEntry lsmEntry = entry.getValue();
+
+				if (entryCount % INDEX_INTERVAL == 0) {
+					indexPaths.add(fullPath);
+					indexOffsets.add(output.getCount());
+				}
+
+				BinarySnapshot.writeString(output, fullPath);
+				output.write((lsmEntry.hasValue() ? HAS_VALUE : 0) | (lsmEntry.deletesSubtree() ? DELETES_SUBTREE : 0));
+
+				if (lsmEntry.hasValue()) {
+					BinarySnapshot.writeString(output, lsmEntry.getValue());
+				}
+
+				bloomFilter.add(fullPath);
+				bloomFilter.add(SegmentStore.segmentOf(fullPath));
+				entryCount++;
+			}
+
+			DataOutputStream dataOutput = new DataOutputStream(output);
+
+			long indexOffset = output.getCount();
+			BinarySnapshot.writeVarint(output, indexPaths.size());
+
+			for (int i = 0; i < indexPaths.size(); i++) {
+				BinarySnapshot.writeString(output, indexPaths.get(i));
+				dataOutput.writeLong(indexOffsets.get(i));
+			}
+
+			long bloomOffset = output.getCount();
+			BinarySnapshot.writeVarint(output, bloomFilter.getHashCount());
+			BinarySnapshot.writeVarint(output, bloomFilter.getBits().length);
+
+			for (long bits : bloomFilter.getBits()) {
+				dataOutput.writeLong(bits);
+			}
+
+			dataOutput.flush();
+
+			long checksumOffset = output.getCount();
+			output.getChecksums().writeTable(output);
+
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_LENGTH);
+			footer.putLong(indexOffset);
+			footer.putLong(bloomOffset);
+			footer.putLong(checksumOffset);
+			footer.putLong(entryCount);
+			footer.putInt(MAGIC);
+			output.write(footer.array());
+			output.flush();
+
+			fileStream.getChannel().force(true);
+
+		} finally {
+			output.close();
+		}
+
+		return SortedRun.open(fileName, false);
+	}
+
+	/**
+	 * Opens a run file, reading its index and bloom filter into memory.
+	 *
+	 * @param fileName the run file
+	 * @param verify   true to check every block against its checksum first
+	 * @return the run
+	 * @throws IOException
+	 */
+	static SortedRun open(String fileName, boolean verify) throws IOException {
+
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		SortedRun run = new SortedRun(fileName, channel);
+
+		try {
+
+			run.readMetadata(verify);
+
+		} catch (IOException e) {
+
+			channel.close();
+			throw e;
+		}
+
+		return run;
+	}
+
+	/**
+	 * Returns false if the run certainly holds nothing at a path or, for a branch,
+	 * below it.
+	 *
+	 * @param fullPath a full path or a branch
+	 * @return true if the run might hold the path
+	 */
+	boolean mightContain(String fullPath) {
+		return this.bloomFilter.mightContain(fullPath);
+	}
+
+	/**
+	 * Looks up the entry at a path.
+	 *
+	 * @param fullPath the full path
+	 * @return the entry, or null if the run holds nothing at the path
+	 * @throws IOException
+	 */
+	LsmEntry get(String fullPath) throws IOException {
+
+		if (!this.mightContain(fullPath)) {
+			return null;
+		}
+
+		Scanner scanner = new Scanner(fullPath, 4096);
+
+		if (scanner.hasNext()) {
+
+			Map.Entry<String, LsmEntry> entry = scanner.next();
+
+			if (entry.getKey().equals(fullPath)) {
+				return entry.getValue();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the entries from a path onward, in path order. The iterator throws
+	 * UncheckedIOException if the run cannot be read.
+	 *
+	 * @param fromPath the first path, the empty path for every entry
+	 * @return the entries
+	 */
+	Iterator<Map.Entry<String, LsmEntry>> scan(String fromPath) {
+
+		try {
+			return new Scanner(fromPath, SCAN_BUFFER_SIZE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	void close() {
+
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			/* The run is being dropped, there is nothing left to read from it */
+		}
+	}
+
+	void delete() {
+
+		this.close();
+		new File(this.fileName).delete();
+	}
+
+	private void readMetadata(boolean verify) throws IOException {
+
+		long fileLength = this.channel.size();
+
+		if (fileLength < HEADER_LENGTH + FOOTER_LENGTH) {
+			throw new IOException("\"" + this.fileName + "\" is not a complete sorted run.");
+		}
+
+		ByteBuffer footer = ByteBuffer.allocate(FOOTER_LENGTH);
+		this.channel.read(footer, fileLength - FOOTER_LENGTH);
+
+		this.indexOffset = footer.getLong(0);
+		long bloomOffset = footer.getLong(8);
+		long checksumOffset = footer.getLong(16);
+		this.entryCount = footer.getLong(24);
+
+		if (footer.getInt(32) != MAGIC || this.indexOffset < HEADER_LENGTH || bloomOffset < this.indexOffset
+				|| checksumOffset < bloomOffset || checksumOffset > fileLength - FOOTER_LENGTH) {
+			throw new IOException("\"" + this.fileName + "\" is not a complete sorted run.");
+		}
+
+		if (verify) {
+
+			SnapshotChecksums checksums = SnapshotChecksums.readTable(this.channel, checksumOffset, this.fileName);
+
+			if (checksums.getContentLength() != checksumOffset) {
+				throw new IOException("The checksum table of \"" + this.fileName + "\" is corrupt.");
+			}
+
+			checksums.verify(this.channel, this.fileName);
+		}
+
+		ChannelInput input = new ChannelInput(this.channel);
+
+		input.seek(this.indexOffset);
+		int indexCount = input.readVarint();
+		this.indexPaths = new String[indexCount];
+		this.indexOffsets = new long[indexCount];
+
+		for (int i = 0; i < indexCount; i++) {
+			this.indexPaths[i] = input.readString();
+			this.indexOffsets[i] = input.readLong();
+		}
+
+		input.seek(bloomOffset);
+		int hashCount = input.readVarint();
+		long[] bits = new long[input.readVarint()];
+
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = input.readLong();
+		}
+
+		this.bloomFilter = new BloomFilter(bits, hashCount);
+	}
+
+	/* Reads entries in order, starting at the first one at or after a path */
+	private class Scanner implements Iterator<Map.Entry<String, LsmEntry>> {
+
+		private ChannelInput input;
+
+		private Map.Entry<String, LsmEntry> nextEntry;
+
+		Scanner(String fromPath, int bufferSize) throws IOException {
+
+			this.input = new ChannelInput(channel, bufferSize);
+
+			/* Start at the last indexed entry before the path */
+			int index = Arrays.binarySearch(indexPaths, fromPath, LsmEntry.PATH_ORDER);
+
+			if (index < 0) {
+				index = Math.max(0, -index - 2);
+			}
+
+			this.input.seek(indexPaths.length == 0 ? HEADER_LENGTH : indexOffsets[index]);
+			this.readNext();
+
+			while (this.nextEntry != null && LsmEntry.PATH_ORDER.compare(this.nextEntry.getKey(), fromPath) < 0) {
+				this.readNext();
+			}
+		}
+
+		public boolean hasNext() {
+			return this.nextEntry != null;
+		}
+
+		public Map.Entry<String, LsmEntry> next() {
+
+			if (this.nextEntry == null) {
+				throw new NoSuchElementException();
+			}
+
+			Map.Entry<String, LsmEntry> entry = this.nextEntry;
+
+			try {
+				this.readNext();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			return entry;
+		}
+
+		private void readNext() throws IOException {
+
+			if (this.input.getPosition() >= indexOffset) {
+
+				this.nextEntry = null;
+				return;
+			}
+
+			String fullPath = this.input.readString();
+			byte flags = this.input.readByte();
+			String value = ((flags & HAS_VALUE) != 0) ? this.input.readString() : null;
+
+			this.nextEntry = new AbstractMap.SimpleImmutableEntry<String, LsmEntry>(fullPath,
+					(value == null && (flags & DELETES_SUBTREE) != 0) ? LsmEntry.TOMBSTONE
+							: new LsmEntry(value, (flags & DELETES_SUBTREE) != 0));
+		}
+	}
+
+}
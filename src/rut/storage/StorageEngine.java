@@ -0,0 +1,171 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+A Storage Engine keeps the database in permanent storage. The Server, the
+Interpreter, the Shell and the Checkpointer only talk to permanent storage
+through this interface, so the engine can be chosen when the server starts,
+see StorageEngineFactory.
+
+The life of a storage engine is as follows:
+
+* readDataMapFromDisk() loads the database, recovering any changes that were
+  saved but not yet part of the last snapshot, and attach() is then called with
+  the MemoryStorage built on the dataMap it returned
+* after each statement, writeMutationsToLog() saves the statement's changes and
+  waitForLog() returns once they are durable
+* checkpoint() folds the saved changes into a new snapshot while statements
+  carry on, and writeDataMapToDisk() writes a whole snapshot at once
+* readUidHighWaterMark() and saveUidHighWaterMark() keep the high-water mark
+  of the ids handed out by Newid next to the database, outside its node tree
+* close() releases the engine once the server is shut down
+
+*/
+
+package rut.storage;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public interface StorageEngine {
+
+	/**
+	 * Reads the database into a new dataMap, including every change saved before
+	 * the server went down.
+	 *
+	 * @return the dataMap
+	 */
+	public ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> readDataMapFromDisk();
+
+	/**
+	 * Attaches the engine to the MemoryStorage built on the dataMap returned by
+	 * readDataMapFromDisk().
+	 *
+	 * @param memory the MemoryStorage attached to the database
+	 */
+	public void attach(MemoryStorage memory);
+
+	/**
+	 * Writes the whole database as a new snapshot, after which no saved change
+	 * has to be recovered from anywhere else.
+	 *
+	 * @param dataMap the dataMap
+	 */
+	public void writeDataMapToDisk(ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap);
+
+	/**
+	 * Saves the mutations of a statement. The changes are not durable until
+	 * waitForLog returns.
+	 *
+	 * @param mutations the mutations to save, in the order they were made
+	 * @return the position to pass to waitForLog
+	 */
+	public long writeMutationsToLog(ArrayList<Mutation> mutations);
+
+	/**
+	 * Records mutations that are not saved by writeMutationsToLog (e.g. those of
+	 * a script), so that the next writeDataMapToDisk includes them.
+	 *
+	 * @param mutations the mutations made
+	 */
+	public void markDirty(ArrayList<Mutation> mutations);
+
+	/**
+	 * Waits until the mutations saved up to a position are durable.
+	 *
+	 * @param logPosition the position returned by writeMutationsToLog
+	 */
+	public void waitForLog(long logPosition);
+
+	/**
+	 * Folds the mutations saved since the last checkpoint into a new snapshot.
+	 * Statements may carry on while the snapshot is written, they are only held up
+	 * while the database is captured under the dataMap lock.
+	 *
+	 * @param memory the MemoryStorage attached to the database
+	 */
+	public void checkpoint(MemoryStorage memory);
+
+	/**
+	 * Returns the number of bytes of saved mutations a checkpoint would fold in.
+	 *
+	 * @return the length of the log
+	 */
+	public long getLogLength();
+
+	public long getMutationsSinceCheckpoint();
+
+	public long getLastCheckpointTime();
+
+	/**
+	 * Returns a line describing how saved mutations have been made durable, for
+	 * the shell.
+	 *
+	 * @return the statistics
+	 */
+	public String getDurabilityStatistics();
+
+	/**
+	 * Returns true if the engine only serves the database as it is, in which case
+	 * the Interpreter only accepts statements that do not change it.
+	 *
+	 * @return true if the database cannot be changed
+	 */
+	public boolean isReadOnly();
+
+	/**
+	 * Returns the file the Newid high-water mark is kept in, see UidMarkFile.
+	 *
+	 * @return the file name
+	 */
+	public String getUidMarkFileName();
+
+	/**
+	 * Reads the high-water mark of the ids handed out by Newid.
+	 *
+	 * @return the mark, or -1 if none has been saved
+	 */
+	public default long readUidHighWaterMark() {
+		return UidMarkFile.read(this.getUidMarkFileName());
+	}
+
+	/**
+	 * Saves the high-water mark of the ids handed out by Newid, durably, before
+	 * any id below it is used. Nothing is saved for a read-only database.
+	 *
+	 * @param highWaterMark the mark
+	 */
+	public default void saveUidHighWaterMark(long highWaterMark) {
+
+		if (!this.isReadOnly()) {
+			UidMarkFile.save(this.getUidMarkFileName(), highWaterMark);
+		}
+	}
+
+	/**
+	 * Makes every saved mutation durable and releases the engine.
+	 */
+	public void close();
+
+}
@@ -0,0 +1,90 @@
+package rut.storage;
+
+import rut.Definitions;
+import rut.DiskStorage;
+
+/**
+ * Creates the storage engine chosen when the server starts. Each engine is
+ * configured from the system properties that apply to it, falling back to the
+ * defaults in Definitions.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public class StorageEngineFactory {
+
+	public static StorageEngine createStorageEngine(String engineName, String storageFileName) {
+
+		switch (engineName) {
+
+		case "disk":
+			return createDiskStorage(storageFileName);
+
+		case "lsm":
+			return createLsmStorage(storageFileName);
+
+		case "pages":
+			return createPageStorage(storageFileName);
+
+		default:
+			throw new IllegalArgumentException("Unknown storage engine " + engineName + ".");
+		}
+	}
+
+	/* master.database with a write-ahead log, in either snapshot format and optionally in segments */
+	private static DiskStorage createDiskStorage(String storageFileName) {
+
+		DiskStorage disk = new DiskStorage(storageFileName,
+				System.getProperty("rut.log.syncMode", Definitions.logSyncMode),
+				Long.getLong("rut.log.groupDelayMicros", Definitions.logGroupDelayMicros),
+				Long.getLong("rut.log.asyncIntervalMillis", Definitions.logAsyncIntervalMillis));
+
+		disk.setSnapshotFormat(System.getProperty("rut.snapshot.format", Definitions.snapshotFormat));
+		disk.setSegmented(Boolean.parseBoolean(
+				System.getProperty("rut.snapshot.segmented", String.valueOf(Definitions.snapshotSegmented))));
+		disk.setLazyLoading(
+				Boolean.parseBoolean(
+						System.getProperty("rut.segments.lazy", String.valueOf(Definitions.segmentLazyLoading))),
+				Integer.getInteger("rut.segments.cacheSize", Definitions.segmentCacheSize),
+				Double.parseDouble(System.getProperty("rut.segments.heapThreshold",
+						String.valueOf(Definitions.segmentHeapThreshold))));
+
+		return disk;
+	}
+
+	/* A log-structured merge tree of sorted runs, kept next to master.database */
+	private static LsmStorage createLsmStorage(String storageFileName) {
+
+		LsmStorage lsm = new LsmStorage(storageFileName,
+				System.getProperty("rut.log.syncMode", Definitions.logSyncMode),
+				Long.getLong("rut.log.groupDelayMicros", Definitions.logGroupDelayMicros),
+				Long.getLong("rut.log.asyncIntervalMillis", Definitions.logAsyncIntervalMillis),
+				Integer.getInteger("rut.lsm.compactionRuns", Definitions.lsmCompactionRuns),
+				Integer.getInteger("rut.lsm.compactionThreads", Definitions.lsmCompactionThreads));
+
+		lsm.setLazyLoading(
+				Boolean.parseBoolean(System.getProperty("rut.lsm.lazy", String.valueOf(Definitions.lsmLazyLoading))),
+				Integer.getInteger("rut.segments.cacheSize", Definitions.segmentCacheSize),
+				Double.parseDouble(System.getProperty("rut.segments.heapThreshold",
+						String.valueOf(Definitions.segmentHeapThreshold))));
+
+		return lsm;
+	}
+
+	/* Copy-on-write B+trees in a single memory-mapped page file, optionally served read-only */
+	private static PageStorage createPageStorage(String storageFileName) {
+
+		PageStorage pages = new PageStorage(storageFileName,
+				Boolean.parseBoolean(
+						System.getProperty("rut.pages.readOnly", String.valueOf(Definitions.pagesReadOnly))),
+				System.getProperty("rut.log.syncMode", Definitions.logSyncMode),
+				Long.getLong("rut.log.groupDelayMicros", Definitions.logGroupDelayMicros),
+				Long.getLong("rut.log.asyncIntervalMillis", Definitions.logAsyncIntervalMillis));
+
+		pages.setCacheLimits(Integer.getInteger("rut.segments.cacheSize", Definitions.segmentCacheSize),
+				Double.parseDouble(System.getProperty("rut.segments.heapThreshold",
+						String.valueOf(Definitions.segmentHeapThreshold))));
+
+		return pages;
+	}
+}
@@ -0,0 +1,30 @@
+package rut.storage;
+
+import java.util.ArrayList;
+
+import rut.Node;
+
+/**
+ * Loads the children of stub nodes, nodes whose subtree has been left on disk.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public interface SubtreeLoader {
+
+	/**
+	 * Loads the children of a stub node. Once loaded, the node is no longer a stub.
+	 *
+	 * @param stub the stub node
+	 */
+	public void loadSubtree(Node stub);
+
+	/**
+	 * Starts reading the subtrees of stub nodes in the background, ahead of a
+	 * traversal reaching them.
+	 *
+	 * @param stubs the stub nodes
+	 */
+	public void readAhead(ArrayList<Node> stubs);
+
+}
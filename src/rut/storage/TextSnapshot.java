@@ -0,0 +1,439 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+Text Snapshot reads and writes master.database files in the text format.
+
+A text snapshot is written with a trailer line of block checksums, see
+SnapshotChecksums. When a snapshot is read, its blocks are verified against the
+trailer before anything is parsed, and lines starting with '#' are skipped.
+
+The file is read on every available core, in two passes:
+
+1. The file is divided into chunks that end on a line break. Each chunk is
+   memory mapped and parsed on the fork-join pool into nodes, and every node is
+   registered in a table keyed by its full path.
+2. Each node is linked to its parent, which is looked up in the full path table
+   by dropping the last name from the node's path. The linking is done on the
+   fork-join pool as well.
+
+Neither pass searches the dataMap, and because every parent is found in the
+table, the lines of the file do not have to be in any particular order.
+
+A line whose parent is not in the file is reported and skipped, along with the
+lines below it. Only a snapshot that fails its checksums is rejected.
+
+*/
+
+package rut.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import rut.MemoryStorage;
+import rut.Node;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class TextSnapshot {
+
+	/* The size a chunk is cut at, before it is extended to the next line break */
+	private static final int CHUNK_SIZE = 8 << 20;
+
+	/* A rough guess of the bytes per line, used to size the full path table */
+	private static final int BYTES_PER_LINE = 40;
+
+	private String fileName;
+
+	private FileChannel channel;
+
+	/* chunkStarts[i] to chunkStarts[i + 1] is the byte range of chunk i */
+	private long[] chunkStarts;
+
+	/* The full paths and nodes parsed from each chunk, in file order */
+	private String[][] chunkPaths;
+
+	private Node[][] chunkNodes;
+
+	private ConcurrentHashMap<String, Node> nodesByPath;
+
+	/* The nodes of the lines whose parent is not in the file, by full path */
+	private ConcurrentHashMap<String, Node> orphans;
+
+	private Node rootNode;
+
+	private MemoryStorage memory;
+
+	private TextSnapshot(String fileName, FileChannel channel) {
+		this.fileName = fileName;
+		this.channel = channel;
+	}
+
+	/**
+	 * Writes the node tree below rootNode to a text snapshot. The tree must not
+	 * change while it is written, either hold the dataMap lock or pass a copy.
+	 *
+	 * @param rootNode the root of the node tree, which is not written itself
+	 * @param fileName the file to write
+	 * @throws IOException
+	 */
+	public static void write(Node rootNode, String fileName) throws IOException {
+
+		ArrayList<String> lines = new ArrayList<String>();
+
+		TextSnapshot.addLines(lines, "", rootNode);
+		TextSnapshot.write(MemoryStorage.sortDataMapLines(lines), fileName);
+	}
+
+	/**
+	 * Writes the text of a snapshot, followed by its checksum trailer, and forces
+	 * the file to the disk.
+	 *
+	 * @param fileText the snapshot text, as returned by MemoryStorage.dumpDataMap
+	 * @param fileName the file to write
+	 * @throws IOException
+	 */
+	public static void write(String fileText, String fileName) throws IOException {
+
+		FileOutputStream fileStream = new FileOutputStream(fileName);
+		BlockChecksumOutputStream checksumStream = new BlockChecksumOutputStream(
+				new BufferedOutputStream(fileStream, 1 << 16), SnapshotChecksums.BLOCK_SIZE);
+		BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(checksumStream, StandardCharsets.UTF_8));
+
+		try {
+
+			fileWriter.write(fileText);
+			fileWriter.flush();
+
+			String trailer = "\n" + checksumStream.getChecksums().toTrailer() + "\n";
+
+			fileWriter.write(trailer);
+			fileWriter.flush();
+			fileStream.getChannel().force(true);
+
+		} finally {
+			fileWriter.close();
+		}
+	}
+
+	/**
+	 * Reads a text snapshot into a new dataMap.
+	 *
+	 * @param fileName the snapshot file
+	 * @return the dataMap, in the same form DiskStorage.readDataMapFromDisk returns
+	 * @throws IOException
+	 */
+	public static ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> read(String fileName)
+			throws IOException {
+
+		if (!new File(fileName).isFile()) {
+			throw new FileNotFoundException(fileName);
+		}
+
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+			TextSnapshot loader = new TextSnapshot(fileName, channel);
+
+			return loader.load();
+
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/* Adds a path:value line for every node below the node at parentPath */
+	private static void addLines(ArrayList<String> lines, String parentPath, Node parentNode) {
+
+		for (String childName : parentNode.getChildren().keySet()) {
+
+			Node child = parentNode.getChild(childName);
+
+			if (child != null) {
+
+				String fullPath = parentPath.isEmpty() ? childName : parentPath + "." + childName;
+
+				lines.add(fullPath + ":" + child.getValue());
+				TextSnapshot.addLines(lines, fullPath, child);
+			}
+		}
+	}
+
+	private ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> load() throws IOException {
+
+		long fileLength = this.channel.size();
+		SnapshotChecksums checksums = SnapshotChecksums.readTrailer(this.channel, this.fileName);
+
+		/* A corrupt snapshot is rejected before any of it is parsed */
+		if (checksums != null) {
+			checksums.verify(this.channel, this.fileName);
+			fileLength = checksums.getContentLength();
+		}
+
+		this.chunkStarts = this.findChunkStarts(fileLength);
+
+		int chunkCount = this.chunkStarts.length - 1;
+
+		this.chunkPaths = new String[chunkCount][];
+		this.chunkNodes = new Node[chunkCount][];
+		this.nodesByPath = new ConcurrentHashMap<String, Node>((int) Math.min(fileLength / BYTES_PER_LINE + 16,
+				Integer.MAX_VALUE >> 1));
+
+		ConcurrentHashMap<String, ConcurrentHashMap<String, Node>> dataMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Node>>();
+		ConcurrentHashMap<String, Node> rootRecord = new ConcurrentHashMap<String, Node>();
+
+		this.rootNode = new Node();
+		rootRecord.put("", this.rootNode);
+		dataMap.put("", rootRecord);
+		this.memory = new MemoryStorage(dataMap);
+		this.orphans = new ConcurrentHashMap<String, Node>();
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+
+		pool.invoke(new ChunkTask(0, chunkCount, false));
+		pool.invoke(new ChunkTask(0, chunkCount, true));
+
+		/* The lines below a skipped line were linked to it, they are dropped with it */
+		for (String fullPath : this.orphans.keySet()) {
+			this.memory.removeSubtreeDataMap(this.orphans.get(fullPath), fullPath);
+		}
+
+		return dataMap;
+	}
+
+	/*
+	 * Cuts the file every CHUNK_SIZE bytes and moves each cut forward to the start
+	 * of the next line. The last entry is the file length.
+	 */
+	private long[] findChunkStarts(long fileLength) throws IOException {
+
+		ArrayList<Long> starts = new ArrayList<Long>();
+		ByteBuffer scanBuffer = ByteBuffer.allocate(1 << 16);
+		long position = 0;
+
+		while (position < fileLength) {
+
+			starts.add(position);
+
+			long cut = position + CHUNK_SIZE;
+
+			if (cut >= fileLength) {
+				break;
+			}
+
+			position = this.findLineStart(scanBuffer, cut, fileLength);
+		}
+
+		long[] chunkStarts = new long[starts.size() + 1];
+
+		for (int i = 0; i < starts.size(); i++) {
+			chunkStarts[i] = starts.get(i);
+		}
+
+		chunkStarts[starts.size()] = fileLength;
+
+		return chunkStarts;
+	}
+
+	/* Returns the position just past the first line break at or after position */
+	private long findLineStart(ByteBuffer scanBuffer, long position, long fileLength) throws IOException {
+
+		while (position < fileLength) {
+
+			scanBuffer.clear();
+			int bytesRead = this.channel.read(scanBuffer, position);
+
+			if (bytesRead <= 0) {
+				break;
+			}
+
+			for (int i = 0; i < bytesRead; i++) {
+
+				if (scanBuffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+
+			position += bytesRead;
+		}
+
+		return fileLength;
+	}
+
+	/* Parses the lines of a chunk into nodes and registers them by full path */
+	private void parseChunk(int chunk) throws IOException {
+
+		long start = this.chunkStarts[chunk];
+		int length = (int) (this.chunkStarts[chunk + 1] - start);
+
+		MappedByteBuffer mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		byte[] bytes = new byte[length];
+		mapped.get(bytes);
+
+		ArrayList<String> paths = new ArrayList<String>();
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		int lineStart = 0;
+
+		while (lineStart < length) {
+
+			int lineEnd = lineStart;
+			int colon = -1;
+
+			while (lineEnd < length && bytes[lineEnd] != '\n') {
+
+				if (colon < 0 && bytes[lineEnd] == ':') {
+					colon = lineEnd;
+				}
+
+				lineEnd++;
+			}
+
+			int nextLineStart = lineEnd + 1;
+
+			/* Lines may end with \r\n */
+			if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+
+			/* Blank lines and lines starting with # are skipped */
+			if (lineEnd > lineStart && bytes[lineStart] != '#') {
+
+				String fullPath;
+				String value;
+
+				if (colon < 0 || colon >= lineEnd) {
+					fullPath = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+					value = "";
+				} else {
+					fullPath = new String(bytes, lineStart, colon - lineStart, StandardCharsets.UTF_8);
+					value = new String(bytes, colon + 1, lineEnd - colon - 1, StandardCharsets.UTF_8);
+				}
+
+				Node node = new Node(value);
+
+				paths.add(fullPath);
+				nodes.add(node);
+				this.nodesByPath.put(fullPath, node);
+			}
+
+			lineStart = nextLineStart;
+		}
+
+		this.chunkPaths[chunk] = paths.toArray(new String[paths.size()]);
+		this.chunkNodes[chunk] = nodes.toArray(new Node[nodes.size()]);
+	}
+
+	/* Links the nodes of a chunk to their parents and adds them to the dataMap */
+	private void linkChunk(int chunk) {
+
+		String[] paths = this.chunkPaths[chunk];
+		Node[] nodes = this.chunkNodes[chunk];
+
+		for (int i = 0; i < paths.length; i++) {
+
+			String fullPath = paths[i];
+			int lastDot = fullPath.lastIndexOf('.');
+			Node parentNode;
+
+			if (lastDot < 0) {
+				parentNode = this.rootNode;
+			} else {
+				parentNode = this.nodesByPath.get(fullPath.substring(0, lastDot));
+			}
+
+			if (parentNode == null) {
+
+				System.out.println("Skipping " + fullPath + " in \"" + this.fileName
+						+ "\" and the nodes below it, its parent node could not be located.");
+				this.orphans.put(fullPath, nodes[i]);
+				continue;
+			}
+
+			parentNode.setChild(fullPath.substring(lastDot + 1), nodes[i]);
+			this.memory.putDataMap(nodes[i], fullPath);
+		}
+
+		/* The chunk is no longer needed */
+		this.chunkPaths[chunk] = null;
+		this.chunkNodes[chunk] = null;
+	}
+
+	/* Parses or links a range of chunks, splitting the range in half until it is one chunk */
+	private class ChunkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int firstChunk;
+
+		private int endChunk;
+
+		private boolean link;
+
+		ChunkTask(int firstChunk, int endChunk, boolean link) {
+			this.firstChunk = firstChunk;
+			this.endChunk = endChunk;
+			this.link = link;
+		}
+
+		protected void compute() {
+
+			if (this.endChunk - this.firstChunk > 1) {
+
+				int middleChunk = (this.firstChunk + this.endChunk) >>> 1;
+
+				invokeAll(new ChunkTask(this.firstChunk, middleChunk, this.link),
+						new ChunkTask(middleChunk, this.endChunk, this.link));
+
+				return;
+			}
+
+			if (this.endChunk == this.firstChunk) {
+				return;
+			}
+
+			try {
+
+				if (this.link) {
+					linkChunk(this.firstChunk);
+				} else {
+					parseChunk(this.firstChunk);
+				}
+
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package rut.storage;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+/**
+ * Keeps the high-water mark of the ids handed out by Newid in a file of its
+ * own, next to the database of a storage engine rather than in its node tree.
+ * The file is replaced as a whole and forced to the disk each time a block of
+ * ids is reserved, so no id below the mark is used before the mark is durable.
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public class UidMarkFile {
+
+	private UidMarkFile() {
+	}
+
+	/**
+	 * Reads the high-water mark.
+	 *
+	 * @param fileName the file the mark is kept in
+	 * @return the mark, or -1 if none has been saved
+	 */
+	public static long read(String fileName) {
+
+		try {
+
+			String mark = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8).trim();
+
+			return Long.parseLong(mark);
+
+		} catch (NoSuchFileException e) {
+			return -1;
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("Could not read the Newid high-water mark in \"" + fileName + "\".\n" + e.getMessage()
+					+ " Exiting...");
+			System.exit(1);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Saves the high-water mark durably.
+	 *
+	 * @param fileName      the file the mark is kept in
+	 * @param highWaterMark the mark
+	 */
+	public static void save(String fileName, long highWaterMark) {
+
+		String tempFileName = fileName + ".tmp";
+
+		try {
+
+			FileOutputStream markStream = new FileOutputStream(tempFileName);
+
+			try {
+
+				markStream.write((highWaterMark + "\n").getBytes(StandardCharsets.UTF_8));
+				markStream.getChannel().force(true);
+
+			} finally {
+				markStream.close();
+			}
+
+			AtomicFiles.replace(tempFileName, fileName);
+
+		} catch (IOException e) {
+			System.out.println("Could not save the Newid high-water mark to \"" + fileName + "\".\n" + e.getMessage()
+					+ " Exiting...");
+			System.exit(1);
+		}
+	}
+
+}
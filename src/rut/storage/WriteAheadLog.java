@@ -0,0 +1,441 @@
+/*
+Copyright 2019 Yaakov Freedman
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-
+
+The Write Ahead Log is an append-only file of the mutations made to the
+database since the last snapshot (master.database) was written.
+Instead of rewriting the entire snapshot after every statement, the mutations
+of a statement are appended to the log, so the cost of saving a statement
+depends on the size of the change and not on the size of the database.
+
+Each record in the log has the following layout:
+
+[byte operation][int path length][path][int argument length][argument][int crc32]
+
+The path and argument are UTF-8 encoded. The checksum covers every byte of the
+record that comes before it. A record that is cut short or fails its checksum
+(i.e. the server went down in the middle of appending it) marks the end of the
+log, it is discarded along with anything after it.
+
+*/
+
+package rut.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ *
+ */
+public class WriteAheadLog {
+
+	private static final byte WRITE_RECORD = 1;
+
+	private static final byte DELETE_RECORD = 2;
+
+	private static final byte RENAME_RECORD = 3;
+
+	private String logFileName;
+
+	private FileChannel logChannel;
+
+	/* The number of bytes in the log file */
+	private long length;
+
+	/*
+	 * The number of bytes ever appended, and how many of them are known to be on
+	 * the disk. Unlike length, these positions are never reset, so a statement can
+	 * wait for its position to become durable across a truncate or rotate.
+	 */
+	private long appendedPosition;
+
+	private volatile long durablePosition;
+
+	/* Held while forcing the log, so the channel is not closed in the middle of it */
+	private Object forceLock;
+
+	/* Told whenever the durable position moves, see setDurableListener */
+	private volatile Runnable durableListener;
+
+	/**
+	 * Construct a WriteAheadLog object. The log file is not opened until the first
+	 * mutation is appended to it.
+	 *
+	 * @param logFileName full path of the log file
+	 */
+	public WriteAheadLog(String logFileName) {
+		this.logFileName = logFileName;
+		this.length = new File(logFileName).length();
+		this.forceLock = new Object();
+	}
+
+	public String getLogFileName() {
+		return this.logFileName;
+	}
+
+	public synchronized long getLength() {
+		return this.length;
+	}
+
+	public synchronized long getAppendedPosition() {
+		return this.appendedPosition;
+	}
+
+	public long getDurablePosition() {
+		return this.durablePosition;
+	}
+
+	/**
+	 * Sets what is told each time the durable position moves, whether the log was
+	 * forced or closed by a truncate or rotate. It is told once the log is no
+	 * longer locked, so it may take locks of its own that are held while reading
+	 * the positions of the log.
+	 *
+	 * @param durableListener the listener, or null for none
+	 */
+	public void setDurableListener(Runnable durableListener) {
+		this.durableListener = durableListener;
+	}
+
+	/**
+	 * Appends the mutations to the end of the log file. The records are handed to
+	 * the operating system in a single write, but are not forced to the disk.
+	 *
+	 * @param mutations the mutations to append, in the order they were made
+	 * @return the appended position once the mutations are written, pass it to
+	 *         force() or compare it to getDurablePosition()
+	 * @throws IOException
+	 */
+	public synchronized long append(ArrayList<Mutation> mutations) throws IOException {
+
+		if (mutations.isEmpty()) {
+			return this.appendedPosition;
+		}
+
+		if (this.logChannel == null) {
+			this.logChannel = FileChannel.open(Paths.get(this.logFileName), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+		int recordsLength = 0;
+
+		for (Mutation mutation : mutations) {
+
+			byte[] record = this.encodeRecord(mutation);
+			records.add(record);
+			recordsLength += record.length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(recordsLength);
+
+		for (byte[] record : records) {
+			buffer.put(record);
+		}
+
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			this.logChannel.write(buffer);
+		}
+
+		this.length += recordsLength;
+		this.appendedPosition += recordsLength;
+
+		return this.appendedPosition;
+	}
+
+	/**
+	 * Forces everything appended so far to the disk. Appends are not held up while
+	 * the log is being forced, anything they add is picked up by the next force.
+	 *
+	 * @return the durable position
+	 * @throws IOException
+	 */
+	public long force() throws IOException {
+
+		long durablePosition;
+
+		synchronized (this.forceLock) {
+
+			FileChannel channel;
+			long position;
+
+			synchronized (this) {
+				channel = this.logChannel;
+				position = this.appendedPosition;
+			}
+
+			if (channel != null && position > this.durablePosition) {
+				channel.force(false);
+			}
+
+			if (position > this.durablePosition) {
+				this.durablePosition = position;
+			}
+
+			durablePosition = this.durablePosition;
+		}
+
+		this.publishDurablePosition();
+
+		return durablePosition;
+	}
+
+	/**
+	 * Reads every complete record from the log file. If a torn or corrupt record
+	 * is found, the log is truncated so that only the complete records remain.
+	 *
+	 * @return the mutations in the log, in the order they were appended
+	 * @throws IOException
+	 */
+	public synchronized ArrayList<Mutation> readMutations() throws IOException {
+
+		ArrayList<Mutation> mutations = new ArrayList<Mutation>();
+		File logFile = new File(this.logFileName);
+
+		if (!logFile.exists()) {
+			return mutations;
+		}
+
+		long logLength = logFile.length();
+		long validLength = 0;
+		DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+
+		try {
+
+			while (validLength < logLength) {
+
+				byte operationCode = inputStream.readByte();
+				byte[] path = this.readField(inputStream, logLength - validLength);
+				byte[] argument = this.readField(inputStream, logLength - validLength);
+
+				if (path == null || argument == null
+						|| inputStream.readInt() != this.checksum(operationCode, path, argument)) {
+					break;
+				}
+
+				String operation = this.decodeOperation(operationCode);
+
+				if (operation == null) {
+					break;
+				}
+
+				mutations.add(new Mutation(operation, new String(path, StandardCharsets.UTF_8),
+						new String(argument, StandardCharsets.UTF_8)));
+				validLength += 13 + path.length + argument.length;
+			}
+
+		} catch (EOFException e) {
+			/* A record that was only partially written */
+		} finally {
+			inputStream.close();
+		}
+
+		if (validLength < logFile.length()) {
+
+			System.out.println("Discarding an incomplete record at the end of the log file \"" + this.logFileName
+					+ "\".");
+
+			RandomAccessFile truncatedFile = new RandomAccessFile(logFile, "rw");
+			truncatedFile.setLength(validLength);
+			truncatedFile.close();
+		}
+
+		this.length = validLength;
+
+		return mutations;
+	}
+
+	/**
+	 * Empties the log. Called once a new snapshot containing every logged mutation
+	 * has been written.
+	 *
+	 * @throws IOException
+	 */
+	public void truncate() throws IOException {
+
+		synchronized (this.forceLock) {
+			synchronized (this) {
+
+				this.closeChannel();
+				new FileOutputStream(this.logFileName).close();
+				this.length = 0;
+			}
+		}
+
+		this.publishDurablePosition();
+	}
+
+	/**
+	 * Moves the current log file aside so that a checkpoint can be taken. The
+	 * moved log holds every mutation up to the checkpoint, and new mutations are
+	 * appended to a fresh log file.
+	 *
+	 * @param rotatedLogFileName the name to move the current log file to
+	 * @throws IOException
+	 */
+	public void rotate(String rotatedLogFileName) throws IOException {
+
+		synchronized (this.forceLock) {
+			synchronized (this) {
+
+				this.closeChannel();
+
+				Path logPath = Paths.get(this.logFileName);
+
+				if (Files.exists(logPath)) {
+					Files.move(logPath, Paths.get(rotatedLogFileName), StandardCopyOption.ATOMIC_MOVE);
+				}
+
+				this.length = 0;
+			}
+		}
+
+		this.publishDurablePosition();
+	}
+
+	/**
+	 * Forces and closes the log file. The file is opened again by the next append.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+
+		synchronized (this.forceLock) {
+			synchronized (this) {
+				this.closeChannel();
+			}
+		}
+
+		this.publishDurablePosition();
+	}
+
+	/* Forces and closes the log file, with the log locked, everything appended is then durable */
+	private void closeChannel() throws IOException {
+
+		if (this.logChannel != null) {
+			this.logChannel.force(false);
+			this.logChannel.close();
+			this.logChannel = null;
+		}
+
+		this.durablePosition = this.appendedPosition;
+	}
+
+	private void publishDurablePosition() {
+
+		Runnable listener = this.durableListener;
+
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+	/*
+	 * Reads a length prefixed field of a record. Returns null if the length can't
+	 * possibly be valid, which happens when the record is corrupt.
+	 */
+	private byte[] readField(DataInputStream inputStream, long remainingLength) throws IOException {
+
+		int fieldLength = inputStream.readInt();
+
+		if (fieldLength < 0 || fieldLength > remainingLength) {
+			return null;
+		}
+
+		byte[] field = new byte[fieldLength];
+		inputStream.readFully(field);
+
+		return field;
+	}
+
+	private byte[] encodeRecord(Mutation mutation) {
+
+		byte operationCode = this.encodeOperation(mutation.getOperation());
+		byte[] path = mutation.getFullPath().getBytes(StandardCharsets.UTF_8);
+		byte[] argument = mutation.getArgument().getBytes(StandardCharsets.UTF_8);
+
+		ByteBuffer record = ByteBuffer.allocate(13 + path.length + argument.length);
+		record.put(operationCode);
+		record.putInt(path.length);
+		record.put(path);
+		record.putInt(argument.length);
+		record.put(argument);
+		record.putInt(this.checksum(operationCode, path, argument));
+
+		return record.array();
+	}
+
+	private int checksum(byte operationCode, byte[] path, byte[] argument) {
+
+		CRC32 crc = new CRC32();
+		crc.update(operationCode);
+		crc.update(ByteBuffer.allocate(4).putInt(0, path.length));
+		crc.update(path);
+		crc.update(ByteBuffer.allocate(4).putInt(0, argument.length));
+		crc.update(argument);
+
+		return (int) crc.getValue();
+	}
+
+	private byte encodeOperation(String operation) {
+
+		switch (operation) {
+		case Mutation.WRITE:
+			return WRITE_RECORD;
+		case Mutation.DELETE:
+			return DELETE_RECORD;
+		case Mutation.RENAME:
+			return RENAME_RECORD;
+		default:
+			throw new IllegalArgumentException("Unknown mutation " + operation + ".");
+		}
+	}
+
+	private String decodeOperation(byte operationCode) {
+
+		switch (operationCode) {
+		case WRITE_RECORD:
+			return Mutation.WRITE;
+		case DELETE_RECORD:
+			return Mutation.DELETE;
+		case RENAME_RECORD:
+			return Mutation.RENAME;
+		default:
+			return null;
+		}
+	}
+
+}
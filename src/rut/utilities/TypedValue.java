@@ -0,0 +1,259 @@
+package rut.utilities;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
+/**
+ * The value of a node whose rule set declares its type as integer, decimal,
+ * date, time or boolean, kept as a primitive rather than as text: a long for
+ * integers, the bits of a double for decimals, the epoch day for dates, the
+ * nanosecond of the day for times and 0 or 1 for booleans. Typed values are
+ * compared without parsing, the text is only produced when the value is output.
+ * 
+ * A value is only kept typed if its text can be produced again exactly as it was
+ * written, so reading a typed node always returns what was written to it.
+ * 
+ * @author Yaakov Freedman
+ * @version dev 0.2
+ */
+public final class TypedValue implements Comparable<TypedValue> {
+
+	private static final byte INTEGER = 1;
+
+	private static final byte DECIMAL = 2;
+
+	private static final byte DATE = 3;
+
+	private static final byte TIME = 4;
+
+	private static final byte BOOLEAN = 5;
+
+	/* The date format of Definitions.dateFormat, MM/dd/yyyy */
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/uuuu")
+			.withResolverStyle(ResolverStyle.STRICT);
+
+	private final byte type;
+
+	private final long bits;
+
+	private TypedValue(byte type, long bits) {
+		this.type = type;
+		this.bits = bits;
+	}
+
+	/**
+	 * Converts the text of a value to a typed value.
+	 * 
+	 * @param value the value as text
+	 * @param type  the type declared by the value's rule set
+	 * @return the typed value, or null if the type is text or the value cannot be
+	 *         kept typed
+	 */
+	public static TypedValue of(String value, String type) {
+
+		TypedValue typedValue = parse(value, type);
+
+		/* Values such as 007 or 1.50 are left as text so that they are read back as written */
+		return (typedValue != null && typedValue.toString().equals(value)) ? typedValue : null;
+	}
+
+	/**
+	 * Reads the text of a value as a value of a type, like of, but also reads
+	 * values such as 007 or 1.50 whose text is not produced again exactly, so
+	 * that they can be compared with the values of the type.
+	 * 
+	 * @param value the value as text
+	 * @param type  the type declared by the value's rule set
+	 * @return the typed value, or null if the type is text or the value is not a
+	 *         value of the type
+	 */
+	public static TypedValue parse(String value, String type) {
+
+		if (value == null || value.isEmpty() || type == null) {
+			return null;
+		}
+
+		TypedValue typedValue;
+
+		try {
+
+			switch (type) {
+
+			case "integer":
+				typedValue = new TypedValue(INTEGER, Integer.parseInt(value));
+				break;
+
+			case "decimal":
+				typedValue = new TypedValue(DECIMAL, Double.doubleToLongBits(Double.parseDouble(value)));
+				break;
+
+			case "date":
+				typedValue = new TypedValue(DATE, LocalDate.parse(value, DATE_FORMAT).toEpochDay());
+				break;
+
+			case "time":
+				typedValue = new TypedValue(TIME, LocalTime.parse(value).toNanoOfDay());
+				break;
+
+			case "boolean":
+
+				if (!value.equals("true") && !value.equals("false")) {
+					return null;
+				}
+
+				typedValue = new TypedValue(BOOLEAN, value.equals("true") ? 1 : 0);
+				break;
+
+			default:
+				return null;
+			}
+
+		} catch (NumberFormatException | DateTimeParseException e) {
+			return null;
+		}
+
+		return typedValue;
+	}
+
+	/**
+	 * Returns the type of the value as it is named in rules.
+	 * 
+	 * @return integer, decimal, date, time or boolean
+	 */
+	public String getType() {
+
+		switch (this.type) {
+		case INTEGER:
+			return "integer";
+		case DECIMAL:
+			return "decimal";
+		case DATE:
+			return "date";
+		case TIME:
+			return "time";
+		default:
+			return "boolean";
+		}
+	}
+
+	/**
+	 * Makes a value of a type from the primitive returned by getBits, so that the
+	 * values of a type can be kept together in a long[].
+	 * 
+	 * @param type the type, integer, decimal, date, time or boolean
+	 * @param bits the primitive
+	 * @return the typed value, or null if the type is text
+	 */
+	public static TypedValue fromBits(String type, long bits) {
+
+		byte typeCode = typeCode(type);
+
+		return (typeCode == 0) ? null : new TypedValue(typeCode, bits);
+	}
+
+	/**
+	 * Returns the primitive the value is kept as, see fromBits.
+	 * 
+	 * @return the primitive
+	 */
+	public long getBits() {
+		return this.bits;
+	}
+
+	/**
+	 * Compares two values of the same type. Decimals compare as doubles do, so
+	 * 0.0 and -0.0 are equal and NaN is neither less nor greater than any value,
+	 * as when they are compared as text. Booleans compare false before true.
+	 * 
+	 * @param other the value to compare to, of the same type
+	 * @return a negative number, zero or a positive number as this value is less
+	 *         than, equal to or greater than the other
+	 */
+	public int compareTo(TypedValue other) {
+
+		if (this.type == DECIMAL) {
+
+			double value = Double.longBitsToDouble(this.bits);
+			double otherValue = Double.longBitsToDouble(other.bits);
+
+			return (value < otherValue) ? -1 : ((value > otherValue) ? 1 : 0);
+		}
+
+		return Long.compare(this.bits, other.bits);
+	}
+
+	/**
+	 * Compares this value to a value of the same type kept as its primitive, as
+	 * compareTo does, without making a TypedValue of it.
+	 * 
+	 * @param otherBits the primitive of the value to compare to, see getBits
+	 * @return a negative number, zero or a positive number as this value is less
+	 *         than, equal to or greater than the other
+	 */
+	public int compareToBits(long otherBits) {
+
+		if (this.type == DECIMAL) {
+
+			double value = Double.longBitsToDouble(this.bits);
+			double otherValue = Double.longBitsToDouble(otherBits);
+
+			return (value < otherValue) ? -1 : ((value > otherValue) ? 1 : 0);
+		}
+
+		return Long.compare(this.bits, otherBits);
+	}
+
+	public boolean equals(Object other) {
+		return other instanceof TypedValue && ((TypedValue) other).type == this.type
+				&& ((TypedValue) other).bits == this.bits;
+	}
+
+	public int hashCode() {
+		return Long.hashCode(this.bits) * 31 + this.type;
+	}
+
+	/**
+	 * Produces the text of the value, as it was written.
+	 */
+	public String toString() {
+
+		switch (this.type) {
+		case INTEGER:
+			return Long.toString(this.bits);
+		case DECIMAL:
+			return Double.toString(Double.longBitsToDouble(this.bits));
+		case DATE:
+			return LocalDate.ofEpochDay(this.bits).format(DATE_FORMAT);
+		case TIME:
+			return LocalTime.ofNanoOfDay(this.bits).toString();
+		default:
+			return (this.bits == 1) ? "true" : "false";
+		}
+	}
+
+	private static byte typeCode(String type) {
+
+		if (type == null) {
+			return 0;
+		}
+
+		switch (type) {
+		case "integer":
+			return INTEGER;
+		case "decimal":
+			return DECIMAL;
+		case "date":
+			return DATE;
+		case "time":
+			return TIME;
+		case "boolean":
+			return BOOLEAN;
+		default:
+			return 0;
+		}
+	}
+
+}